@@ -17,6 +17,7 @@ import java.util.zip.*;
 import org.apache.hadoop.fs.Path;
 
 import Utils.Format;
+import Vdb.HdfsClients;
 import Vdb.SlaveJvm;
 import Vdb.common;
 
@@ -56,7 +57,7 @@ public class Fget {
     if (isHDFS) {
       DataInputStream istream;
       try {
-        istream = SlaveJvm.fileSys.open(new Path(fname_in));
+        istream = HdfsClients.get(fname_in).open(new Path(fname_in));
         br = new BufferedReader(new InputStreamReader(istream));
       } catch (IllegalArgumentException e) {
         e.printStackTrace();
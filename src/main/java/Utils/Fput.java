@@ -18,6 +18,7 @@ import java.util.zip.*;
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.Path;
 
+import Vdb.HdfsClients;
 import Vdb.SlaveJvm;
 
 /**
@@ -57,7 +58,7 @@ public class Fput {
 
     try {
       if (isHDFS) {
-        FSDataOutputStream ostream = SlaveJvm.fileSys.create(new Path(fname));
+        FSDataOutputStream ostream = HdfsClients.get(fname).create(new Path(fname));
         pw = new PrintWriter(ostream);
       } else if (!fname.endsWith("-")) {
         File fptr = new File(fname);
@@ -9,9 +9,11 @@ package Vdb;
  */
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Random;
 
+import org.apache.hadoop.fs.ByteBufferReadable;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileStatus;
@@ -52,6 +54,17 @@ class ActiveFile {
 
   private boolean open_for_read;
 
+  /* Bytes and writes since the last hdfs hflush() and hsync(): */
+  private long flush_bytes = 0;
+  private long flush_writes = 0;
+  private long sync_bytes = 0;
+  private long sync_writes = 0;
+
+  /* File length made visible by the last hflush() or hsync(), and the length */
+  /* that was visible when inStream was opened while writing: */
+  private long hdfs_visible = 0;
+  private long hdfs_in_length = 0;
+
   private int data_flag;
 
   /*
@@ -161,14 +174,22 @@ class ActiveFile {
     if (SlaveJvm.isHDFS) {
       try {
         if (open_for_read) {
-          inStream = SlaveJvm.fileSys.open(new Path(full_name));
+          inStream = HdfsClients.get(full_name).open(new Path(full_name));
         } else {
-          outStream = SlaveJvm.fileSys.create(new Path(full_name));
+          hdfs_visible = hdfs_in_length = 0;
+          if (anchor.hdfs_write == null)
+            outStream = HdfsClients.get(full_name).create(new Path(full_name));
+          else
+            outStream = anchor.hdfs_write.create(HdfsClients.get(full_name), new Path(full_name));
         }
       } catch (IOException e) {
         // TODO Auto-generated catch block
         e.printStackTrace();
       }
+
+      /* There is no native handle, but DV error reporting needs one: */
+      fhandle = File_handles.getHdfsHandle();
+      File_handles.addHandle(fhandle, this);
     } else {
       if ((fhandle = Native.openFile(full_name, active_fwg.open_flags, (read) ? 0 : 1)) < 0) {
         // common.memory_usage();
@@ -200,6 +221,10 @@ class ActiveFile {
     else
       key_map = new KeyMap();
 
+    /* HDFS create() truncates the file, so any keys we had are gone: */
+    if (SlaveJvm.isHDFS && !open_for_read && Validate.isRealValidate() && fe.getCurrentSize() > 0)
+      key_map.clearMapForFile(fe.getCurrentSize(), anchor.getDVMap());
+
     fe.setOpened();
 
     /* When using 'stopafter' we start at the current file size: */
@@ -266,7 +291,7 @@ class ActiveFile {
       if (print_open_flags)
         common.ptod("closeFile flags: %s %s", active_fwg.open_flags, full_name);
 
-      long start = Native.get_simple_tod();
+      long start = Native.getSimpleTod();
       long rc = Native.closeFile(fhandle, active_fwg.open_flags);
       if (rc != 0)
         fileError("close failure", rc);
@@ -276,14 +301,20 @@ class ActiveFile {
       fhandle = 0;
       size = new File(full_name).length();
     } else {
+      File_handles.remove(fhandle);
+      fhandle = 0;
+
       try {
         if (null != inStream) {
+          HdfsStats.addReadStatistics(inStream);
           inStream.close();
+          inStream = null;
         }
         if (null != outStream) {
           outStream.close();
+          outStream = null;
         }
-        FileStatus status = SlaveJvm.fileSys.getFileStatus(new Path(full_name));
+        FileStatus status = HdfsClients.get(full_name).getFileStatus(new Path(full_name));
         size = status.getLen();
       } catch (IOException e) {
         // TODO Auto-generated catch block
@@ -341,8 +372,8 @@ class ActiveFile {
       /* If there is no room whatsoever, we're done: */
       if (!doesBlockOrShorterBlockFit()) {
         /* At eof after pending writes, clear the flag: */
-        if (fe.pending_writes)
-          fe.pending_writes = false;
+        if (fe.hasPendingWrites())
+          fe.setPendingWrites(false);
 
         return false;
       }
@@ -363,7 +394,7 @@ class ActiveFile {
       /* If this file has pending writes from journal recovery */
       /* read the blocks as found in the pending map: */
       /* BadDataBlock then will decide whether this block is good or bad */
-      if (fe.pending_writes) {
+      if (fe.hasPendingWrites()) {
         HashMap pending_lbas = anchor.pending_file_lba_map.get(fe);
 
         /* Block not pending, skip: */
@@ -460,11 +491,13 @@ class ActiveFile {
     /* is the current size of the file stored) */
     high_write_lba = Math.max(high_write_lba, next_lba + xfersize);
 
-    if (SlaveJvm.isHDFS) {
-      long tod = Native.get_simple_tod();
+    if (SlaveJvm.isHDFS && !Validate.isRealValidate()) {
+      long tod = Native.getSimpleTod();
       try {
-        // set lba??
-        outStream.write(FwgThread.write_buf, FwgThread.random.nextInt(FwgThread.write_buf_len - xfersize), xfersize);
+        byte[] payload = calling_thread.getHdfsPayload();
+        if (payload == null)
+          common.failure("Write payload is missing");
+        outStream.write(payload, calling_thread.getHdfsPayloadOffset(xfersize), xfersize);
       } catch (IOException e) {
         // TODO Auto-generated catch block
         e.printStackTrace();
@@ -473,6 +506,7 @@ class ActiveFile {
       FwdStats.countXfer(Operations.WRITE, tod, xfersize);
       blocks_done++;
       bytes_done += xfersize;
+      hdfsFlushOrSync();
     } else if (Validate.isRealValidate() || Validate.isValidateForDedup()) {
       /* There was a need to do Data Validation without re-reading before */
       /* each new write. The added reads changed a workload so much that an */
@@ -513,7 +547,7 @@ class ActiveFile {
       /* No compression pattern; just a 'regular' write: */
       else {
         // common.failure("This should be obsolete");
-        long tod = Native.get_simple_tod();
+        long tod = Native.getSimpleTod();
         long rc = Native.noDedupAndWrite(fhandle, next_lba, xfersize, native_write_buffer, -1);
         FwdStats.countXfer(Operations.WRITE, tod, xfersize);
         blocks_done++;
@@ -545,17 +579,21 @@ class ActiveFile {
 
     int fail_write = (HelpDebug.doAfterCount("failWrite")) ? Validate.FLAG_FAIL_WRITE : 0;
 
-    long start_tod = Native.get_simple_tod();
+    long start_tod = Native.getSimpleTod();
     long tod = (Validate.isRealValidate()) ? System.currentTimeMillis() : 0;
-    long rc = Native.multiKeyFillAndWriteBlock(fhandle, tod, data_flag | fail_write, file_start_lba, next_lba, xfersize,
-        key_map.pattern_lba, key_map.pattern_length, native_write_buffer, key_map.getKeyCount(), key_map.getKeys(),
-        key_map.getCompressions(), key_map.getDedupsets(), anchor.fsd_name_8bytes, -1);
+    long rc;
+    if (SlaveJvm.isHDFS)
+      rc = hdfsFillAndWrite(tod);
+    else
+      rc = Native.multiKeyFillAndWriteBlock(fhandle, tod, data_flag | fail_write, file_start_lba, next_lba, xfersize,
+          key_map.pattern_lba, key_map.pattern_length, native_write_buffer, key_map.getKeyCount(), key_map.getKeys(),
+          key_map.getCompressions(), key_map.getDedupsets(), anchor.fsd_name_8bytes, -1);
     if (rc != 0) {
       fileError("Write error", rc);
       return 0;
     }
 
-    if (HelpDebug.doAfterCount("corruptAfterWrite")) {
+    if (!SlaveJvm.isHDFS && HelpDebug.doAfterCount("corruptAfterWrite")) {
       common.ptod("next_lba: %08x", next_lba);
       HelpDebug.corruptBlock(fhandle, xfersize, next_lba);
       common.failure("corruptAfterWrite");
@@ -567,6 +605,8 @@ class ActiveFile {
     FwdStats.countXfer(Operations.WRITE, start_tod, xfersize);
     blocks_done++;
     bytes_done += xfersize;
+    if (SlaveJvm.isHDFS)
+      hdfsFlushOrSync();
 
     return tod;
   }
@@ -577,13 +617,17 @@ class ActiveFile {
     else if (Validate.isCompression())
       key_map.setFsdCompressionOnlyOffset(this);
 
-    if (native_read_buffer == 0)
+    if (native_read_buffer == 0 && !SlaveJvm.isHDFS)
       common.failure("Read buffer is missing");
 
-    long tod = Native.get_simple_tod();
-    long rc = Native.multiKeyReadAndValidateBlock(fhandle, data_flag | type_of_dv_read, file_start_lba, next_lba,
-        xfersize, native_read_buffer, key_map.getKeyCount(), key_map.getKeys(), key_map.getCompressions(),
-        key_map.getDedupsets(), anchor.fsd_name_8bytes, -1);
+    long tod = Native.getSimpleTod();
+    long rc;
+    if (SlaveJvm.isHDFS)
+      rc = hdfsReadAndValidate(data_flag | type_of_dv_read);
+    else
+      rc = Native.multiKeyReadAndValidateBlock(fhandle, data_flag | type_of_dv_read, file_start_lba, next_lba,
+          xfersize, native_read_buffer, key_map.getKeyCount(), key_map.getKeys(), key_map.getCompressions(),
+          key_map.getDedupsets(), anchor.fsd_name_8bytes, -1);
 
     /* A corruption reported during journal recovery 'read pending write' */
     /* will be checked again: */
@@ -605,12 +649,17 @@ class ActiveFile {
 
         ErrorLog.plog("Re-checking file %s lba 0x%08x because of PENDING_KEY_REREAD", full_name, next_lba);
 
-        if (HelpDebug.doAfterCount("corruptAfterPendingRead"))
-          HelpDebug.corruptBlock(fhandle, xfersize, next_lba);
+        if (SlaveJvm.isHDFS)
+          rc = hdfsReadAndValidate(data_flag | Validate.FLAG_PENDING_REREAD);
+
+        else {
+          if (HelpDebug.doAfterCount("corruptAfterPendingRead"))
+            HelpDebug.corruptBlock(fhandle, xfersize, next_lba);
 
-        rc = Native.multiKeyReadAndValidateBlock(fhandle, data_flag | Validate.FLAG_PENDING_REREAD, file_start_lba,
-            next_lba, xfersize, native_read_buffer, key_map.getKeyCount(), key_map.getKeys(), key_map.getCompressions(),
-            key_map.getDedupsets(), anchor.fsd_name_8bytes, -1);
+          rc = Native.multiKeyReadAndValidateBlock(fhandle, data_flag | Validate.FLAG_PENDING_REREAD, file_start_lba,
+              next_lba, xfersize, native_read_buffer, key_map.getKeyCount(), key_map.getKeys(),
+              key_map.getCompressions(), key_map.getDedupsets(), anchor.fsd_name_8bytes, -1);
+        }
         if (rc == 0)
           ErrorLog.plog("Re-checking file %s lba 0x%08x successful", full_name, next_lba);
       }
@@ -622,7 +671,7 @@ class ActiveFile {
     key_map.countFileReadAndValidates(fe, next_lba);
 
     /* The data is 100%, but for debugging we can mess it up again: */
-    if (HelpDebug.doAfterCount("forceFsdCorruptions"))
+    if (!SlaveJvm.isHDFS && HelpDebug.doAfterCount("forceFsdCorruptions"))
       HelpDebug.forceFsdCorruptions(fhandle, data_flag | type_of_dv_read, file_start_lba, next_lba, xfersize,
           native_read_buffer, active_fwg.getMaxXfersize(), key_map, anchor.fsd_name_8bytes);
 
@@ -631,6 +680,107 @@ class ActiveFile {
       fileError("readAndValidate error", rc);
   }
 
+  /**
+   * HDFS replacement for Native.multiKeyFillAndWriteBlock(): fill the block with
+   * Data Validation keys in java and write it.
+   *
+   * An HDFS file can only be appended to, so the block must be written at the
+   * current end of the file; the DV map would be wrong otherwise.
+   */
+  private long hdfsFillAndWrite(long tod) {
+    ByteBuffer bb = calling_thread.getHdfsValidateBuffer();
+    JavaValidate.fillBlock(bb, tod, key_map, anchor.fsd_name_8bytes);
+
+    try {
+      if (outStream.getPos() != next_lba)
+        common.failure("Data Validation on hdfs requires sequential writes. File: %s; lba: 0x%08x; eof: 0x%08x",
+            full_name, next_lba, outStream.getPos());
+
+      int offset = (int) (file_start_lba + next_lba - key_map.pattern_lba);
+      outStream.write(bb.array(), offset, xfersize);
+    } catch (IOException e) {
+      common.ptod(e);
+      return -1;
+    }
+
+    return 0;
+  }
+
+  /**
+   * After a write, do the hflush() or hsync() requested for the FSD once enough
+   * bytes or writes have been done since the previous one. An hsync() also
+   * flushes, so it restarts the hflush() cadence too.
+   */
+  private void hdfsFlushOrSync() {
+    HdfsWriteOptions opts = anchor.hdfs_write;
+    if (opts == null || !opts.hasCadence())
+      return;
+
+    flush_bytes += xfersize;
+    flush_writes++;
+    sync_bytes += xfersize;
+    sync_writes++;
+
+    try {
+      if ((opts.hsync_bytes > 0 && sync_bytes >= opts.hsync_bytes)
+          || (opts.hsync_writes > 0 && sync_writes >= opts.hsync_writes)) {
+        long tod = Native.getSimpleTod();
+        outStream.hsync();
+        FwdStats.count(Operations.HSYNC, tod);
+        hdfs_visible = outStream.getPos();
+        sync_bytes = sync_writes = flush_bytes = flush_writes = 0;
+      }
+
+      else if ((opts.hflush_bytes > 0 && flush_bytes >= opts.hflush_bytes)
+          || (opts.hflush_writes > 0 && flush_writes >= opts.hflush_writes)) {
+        long tod = Native.getSimpleTod();
+        outStream.hflush();
+        FwdStats.count(Operations.HFLUSH, tod);
+        hdfs_visible = outStream.getPos();
+        flush_bytes = flush_writes = 0;
+      }
+    } catch (IOException e) {
+      common.ptod("hflush/hsync failed for file %s", full_name);
+      common.failure(e);
+    }
+  }
+
+  /**
+   * HDFS replacement for Native.multiKeyReadAndValidateBlock().
+   *
+   * When the file is open for write (validate=immediate) the block must first
+   * be made visible with an hflush(), unless an earlier one already covered it.
+   * An input stream only sees the length that was visible when it was opened,
+   * so it is reopened only when the block lies beyond that.
+   */
+  private long hdfsReadAndValidate(int flag) {
+    try {
+      if (!open_for_read) {
+        if (next_lba + xfersize > hdfs_visible) {
+          outStream.hflush();
+          hdfs_visible = outStream.getPos();
+        }
+        if (inStream == null || next_lba + xfersize > hdfs_in_length) {
+          if (inStream != null) {
+            HdfsStats.addReadStatistics(inStream);
+            inStream.close();
+          }
+          inStream = HdfsClients.get(full_name).open(new Path(full_name));
+          hdfs_in_length = hdfs_visible;
+        }
+      }
+    } catch (IOException e) {
+      common.ptod(e);
+      return -1;
+    }
+
+    if (hdfsRead() != xfersize)
+      return -1;
+
+    return JavaValidate.validateBlock(calling_thread.getHdfsReadByteBuffer(), fhandle, flag, file_start_lba, next_lba,
+        xfersize, key_map, anchor.fsd_name_8bytes);
+  }
+
   /**
    * Write a block containing Data Validation key values.
    */
@@ -719,24 +869,23 @@ class ActiveFile {
           fe.getCurrentSize(), fe.getReqSize());
 
     if (Validate.isRealValidate()) {
-      if (fe.pending_writes)
+      if (fe.hasPendingWrites())
         readAndValidate(Validate.FLAG_PENDING_READ);
       else
         readAndValidate(Validate.FLAG_NORMAL_READ);
       key_map.saveCurrentTod(Timestamp.READ_ONLY);
+    } else if (SlaveJvm.isHDFS) {
+      long tod = Native.getSimpleTod();
+      int done = hdfsRead();
+      FwdStats.countXfer(Operations.READ, tod, xfersize, done);
+
+      if (done < 0)
+        fileError("Read error", -1);
+      else if (done < xfersize)
+        fileError("Short read", -1);
     } else {
-      long tod = Native.get_simple_tod();
-      long rc = 0;
-      if (SlaveJvm.isHDFS) {
-        try{
-          inStream.seek(next_lba);
-          inStream.read(new byte[xfersize]);
-        }catch (Exception e){
-          rc = -1;
-        }
-      } else {
-        rc = Native.readFile(fhandle, next_lba, xfersize, native_read_buffer);
-      }
+      long tod = Native.getSimpleTod();
+      long rc = Native.readFile(fhandle, next_lba, xfersize, native_read_buffer);
       FwdStats.countXfer(Operations.READ, tod, xfersize);
 
       if (rc != 0)
@@ -750,6 +899,49 @@ class ActiveFile {
     bytes_done += xfersize;
   }
 
+  /**
+   * Read one block from HDFS into the thread's reusable read buffer.
+   *
+   * When the stream is already positioned at the requested lba (sequential
+   * reads) a stateful read through ByteBufferReadable is done so that the
+   * DataNode connection stays in use. Any other lba is read using a positional
+   * read, which does not need a seek and does not move the stream position.
+   *
+   * Returns the amount of bytes read, or -1 for an i/o error.
+   */
+  private int hdfsRead() {
+    byte[] buf = calling_thread.getHdfsReadBuffer();
+    if (buf == null)
+      common.failure("Read buffer is missing");
+
+    int done = 0;
+    try {
+      if (inStream.getPos() == next_lba && inStream.getWrappedStream() instanceof ByteBufferReadable) {
+        ByteBuffer bb = calling_thread.getHdfsReadByteBuffer();
+        bb.clear();
+        bb.limit(xfersize);
+        while (done < xfersize) {
+          int bytes = inStream.read(bb);
+          if (bytes < 0)
+            break;
+          done += bytes;
+        }
+      } else {
+        while (done < xfersize) {
+          int bytes = inStream.read(next_lba + done, buf, done, xfersize - done);
+          if (bytes < 0)
+            break;
+          done += bytes;
+        }
+      }
+    } catch (IOException e) {
+      common.ptod(e);
+      return -1;
+    }
+
+    return done;
+  }
+
   /**
    * Determine if we've done enough i/o.
    */
@@ -94,7 +94,7 @@ public class BadDataBlock {
    * However, if this was a journal recovery read of a pending write, try to
    * determine if this block just happens to be still valid.
    */
-  public static boolean reportBadDataBlock(Object sd_or_fsd, long file_lba, long file_start_lba, long buffer) {
+  public static boolean reportBadDataBlock(Object sd_or_fsd, long file_lba, long file_start_lba, int[] data) {
     // common.where(16);
 
     try {
@@ -143,7 +143,7 @@ public class BadDataBlock {
           if ((first_bads.data_flag & Validate.FLAG_PENDING_READ) != 0) {
             for (BadKeyBlock bkb : bdb.bad_keyblocks) {
               if (bkb != null) {
-                if (!first_bkb.checkPendingKeyBlock(file_lba, file_start_lba, buffer))
+                if (!first_bkb.checkPendingKeyBlock(file_lba, file_start_lba, data))
                   errors = true;
               }
             }
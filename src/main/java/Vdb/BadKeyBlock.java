@@ -363,7 +363,7 @@ public class BadKeyBlock {
    * never completed and we therefore have to revert back to the previous key
    * used.
    */
-  public boolean checkPendingKeyBlock(long file_lba, long file_start_lba, long buffer) {
+  public boolean checkPendingKeyBlock(long file_lba, long file_start_lba, int[] data) {
     /* Point to the first corrupted sector: */
     BadSector bads = getSectors().get(0);
     // long file_start_lba = 0;
@@ -388,7 +388,7 @@ public class BadKeyBlock {
       before_key = 0;
 
     else if (pending_flag == DV_map.PENDING_KEY_ROLL)
-      before_key = 126;
+      before_key = bads.dv.getMaxKey();
 
     else if (pending_flag == DV_map.PENDING_KEY_ROLL_DEDUP) {
       common.ptod("proof that we have PENDING_KEY_ROLL_DEDUP");
@@ -422,8 +422,8 @@ public class BadKeyBlock {
       unique = bads.dv.getDedup().getDedupPct() == 100. || bitmap.isUnique(block);
     }
 
-    int before_keys = countKeys(buffer, bads.key_blksize, before_key, unique);
-    int after_keys = countKeys(buffer, bads.key_blksize, after_key, unique);
+    int before_keys = countKeys(data, before_key, unique);
+    int after_keys = countKeys(data, after_key, unique);
 
     plog("sectors: %d; before_key: %d; after_key: %d; before_keys: %d; after_keys: %d ", sectors, before_key, after_key,
         before_keys, after_keys);
@@ -532,7 +532,7 @@ public class BadKeyBlock {
         file_lba, bads.key_expected, after_key);
     plog("However, because this was a pending write this will not be counted as "
         + "a FATAL error, but manual verification is highly recommended.");
-    plog("Key values found: %s", createKeySequence(buffer, bads.key_blksize, unique));
+    plog("Key values found: %s", createKeySequence(data, unique));
     bads.dv.dv_set(file_lba, DV_map.DV_ERROR);
 
     /* Bad block, but don't count as an error: */
@@ -543,13 +543,10 @@ public class BadKeyBlock {
    * Look at the buffer of a key block and count the amount of requested keys in
    * the sectors of that block
    */
-  private int countKeys(long buffer, int key_blksize, int count_key, boolean unique) {
+  private int countKeys(int[] data_array, int count_key, boolean unique) {
 
     int valid_keys = 0;
 
-    int[] data_array = new int[key_blksize / 4];
-    Native.buffer_to_array(data_array, buffer, key_blksize);
-
     for (int i = 0; i < sectors; i++) {
       int offset = (i * 128);
       int current_key;
@@ -569,12 +566,9 @@ public class BadKeyBlock {
    * Create an expression of the count and the order of keys in all sectors in the
    * key block
    */
-  private String createKeySequence(long buffer, int key_blksize, boolean unique) {
+  private String createKeySequence(int[] data_array, boolean unique) {
     String txt = "";
 
-    int[] data_array = new int[key_blksize / 4];
-    Native.buffer_to_array(data_array, buffer, key_blksize);
-
     int last_key = Integer.MAX_VALUE;
     int key_count = Integer.MAX_VALUE;
     for (int i = 0; i < sectors; i++) {
@@ -404,7 +404,7 @@ public class BadSector {
       // common.ptod("sector_lba1: %016x", sector_lba);
       // common.ptod("key: " + key);
       // common.ptod("name_left: >>>" + name_left + "<<<");
-      Native.fillLfsrArray(pattern, sector_lba, key_expected, name_left);
+      fillLfsrSector(pattern, sector_lba, key_expected, name_left);
 
       /* fillLfsr fills bytes 0-511; we need bytes 32-511 placed at offset 32: */
       int[] p2 = new int[512 / 4];
@@ -521,11 +521,12 @@ public class BadSector {
       long use_lba = Jnl_entry.make64(sector_array[0], sector_array[1]);
 
       /* Create an LFSR array using this data: */
-      Native.fillLfsrArray(lfsr_sector, use_lba, use_key, getNameString());
+      fillLfsrSector(lfsr_sector, use_lba, use_key, getNameString());
 
-      /* If this data matches, just report and continue: */
+      /* fillLfsr fills bytes 0-511, the data starts at byte 32: */
+      mismatch = false;
       for (int i = 8; i < 128; i++) {
-        if (sector_array[i] != lfsr_sector[i])
+        if (sector_array[i] != lfsr_sector[i - 8])
           mismatch = true;
       }
       if (!mismatch) {
@@ -537,6 +538,18 @@ public class BadSector {
     return false;
   }
 
+  /**
+   * The LFSR data the block was written with: JavaValidate writes all hdfs
+   * blocks with the Java Lfsr generator, other blocks come from the selected
+   * i/o backend.
+   */
+  private static void fillLfsrSector(int[] sector_array, long lba, int key, String name) {
+    if (SlaveJvm.isHDFS)
+      Lfsr.fillSector(sector_array, lba, key, name);
+    else
+      Native.fillLfsrSector(sector_array, lba, key, name);
+  }
+
   private static String name_to_hex(String name) {
     String txt = "";
 
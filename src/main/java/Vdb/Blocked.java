@@ -70,6 +70,7 @@ class Blocked implements Serializable {
   public static int DIR_DELETE_SHARED = init("DIR_DELETE_SHARED   Shared directory delete failed");
   public static int SKIP_BAD_FILE = init("SKIP_BAD_FILE       Not enough good blocks left in file");
   public static int ACCESS = init("ACCESS              Access to file checked");
+  public static int SHORT_READS = init("SHORT_READS         Read returned less data than requested");
 
   private static int TRACE_LENGTH = 1024; /* Must be power of two! */
   private static int TRACE_MASK = TRACE_LENGTH - 1;
@@ -109,6 +109,10 @@ public class BucketRanges implements java.io.Serializable, Cloneable {
     return ranges.length;
   }
 
+  public String getType() {
+    return type;
+  }
+
   public static BucketRanges getRangesFromType(String type) {
     BucketRanges hb = type_map.get(type);
     if (hb == null)
@@ -120,11 +124,21 @@ public class BucketRanges implements java.io.Serializable, Cloneable {
     return ranges;
   }
 
-  // This should be in Histogram where we then can use an MRU list.
+  /**
+   * The ranges are contiguous and in ascending order, starting at zero and
+   * ending at Long.MAX_VALUE, so a binary search finds the bucket.
+   */
   public int findBucket(long resp) {
-    for (int i = 0; i < ranges.length; i++) {
-      BucketRange br = ranges[i];
-      if (resp >= br.min && resp < br.max)
+    int low = 0;
+    int high = ranges.length - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      BucketRange br = ranges[mid];
+      if (resp < br.min)
+        high = mid - 1;
+      else if (resp >= br.max)
+        low = mid + 1;
+      else
         return br.which;
     }
 
@@ -203,7 +203,7 @@ public class Bursts implements Serializable, Cloneable {
     int MAX = 30000000;
     long start = System.currentTimeMillis();
     for (int i = 0; i < MAX; i++) {
-      long tod = Native.get_simple_tod();
+      long tod = Native.getSimpleTod();
     }
 
     long end = System.currentTimeMillis();
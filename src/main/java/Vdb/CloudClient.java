@@ -0,0 +1,290 @@
+package Vdb;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.*;
+
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * In-JVM client for the Swift style object API used with 'cloud=', replacing
+ * the curl process that used to be started for each request.
+ *
+ * Each client keeps its own HTTP/1.1 keep-alive connection, so every
+ * OpPutCloud/OpGetCloud thread reuses one connection of its own instead of
+ * sharing the JVM-wide HttpURLConnection cache. Uploads are streamed from the
+ * data pattern without a local file, downloads are read and discarded.
+ */
+class CloudClient {
+  private CurlHandling cloud;
+
+  private byte[] pattern_bytes = null; /* Upload data, created on first use */
+  private byte[] discard = null; /* Download target, never looked at */
+
+  /* The connection, and the protocol://host:port it is connected to: */
+  private Socket socket = null;
+  private String socket_key = null;
+  private InputStream in;
+  private OutputStream out;
+
+  private static final int CHUNK = 1024 * 1024;
+  private static final int TIMEOUT = 60 * 1000;
+
+  /**
+   * Status, headers and body of a request.
+   */
+  static class Response {
+    int status;
+    long bytes; /* Body length */
+    String body; /* Only for send() */
+    private HashMap<String, String> headers = new HashMap(16);
+
+    String getHeader(String name) {
+      return headers.get(name.toLowerCase());
+    }
+  }
+
+  public CloudClient(CurlHandling cloud) {
+    this.cloud = cloud;
+  }
+
+  /**
+   * Send one request and return the response; the body is returned as a String.
+   * Only used for the small container level requests.
+   */
+  public Response send(String method, String url, String... headers) {
+    try {
+      return request(method, url, headers, 0, true);
+    } catch (IOException e) {
+      common.ptod("CloudClient: %s %s", method, url);
+      common.failure(e);
+    }
+    return null;
+  }
+
+  /**
+   * Upload an object of 'size' bytes, streamed from the data pattern.
+   */
+  public void putObject(String name, long size) {
+    String url = cloud.getObjectUrl(name);
+    if (pattern_bytes == null)
+      pattern_bytes = createPatternBytes();
+
+    try {
+      Response response = request("PUT", url, new String[] { "X-Auth-Token", cloud.getToken() }, size, false);
+      if (response.status != 201)
+        common.failure("putObject failed for object %s: http status %d", url, response.status);
+
+    } catch (IOException e) {
+      common.ptod("putObject failed for object %s", url);
+      common.failure(e);
+    }
+  }
+
+  /**
+   * Download an object, discarding its contents. Returns the number of bytes.
+   */
+  public long getObject(String name) {
+    String url = cloud.getObjectUrl(name);
+    try {
+      Response response = request("GET", url, new String[] { "X-Auth-Token", cloud.getToken() }, 0, false);
+      if (response.status != 200)
+        common.failure("getObject failed for object %s: http status %d", url, response.status);
+
+      return response.bytes;
+
+    } catch (IOException e) {
+      common.ptod("getObject failed for object %s", url);
+      common.failure(e);
+    }
+    return 0;
+  }
+
+  public synchronized void close() {
+    if (socket != null) {
+      try {
+        socket.close();
+      } catch (IOException e) {
+      }
+    }
+    socket = null;
+    socket_key = null;
+  }
+
+  /**
+   * A kept-alive connection may have been closed by the server while it was
+   * idle; a request on a reused connection is therefore tried once more on a
+   * new one.
+   */
+  private synchronized Response request(String method, String url, String[] headers, long upload,
+      boolean keep_body) throws IOException {
+    URL u = new URL(url);
+    boolean reused = connect(u);
+    try {
+      return exchange(method, u, headers, upload, keep_body);
+    } catch (IOException e) {
+      close();
+      if (!reused)
+        throw e;
+    }
+
+    connect(u);
+    try {
+      return exchange(method, u, headers, upload, keep_body);
+    } catch (IOException e) {
+      close();
+      throw e;
+    }
+  }
+
+  /**
+   * Returns true when an existing connection is reused.
+   */
+  private boolean connect(URL u) throws IOException {
+    int port = (u.getPort() >= 0) ? u.getPort() : u.getDefaultPort();
+    String key = u.getProtocol() + "://" + u.getHost() + ":" + port;
+    if (socket != null && key.equals(socket_key))
+      return true;
+
+    close();
+    if (!u.getProtocol().equals("http") && !u.getProtocol().equals("https"))
+      common.failure("CloudClient: unsupported protocol: " + u);
+
+    Socket sock = new Socket();
+    sock.connect(new InetSocketAddress(u.getHost(), port), TIMEOUT);
+    sock.setTcpNoDelay(true);
+    if (u.getProtocol().equals("https"))
+      sock = ((SSLSocketFactory) SSLSocketFactory.getDefault()).createSocket(sock, u.getHost(), port, true);
+
+    socket = sock;
+    socket_key = key;
+    in = new BufferedInputStream(sock.getInputStream(), 65536);
+    out = new BufferedOutputStream(sock.getOutputStream(), 65536);
+    return false;
+  }
+
+  private Response exchange(String method, URL u, String[] headers, long upload, boolean keep_body)
+      throws IOException {
+    String path = (u.getFile().length() == 0) ? "/" : u.getFile();
+    StringBuilder req = new StringBuilder(256);
+    req.append(method).append(' ').append(path).append(" HTTP/1.1\r\n");
+    req.append("Host: ").append(u.getHost());
+    if (u.getPort() >= 0)
+      req.append(':').append(u.getPort());
+    req.append("\r\n");
+    for (int i = 0; i < headers.length; i += 2)
+      req.append(headers[i]).append(": ").append(headers[i + 1]).append("\r\n");
+    if (upload > 0 || method.equals("PUT"))
+      req.append("Content-Length: ").append(upload).append("\r\n");
+    req.append("\r\n");
+
+    out.write(req.toString().getBytes("ISO-8859-1"));
+    for (long done = 0; done < upload; done += pattern_bytes.length)
+      out.write(pattern_bytes, 0, (int) Math.min(pattern_bytes.length, upload - done));
+    out.flush();
+
+    /* Status and headers, skipping any '100 Continue': */
+    Response response;
+    do {
+      String line = readLine();
+      if (line == null)
+        throw new IOException("Connection closed by server");
+      String[] split = line.split(" +");
+      if (split.length < 2 || !split[0].startsWith("HTTP/"))
+        throw new IOException("Invalid http status line: " + line);
+
+      response = new Response();
+      response.status = Integer.parseInt(split[1]);
+      while ((line = readLine()) != null && line.length() > 0) {
+        int colon = line.indexOf(':');
+        if (colon > 0)
+          response.headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+      }
+    } while (response.status / 100 == 1);
+
+    /* The body must be read completely to allow the connection to be reused: */
+    ByteArrayOutputStream keep = (keep_body) ? new ByteArrayOutputStream() : null;
+    String length = response.getHeader("Content-Length");
+    boolean close = "close".equalsIgnoreCase(response.getHeader("Connection"));
+
+    if (method.equals("HEAD") || response.status == 204 || response.status == 304)
+      response.bytes = 0;
+    else if ("chunked".equalsIgnoreCase(response.getHeader("Transfer-Encoding"))) {
+      while (true) {
+        String line = readLine();
+        if (line == null)
+          throw new IOException("Connection closed in chunked body");
+        long chunk = Long.parseLong(line.split(";")[0].trim(), 16);
+        if (chunk == 0) {
+          while ((line = readLine()) != null && line.length() > 0)
+            ;
+          break;
+        }
+        response.bytes += readBody(chunk, keep);
+        readLine();
+      }
+    } else if (length != null)
+      response.bytes = readBody(Long.parseLong(length), keep);
+    else {
+      response.bytes = readBody(-1, keep);
+      close = true;
+    }
+
+    if (keep != null)
+      response.body = keep.toString("UTF-8");
+    if (close)
+      close();
+
+    return response;
+  }
+
+  /**
+   * Read 'length' bytes of body, or until EOF for length -1.
+   */
+  private long readBody(long length, OutputStream keep) throws IOException {
+    if (discard == null)
+      discard = new byte[CHUNK];
+
+    long bytes = 0;
+    while (length < 0 || bytes < length) {
+      int want = (length < 0) ? discard.length : (int) Math.min(discard.length, length - bytes);
+      int got = in.read(discard, 0, want);
+      if (got < 0) {
+        if (length < 0)
+          break;
+        throw new IOException("Connection closed after " + bytes + " of " + length + " body bytes");
+      }
+      if (keep != null)
+        keep.write(discard, 0, got);
+      bytes += got;
+    }
+    return bytes;
+  }
+
+  private String readLine() throws IOException {
+    StringBuilder line = new StringBuilder(64);
+    int ch;
+    while ((ch = in.read()) != '\n') {
+      if (ch < 0)
+        return (line.length() == 0) ? null : line.toString();
+      if (ch != '\r')
+        line.append((char) ch);
+    }
+    return line.toString();
+  }
+
+  private static byte[] createPatternBytes() {
+    int[] pattern = Patterns.getPattern();
+    if (pattern == null)
+      return new byte[CHUNK];
+
+    int words = Math.min(pattern.length, CHUNK / 4);
+    ByteBuffer bb = ByteBuffer.allocate(words * 4).order(ByteOrder.nativeOrder());
+    bb.asIntBuffer().put(pattern, 0, words);
+    return bb.array();
+  }
+}
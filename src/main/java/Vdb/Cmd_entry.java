@@ -84,7 +84,7 @@ public class Cmd_entry {
    * Note: for sequential the real next LBA is determined in JNI code.
    */
   public void cmd_print(String txt) {
-    long delta = Native.get_simple_tod() - SlaveWorker.first_tod;
+    long delta = Native.getSimpleTod() - SlaveWorker.first_tod;
     delta /= 1000000;
     delta = delta - delta_tod / 1000000;
 
@@ -114,7 +114,7 @@ public class Cmd_entry {
     String rw = this.cmd_read_flag ? " read  " : " write ";
 
     long xfer = (cmd_xfersize == 0) ? 0 : (cmd_lba / cmd_xfersize);
-    long now = Native.get_simple_tod();
+    long now = Native.getSimpleTod();
     common.ptod("%-16s %s rand: %5b block: %6d xfer: %6d dlta: %10.4f %s late: %6d %.6f %.6f " + Thread.currentThread(),
         txt, rw, cmd_rand, xfer, cmd_xfersize, (double) (delta_tod - SlaveWorker.first_tod) / 1000000, sd.sd_name,
         (now - delta_tod), delta_tod / 1000000., now / 1000000.);
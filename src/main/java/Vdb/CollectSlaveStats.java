@@ -102,8 +102,10 @@ public class CollectSlaveStats extends Thread {
     boolean last_warmup = (requested_interval == Reporter.getWarmupIntervals());
 
     /* At the start of a new run, clear all ReportData statistics: */
-    if (requested_interval == 1)
+    if (requested_interval == 1) {
       ReportData.clearAllTotalStats();
+      HdfsStats.clearTotals();
+    }
 
     /* If this is last call, create a semaphore that we can wait for: */
     if (last_call)
@@ -283,6 +285,9 @@ public class CollectSlaveStats extends Thread {
     sts.permit_time = total_permit;
     sts.permit_threads = threads.size();
     sts.setSlaveIntervalStats(total_stats, fsd_map, fwg_map);
+
+    if (SlaveJvm.isHDFS)
+      sts.setHdfsStats(HdfsStats.getDelta());
   }
 
   /**
@@ -382,6 +387,8 @@ public class CollectSlaveStats extends Thread {
         ReportData.accumMappedFsdStats(slave, sts.getFsdMap());
         ReportData.accumMappedFwdStats(sts.getFwdMap());
       }
+
+      HdfsStats.accumInterval(sts.getHdfsStats());
     }
 
     /* The first slave on a host gives us cpu stats: */
@@ -437,6 +444,7 @@ public class CollectSlaveStats extends Thread {
       /* Only when warmup is done will we add the numbers to the run totals: */
       if (Reporter.isWarmupDone()) {
         ReportData.addFwdIntervalToTotals();
+        HdfsStats.addIntervalToTotals();
         ReportData.addCpuIntervalToTotals();
         ReportData.addKstatIntervalToTotals();
         ReportData.addNfsIntervalToTotals();
@@ -728,7 +736,7 @@ public class CollectSlaveStats extends Thread {
     // ocmd.printStdout();
 
     Vector kd = new Vector(pointers.size());
-    long tod = Native.get_simple_tod();
+    long tod = Native.getSimpleTod();
     for (int i = 0; i < pointers.size(); i++) {
       InstancePointer ip = (InstancePointer) pointers.elementAt(i);
       kd.add(ip.getDeltaKstatData(tod));
@@ -764,6 +772,7 @@ public class CollectSlaveStats extends Thread {
           /* Clear all old interval accumulators: */
           Blocked.resetCounters();
           ReportData.clearAllIntervalStats(css.interval_duration);
+          HdfsStats.clearInterval(css.interval_duration);
 
           /* Add all slave statistics to interval accumulators: */
           for (int i = 0; i < css.data_from_slaves.length; i++) {
@@ -0,0 +1,368 @@
+package Vdb;
+
+import java.util.*;
+
+/**
+ * Compressed bitmap used by DedupBitMap, in the style of a 'roaring' bitmap.
+ *
+ * The bits are split in chunks of 64k bits, each with its own container:
+ * - no bits set: no container at all
+ * - few bits set: a sorted char[] of the bit numbers
+ * - many bits set: a plain 8k bitmap
+ * - after optimize(): only the runs of set bits, when that is smaller.
+ *
+ * A BitSet always needs 8k for each 64k bits, no matter how sparse it is.
+ *
+ * get() and set() lock the chunk's container: i/o threads and the journal
+ * recovery threads change bits in the same chunk concurrently, and an update
+ * may replace the whole container. rank() and cardinality() are only for a
+ * map that is no longer changed, like the map of unique blocks.
+ */
+class CompressedBitMap {
+  private static final int CHUNK_SHIFT = 16;
+  private static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+  private static final int ARRAY_MAX = 4096; /* Larger: bitmap is smaller */
+  private static final int LOCKS = 64; /* Chunk locks, by chunk number */
+
+  private long bits;
+  private Container[] chunks;
+  private long[] rank_prefix = null; /* Bits set before each chunk */
+  private Object[] locks = new Object[LOCKS];
+
+  public CompressedBitMap(long bits) {
+    if (((bits + CHUNK_MASK) >> CHUNK_SHIFT) > Integer.MAX_VALUE)
+      common.failure("CompressedBitMap: too many bits requested: %,d", bits);
+
+    this.bits = bits;
+    chunks = new Container[(int) ((bits + CHUNK_MASK) >> CHUNK_SHIFT)];
+    for (int i = 0; i < LOCKS; i++)
+      locks[i] = new Object();
+  }
+
+  public boolean get(long bit) {
+    int chunk = (int) (bit >> CHUNK_SHIFT);
+    synchronized (locks[chunk % LOCKS]) {
+      Container cont = chunks[chunk];
+      return cont != null && cont.contains((int) bit & CHUNK_MASK);
+    }
+  }
+
+  public void set(long bit, boolean bool) {
+    int chunk = (int) (bit >> CHUNK_SHIFT);
+    synchronized (locks[chunk % LOCKS]) {
+      Container cont = chunks[chunk];
+      if (bool)
+        chunks[chunk] = (cont == null) ? new ArrayContainer().add((int) bit & CHUNK_MASK)
+            : cont.add((int) bit & CHUNK_MASK);
+      else if (cont != null)
+        chunks[chunk] = cont.remove((int) bit & CHUNK_MASK);
+    }
+    rank_prefix = null;
+  }
+
+  /**
+   * The number of bits set below 'bit'.
+   */
+  public long rank(long bit) {
+    long[] prefix = rank_prefix;
+    if (prefix == null)
+      rank_prefix = prefix = buildPrefix();
+
+    int chunk = (int) (bit >> CHUNK_SHIFT);
+    Container cont = chunks[chunk];
+    return prefix[chunk] + ((cont == null) ? 0 : cont.rank((int) bit & CHUNK_MASK));
+  }
+
+  public long cardinality() {
+    long total = 0;
+    for (Container cont : chunks) {
+      if (cont != null)
+        total += cont.cardinality();
+    }
+    return total;
+  }
+
+  private long[] buildPrefix() {
+    long[] prefix = new long[chunks.length];
+    long total = 0;
+    for (int i = 0; i < chunks.length; i++) {
+      prefix[i] = total;
+      if (chunks[i] != null)
+        total += chunks[i].cardinality();
+    }
+    return prefix;
+  }
+
+  /**
+   * Switch each container to its smallest representation. To be called after
+   * a map has been filled.
+   */
+  public void optimize() {
+    for (int i = 0; i < chunks.length; i++) {
+      if (chunks[i] != null)
+        chunks[i] = chunks[i].optimize();
+    }
+  }
+
+  /**
+   * Estimated java heap usage in bytes.
+   */
+  public long getMemoryUsage() {
+    long bytes = 16 + chunks.length * 8l;
+    for (Container cont : chunks) {
+      if (cont != null)
+        bytes += cont.memory();
+    }
+    return bytes;
+  }
+
+  public long size() {
+    return bits;
+  }
+
+  /**
+   * The bits set for one 64k chunk.
+   */
+  private static abstract class Container {
+    abstract boolean contains(int x);
+
+    abstract Container add(int x);
+
+    abstract Container remove(int x);
+
+    abstract int cardinality();
+
+    abstract int rank(int x);
+
+    abstract long memory();
+
+    Container optimize() {
+      int runs = countRuns();
+      int count = cardinality();
+      if (count == 0)
+        return null;
+      if (runs * 4 < Math.min(count * 2, 8192))
+        return new RunContainer(this, runs);
+      if (count <= ARRAY_MAX)
+        return (this instanceof ArrayContainer) ? this : new ArrayContainer(this);
+      return (this instanceof BitmapContainer) ? this : new BitmapContainer(this);
+    }
+
+    int countRuns() {
+      int runs = 0;
+      int last = -2;
+      for (int x = nextSet(0); x >= 0; x = nextSet(x + 1)) {
+        if (x != last + 1)
+          runs++;
+        last = x;
+      }
+      return runs;
+    }
+
+    /* The first bit set at or after 'from', or -1: */
+    abstract int nextSet(int from);
+  }
+
+  private static class ArrayContainer extends Container {
+    private char[] values = new char[16];
+    private int count = 0;
+
+    ArrayContainer() {
+    }
+
+    ArrayContainer(Container from) {
+      values = new char[Math.max(16, from.cardinality())];
+      for (int x = from.nextSet(0); x >= 0; x = from.nextSet(x + 1))
+        values[count++] = (char) x;
+    }
+
+    boolean contains(int x) {
+      return Arrays.binarySearch(values, 0, count, (char) x) >= 0;
+    }
+
+    Container add(int x) {
+      int index = Arrays.binarySearch(values, 0, count, (char) x);
+      if (index >= 0)
+        return this;
+      if (count == ARRAY_MAX)
+        return new BitmapContainer(this).add(x);
+
+      index = -index - 1;
+      if (count == values.length)
+        values = Arrays.copyOf(values, Math.min(ARRAY_MAX, count * 2));
+      System.arraycopy(values, index, values, index + 1, count - index);
+      values[index] = (char) x;
+      count++;
+      return this;
+    }
+
+    Container remove(int x) {
+      int index = Arrays.binarySearch(values, 0, count, (char) x);
+      if (index < 0)
+        return this;
+      System.arraycopy(values, index + 1, values, index, count - index - 1);
+      count--;
+      return (count == 0) ? null : this;
+    }
+
+    int cardinality() {
+      return count;
+    }
+
+    int rank(int x) {
+      int index = Arrays.binarySearch(values, 0, count, (char) x);
+      return (index >= 0) ? index : -index - 1;
+    }
+
+    int nextSet(int from) {
+      if (from > CHUNK_MASK)
+        return -1;
+      int index = rank(from);
+      return (index < count) ? values[index] : -1;
+    }
+
+    long memory() {
+      return 32 + values.length * 2l;
+    }
+  }
+
+  private static class BitmapContainer extends Container {
+    private long[] words = new long[1 << (CHUNK_SHIFT - 6)];
+    private int count = 0;
+
+    BitmapContainer(Container from) {
+      for (int x = from.nextSet(0); x >= 0; x = from.nextSet(x + 1)) {
+        words[x >>> 6] |= 1l << x;
+        count++;
+      }
+    }
+
+    boolean contains(int x) {
+      return (words[x >>> 6] & (1l << x)) != 0;
+    }
+
+    Container add(int x) {
+      if ((words[x >>> 6] & (1l << x)) == 0) {
+        words[x >>> 6] |= 1l << x;
+        count++;
+      }
+      return this;
+    }
+
+    Container remove(int x) {
+      if ((words[x >>> 6] & (1l << x)) != 0) {
+        words[x >>> 6] &= ~(1l << x);
+        count--;
+        if (count <= ARRAY_MAX / 2)
+          return (count == 0) ? null : new ArrayContainer(this);
+      }
+      return this;
+    }
+
+    int cardinality() {
+      return count;
+    }
+
+    int rank(int x) {
+      int total = 0;
+      int word = x >>> 6;
+      for (int i = 0; i < word; i++)
+        total += Long.bitCount(words[i]);
+      return total + Long.bitCount(words[word] & ((1l << x) - 1));
+    }
+
+    int nextSet(int from) {
+      if (from > CHUNK_MASK)
+        return -1;
+      int word = from >>> 6;
+      long bits = words[word] & (-1l << from);
+      while (bits == 0) {
+        if (++word == words.length)
+          return -1;
+        bits = words[word];
+      }
+      return word * 64 + Long.numberOfTrailingZeros(bits);
+    }
+
+    long memory() {
+      return 32 + words.length * 8l;
+    }
+  }
+
+  /**
+   * Runs of set bits. Read-only: any change first converts it back.
+   */
+  private static class RunContainer extends Container {
+    private char[] starts;
+    private char[] lasts;
+    private int count = 0;
+
+    RunContainer(Container from, int runs) {
+      starts = new char[runs];
+      lasts = new char[runs];
+      int run = -1;
+      for (int x = from.nextSet(0); x >= 0; x = from.nextSet(x + 1)) {
+        if (run < 0 || x != lasts[run] + 1)
+          starts[++run] = (char) x;
+        lasts[run] = (char) x;
+        count++;
+      }
+    }
+
+    /* The run starting at or before x, or -1: */
+    private int findRun(int x) {
+      int index = Arrays.binarySearch(starts, (char) x);
+      return (index >= 0) ? index : -index - 2;
+    }
+
+    boolean contains(int x) {
+      int run = findRun(x);
+      return run >= 0 && x <= lasts[run];
+    }
+
+    Container add(int x) {
+      if (contains(x))
+        return this;
+      Container cont = (count < ARRAY_MAX) ? new ArrayContainer(this) : new BitmapContainer(this);
+      return cont.add(x);
+    }
+
+    Container remove(int x) {
+      if (!contains(x))
+        return this;
+      Container cont = (count <= ARRAY_MAX) ? new ArrayContainer(this) : new BitmapContainer(this);
+      return cont.remove(x);
+    }
+
+    int cardinality() {
+      return count;
+    }
+
+    int rank(int x) {
+      int run = findRun(x);
+      int total = 0;
+      for (int i = 0; i < run; i++)
+        total += lasts[i] - starts[i] + 1;
+      if (run >= 0)
+        total += Math.min(x, lasts[run] + 1) - starts[run];
+      return total;
+    }
+
+    int nextSet(int from) {
+      if (from > CHUNK_MASK)
+        return -1;
+      int run = findRun(from);
+      if (run >= 0 && from <= lasts[run])
+        return from;
+      return (run + 1 < starts.length) ? starts[run + 1] : -1;
+    }
+
+    int countRuns() {
+      return starts.length;
+    }
+
+    long memory() {
+      return 48 + starts.length * 4l;
+    }
+  }
+}
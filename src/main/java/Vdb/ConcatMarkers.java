@@ -208,7 +208,7 @@ public class ConcatMarkers {
     }
 
     /* Check contents: */
-    Native.buffer_to_array(array, buffer, 4096);
+    Native.bufferToArray(array, buffer, 4096);
     if (array[0] == MARKER1 && array[1] == MARKER2) {
       luninfo.marker_found = true;
       luninfo.marker_sd_num = array[2];
@@ -87,6 +87,10 @@ public class ControlFile {
     printAndCheck(fp, "dist  " + anchor.dist);
     for (int i = 0; i < anchor.filesizes.length; i++)
       printAndCheck(fp, "size  " + (long) anchor.filesizes[i]);
+    if (anchor.hdfs_write != null && anchor.hdfs_write.ec_policy != null)
+      printAndCheck(fp, "ec_policy " + anchor.hdfs_write.ec_policy);
+    if (anchor.hdfs_write != null && anchor.hdfs_write.storage_policy != null)
+      printAndCheck(fp, "storage_policy " + anchor.hdfs_write.storage_policy);
 
     /* No need for file status when shared: */
     if (shared)
@@ -109,7 +113,7 @@ public class ControlFile {
       }
 
       /* Write the file status: */
-      Vector files = anchor.getFileList();
+      FileList files = anchor.getFileList();
       int sizes = files.size();
       int files_opened = 0;
       long existing_bytes = 0;
@@ -261,6 +265,26 @@ public class ControlFile {
     }
   }
 
+  /**
+   * A requested hdfs policy must match the one recorded in the control file.
+   * Not requesting one now leaves the anchor the way it was.
+   */
+  private void checkPolicy(FwgEntry fwg, String keyword, String old_policy, String new_policy) {
+    if (new_policy == null || new_policy.equalsIgnoreCase(old_policy))
+      return;
+
+    String txt = "";
+    txt += "\n" + "";
+    txt += "\n" + "fwd=" + fwg.getName();
+    txt += "\n" + "old " + keyword + "=" + ((old_policy == null) ? "not specified" : old_policy) + "; new " + keyword
+        + "=" + new_policy;
+    txt += "\n" + "Files in anchor=" + anchor.getAnchorName() + " were created with a different policy";
+    txt += "\n" + "and would keep it. Use 'format=yes' in the Run Definition (RD) to recreate them.";
+    common.ptod(txt);
+    SlaveJvm.sendMessageToConsole(txt);
+    common.failure("Parameter definition error");
+  }
+
   /**
    * Compare contents of control file with current setting for this anchor. It
    * also loads existing directory and file status.
@@ -282,6 +306,8 @@ public class ControlFile {
     int size_index = 0;
     String dist = null;
     String[] split = null;
+    String ec_policy = null;
+    String storage_policy = null;
 
     common.ptod("Reading control file for anchor=" + anchor.getAnchorName());
 
@@ -328,6 +354,10 @@ public class ControlFile {
         dist = split[1];
       else if (split[0].equals("size"))
         sizes[size_index++] = Double.parseDouble(split[1]);
+      else if (split[0].equals("ec_policy"))
+        ec_policy = split[1];
+      else if (split[0].equals("storage_policy"))
+        storage_policy = split[1];
       else if (split[0].equals("directory"))
         break;
       else
@@ -359,6 +389,11 @@ public class ControlFile {
       common.failure("Parameter definition error");
     }
 
+    /* Existing files keep the hdfs policies they were created with: */
+    checkPolicy(fwg, "hdfs_ec", ec_policy, (anchor.hdfs_write == null) ? null : anchor.hdfs_write.ec_policy);
+    checkPolicy(fwg, "hdfs_storage_policy", storage_policy,
+        (anchor.hdfs_write == null) ? null : anchor.hdfs_write.storage_policy);
+
     /* The rest of the information may only be used if it was written at */
     /* the end of the previous run: */
     if (!when.equals("end")) {
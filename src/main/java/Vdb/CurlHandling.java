@@ -6,15 +6,18 @@ package Vdb;
  *
  */
 
-import java.io.File;
 import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import Utils.*;
 
 /**
- * Cloud handling using curl.
+ * Cloud handling for the Swift style object API.
+ *
+ * This used to start a curl process for each request; all requests now are
+ * done by CloudClient. This class holds what all threads share: the storage
+ * url, the authorization token, and the objects known to be in the container.
  *
  */
 public class CurlHandling implements Serializable {
@@ -28,148 +31,112 @@ public class CurlHandling implements Serializable {
   private String stor_url = null;
   private String auth_token = null;
 
-  public HashMap<String, String> file_map = new HashMap(1000);
+  /* Client for the container level requests: */
+  private transient CloudClient admin = null;
+
+  public ConcurrentHashMap<String, String> file_map = new ConcurrentHashMap(1000);
 
   public CurlHandling(FsdEntry fsd) {
-    cloud_url = fsd.cloud_url;
-    cloud_user = fsd.cloud_user;
-    cloud_pwd = fsd.cloud_pwd;
-    container = fsd.name;
+    this(fsd.cloud_url, fsd.cloud_user, fsd.cloud_pwd, fsd.name);
+  }
+
+  public CurlHandling(String url, String user, String pwd, String container) {
+    cloud_url = url;
+    cloud_user = user;
+    cloud_pwd = pwd;
+    this.container = container;
+  }
+
+  private CloudClient getAdmin() {
+    if (admin == null)
+      admin = new CloudClient(this);
+    return admin;
+  }
+
+  public String getToken() {
+    return auth_token;
+  }
+
+  /**
+   * All request urls are built here, the same way the curl commands did.
+   */
+  public String getContainerUrl() {
+    return stor_url + container;
+  }
 
+  /**
+   * Object names are full file names, starting with '/'.
+   */
+  public String getObjectUrl(String name) {
+    return getContainerUrl() + name;
   }
 
   public void getAuthorization() {
-    OS_cmd ocmd = new OS_cmd();
-    ocmd.add("curl -s -i %s/ -X LIST -H 'X-Auth-User: %s' -H 'X-Auth-Key: %s'", cloud_url, cloud_user, cloud_pwd);
-    ocmd.execute();
-    ocmd.printStderr();
-    ocmd.printStdout();
-
-    String rc = ocmd.getHttpCode();
-    if (rc == null || !rc.equals("200 OK")) {
-      ocmd.printStderr();
-      ocmd.printStdout();
-      common.failure("failure getting authorization %s %s %s", cloud_url, cloud_user, "xxxpassword");
-    }
+    /* HttpURLConnection does not allow the 'LIST' method curl used to send; */
+    /* Swift v1.0 authorization is a GET: */
+    CloudClient.Response response = getAdmin().send("GET", cloud_url + "/", "X-Auth-User", cloud_user,
+        "X-Auth-Key", cloud_pwd);
 
-    for (String line : ocmd.getStdout()) {
-      String[] split = line.split(" +");
-      if (split[0].equalsIgnoreCase("X-Storage-Url:"))
-        stor_url = split[1];
-      else if (split[0].equalsIgnoreCase("X-Auth-Token:"))
-        auth_token = "X-Auth-Token:" + split[1];
+    if (response.status != 200)
+      common.failure("failure getting authorization %s %s %s: http status %d", cloud_url, cloud_user,
+          "xxxpassword", response.status);
 
-    }
-    common.ptod("stor_url: " + stor_url);
-    common.ptod("auth_token: " + auth_token);
+    stor_url = response.getHeader("X-Storage-Url");
+    auth_token = response.getHeader("X-Auth-Token");
+    if (stor_url == null || auth_token == null)
+      common.failure("failure getting authorization %s: no storage url or token returned", cloud_url);
 
+    common.ptod("stor_url: " + stor_url);
+    common.ptod("auth_token: X-Auth-Token:" + auth_token);
   }
 
   public void listContainer() {
     common.ptod("listContainer: " + container);
-    file_map = new HashMap(1000);
-    OS_cmd ocmd = new OS_cmd();
-    ocmd.add("curl -i -s -X GET -H %s %s%s", auth_token, stor_url, container);
-    ocmd.execute();
-    // ocmd.printStdout();
-
-    String rc = ocmd.getHttpCode();
-    // common.ptod("rc: " + rc);
-    if (!rc.equals("200 OK") && !rc.equals("204 No Content")) {
+    file_map = new ConcurrentHashMap(1000);
+    CloudClient.Response response = getAdmin().send("GET", getContainerUrl(), "X-Auth-Token", auth_token);
+
+    int rc = response.status;
+    if (rc != 200 && rc != 204) {
       common.ptod("There are %,d objects ", file_map.size());
       return;
     }
 
     /* These are the current objects in the container: */
-    String[] lines = ocmd.getStdout();
-    for (int i = 0; i < lines.length; i++) {
-      String line = lines[i];
+    for (String line : response.body.split("\n")) {
+      line = line.trim();
       if (line.length() != 0)
-        continue;
-
-      for (i++; i < lines.length; i++) {
-        line = lines[i];
         file_map.put("/" + line, "/" + line);
-      }
     }
 
     common.ptod("There are %,d objects ", file_map.size());
   }
 
-  public void uploadFile(String fname) {
-    OS_cmd ocmd = new OS_cmd();
-    ocmd.add("curl -i -s  -X PUT -H Expect: -H %s %s%s%s -T %s", auth_token, stor_url, container, fname, fname);
-    ocmd.execute(false);
-    String rc = ocmd.getHttpCode();
-
-    if (!rc.equals("201 Created")) {
-      ocmd.printStderr();
-      ocmd.printStdout();
-      common.failure("uploadFile failed for file %s", fname);
-    }
-  }
-
-  public void downloadFile(String fname) {
-    OS_cmd ocmd = new OS_cmd();
-    ocmd.add("curl -D-  -s  -X GET -H %s %s%s%s -o %s", auth_token, stor_url, container, fname, fname);
-    ocmd.execute(true);
-    String rc = ocmd.getHttpCode();
-
-    if (!rc.equals("200 OK")) {
-      ocmd.printStderr();
-      ocmd.printStdout();
-      common.failure("downloadFile failed for file %s", fname);
-    }
-  }
-
   private void deleteFile(String fname) {
     // common.ptod("deleteFile: " + fname);
-    OS_cmd ocmd = new OS_cmd();
-    ocmd.add("curl -s -X DELETE -H %s %s/%s/%s", auth_token, stor_url, container, fname);
-    ocmd.execute(false);
-
-    if (!ocmd.getRC()) {
-      ocmd.printStderr();
-      ocmd.printStdout();
-      common.failure("failure deleting object %s/%s/%s", stor_url, container, fname);
-    }
+    String url = getObjectUrl(fname);
+    CloudClient.Response response = getAdmin().send("DELETE", url, "X-Auth-Token", auth_token);
+
+    if (response.status / 100 != 2)
+      common.failure("failure deleting object %s: http status %d", url, response.status);
   }
 
   public void createContainer() {
     common.ptod("createContainer: " + container);
-    OS_cmd ocmd = new OS_cmd();
-    ocmd.add("curl -i -s -X PUT -H %s %s%s", auth_token, stor_url, container);
-    ocmd.execute(true);
-    // ocmd.printStdout();
-
-    String rc = ocmd.getHttpCode();
-    // common.ptod("rc: " + rc);
-    if (rc.equals("201 Created"))
-      return;
+    CloudClient.Response response = getAdmin().send("PUT", getContainerUrl(), "X-Auth-Token", auth_token);
 
-    if (!ocmd.getRC()) {
-      ocmd.printStderr();
-      ocmd.printStdout();
-      common.failure("failure creating container %s/%s", stor_url, container);
-    }
+    if (response.status / 100 != 2)
+      common.failure("failure creating container %s/%s: http status %d", stor_url, container, response.status);
   }
 
   public void deleteContainer() {
     common.ptod("deleteContainer: " + container);
-    OS_cmd ocmd = new OS_cmd();
-    ocmd.add("curl -i -s -X DELETE -H %s %s%s", auth_token, stor_url, container);
-    ocmd.execute(true);
-    // ocmd.printStdout();
-
-    String rc = ocmd.getHttpCode();
-    // common.ptod("rc: " + rc);
-    if (rc.equals("404 Not Found") || rc.equals("204 No Content"))
+    CloudClient.Response response = getAdmin().send("DELETE", getContainerUrl(), "X-Auth-Token", auth_token);
+
+    int rc = response.status;
+    if (rc == 404 || rc == 204)
       return;
 
-    if (!ocmd.getRC()) {
-      ocmd.printStderr();
-      ocmd.printStdout();
-      common.failure("failure deleting container %s/%s", stor_url, container);
-    }
+    if (rc / 100 != 2)
+      common.failure("failure deleting container %s/%s: http status %d", stor_url, container, rc);
   }
 }
@@ -46,6 +46,15 @@ public class DV_map {
   /* Rollover to 1 allowed */
   /* Value 127 means that block is in error */
 
+  /* 'validate=nibble': two blocks per map byte, the even block in the high */
+  /* nibble. 0: never written, 1-13: key, 15: DV_ERROR, 14: the full 8-bit */
+  /* entry (busy or pending flag, or a key above 13) is in 'nibble_side'. */
+  /* dv_get() and dv_set() still see the same 8-bit entries as before. */
+  private NibbleSideMap nibble_side = null;
+  private static final int NIBBLE_MAX_KEY = 13;
+  private static final int NIBBLE_SIDE = 14;
+  private static final int NIBBLE_ERROR = 15;
+
   int map_busy = 0; /* # of consecutive 'busy' returns */
 
   public static final int DV_ERROR = 0x7f; // 127;
@@ -119,12 +128,25 @@ public class DV_map {
     if (Validate.isContinueOldMap() && jnl_dir_name == null)
       common.failure("'validate=continue_old_map' also requires 'journal=xxx");
 
-    /* For true DV we need one byte per block: */
+    /* For true DV we need one byte per block, or half of that with nibbles: */
     if (Validate.isRealValidate()) {
+      long byte_length = map_length;
+      if (Validate.isNibbleMap()) {
+        if (Validate.isDedup())
+          common.failure("'validate=nibble' is not supported with dedup");
+        byte_length = ((key_blocks + 1) / 2 + 3) & ~3;
+        nibble_side = new NibbleSideMap(64);
+      }
+
       if (Validate.isContinueOldMap())
-        byte_maps = MapFile.openOldFile(jnl_dir_name, map_name, map_length);
+        byte_maps = MapFile.openOldFile(jnl_dir_name, map_name, byte_length);
       else
-        byte_maps = MapFile.createNewFile(jnl_dir_name, map_name, map_length);
+        byte_maps = MapFile.createNewFile(jnl_dir_name, map_name, byte_length);
+
+      if (nibble_side != null) {
+        for (MapFile byte_map : byte_maps)
+          byte_map.setNibbles();
+      }
     }
 
     /* For Dedup however we only need one bit per block: */
@@ -138,11 +160,63 @@ public class DV_map {
     if (Validate.isStoreTime())
       timestamp_map = new Timestamp(map_length);
 
-    if (Validate.isRealValidate())
+    if (nibble_side != null)
+      ErrorLog.plog("Allocating Data Validation map: %,d four-bit entries for each %,d-byte block.", map_length,
+          xfersize);
+    else if (Validate.isRealValidate())
       ErrorLog.plog("Allocating Data Validation map: %,d one-byte entries for each %,d-byte block.", map_length,
           xfersize);
   }
 
+  /**
+   * Highest key value before rolling over to 1.
+   */
+  public int getMaxKey() {
+    return (nibble_side != null) ? NIBBLE_MAX_KEY : 126;
+  }
+
+  /**
+   * 'validate=nibble': decode a block's nibble back into its 8-bit entry.
+   * Synchronized because two blocks share one byte and the side table has no
+   * locking of its own, also for the '_nolock' callers.
+   */
+  private synchronized int getNibble(long block) {
+    long index = block >> 1;
+    int map = (int) (index >> MapFile.BYTE_SHIFT);
+    int remainder = (int) (index & MapFile.BYTE_AND);
+    int bits = byte_maps[map].get(remainder);
+    int nibble = ((block & 1) == 0) ? bits >>> 4 : bits & 0x0f;
+
+    if (nibble == NIBBLE_SIDE)
+      return nibble_side.get(block);
+    if (nibble == NIBBLE_ERROR)
+      return DV_ERROR;
+    return nibble;
+  }
+
+  private synchronized void putNibble(long block, int key) {
+    long index = block >> 1;
+    int map = (int) (index >> MapFile.BYTE_SHIFT);
+    int remainder = (int) (index & MapFile.BYTE_AND);
+    int bits = byte_maps[map].get(remainder);
+    int shift = ((block & 1) == 0) ? 4 : 0;
+
+    int nibble;
+    if (key == DV_ERROR)
+      nibble = NIBBLE_ERROR;
+    else if (key <= NIBBLE_MAX_KEY)
+      nibble = key;
+    else
+      nibble = NIBBLE_SIDE;
+
+    if (nibble == NIBBLE_SIDE)
+      nibble_side.put(block, key);
+    else if (((bits >>> shift) & 0x0f) == NIBBLE_SIDE)
+      nibble_side.remove(block);
+
+    byte_maps[map].put(remainder, (bits & ~(0x0f << shift)) | (nibble << shift));
+  }
+
   public void setDedup(Dedup ded) {
     dedup = ded;
   }
@@ -158,7 +232,7 @@ public class DV_map {
   public void deleteByteMapFile() {
     if (byte_maps != null) {
       for (MapFile byte_map : byte_maps) {
-        byte_map.closeMapFile();
+        byte_map.discardMapFile();
         boolean rc = new File(byte_map.getFilename()).delete();
       }
       byte_maps = null;
@@ -173,7 +247,10 @@ public class DV_map {
     // common.ptod("dv_get: %08x ", lba);
 
     int key = 0;
-    if (byte_maps != null) {
+    if (byte_maps != null && nibble_side != null)
+      key = getNibble(lba / key_blksize);
+
+    else if (byte_maps != null) {
       long block = lba / key_blksize;
       int map = (int) (block >> MapFile.BYTE_SHIFT);
       int remainder = (int) (block & MapFile.BYTE_AND);
@@ -209,7 +286,10 @@ public class DV_map {
     // common.ptod("dv_get: %08x ", lba);
 
     int key = 0;
-    if (byte_maps != null) {
+    if (byte_maps != null && nibble_side != null)
+      key = getNibble(lba / key_blksize);
+
+    else if (byte_maps != null) {
       long block = lba / key_blksize;
       int map = (int) (block >> MapFile.BYTE_SHIFT);
       int remainder = (int) (block & MapFile.BYTE_AND);
@@ -244,7 +324,14 @@ public class DV_map {
     // common.where(4);
     // }
 
-    if (byte_maps != null) {
+    if (byte_maps != null && nibble_side != null) {
+      putNibble(lba / key_blksize, key);
+
+      if (key == DV_ERROR)
+        blocks_in_error++;
+    }
+
+    else if (byte_maps != null) {
       long block = lba / key_blksize;
       int map = (int) (block >> MapFile.BYTE_SHIFT);
       int remainder = (int) (block & MapFile.BYTE_AND);
@@ -283,7 +370,10 @@ public class DV_map {
     // common.where(4);
     // }
 
-    if (byte_maps != null) {
+    if (byte_maps != null && nibble_side != null)
+      putNibble(lba / key_blksize, key & 0xff);
+
+    else if (byte_maps != null) {
       long block = lba / key_blksize;
       int map = (int) (block >> MapFile.BYTE_SHIFT);
       int remainder = (int) (block & MapFile.BYTE_AND);
@@ -479,6 +569,14 @@ public class DV_map {
     }
   }
 
+  /**
+   * Mark the map as closed cleanly for a possible 'validate=continue_old_map'.
+   */
+  public synchronized void storeMapChecksums() {
+    if (byte_maps != null)
+      MapFile.storeChecksums(byte_maps);
+  }
+
   /**
    * Reset all busy flags. While we're at it, also count blocks in error, saving
    * us a trip later on.
@@ -489,6 +587,20 @@ public class DV_map {
 
     Elapsed elapsed = new Elapsed("DV_map.setAllUnbusy");
 
+    /* With nibbles all busy entries are in the side table, the map itself */
+    /* then only needs counting: */
+    long side_busy = 0;
+    if (nibble_side != null) {
+      long[] blocks = nibble_side.getBlocks();
+      for (long block : blocks) {
+        int key = nibble_side.get(block);
+        if ((key & 0x80) != 0) {
+          putNibble(block, key & 0x7f);
+          side_busy++;
+        }
+      }
+    }
+
     /* Start one async thread for each MapFile: */
     ArrayList<MapUnbusyThread> async_list = new ArrayList(8);
     for (MapFile byte_map : byte_maps) {
@@ -511,7 +623,7 @@ public class DV_map {
 
     /* Pick up the counters from each MapFile: */
     blocks_in_error = 0;
-    blocks_busy = 0;
+    blocks_busy = side_busy;
     blocks_known = 0;
     for (MapFile byte_map : byte_maps) {
       blocks_in_error += byte_map.counter.bad_blocks;
@@ -527,7 +639,8 @@ public class DV_map {
 
   /**
    * This method increments a data pattern key by one. The value of the key will
-   * roll over from the maximum value of 126 back to one.
+   * roll over from the maximum value of 126 (13 for 'validate=nibble') back
+   * to one.
    *
    *
    * Starting 50407 we will not always start with ONE. Instead we start with a
@@ -548,7 +661,7 @@ public class DV_map {
       if (key == 0)
         return getRandomStartKey();
       else
-        return ((key == 126) ? 1 : ++key);
+        return ((key == getMaxKey()) ? 1 : ++key);
     }
 
     if (!dedup.isFlipFlop() && Dedup.isDuplicate(set))
@@ -559,7 +672,7 @@ public class DV_map {
       if (key == 0)
         return getRandomStartKey();
       else
-        return ((key == 126) ? 1 : ++key);
+        return ((key == getMaxKey()) ? 1 : ++key);
     }
 
     synchronized (dedup) {
@@ -592,7 +705,7 @@ public class DV_map {
     if (next_int == Integer.MIN_VALUE)
       next_int = 0;
 
-    return (Math.abs(next_int) % 126) + 1;
+    return (Math.abs(next_int) % getMaxKey()) + 1;
   }
 
   /**
@@ -654,13 +767,16 @@ public class DV_map {
     }
   }
 
+  /**
+   * The timestamp map no longer stores the key; take it from the map itself.
+   * dv_get() already decodes a nibble map and its side table, so masking off
+   * the busy bit leaves the key for either map layout.
+   */
   public int getLastKey(long lba) {
     if (timestamp_map == null)
       return 0;
-    else {
-      int ret = timestamp_map.getLastKey(lba / key_blksize);
-      return ret;
-    }
+    else
+      return dv_get(lba) & 0x7f;
   }
 
   /**
@@ -732,7 +848,7 @@ public class DV_map {
 
   /**
    * Store timestamp of last successful read/write. No lock is necessary, since we
-   * use a full 8 bytes and the block is still busy.
+   * use a full 4 bytes and the block is still busy.
    */
   public void save_timestamp(long lba, long type, long tod, long key) {
     /* Store timestamp of last successful i/o if needed: */
@@ -985,7 +1101,7 @@ public class DV_map {
 
       Native.arrayToBuffer(array, buffer);
 
-      long handle = Native.openfile(fname, 0, 1);
+      long handle = Native.openFile(fname, 1);
       for (int j = 0; j < BLOCKS; j++) {
         long lba = j * (long) BUFSIZE;
         if (Native.writeFile(handle, lba, BUFSIZE, buffer) != 0) {
@@ -995,7 +1111,7 @@ public class DV_map {
       }
 
       if (common.onSolaris()) {
-        long rc = Native.fsync(handle);
+        long rc = Native.fsyncFile(handle);
         if (rc != 0)
           common.failure("Native.closeFile(fhandle): fsync failed, rc= " + rc);
       }
@@ -1019,7 +1135,7 @@ public class DV_map {
   public static void obsolete_fillLFSRSector(int[] sector_array, long lba, int key, String name) {
     if (sector_array.length != 512 / 4)
       common.failure("fillLFSRSector(): Invalid length. " + sector_array.length);
-    Native.fillLfsrArray(sector_array, lba, key, name);
+    Native.fillLfsrSector(sector_array, lba, key, name);
 
     for (int i = 0; i < 32 / 4; i++)
       sector_array[i] = 0;
@@ -1337,8 +1337,8 @@ public class Dedup implements Serializable, Cloneable {
       if (Native.readFile(h2, lba, unit, buffer2) != 0)
         common.failure("Error reading %s", file2);
 
-      Native.buffer_to_array(array1, buffer1, unit);
-      Native.buffer_to_array(array2, buffer2, unit);
+      Native.bufferToArray(array1, buffer1, unit);
+      Native.bufferToArray(array2, buffer2, unit);
 
       boolean zero1 = (array1[0] == array1[1] && array1[0] == 0);
       boolean zero2 = (array2[0] == array2[1] && array2[0] == 0);
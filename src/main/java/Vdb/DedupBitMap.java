@@ -18,19 +18,18 @@ import Utils.*;
  *
  * Technically is should be OK to have just ONE bitmap for the whole Dedup
  * instace, works....
+ *
+ * The bits are kept in a CompressedBitMap: with large virtual capacities a
+ * BitSet for every dedup unit took gigabytes of java heap, even for a flipflop
+ * map that had no bits set yet.
  */
 public class DedupBitMap {
   private final static String c = "Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.";
 
-  private BitSet[] bitsets = null;
+  private CompressedBitMap bitmap = null;
   private long bits_needed;
   private long bits_allocated;
 
-  /* This must be a power of two: */
-  private final static long MAX_BITS = 1024 * 1024 * 1024;
-  private final static int BIT_SHIFT = 30;
-  private final static long BIT_AND = (1 << BIT_SHIFT) - 1;
-
   private static HashMap<String, DedupBitMap> unique_maps = new HashMap(8);
   private static HashMap<String, DedupBitMap> flipflop_maps = new HashMap(8);
 
@@ -56,34 +55,22 @@ public class DedupBitMap {
 
     /* One extra bit needed due to dedupunit straddling: */
     bits_allocated = bits_needed + 1;
-
-    /*
-     * Accommodate multiple bitsets so that we can handle more than 2**31 entries:
-     */
-    int sets = (int) ((bits_allocated + MAX_BITS - 1) / MAX_BITS);
-
-    bitsets = new BitSet[sets];
-    for (int i = 0; i < sets; i++) {
-      bitsets[i] = new BitSet((int) Math.min(bits_allocated - i * MAX_BITS, MAX_BITS));
-      // common.ptod("bitsets [ i ]: " + bitsets [ i ].size());
-    }
+    bitmap = new CompressedBitMap(bits_allocated);
 
     /* Initialize table: */
     double adjusted_pct = dedup.getAdjustedPct();
     long bits_to_set = (long) (bits_needed * adjusted_pct / 100.);
 
     common.ptod(
-        "Creating bitmap for unique blocks for %s. %d bitmaps for a total of %,d bits, identifying %,d unique blocks",
-        lun_or_anchor, sets, bits_needed, bits_to_set);
+        "Creating bitmap for unique blocks for %s. A total of %,d bits, identifying %,d unique blocks", lun_or_anchor,
+        bits_needed, bits_to_set);
 
     if (bits_to_set > bits_needed)
       common.failure("Oops, asking for %,d unique blocks but have only %,d blocks to choose from", bits_to_set,
           bits_needed);
 
     /* If this dedupratio=1 then don't bother setting the bits. */
-    /*
-     * We still keep the bitmap so that we don't have differences in memory usage.
-     */
+    /* (An empty CompressedBitMap hardly uses any memory) */
     if (dedup.getDedupRatio() == 1)
       return this;
 
@@ -148,7 +135,11 @@ public class DedupBitMap {
       }
     }
 
+    /* The map no longer changes; pick the smallest form for each chunk: */
+    bitmap.optimize();
     elapsed.end(5);
+    common.ptod("Bitmap for unique blocks for %s uses %s of java heap space.", lun_or_anchor,
+        FileAnchor.whatSize(bitmap.getMemoryUsage()));
 
     return this;
   }
@@ -161,34 +152,26 @@ public class DedupBitMap {
     /* One extra bit needed due to dedupunit straddling: */
     bits_needed = bits;
     bits_allocated = bits_needed + 1;
+    bitmap = new CompressedBitMap(bits_allocated);
 
-    /*
-     * Accommodate multiple bitsets so that we can handle more than 2**31 entries:
-     */
-    int sets = (int) ((bits_allocated + MAX_BITS - 1) / MAX_BITS);
-
-    bitsets = new BitSet[sets];
-    for (int i = 0; i < sets; i++) {
-      bitsets[i] = new BitSet((int) Math.min(bits_allocated - i * MAX_BITS, MAX_BITS));
-      // common.ptod("bitsets [ i ]: " + bitsets [ i ].size());
-    }
-
-    common.ptod("Created flipflop bitmap for %s. %d bitmaps for a total of %,d bits.", lun_or_anchor, sets,
-        bits_needed);
+    common.ptod("Created flipflop bitmap for %s for a total of %,d bits.", lun_or_anchor, bits_needed);
 
     return this;
   }
 
   public void setBit(long bit, boolean bool) {
-    int set = (int) (bit >> BIT_SHIFT);
-    int remainder = (int) (bit & BIT_AND);
-    bitsets[set].set(remainder, bool);
+    bitmap.set(bit, bool);
   }
 
   public boolean getBit(long bit) {
-    int set = (int) (bit >> BIT_SHIFT);
-    int remainder = (int) (bit & BIT_AND);
-    return bitsets[set].get(remainder);
+    return bitmap.get(bit);
+  }
+
+  /**
+   * The number of bits set below 'bit', e.g. the number of unique blocks.
+   */
+  public long rank(long bit) {
+    return bitmap.rank(bit);
   }
 
   public boolean isUnique(long bit) {
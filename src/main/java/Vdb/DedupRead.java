@@ -52,7 +52,7 @@ public class DedupRead implements Serializable {
         common.failure("Error reading %s", filename);
 
       /* I use only the first 8 bytes, so why read the whole block? */
-      Native.buffer_to_array(array, buffer, 512);
+      Native.bufferToArray(array, buffer, 512);
 
       // common.ptod("array[0]: %3d %08x", (array[0] >>> 24), lba);
       key_count[array[0] >>> 24]++;
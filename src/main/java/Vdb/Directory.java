@@ -32,7 +32,6 @@ class Directory implements Serializable, Comparable {
 
   private boolean dir_busy = false;
   private boolean dir_exists = false;
-  private boolean files_checked = false;
   private boolean this_is_anchor = false;
 
   // Debugging fields. Search through code to find uses.
@@ -93,43 +92,6 @@ class Directory implements Serializable, Comparable {
     return new File(buildFullName());
   }
 
-  /**
-   * Does directory have any files?
-   *
-   * Used during the creation of FileEntry instances to eliminate the need to keep
-   * checking to see if the file exists. This saves a lot of startup time.
-   *
-   * This all depends on the FileEntry instances being created in directory order!
-   */
-  private static HashMap last_map;
-  private static Directory last_checked_dir;
-
-  public boolean hasFile(String fname) {
-    if (last_checked_dir != this) {
-      if (files_checked)
-        common.failure("Recursive call to hasFile(): " + getFullName() + " " + fname);
-      files_checked = true;
-      last_checked_dir = this;
-      String[] list = getDirPtr().list();
-      last_map = new HashMap(list.length * 2);
-      // common.ptod("list.length: " + list.length + " " + getFullName() + " " +
-      // fname);
-      for (int i = 0; i < list.length; i++) {
-        // common.ptod("list[i]: " + list[i]);
-        last_map.put(list[i], list[i]);
-      }
-    }
-
-    if (last_map.size() == 0) {
-      // common.where();
-      return false;
-    }
-    boolean rc = last_map.get(fname) != null;
-
-    // common.ptod("fname: " + fname + " " + rc);
-    return rc;
-  }
-
   public int getDepth() {
     return depth;
   }
@@ -344,7 +306,7 @@ class Directory implements Serializable, Comparable {
     }
 
     /* Now create the directory: */
-    long start = Native.get_simple_tod();
+    long start = Native.getSimpleTod();
     if (!dir_ptr.mkdir()) {
       /* If we failed when using a shared FSD, this may be OK. */
       /* On Linux it appears that though the directory has already been */
@@ -401,7 +363,7 @@ class Directory implements Serializable, Comparable {
       common.failure("Deleting directory that is not empty");
     }
 
-    long start = Native.get_simple_tod();
+    long start = Native.getSimpleTod();
     if (!getDirPtr().delete()) {
       common.ptod("dir.exists:       " + dir_exists);
       common.ptod("dir.full:         " + getFullName());
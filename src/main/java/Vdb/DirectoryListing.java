@@ -0,0 +1,128 @@
+package Vdb;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+
+/**
+ * The names and sizes of the files in each directory of an anchor, used when
+ * there is no control file to tell us the status of the files.
+ *
+ * Instead of a lookup for each file there is one listing per directory, which
+ * on hdfs is one streaming listStatusIterator() instead of a getFileStatus()
+ * call for each file. The directories are listed by a set of threads, at most
+ * AHEAD directories ahead of createFileList(), which takes them in the same
+ * order. That way the amount of memory needed does not depend on the amount
+ * of files in the anchor.
+ */
+class DirectoryListing {
+  private Directory[] dirs;
+  private HashMap<String, Long>[] listings;
+  private AtomicInteger next_dir = new AtomicInteger(0);
+  private int taken = 0;
+
+  private static final int AHEAD = 1024;
+  private static final int MAX_THREADS = 32;
+  private static final HashMap<String, Long> NO_FILES = new HashMap(1);
+
+  public DirectoryListing(Vector<Directory> file_dirs) {
+    dirs = file_dirs.toArray(new Directory[0]);
+    listings = new HashMap[dirs.length];
+
+    /* Listing is mostly waiting for the file system, so use more threads than cpus: */
+    int cpus = Runtime.getRuntime().availableProcessors();
+    int count = Math.min(dirs.length, Math.min(MAX_THREADS, Math.max(4, cpus * 2)));
+    for (int i = 0; i < count; i++) {
+      Thread lister = new Thread("DirectoryListing " + i) {
+        public void run() {
+          try {
+            listDirectories();
+          } catch (Throwable t) {
+            common.abnormal_term(t);
+          }
+        }
+      };
+      lister.setDaemon(true);
+      lister.start();
+    }
+  }
+
+  /**
+   * Return the file names and sizes of the i-th directory, waiting until it
+   * has been listed. Directories must be taken in order.
+   */
+  public synchronized HashMap<String, Long> take(int i) {
+    try {
+      while (listings[i] == null)
+        wait();
+    } catch (InterruptedException e) {
+      common.failure(e);
+    }
+
+    HashMap<String, Long> listing = listings[i];
+    listings[i] = null;
+    taken = i + 1;
+    notifyAll();
+    return listing;
+  }
+
+  private synchronized void put(int i, HashMap<String, Long> listing) {
+    listings[i] = listing;
+    notifyAll();
+  }
+
+  private synchronized void waitForRoom(int i) throws InterruptedException {
+    while (i >= taken + AHEAD)
+      wait();
+  }
+
+  private void listDirectories() throws InterruptedException {
+    int i;
+    while ((i = next_dir.getAndIncrement()) < dirs.length) {
+      waitForRoom(i);
+      put(i, (dirs[i].exist()) ? listDirectory(dirs[i].getFullName()) : NO_FILES);
+    }
+  }
+
+  private static HashMap<String, Long> listDirectory(String dirname) {
+    HashMap<String, Long> listing = new HashMap(64);
+    try {
+      if (SlaveJvm.isHDFS) {
+        RemoteIterator<FileStatus> it = HdfsClients.get(dirname).listStatusIterator(new Path(dirname));
+        while (it.hasNext()) {
+          FileStatus status = it.next();
+          if (status.isFile())
+            listing.put(status.getPath().getName(), status.getLen());
+        }
+      }
+
+      else {
+        DirectoryStream<java.nio.file.Path> stream = Files.newDirectoryStream(Paths.get(dirname));
+        try {
+          for (java.nio.file.Path file : stream) {
+            try {
+              BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+              if (attrs.isRegularFile())
+                listing.put(file.getFileName().toString(), attrs.size());
+            } catch (NoSuchFileException e) {
+              /* Deleted since it was listed: */
+            }
+          }
+        } finally {
+          stream.close();
+        }
+      }
+    } catch (IOException e) {
+      common.ptod("DirectoryListing: unable to list directory %s", dirname);
+      common.failure(e);
+    }
+
+    return listing;
+  }
+}
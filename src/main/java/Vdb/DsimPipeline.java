@@ -0,0 +1,472 @@
+package Vdb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 'dsim -p': reader/hasher pipeline for dedup estimates of large volumes.
+ *
+ * - Reader threads ('-f') take chunks of a file or lun from a shared list, so
+ * one large lun is read by all readers in parallel. Data is read with a
+ * FileChannel into a fixed pool of direct buffers; no buffers are allocated
+ * per read.
+ * - Hasher threads ('-w') hash each dedup unit of a filled buffer and return
+ * the buffer to the pool.
+ * - The MD5 hash is kept as two longs in an open addressing hash table outside
+ * of the java heap: 24 bytes per unique block instead of a hex String, a
+ * MessageDigest and a Long.
+ *
+ * With '-S pct' only the blocks whose hash falls in the first 'pct' percent of
+ * the hash space are counted. All copies of the same data have the same hash,
+ * so duplicates are either all counted or all ignored, and the dedup ratio of
+ * the sample is an estimate for the whole volume while needing only 'pct'
+ * percent of the memory. The confidence interval is calculated from the
+ * variation between 64 groups of the sampled hash space.
+ */
+class DsimPipeline {
+  private static final int CHUNK_XFERS = 64; /* xfers per reader work item */
+  private static final int GROUPS = 64; /* For the confidence interval */
+
+  private static ArrayList<long[]> work_list = new ArrayList(1024);
+  private static ArrayList<DsimFile> files;
+  private static int next_work = 0;
+
+  static ArrayBlockingQueue<DsimBlock> free_queue;
+  static ArrayBlockingQueue<DsimBlock> hash_queue;
+
+  static DsimHashTable table;
+  static long sample_limit = Long.MAX_VALUE; /* hash >>> 1 below this: sampled */
+  static double sample_pct = 100;
+
+  static AtomicLong units_read = new AtomicLong();
+  static AtomicLong units_sampled = new AtomicLong();
+
+  private static long[] group_blocks = new long[GROUPS];
+  private static long[] group_uniques = new long[GROUPS];
+  private static HashMap<Long, long[]> set_map = new HashMap(1024);
+
+  public static void run(ArrayList<DsimFile> file_list, double pct) {
+    files = file_list;
+    if (pct <= 0 || pct > 100)
+      common.failure("dsim: '-S %s' must be a percentage between 0 and 100", pct);
+    sample_pct = pct;
+    if (pct < 100)
+      sample_limit = (long) (Long.MAX_VALUE * (pct / 100.));
+
+    /* Split all files in chunks, making sure all readers stay busy: */
+    long chunk = (long) dsim.xfersize * CHUNK_XFERS;
+    for (int i = 0; i < files.size(); i++) {
+      DsimFile df = files.get(i);
+      long end = Math.min(df.true_size, dsim.end_lba);
+      for (long lba = dsim.start_lba; lba < end; lba += chunk)
+        work_list.add(new long[] { i, lba, Math.min(lba + chunk, end) });
+    }
+
+    table = new DsimHashTable();
+
+    int buffers = dsim.max_files * 2 + dsim.max_workers * 2;
+    free_queue = new ArrayBlockingQueue(buffers);
+    hash_queue = new ArrayBlockingQueue(buffers + dsim.max_workers);
+    for (int i = 0; i < buffers; i++)
+      free_queue.add(new DsimBlock(dsim.xfersize));
+
+    common.ptod("Pipeline: %d readers, %d hashers, %d buffers of %s, %,d work items. Sampling %.3f%% of the hash space.",
+        dsim.max_files, dsim.max_workers, buffers, FileAnchor.whatSize(dsim.xfersize), work_list.size(), pct);
+
+    dsim.sample_start = System.currentTimeMillis();
+
+    DsimReader[] readers = new DsimReader[dsim.max_files];
+    for (int i = 0; i < readers.length; i++) {
+      readers[i] = new DsimReader();
+      readers[i].start();
+    }
+    DsimHasher[] hashers = new DsimHasher[dsim.max_workers];
+    for (int i = 0; i < hashers.length; i++) {
+      hashers[i] = new DsimHasher();
+      hashers[i].start();
+    }
+
+    /* Wait for the readers, reporting throughput: */
+    for (DsimReader reader : readers) {
+      while (reader.isAlive()) {
+        common.sleep_some(500);
+        if (dsim.signal.go())
+          reportProgress();
+      }
+    }
+
+    /* Then tell the hashers that we're done: */
+    try {
+      for (int i = 0; i < hashers.length; i++)
+        hash_queue.put(DsimBlock.END);
+      for (DsimHasher hasher : hashers)
+        hasher.join();
+    } catch (InterruptedException e) {
+      common.failure(e);
+    }
+
+    reportTotals();
+  }
+
+  /**
+   * Next chunk to read: { file index, start lba, end lba }, or null when done.
+   */
+  static synchronized long[] getWork() {
+    if (next_work >= work_list.size())
+      return null;
+    return work_list.get(next_work++);
+  }
+
+  static DsimFile getFile(int index) {
+    return files.get(index);
+  }
+
+  /**
+   * Hasher statistics are added at the end of each hasher.
+   */
+  static synchronized void addCounts(long[] blocks, long[] uniques, HashMap<Long, long[]> sets) {
+    for (int i = 0; i < GROUPS; i++) {
+      group_blocks[i] += blocks[i];
+      group_uniques[i] += uniques[i];
+    }
+
+    for (Map.Entry<Long, long[]> me : sets.entrySet()) {
+      long[] count = set_map.get(me.getKey());
+      if (count == null)
+        set_map.put(me.getKey(), me.getValue());
+      else
+        count[0] += me.getValue()[0];
+    }
+  }
+
+  static int getGroup(long lo) {
+    return (int) (lo & (GROUPS - 1));
+  }
+
+  private static void reportProgress() {
+    double secs = Math.max(0.001, (System.currentTimeMillis() - dsim.sample_start) / 1000.);
+    long sampled = units_sampled.get();
+    long uniques = table.size();
+
+    common.ptod("Read: %10s; %8.2f MB/sec; units: %,14d; sampled: %,14d; unique: %,14d; ratio: %.2f:1; table: %s",
+        FileAnchor.whatSize(dsim.bytes_read), dsim.bytes_read / secs / 1000000., units_read.get(), sampled, uniques,
+        (uniques == 0) ? 0 : (double) sampled / uniques, FileAnchor.whatSize(table.getMemoryUsage()));
+  }
+
+  private static void reportTotals() {
+    double secs = Math.max(0.001, (System.currentTimeMillis() - dsim.sample_start) / 1000.);
+    long sampled = units_sampled.get();
+    long[] counts = table.getCounts();
+    long uniques = counts[0];
+    long dedup_sets = counts[1];
+    long duplicate_blocks = counts[2];
+    double ratio = (uniques == 0) ? 0 : (double) sampled / uniques;
+
+    common.ptod("");
+    common.ptod("Reads done:       %,14d (of xfersize %d)", dsim.blocks_read, dsim.xfersize);
+    common.ptod("Units read:       %,14d (of dedupunit %d)", units_read.get(), dsim.dedupunit);
+    common.ptod("Units sampled:    %,14d (%.3f%%)", sampled, sample_pct);
+    common.ptod("Hash size:        %,14d", uniques);
+    common.ptod("Dedup sets:       %,14d", dedup_sets);
+    common.ptod("Duplicate blocks: %,14d", duplicate_blocks);
+    common.ptod("Unique blocks:    %,14d", sampled - duplicate_blocks);
+    common.ptod("Maximum collisions:%,13d", counts[3]);
+    common.ptod("Hash table:       %14s", FileAnchor.whatSize(table.getMemoryUsage()));
+    common.ptod("Elapsed:          %14.1f seconds; read %.2f MB/sec; hashed %,.0f units/sec", secs,
+        dsim.bytes_read / secs / 1000000., units_read.get() / secs);
+    common.ptod("");
+
+    if (sample_pct < 100 && uniques > 0) {
+      double margin = 1.96 * Math.sqrt(ratioVariance(ratio));
+      common.ptod("Totals: Dedup ratio: %.2f:1 (%.5f); 95%% confidence interval: %.2f:1 - %.2f:1", ratio, ratio,
+          Math.max(1, ratio - margin), ratio + margin);
+    } else
+      common.ptod("Totals: Dedup ratio: %.2f:1 (%.5f)", ratio, ratio);
+
+    long total = 0;
+    for (long[] count : set_map.values())
+      total += count[0];
+    common.ptod("Number of sets found: %,d counting %,d duplicates", set_map.size(), total);
+  }
+
+  /**
+   * Variance of ratio 'blocks/uniques' over the groups of the hash space, using
+   * the linearization of a ratio estimator.
+   */
+  private static double ratioVariance(double ratio) {
+    double total_uniques = 0;
+    double sum = 0;
+    for (int i = 0; i < GROUPS; i++) {
+      double diff = group_blocks[i] - ratio * group_uniques[i];
+      sum += diff * diff;
+      total_uniques += group_uniques[i];
+    }
+    return GROUPS / (GROUPS - 1.) * sum / (total_uniques * total_uniques);
+  }
+}
+
+/**
+ * One buffer of the pipeline.
+ */
+class DsimBlock {
+  ByteBuffer buffer;
+  int length;
+  long lba;
+
+  static final DsimBlock END = new DsimBlock(0);
+
+  DsimBlock(int size) {
+    buffer = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+  }
+}
+
+class DsimReader extends Thread {
+  public DsimReader() {
+    setName("DsimReader");
+  }
+
+  public void run() {
+    try {
+      long[] work;
+      while ((work = DsimPipeline.getWork()) != null) {
+        DsimFile df = DsimPipeline.getFile((int) work[0]);
+        FileChannel channel = FileChannel.open(Paths.get(df.fname), StandardOpenOption.READ);
+        if (work[1] == dsim.start_lba)
+          dsim.countFiles();
+
+        try {
+          for (long lba = work[1]; lba < work[2]; lba += dsim.xfersize)
+            readBlock(channel, lba, (int) Math.min(dsim.xfersize, work[2] - lba));
+        } finally {
+          channel.close();
+        }
+      }
+    }
+
+    catch (Throwable t) {
+      common.abnormal_term(t);
+    }
+  }
+
+  private void readBlock(FileChannel channel, long lba, int bytes) throws IOException, InterruptedException {
+    DsimBlock block = DsimPipeline.free_queue.take();
+    ByteBuffer bb = block.buffer;
+
+    /* A short last dedup unit is hashed with zeros at the end: */
+    int units = (bytes + dsim.dedupunit - 1) / dsim.dedupunit;
+    int length = units * dsim.dedupunit;
+    bb.clear().limit(bytes);
+    while (bb.hasRemaining()) {
+      if (channel.read(bb, lba + bb.position()) < 0)
+        break;
+    }
+    bb.limit(length);
+    while (bb.position() < length)
+      bb.put((byte) 0);
+
+    block.length = length;
+    block.lba = lba;
+    dsim.countReads(bytes);
+    DsimPipeline.hash_queue.put(block);
+  }
+}
+
+class DsimHasher extends Thread {
+  private MessageDigest hasher;
+  private byte[] digest = new byte[16];
+  private ByteBuffer digest_bb = ByteBuffer.wrap(digest);
+
+  private long[] blocks = new long[64];
+  private long[] uniques = new long[64];
+  private HashMap<Long, long[]> sets = new HashMap(64);
+
+  public DsimHasher() {
+    setName("DsimHasher");
+  }
+
+  public void run() {
+    try {
+      hasher = MessageDigest.getInstance("MD5");
+
+      while (true) {
+        DsimBlock block = DsimPipeline.hash_queue.take();
+        if (block == DsimBlock.END)
+          break;
+
+        for (int offset = 0; offset < block.length; offset += dsim.dedupunit)
+          hashUnit(block, offset);
+
+        DsimPipeline.free_queue.put(block);
+      }
+
+      DsimPipeline.addCounts(blocks, uniques, sets);
+    }
+
+    catch (Throwable t) {
+      common.abnormal_term(t);
+    }
+  }
+
+  private void hashUnit(DsimBlock block, int offset) throws Exception {
+    ByteBuffer bb = block.buffer.duplicate();
+    bb.limit(offset + dsim.dedupunit).position(offset);
+    hasher.update(bb);
+    hasher.digest(digest, 0, 16);
+    DsimPipeline.units_read.incrementAndGet();
+
+    long hi = digest_bb.getLong(0);
+    long lo = digest_bb.getLong(8);
+    if ((hi >>> 1) >= DsimPipeline.sample_limit)
+      return;
+
+    DsimPipeline.units_sampled.incrementAndGet();
+    int group = DsimPipeline.getGroup(lo);
+    blocks[group]++;
+    if (DsimPipeline.table.add(hi, lo) == 1)
+      uniques[group]++;
+
+    /* Vdbench generated duplicate: the first 8 bytes are not the lba: */
+    ByteBuffer nb = block.buffer;
+    long word0 = nb.getInt(offset);
+    long word1 = nb.getInt(offset + 4);
+    long buf_lba = word0 << 32 | (word1 & 0xffffffffl);
+    if (buf_lba != block.lba + offset) {
+      long[] count = sets.get(word1);
+      if (count == null)
+        sets.put(word1, count = new long[1]);
+      count[0]++;
+    }
+  }
+}
+
+/**
+ * Open addressing hash table of 128-bit hashes with a use count, kept outside
+ * of the java heap. The table is split in segments, each with its own lock, so
+ * that the hashers rarely wait for each other. Segments start small and double
+ * in size when they are 70% full: the block count is only an upper limit for
+ * the unique hashes, so sizing from it would waste memory on duplicates.
+ */
+class DsimHashTable {
+  private static final int SEGMENT_SHIFT = 56;
+  private static final int SEGMENTS = 256;
+  private static final int SLOT = 24; /* hi, lo, count */
+  private static final int INITIAL_SLOTS = 256; /* 6k per segment */
+  private static final int MAX_SLOTS = 1 << 26; /* 1.5GB per segment */
+
+  private ByteBuffer[] tables = new ByteBuffer[SEGMENTS];
+  private Object[] locks = new Object[SEGMENTS];
+  private int[] used = new int[SEGMENTS];
+
+  public DsimHashTable() {
+    for (int i = 0; i < SEGMENTS; i++) {
+      tables[i] = ByteBuffer.allocateDirect(INITIAL_SLOTS * SLOT).order(ByteOrder.nativeOrder());
+      locks[i] = new Object();
+    }
+  }
+
+  /**
+   * Count one more occurrence of a hash. Returns the new count.
+   */
+  public long add(long hi, long lo) {
+    /* (0,0) marks an empty slot: */
+    if (hi == 0 && lo == 0)
+      lo = 1;
+
+    int seg = (int) (lo >>> SEGMENT_SHIFT);
+    synchronized (locks[seg]) {
+      ByteBuffer table = tables[seg];
+      int mask = table.capacity() / SLOT - 1;
+      int slot = (int) (hi ^ (hi >>> 32)) & mask;
+      while (true) {
+        int pos = slot * SLOT;
+        long h = table.getLong(pos);
+        long l = table.getLong(pos + 8);
+        if (h == 0 && l == 0) {
+          table.putLong(pos, hi);
+          table.putLong(pos + 8, lo);
+          table.putLong(pos + 16, 1);
+          if (++used[seg] > (mask + 1) * 0.7)
+            grow(seg);
+          return 1;
+        }
+
+        if (h == hi && l == lo) {
+          long count = table.getLong(pos + 16) + 1;
+          table.putLong(pos + 16, count);
+          return count;
+        }
+
+        slot = (slot + 1) & mask;
+      }
+    }
+  }
+
+  /* Called while holding the segment lock: */
+  private void grow(int seg) {
+    ByteBuffer old = tables[seg];
+    int slots = old.capacity() / SLOT * 2;
+    if (slots > MAX_SLOTS)
+      common.failure("DsimHashTable: more than %,d unique hashes. Use '-S' to sample.", (long) MAX_SLOTS * SEGMENTS);
+
+    ByteBuffer table = ByteBuffer.allocateDirect(slots * SLOT).order(ByteOrder.nativeOrder());
+    int mask = slots - 1;
+    for (int pos = 0; pos < old.capacity(); pos += SLOT) {
+      long hi = old.getLong(pos);
+      long lo = old.getLong(pos + 8);
+      if (hi == 0 && lo == 0)
+        continue;
+      int slot = (int) (hi ^ (hi >>> 32)) & mask;
+      while (table.getLong(slot * SLOT) != 0 || table.getLong(slot * SLOT + 8) != 0)
+        slot = (slot + 1) & mask;
+      table.putLong(slot * SLOT, hi);
+      table.putLong(slot * SLOT + 8, lo);
+      table.putLong(slot * SLOT + 16, old.getLong(pos + 16));
+    }
+    tables[seg] = table;
+  }
+
+  public long size() {
+    long total = 0;
+    for (int count : used)
+      total += count;
+    return total;
+  }
+
+  public long getMemoryUsage() {
+    long total = 0;
+    for (ByteBuffer table : tables)
+      total += table.capacity();
+    return total;
+  }
+
+  /**
+   * Returns unique hashes, hashes used more than once, the blocks for those,
+   * and the highest use count. Only call once all hashers are done.
+   */
+  public long[] getCounts() {
+    long[] counts = new long[4];
+    for (ByteBuffer table : tables) {
+      for (int pos = 0; pos < table.capacity(); pos += SLOT) {
+        long count = table.getLong(pos + 16);
+        if (count == 0)
+          continue;
+        counts[0]++;
+        if (count > 1) {
+          counts[1]++;
+          counts[2] += count;
+        }
+        counts[3] = Math.max(counts[3], count);
+      }
+    }
+    return counts;
+  }
+}
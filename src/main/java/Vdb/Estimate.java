@@ -27,14 +27,27 @@ public class Estimate {
     display("Vdbench memory estimation ");
     display("");
 
-    sdCalculation();
-
-    // String type = query("What type of test, sd or fsd?");
-    // if (type.startsWith("s"))
-    // sdCalculation();
-    // else
-    // For fsds: 64 bytes per filename
-    // fsdCalculation();
+    String type = query("What type of test, sd or fsd?");
+    if (type.startsWith("s"))
+      sdCalculation();
+    else
+      fsdCalculation();
+  }
+
+  /**
+   * File status is kept in FileEntryStore, a fixed amount of bytes per file.
+   * Directory instances are not included.
+   */
+  private static void fsdCalculation() {
+    long fsd_count = common.parseSize(query("How many FSDs?"));
+    long files = common.parseSize(query("Number of files per FSD?"));
+    long total = fsd_count * files * FileEntryStore.BYTES_PER_FILE;
+
+    display("");
+    display("Estimated java heap needs for file status: #fsds * #files * bytes_per_file");
+    display("Estimated java heap needs for file status: %4d * %,12d * %3d = %,d (%s)", fsd_count, files,
+        FileEntryStore.BYTES_PER_FILE, total, FileAnchor.whatSize(total));
+    display("");
   }
 
   private static void sdCalculation() {
@@ -12,6 +12,8 @@ import java.io.*;
 import java.lang.*;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.Path;
@@ -67,15 +69,15 @@ public class FileAnchor extends Directory implements Serializable {
   private int existing_files = 0; /* Amount of created files */
   private int full_file_count = 0; /* Amount of files that are full */
 
-  private int round_robin_files = 0;
+  private AtomicInteger round_robin_files = new AtomicInteger(0);
   private int round_robin_dirs = 0;
 
   private Vector dir_list = null; /* List of Directory instances */
 
-  // Maybe some day change these to ArrayList?
-  private Vector<FileEntry> file_list = null; /* List of FileEntry instances */
-  private Vector<FileEntry> use_list = null; /* List of (totalsize=) */
-  private Vector<FileEntry> wss_list = null; /* Same, only for active WSS */
+  private FileEntryStore file_store = null; /* Status of all files */
+  private FileList file_list = null; /* All files in file_store */
+  private FileList use_list = null; /* List of (totalsize=) */
+  private FileList wss_list = null; /* Same, only for active WSS */
 
   public long bytes_in_file_list = 0; /* What we have in file_list */
   private long bytes_in_use_list = 0; /* What we have in use_list */
@@ -83,6 +85,7 @@ public class FileAnchor extends Directory implements Serializable {
 
   private Random file_select_randomizer = new Random();
   private Random dir_select_randomizer = new Random();
+  private boolean fixed_seed = common.get_debug(common.ANCHOR_FIXED_SEED);
 
   public Vector devxlate_list = null; /* list of disks for this anchor */
 
@@ -96,7 +99,7 @@ public class FileAnchor extends Directory implements Serializable {
   public FormatCounter mkdir_threads_running;
   public FormatCounter create_threads_running;
 
-  public int random_files_touched = 0;
+  public AtomicInteger random_files_touched = new AtomicInteger(0);
 
   public int last_format_pct = -1;
 
@@ -116,6 +119,8 @@ public class FileAnchor extends Directory implements Serializable {
   public ArrayList<FileEntry> pending_files = null;
 
   public CurlHandling curl = null;
+  public HdfsClients hdfs = null;
+  public HdfsWriteOptions hdfs_write = null;
 
   private static HashMap<String, Fput> open_rwlog_map = new HashMap(8);
 
@@ -184,6 +189,9 @@ public class FileAnchor extends Directory implements Serializable {
 
     time_initialized = common.tod();
 
+    /* An FSD may have its own hdfs clients: */
+    HdfsClients.register(hdfs);
+
     /* Randomizer must have fixed seed. In that way when we expand the */
     /* file list we get the same sizes as before. */
     file_size_randomizer = new Random(0); /* Always fixed seed! */
@@ -199,7 +207,7 @@ public class FileAnchor extends Directory implements Serializable {
 
     // matchFileAndXfersizes();
 
-    random_files_touched = 0;
+    random_files_touched.set(0);
 
     /* Store the working set size: */
     /* (Can it happen that different FSDs using the same anchor can use */
@@ -263,6 +271,10 @@ public class FileAnchor extends Directory implements Serializable {
         control_file.readControlFile(fwg);
     }
 
+    /* The control file has verified that existing files use the same policies: */
+    if (SlaveJvm.isHDFS && hdfs_write != null)
+      hdfs_write.setPolicies(HdfsClients.get(anchor_name), anchor_name);
+
     /* Create directory names: */
     dir_list = createDirectoryList(anchor_name);
 
@@ -334,16 +346,10 @@ public class FileAnchor extends Directory implements Serializable {
 
     /* Setup the optional random starting point for fileselect=seqnz: */
     if (!SlaveWorker.work.format_run && !fwg.selseq_start0) {
-      Vector list_to_use;
-      if (wss_list != null)
-        list_to_use = wss_list;
-      else if (use_list != null)
-        list_to_use = use_list;
-      else
-        list_to_use = file_list;
+      FileList list_to_use = getSelectList();
 
       Random seq_start_randomizer = new Random();
-      round_robin_files = seq_start_randomizer.nextInt(list_to_use.size());
+      round_robin_files.set(seq_start_randomizer.nextInt(list_to_use.size()));
     }
     // common.ptod("round_robin_files: %5b %5d", SlaveWorker.work.format_run,
     // round_robin_files);
@@ -457,10 +463,10 @@ public class FileAnchor extends Directory implements Serializable {
   private void createFileList(FileAnchor anchor, Vector dirlist, FwgEntry fwg) {
     /* For very large structures, clean up memory BEFORE: */
     file_list = null;
+    file_store = null;
     // GcTracker.gc();
 
     Signal signal = new Signal(2);
-    file_list = new Vector(maximum_file_count);
     int created_file_count = 0;
     int relative_file_count = 0;
     int slave_number = SlaveWorker.work.slave_number;
@@ -468,17 +474,31 @@ public class FileAnchor extends Directory implements Serializable {
     int dedupunit = Dedup.getDedupUnit();
     boolean dedup = Dedup.isDedup();
 
-    /* Preallocate some memory to eliminate too much GC activiy: */
-    // checkMemory();
-
-    /* Go through each directory and create all files for that directory: */
-    bytes_in_file_list = 0;
+    /* Only create files if there are no child directories: */
+    Vector<Directory> file_dirs = new Vector(dirlist.size());
     for (int i = 0; i < dirlist.size(); i++) {
       Directory dir = (Directory) dirlist.elementAt(i);
+      if (!dist.equals("bottom") || dir.getChildren() == null)
+        file_dirs.add(dir);
+    }
 
-      /* Only create files if there are no child directories: */
-      if (dist.equals("bottom") && dir.getChildren() != null)
-        continue;
+    /* Preallocate the file status store: */
+    if (fwg.shared)
+      file_store = new FileEntryStore(this, file_dirs.toArray(new Directory[0]), files, slave_count, slave_number);
+    else
+      file_store = new FileEntryStore(this, file_dirs.toArray(new Directory[0]), files, 1, 0);
+    file_list = new FileList(file_store);
+
+    /* Without a file status shortcut, get the file status from directory listings: */
+    DirectoryListing listing = null;
+    if (!isDeletePending() && !control_file.hasFileStatus() && !common.get_debug(common.ASSUME_FILE_EXISTS)
+        && !format_complete_used)
+      listing = new DirectoryListing(file_dirs);
+
+    /* Go through each directory and create all files for that directory: */
+    bytes_in_file_list = 0;
+    for (int i = 0; i < file_dirs.size(); i++) {
+      HashMap<String, Long> files_in_dir = (listing == null) ? null : listing.take(i);
 
       /* Create all files for this directory: */
       for (int j = 0; j < files; j++) {
@@ -496,10 +516,9 @@ public class FileAnchor extends Directory implements Serializable {
          * (Changing the file numbering will require a change from %05d to %6d ??? (1
          * million)
          */
-        FileEntry fe = new FileEntry(dir, file_size, (dedup) ? bytes_in_file_list : bytes_in_file_list,
-            file_list.size());
+        int index = file_store.add(file_size, (dedup) ? bytes_in_file_list : bytes_in_file_list);
+        file_store.get(index).checkStatus(files_in_dir);
 
-        file_list.add(fe);
         // common.ptod("fe: " + fe.getFullName() + " " + file_list.size());
         created_file_count++;
 
@@ -519,6 +538,8 @@ public class FileAnchor extends Directory implements Serializable {
 
     common.ptod("Generated %,d file names; total anchor size: %s (%,d)", created_file_count,
         whatSize(bytes_in_file_list), bytes_in_file_list);
+    common.ptod("File status store for anchor=%s: %,d bytes; %d bytes per file", getAnchorName(),
+        file_store.getMemoryUsage(), FileEntryStore.BYTES_PER_FILE);
     if (signal.getAge() > 30)
       SlaveJvm.sendMessageToConsole("Completing the creation of internal " + "file structure for anchor=%s: %,d files.",
           getAnchorName(), created_file_count);
@@ -555,11 +576,11 @@ public class FileAnchor extends Directory implements Serializable {
     use_list = null;
 
     /* When fileselect empty/full/notfull is used create a subset list first: */
-    Vector<FileEntry> work_list = file_list;
+    FileList work_list = file_list;
     long bytes_in_worklist = bytes_in_file_list;
     if (fwg.select_full || fwg.select_empty || fwg.select_nfull) {
       bytes_in_worklist = 0;
-      work_list = new Vector(16384);
+      work_list = new FileList(file_store, 16384);
       for (FileEntry fe : file_list) {
         if (!checkFileStatus(fe, fwg))
           continue;
@@ -626,9 +647,9 @@ public class FileAnchor extends Directory implements Serializable {
     /* Now pick up any busy FileEntry and put it in the new list. */
     /* (This eliminates the need to do a sort on the file names), */
     /* (the original list is already in the proper order) */
-    Vector<FileEntry> subset_list = new Vector(16384);
+    FileList subset_list = new FileList(file_store, 16384);
     for (int i = 0; i < work_list.size(); i++) {
-      FileEntry fe = (FileEntry) work_list.elementAt(i);
+      FileEntry fe = work_list.elementAt(i);
       if (fe.isBusy()) {
         fe.setUnBusy();
         subset_list.add(fe);
@@ -686,7 +707,7 @@ public class FileAnchor extends Directory implements Serializable {
     if (working_set == 0)// || SlaveWorker.work.format_run)
       return;
 
-    Vector list_to_use = (use_list == null) ? file_list : use_list;
+    FileList list_to_use = (use_list == null) ? file_list : use_list;
     long bytes_in_list = (use_list == null) ? bytes_in_file_list : bytes_in_use_list;
     boolean lefovers = working_set < 0;
     if (lefovers)
@@ -715,7 +736,7 @@ public class FileAnchor extends Directory implements Serializable {
     Random subset_random = new Random(0);
     while (bytes_in_wss_list < working_set) {
       int number = (int) (subset_random.nextDouble() * list_to_use.size());
-      FileEntry fe = (FileEntry) list_to_use.elementAt(number);
+      FileEntry fe = list_to_use.elementAt(number);
       if (fe == null)
         common.failure("Unable to create a working set size (wss) subset.");
 
@@ -738,14 +759,14 @@ public class FileAnchor extends Directory implements Serializable {
         full_file_count++;
     }
 
-    /* Allocate an estimated Vector size: */
+    /* Allocate an estimated list size: */
     int list_size = (int) (working_set / bytes_in_list * list_to_use.size());
-    Vector subset_list = new Vector(list_size);
+    FileList subset_list = new FileList(file_store, list_size);
 
     /* Now pick up any busy FileEntry and put it in the new list. */
     /* (This eliminates the need to do a sort on the file names) */
     for (int i = 0; i < list_to_use.size(); i++) {
-      FileEntry fe = (FileEntry) list_to_use.elementAt(i);
+      FileEntry fe = list_to_use.elementAt(i);
       if (fe.isBusy()) {
         fe.setUnBusy();
         if (!lefovers)
@@ -768,13 +789,14 @@ public class FileAnchor extends Directory implements Serializable {
     wss_list = subset_list;
 
     for (int i = Integer.MAX_VALUE; i < wss_list.size(); i++) {
-      FileEntry fe = (FileEntry) wss_list.elementAt(i);
+      FileEntry fe = wss_list.elementAt(i);
       common.ptod("fe3: " + fe.getFullName());
     }
   }
 
   public void startRoundRobin() {
-    round_robin_files = round_robin_dirs = 0;
+    round_robin_files.set(0);
+    round_robin_dirs = 0;
   }
 
   public String getAnchorName() {
@@ -862,60 +884,40 @@ public class FileAnchor extends Directory implements Serializable {
    * Find a file. Just pick any file, whether it is busy or idle.
    *
    * Even a busy file can be returned because the caller may decide he wants to
-   * wait for something, and we can't do that inside of the synchronized lock.
+   * wait for something, and we can't do that inside of a synchronized lock.
+   *
+   * This is called by every FwgThread for every file it picks, so it is not
+   * synchronized: files are picked from a file list that no longer changes,
+   * using a per-thread randomizer and an atomic round-robin cursor.
    */
   private int[] select_counters = null;
 
-  public synchronized FileEntry getFile(FwgEntry fwg) {
+  public FileEntry getFile(FwgEntry fwg) {
     boolean debug2 = false;
 
     if (debug2)
       common.ptod("getFile0 start: ");
-    Vector list_to_use;
-    if (wss_list != null)
-      list_to_use = wss_list;
-    else if (use_list != null)
-      list_to_use = use_list;
-    else
-      list_to_use = file_list;
+    FileList list_to_use = getSelectList();
 
     /* During journal recovery we first have to read all pending blocks: */
     if (Validate.isJournalRecovery() && pending_files != null) {
-      if (pending_files.size() > 0) {
-        FileEntry fe = pending_files.get(0);
-
-        /* 'pending_writes' flag will be reset at seq eof: */
-        fe.pending_writes = true;
-
-        /* Remove this file from 'pending files to read': */
-        pending_files.remove(fe);
+      FileEntry fe = getPendingFile();
+      if (fe != null) {
         if (debug2)
           common.ptod("getFile1: " + fe);
-        common.ptod("this file has pending writes: " + fe);
         return fe;
       }
-
-      /* When the last file has been picked up, either by this thread */
-      /* or by an other thread, clear the pending_files map. */
-      /* The pending lba map must stick around, since we can have an other */
-      /* thread still needing it. */
-      if (pending_files.size() == 0) {
-        /* Not completely 'complete', an other thread may still be reading. */
-        ErrorLog.plog("Verifying of pending writes for fsd=%s complete", fsd_name_active);
-        pending_files = null;
-        // pending_file_lba_map = null;
-      }
     }
 
     if (fwg.select_random) {
+      Random randomizer = getSelectRandomizer();
+
       /* If fileselect=once is given, try until we've touched all files: */
       /* (With a huge amount of files this may loop a bit!) */
       if (fwg.select_once) {
         while (true) {
-          if (random_files_touched >= getFileCount()) {
-            if (!once_message_sent)
-              SlaveJvm.sendMessageToSummary("Reached 'fileselect=once' for anchor %s", anchor_name);
-            once_message_sent = true;
+          if (random_files_touched.get() >= list_to_use.size()) {
+            sendOnceMessage();
 
             /* See note below under 'sequential' */
             if (debug2)
@@ -925,11 +927,10 @@ public class FileAnchor extends Directory implements Serializable {
           }
 
           /* distPoisson() is NEVER used for 'once': */
-          int file_number = file_select_randomizer.nextInt(list_to_use.size());
-          FileEntry fe = (FileEntry) list_to_use.elementAt(file_number);
-          if (!fe.isSelected()) {
-            fe.setSelected();
-            random_files_touched++;
+          int file_number = randomizer.nextInt(list_to_use.size());
+          FileEntry fe = list_to_use.get(file_number);
+          if (fe.trySelect()) {
+            random_files_touched.incrementAndGet();
             if (debug2)
               common.ptod("getFile3: " + fe);
             return fe;
@@ -940,9 +941,9 @@ public class FileAnchor extends Directory implements Serializable {
       /* Normal random or skewed file selection: */
       int file_number;
       if (fwg.poisson_skew == 0)
-        file_number = file_select_randomizer.nextInt(list_to_use.size());
+        file_number = randomizer.nextInt(list_to_use.size());
       else
-        file_number = (int) ownmath.distPoisson(list_to_use.size(), fwg.poisson_skew);
+        file_number = (int) ownmath.distPoisson(list_to_use.size(), fwg.poisson_skew, randomizer);
 
       // Don't remove
       // debugging: creation a simple distribution chart of selected files.
@@ -954,72 +955,128 @@ public class FileAnchor extends Directory implements Serializable {
           select_counters[file_number]++;
       }
 
-      FileEntry fe = (FileEntry) list_to_use.get(file_number);
+      FileEntry fe = list_to_use.get(file_number);
       if (debug2)
         common.ptod("getFile4: " + fe);
 
       return fe;
     }
 
-    /* Did we pass through roundrobin for journal recovery? */
-    // common.ptod("round_robin_files: " + list_to_use.size() + " " +
-    // round_robin_files );
-    if (round_robin_files >= list_to_use.size()) {
-      if (Validate.isJournalRecoveryActive()) {
-        if (debug2)
-          common.ptod("getFile5: null");
-        return null;
+    /* Sequential scanning of the file list: */
+    /* Round-robin over the whole list. The cursor never passes the end of */
+    /* the list, which is what anyFilesToFormat() relies on. */
+    while (true) {
+      int index = round_robin_files.get();
+
+      if (index >= list_to_use.size()) {
+        /* Did we pass through roundrobin for journal recovery? */
+        if (Validate.isJournalRecoveryActive()) {
+          if (debug2)
+            common.ptod("getFile5: null");
+          return null;
+        }
+        if (SlaveWorker.work.format_run) {
+          if (debug2)
+            common.ptod("getFile6: null");
+          return null;
+        }
+
+        if (fwg.select_once) {
+          sendOnceMessage();
+          fwg.work_done = true;
+
+          /* There is NO check as there is with SDs that when there are other */
+          /* workloads besides 'once', we still terminate after the last of */
+          /* the 'once' runs are done. */
+          /* That is OK with me. */
+          /* Also see Task_num.checkAllInTermination() */
+
+          if (debug2)
+            common.ptod("getFile7: null");
+          return null;
+        }
+
+        round_robin_files.compareAndSet(index, 0);
+        continue;
       }
-      if (SlaveWorker.work.format_run) {
+
+      if (round_robin_files.compareAndSet(index, index + 1)) {
+        FileEntry fe = list_to_use.get(index);
         if (debug2)
-          common.ptod("getFile6: null");
-        return null;
+          common.ptod("getFile8: " + fe);
+        return fe;
       }
     }
+  }
 
-    /* Sequential scanning of the file list: */
-    /* Round-robin over the whole list: */
-    if (round_robin_files >= list_to_use.size()) {
-      if (fwg.select_once) {
-        if (!once_message_sent)
-          SlaveJvm.sendMessageToSummary("Reached 'fileselect=once' for anchor %s", anchor_name);
-        once_message_sent = true;
-        fwg.work_done = true;
+  /**
+   * Pick up the next file that has pending writes to be verified during journal
+   * recovery.
+   */
+  private synchronized FileEntry getPendingFile() {
+    if (pending_files == null)
+      return null;
 
-        /* There is NO check as there is with SDs that when there are other */
-        /* workloads besides 'once', we still terminate after the last of */
-        /* the 'once' runs are done. */
-        /* That is OK with me. */
-        /* Also see Task_num.checkAllInTermination() */
+    if (pending_files.size() > 0) {
+      FileEntry fe = pending_files.get(0);
 
-        if (debug2)
-          common.ptod("getFile7: null");
-        return null;
-      }
-      round_robin_files = 0;
+      /* 'pending_writes' flag will be reset at seq eof: */
+      fe.setPendingWrites(true);
+
+      /* Remove this file from 'pending files to read': */
+      pending_files.remove(fe);
+      common.ptod("this file has pending writes: " + fe);
+      return fe;
     }
 
-    FileEntry fe = (FileEntry) list_to_use.elementAt(round_robin_files++);
-    if (debug2)
-      common.ptod("getFile8: " + fe);
-    return fe;
+    /* When the last file has been picked up, either by this thread */
+    /* or by an other thread, clear the pending_files map. */
+    /* The pending lba map must stick around, since we can have an other */
+    /* thread still needing it. */
+    /* Not completely 'complete', an other thread may still be reading. */
+    ErrorLog.plog("Verifying of pending writes for fsd=%s complete", fsd_name_active);
+    pending_files = null;
+    // pending_file_lba_map = null;
+
+    return null;
+  }
+
+  private synchronized void sendOnceMessage() {
+    if (!once_message_sent)
+      SlaveJvm.sendMessageToSummary("Reached 'fileselect=once' for anchor %s", anchor_name);
+    once_message_sent = true;
   }
 
   /**
-   * See if we have to reached the end of going through our list of files in
-   * round-robin mode. This signifies 'done with format' Ugly!
+   * Each thread uses its own randomizer, unless we were asked to use a fixed
+   * seed. In that case all threads share the one fixed seed randomizer.
    */
-  public synchronized boolean anyFilesToFormat() {
-    Vector list_to_use;
+  private Random getSelectRandomizer() {
+    if (fixed_seed)
+      return file_select_randomizer;
+    return ThreadLocalRandom.current();
+  }
+
+  /**
+   * Return the list that files are selected from: wss_list, use_list or
+   * file_list. These lists do not change once created, so no lock is needed.
+   */
+  private FileList getSelectList() {
     if (wss_list != null)
-      list_to_use = wss_list;
+      return wss_list;
     else if (use_list != null)
-      list_to_use = use_list;
+      return use_list;
     else
-      list_to_use = file_list;
+      return file_list;
+  }
 
+  /**
+   * See if we have to reached the end of going through our list of files in
+   * round-robin mode. This signifies 'done with format' Ugly!
+   */
+  public boolean anyFilesToFormat() {
     /* Did we pass through roundrobin? */
-    if (round_robin_files >= list_to_use.size())
+    if (round_robin_files.get() >= getSelectList().size())
       return false;
     else
       return true;
@@ -1361,20 +1418,12 @@ public class FileAnchor extends Directory implements Serializable {
     // }
   }
 
-  public Vector<FileEntry> getFileList() {
+  public FileList getFileList() {
     return file_list;
   }
 
   public int getFileCount() {
-    Vector list_to_use;
-    if (wss_list != null)
-      list_to_use = wss_list;
-    else if (use_list != null)
-      list_to_use = use_list;
-    else
-      list_to_use = file_list;
-
-    return list_to_use.size();
+    return getSelectList().size();
   }
 
   public int getFullFileCount() {
@@ -1389,7 +1438,7 @@ public class FileAnchor extends Directory implements Serializable {
   }
 
   public FileEntry getRelativeFile(int no) {
-    return (FileEntry) file_list.elementAt(no);
+    return file_store.get(no);
   }
 
   /**
@@ -2078,7 +2127,7 @@ public class FileAnchor extends Directory implements Serializable {
       if (SlaveJvm.isHDFS) {
         FileStatus[] status;
         try {
-          status = SlaveJvm.fileSys.listStatus(new Path(getAnchorName()), filter);
+          status = HdfsClients.get(getAnchorName()).listStatus(new Path(getAnchorName()), filter);
           for (FileStatus st : status){
             if (st.isDirectory()){
               common.sleep_some(100);
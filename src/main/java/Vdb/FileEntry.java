@@ -15,56 +15,33 @@ import Utils.Format;
 import Utils.Fput;
 
 /**
- * This class contains all data needed for a specific file name
+ * This class contains all data needed for a specific file name.
+ *
+ * The data itself lives in the anchor's FileEntryStore; a FileEntry is only a
+ * view of one file in that store. Two FileEntry instances for the same file
+ * are equal, though they are not the same object.
  */
 public class FileEntry implements Comparable {
   private final static String c = "Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.";
 
-  private Directory parent = null;
-  private long req_file_size = 0; /* Requested file size */
-  private long cur_file_size = 0; /* Current file size */
-  private int file_no_in_list = 0; /* Used for copy/move */
-  private int use_count = 0;
-  private boolean file_opened = false;
-  private boolean file_selected = false;
-
-  private boolean file_exists = false;
-  private boolean file_busy = false;
-  private boolean bad_file = false; /* Any i/o error occurred */
-  private boolean format_complete = false;
-  private boolean marked_busy = false;
-  private boolean parent_busy = false;
-  private boolean file_copied = false;
-
-  public boolean pending_writes = false; /* During journal recovery */
-
-  private long file_start_lba = 0; /* Used for Data Validation */
-  private int bad_bytes = 0;
-  private char bad_blocks = 0;
-
-  private long last_lba_used = 0;
+  private final FileEntryStore store;
+  private final int index; /* Relative file# within the file_list */
 
   private static boolean debug = common.get_debug(common.FILEENTRY_SET_BUSY);
 
-  private static long queries = 0;
-  private static long found = 0;
-
-  public FileEntry() {
+  public FileEntry(FileEntryStore store, int index) {
+    this.store = store;
+    this.index = index;
   }
 
   /**
-   * - parent: Parent Directory - no: relative file# within directory, starting
-   * with one. - size: requested file size - lba: relatiove LBA for Data
-   * Validation - seqno: relative file# within the file_list
+   * Determine the status of a newly added file. 'listing' has the names and
+   * sizes of the files in the parent directory; it is only needed when there
+   * is no control file with the file status.
    */
-  public FileEntry(Directory parent_dir, long size, long lba, int seqno) {
-    parent = parent_dir;
-    req_file_size = size;
-    file_start_lba = lba;
-    file_no_in_list = seqno;
-
-    if (file_no_in_list >= Integer.MAX_VALUE)
-      common.failure("Maximum file number reached, only 31 bits available.");
+  public void checkStatus(HashMap<String, Long> listing) {
+    Directory parent = getParent();
+    long req_file_size = getReqSize();
 
     /* When we have a delete pending in a format run we don't need to */
     /* really understand the current status of the files since they */
@@ -82,57 +59,45 @@ public class FileEntry implements Comparable {
          * -1: file does not exist. -2: file exists and is full nn: file exists with
          * length 'nn'
          */
-        long control_size = getAnchor().getControlFile().getFileSize(file_no_in_list, req_file_size);
+        long control_size = getAnchor().getControlFile().getFileSize(index, req_file_size);
         // common.ptod("cur_file_size: " + cur_file_size + " " + file_no_in_list);
 
         /* Does file exist? */
         if (control_size != -1) {
-          file_exists = true;
+          store.setFlag(index, FileEntryStore.EXISTS, true);
           parent.countFiles(+1, this);
-          cur_file_size = control_size;
-          if (cur_file_size == req_file_size)
+          store.setCurrentSize(index, control_size);
+          if (control_size == req_file_size)
             getAnchor().countFullFiles(+1, this);
         }
       }
 
       else if (common.get_debug(common.ASSUME_FILE_EXISTS)) {
-        file_exists = true;
-        cur_file_size = req_file_size;
+        store.setFlag(index, FileEntryStore.EXISTS, true);
+        store.setCurrentSize(index, req_file_size);
         getAnchor().countFullFiles(+1, this);
         parent.countFiles(+1, this);
       }
 
       else if (getAnchor().format_complete_used) {
-        file_exists = true;
-        cur_file_size = req_file_size;
+        store.setFlag(index, FileEntryStore.EXISTS, true);
+        store.setCurrentSize(index, req_file_size);
         getAnchor().countFullFiles(+1, this);
         parent.countFiles(+1, this);
       }
 
-      /* there is no shortcut from ControlFile: use the file system to get status: */
+      /* there is no shortcut from ControlFile: use the directory listing: */
       else {
-        File file_ptr;
-        if (SlaveJvm.isHDFS) {
-          file_ptr = new HDFSFile(getFullName());
-        } else {
-          file_ptr = new File(getFullName());
-        }
-        file_exists = parent.hasFile(getShortName());
-        if (++queries % 1000000 == 0) {
-          common.ptod("FileEntry queries: " + queries + " " + found + " " + (found * 100 / queries));
+        Long size = listing.get(getShortName());
+        if (size != null) {
+          store.setFlag(index, FileEntryStore.EXISTS, true);
 
-          // new FileEntrys are always created in directory order.
-          // Would it be advisible to do a File.list() to avoid overhead?
-        }
-
-        if (file_exists) {
           /* Can not use setCurrentSize() for the first call: */
-          cur_file_size = file_ptr.length();
-          if (cur_file_size == req_file_size)
+          store.setCurrentSize(index, size);
+          if (getCurrentSize() == req_file_size)
             getAnchor().countFullFiles(+1, this);
 
           parent.countFiles(+1, this);
-          found++;
         }
       }
     }
@@ -143,25 +108,31 @@ public class FileEntry implements Comparable {
     // common.ptod("Created FileEntry: " + getName() + " " + file_exists);
   }
 
+  FileEntryStore getStore() {
+    return store;
+  }
+
   /**
    * Set file busy. If already busy, return false.
    */
-  public synchronized boolean setFileBusy() {
-    if (debug)
-      common.ptod("setFileBusy: " + getFullName() + " " + file_busy);
+  public boolean setFileBusy() {
+    synchronized (store.getLock(index)) {
+      if (debug)
+        common.ptod("setFileBusy: " + getFullName() + " " + isBusy());
+
+      /* The old fashioned way: just one user: */
+      if (!getAnchor().fileSharing()) {
+        if (isBusy())
+          return false;
+        store.setFlag(index, FileEntryStore.BUSY, true);
+        return true;
+      }
 
-    /* The old fashioned way: just one user: */
-    if (!getAnchor().fileSharing()) {
-      if (file_busy)
-        return false;
-      file_busy = true;
+      /* Sharing files, keep track of use count: */
+      store.setUseCount(index, store.getUseCount(index) + 1);
+      store.setFlag(index, FileEntryStore.BUSY, true);
       return true;
     }
-
-    /* Sharing files, keep track of use count: */
-    use_count++;
-    file_busy = true;
-    return true;
   }
 
   /**
@@ -172,120 +143,137 @@ public class FileEntry implements Comparable {
    * (What happens when we share --creating-- of a file? Should technically work,
    * but is rediculous. Oh well, the user asks for it.
    */
-  public synchronized boolean setFileBusyExc() {
-    if (debug)
-      common.ptod("setFileBusyExc: " + getFullName() + " " + file_busy);
-    // common.ptod("getAnchor().fileSharing(): " + getAnchor().fileSharing());
+  public boolean setFileBusyExc() {
+    synchronized (store.getLock(index)) {
+      if (debug)
+        common.ptod("setFileBusyExc: " + getFullName() + " " + isBusy());
+      // common.ptod("getAnchor().fileSharing(): " + getAnchor().fileSharing());
 
-    if (file_busy)
-      return false;
-    file_busy = true;
-    use_count = 1;
-    return true;
+      if (isBusy())
+        return false;
+      store.setFlag(index, FileEntryStore.BUSY, true);
+      store.setUseCount(index, 1);
+      return true;
+    }
   }
 
-  public synchronized void setUnBusy() {
-    if (debug)
-      common.ptod("setUnBusy:   " + getFullName() + " " + file_busy);
+  public void setUnBusy() {
+    synchronized (store.getLock(index)) {
+      if (debug)
+        common.ptod("setUnBusy:   " + getFullName() + " " + isBusy());
 
-    if (!file_busy)
-      common.failure("setUnBusy(false): entry not busy: " + getFullName());
+      if (!isBusy())
+        common.failure("setUnBusy(false): entry not busy: " + getFullName());
 
-    /* The old fashioned way: just one user: */
-    if (!getAnchor().fileSharing()) {
-      file_busy = false;
-      if (parent_busy) {
-        parent.setBusy(false);
-        parent_busy = false;
-      }
-    }
+      /* The old fashioned way: just one user: */
+      if (!getAnchor().fileSharing())
+        clearBusy();
 
-    else {
-      /* Sharing file, keep track of use count: */
-      if (--use_count == 0) {
-        file_busy = false;
-        if (parent_busy) {
-          parent.setBusy(false);
-          parent_busy = false;
-        }
+      else {
+        /* Sharing file, keep track of use count: */
+        store.setUseCount(index, store.getUseCount(index) - 1);
+        if (store.getUseCount(index) == 0)
+          clearBusy();
       }
     }
   }
 
-  private synchronized boolean obsolete_setBusy(boolean bool) {
-    if (debug)
-      common.ptod("FileEntry.setBusy: " + getFullName() + " " + file_busy + " ===> " + bool);
-
-    if (bool && file_busy)
-      return false;
-
-    else if (!bool && !file_busy)
-      common.failure("FileEntry.setBusy(false): entry not busy: " + getFullName());
-
-    file_busy = bool;
-    marked_busy = bool;
-
-    return true;
+  private void clearBusy() {
+    store.setFlag(index, FileEntryStore.BUSY, false);
+    if (store.isSet(index, FileEntryStore.PARENT_BUSY)) {
+      getParent().setBusy(false);
+      store.setFlag(index, FileEntryStore.PARENT_BUSY, false);
+    }
   }
 
-  public synchronized boolean setParentBusy(boolean bool) {
-    boolean rc = parent.setBusy(bool);
-    if (rc)
-      parent_busy = bool;
+  public boolean setParentBusy(boolean bool) {
+    synchronized (store.getLock(index)) {
+      boolean rc = getParent().setBusy(bool);
+      if (rc)
+        store.setFlag(index, FileEntryStore.PARENT_BUSY, bool);
 
-    return rc;
+      return rc;
+    }
   }
 
-  public synchronized void cleanup() {
-    // 4/8/11: 'marked_busy' is clearly obsolete!
-    // if (marked_busy)
-    setUnBusy();
-    if (parent_busy) {
-      parent.setBusy(false);
-      parent_busy = false;
+  public void cleanup() {
+    synchronized (store.getLock(index)) {
+      // 4/8/11: 'marked_busy' is clearly obsolete!
+      // if (marked_busy)
+      setUnBusy();
+      if (store.isSet(index, FileEntryStore.PARENT_BUSY)) {
+        getParent().setBusy(false);
+        store.setFlag(index, FileEntryStore.PARENT_BUSY, false);
+      }
     }
   }
 
   public boolean isBusy() {
-    return file_busy;
+    return store.isSet(index, FileEntryStore.BUSY);
   }
 
   public boolean exists() {
-    return file_exists;
+    return store.isSet(index, FileEntryStore.EXISTS);
   }
 
   public void setExists(boolean bool) {
-    if (bool && file_exists)
+    if (bool && exists())
       common.failure("setExists(): file already exists: " + getFullName());
-    if (!bool && !file_exists)
+    if (!bool && !exists())
       common.failure("setExists(): file already does not exist: " + getFullName());
 
-    file_exists = bool;
+    store.setFlag(index, FileEntryStore.EXISTS, bool);
   }
 
   public boolean isFull() {
-    boolean rc = req_file_size == cur_file_size;
+    boolean rc = getReqSize() == getCurrentSize();
     // common.ptod("isFull(): " + getName() + " " + rc);
     return rc;
   }
 
   public void setOpened() {
-    file_opened = true;
+    store.setFlag(index, FileEntryStore.OPENED, true);
   }
 
   public boolean getOpened() {
-    return file_opened;
+    return store.isSet(index, FileEntryStore.OPENED);
   }
 
   public void setSelected() {
-    file_selected = true;
+    store.setFlag(index, FileEntryStore.SELECTED, true);
   }
 
   public boolean isSelected() {
-    return file_selected;
+    return store.isSet(index, FileEntryStore.SELECTED);
+  }
+
+  /**
+   * Mark the file selected. Returns false if an other thread already did.
+   */
+  public boolean trySelect() {
+    synchronized (store.getLock(index)) {
+      if (isSelected())
+        return false;
+      setSelected();
+      return true;
+    }
+  }
+
+  /**
+   * Pending writes found during journal recovery.
+   */
+  public boolean hasPendingWrites() {
+    return store.isSet(index, FileEntryStore.PENDING_WRITES);
+  }
+
+  public void setPendingWrites(boolean bool) {
+    store.setFlag(index, FileEntryStore.PENDING_WRITES, bool);
   }
 
   public void setCurrentSize(long size) {
+    long cur_file_size = getCurrentSize();
+    long req_file_size = getReqSize();
+
     /* If the size stays unchanged, just leave: */
     if (size == cur_file_size)
       return;
@@ -298,19 +286,20 @@ public class FileEntry implements Comparable {
     else if (cur_file_size == req_file_size)
       getAnchor().countFullFiles(-1, this);
 
-    cur_file_size = size;
+    store.setCurrentSize(index, size);
   }
 
   public long getCurrentSize() {
-    return cur_file_size;
+    return store.getCurrentSize(index);
   }
 
   public void setBlockBad(int xfersize) {
-    bad_bytes += xfersize;
-    bad_blocks++;
+    int[] bads = store.countBadBlock(index, xfersize);
+    int bad_bytes = bads[0];
+    int bad_blocks = bads[1];
     // common.ptod("bad_bytes: " + bad_bytes + " " + bad_blocks);
 
-    if (bad_file)
+    if (isBadFile())
       return;
 
     if (bad_bytes > getReqSize() / 100) {
@@ -327,72 +316,72 @@ public class FileEntry implements Comparable {
   }
 
   private void setBadFile() {
-    bad_file = true;
+    store.setFlag(index, FileEntryStore.BAD_FILE, true);
     ErrorLog.ptod("File marked bad: " + getFullName());
   }
 
   public boolean isBadFile() {
     // common.ptod("isBadFile: " + bad_file + " " + getName());
-    return bad_file;
+    return store.isSet(index, FileEntryStore.BAD_FILE);
   }
 
   public long getReqSize() {
-    return req_file_size;
+    return store.getReqSize(index);
   }
 
   public int getFileNoInList() {
-    return file_no_in_list;
+    return index;
   }
 
   public void setFormatComplete(boolean bool) {
-    format_complete = bool;
+    store.setFlag(index, FileEntryStore.FORMAT_COMPLETE, bool);
   }
 
   public boolean isFormatComplete() {
-    return format_complete;
+    return store.isSet(index, FileEntryStore.FORMAT_COMPLETE);
   }
 
   private static long count = 0;
 
   public String getFullName() {
-    return parent.getFullName() + getShortName();
+    return getParent().getFullName() + getShortName();
   }
 
   public String getShortName() {
-    String name = String.format(getAnchor().file_mask, file_no_in_list);
+    String name = String.format(getAnchor().file_mask, index);
     return name;
   }
 
   public Directory getParent() {
-    return parent;
+    return store.getParent(index);
   }
 
   public String getParentName() {
-    return parent.getFullName();
+    return getParent().getFullName();
   }
 
   public FileAnchor getAnchor() {
-    return getParent().getAnchor();
+    return store.getAnchor();
   }
 
   public long getFileStartLba() {
-    return file_start_lba;
+    return store.getStartLba(index);
   }
 
   public void setLastLba(long lba) {
-    last_lba_used = lba;
+    store.setLastLba(index, lba);
   }
 
   public long getLastLba() {
-    return last_lba_used;
+    return store.getLastLba(index);
   }
 
   public boolean hasBeenCopied() {
-    return file_copied;
+    return store.isSet(index, FileEntryStore.COPIED);
   }
 
   public void setCopied(boolean bool) {
-    file_copied = bool;
+    store.setFlag(index, FileEntryStore.COPIED, bool);
   }
 
   /**
@@ -407,15 +396,15 @@ public class FileEntry implements Comparable {
    * This problem of course shows up with fileio=(seq,delete)
    */
   public void deleteFile(FwgEntry fwg) {
-    long start = Native.get_simple_tod();
-    File file_ptr = new File(getFullName());
+    long start = Native.getSimpleTod();
+    File file_ptr = (SlaveJvm.isHDFS) ? new HDFSFile(getFullName()) : new File(getFullName());
     if (!file_ptr.delete())
       common.failure("unable to delete file " + getFullName());
     FwdStats.count(Operations.DELETE, start);
     // if (common.onWindows())
     // common.sleep_some(5);
 
-    parent.countFiles(-1, this);
+    getParent().countFiles(-1, this);
     setExists(false);
     setCurrentSize(0);
 
@@ -423,11 +412,22 @@ public class FileEntry implements Comparable {
     getAnchor().countExistingFiles(-1, this);
 
     if (Validate.isValidate())
-      getAnchor().allocateKeyMap(file_start_lba).clearMapForFile(req_file_size, getAnchor().getDVMap());
+      getAnchor().allocateKeyMap(getFileStartLba()).clearMapForFile(getReqSize(), getAnchor().getDVMap());
     if (debug)
       common.ptod("deleted: " + getFullName());
   }
 
+  public boolean equals(Object obj) {
+    if (!(obj instanceof FileEntry))
+      return false;
+    FileEntry fe = (FileEntry) obj;
+    return fe.store == store && fe.index == index;
+  }
+
+  public int hashCode() {
+    return index;
+  }
+
   public int compareTo(Object obj) {
     FileEntry fe = (FileEntry) obj;
     return (int) getFullName().compareTo(fe.getFullName());
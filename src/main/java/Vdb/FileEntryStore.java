@@ -0,0 +1,188 @@
+package Vdb;
+
+import java.util.*;
+
+/**
+ * Columnar store for the status of all files of one FileAnchor.
+ *
+ * With a hundred million files or more per anchor one FileEntry instance per
+ * file made the heap the limit, and GC pauses started showing up in the
+ * response times. All per-file information now lives in the primitive arrays
+ * below, indexed by the file's number in the file list. Primitive arrays are
+ * never scanned by GC. FileEntry is only a small (store, index) view that is
+ * created when needed.
+ *
+ * The parent Directory is not stored. Files are created in directory order,
+ * 'files=' for each directory that holds files, and on a shared FSD each slave
+ * gets every n-th file. The parent therefore can be calculated from the index,
+ * just like Directory reconstructs its names from depth and width.
+ */
+class FileEntryStore {
+  /* Flags kept in the low 16 bits of 'status': */
+  static final int OPENED = 0x0001;
+  static final int SELECTED = 0x0002;
+  static final int EXISTS = 0x0004;
+  static final int BUSY = 0x0008;
+  static final int BAD_FILE = 0x0010;
+  static final int FORMAT_COMPLETE = 0x0020;
+  static final int PARENT_BUSY = 0x0040;
+  static final int COPIED = 0x0080;
+  static final int PENDING_WRITES = 0x0100;
+
+  /* The file sharing use count is kept in the high 16 bits: */
+  private static final int USE_SHIFT = 16;
+  private static final int FLAG_MASK = 0xffff;
+
+  /* Four longs and one int for each file: */
+  public static final int BYTES_PER_FILE = 4 * 8 + 4;
+
+  private FileAnchor anchor;
+  private Directory[] dirs; /* Directories holding files, in file order */
+  private int files_per_dir;
+  private int slave_count;
+  private int slave_number;
+
+  private long[] req_size; /* Requested file size */
+  private long[] cur_size; /* Current file size */
+  private long[] start_lba; /* Used for Data Validation */
+  private long[] last_lba; /* Last lba used, for 'stopafter' */
+  private int[] status; /* Flags and use count */
+  private int count = 0;
+
+  /* Bad bytes and bad blocks; only for files that had an error: */
+  private HashMap<Integer, int[]> bad_map = new HashMap(8);
+
+  /* Lock striping replaces the old 'synchronized' FileEntry methods: */
+  private Object[] locks = new Object[256];
+
+  /**
+   * - dirs: the directories that hold files, in file order - files_per_dir:
+   * 'files=' - slave_count/slave_number: for shared FSDs, otherwise 1 and 0.
+   */
+  public FileEntryStore(FileAnchor anchor, Directory[] dirs, int files_per_dir, int slave_count, int slave_number) {
+    this.anchor = anchor;
+    this.dirs = dirs;
+    this.files_per_dir = files_per_dir;
+    this.slave_count = slave_count;
+    this.slave_number = slave_number;
+
+    long total = (long) dirs.length * files_per_dir;
+    long capacity = (total <= slave_number) ? 0 : (total - slave_number + slave_count - 1) / slave_count;
+    if (capacity >= Integer.MAX_VALUE)
+      common.failure("Maximum file number reached, only 31 bits available.");
+
+    req_size = new long[(int) capacity];
+    cur_size = new long[(int) capacity];
+    start_lba = new long[(int) capacity];
+    last_lba = new long[(int) capacity];
+    status = new int[(int) capacity];
+
+    for (int i = 0; i < locks.length; i++)
+      locks[i] = new Object();
+  }
+
+  /**
+   * Add the next file. Returns its index.
+   */
+  public int add(long size, long lba) {
+    if (count >= status.length)
+      common.failure("FileEntryStore.add(): more than the expected %,d files", status.length);
+
+    req_size[count] = size;
+    start_lba[count] = lba;
+    return count++;
+  }
+
+  public int size() {
+    return count;
+  }
+
+  public FileEntry get(int index) {
+    if (index >= count)
+      common.failure("FileEntryStore.get(): invalid file number %d; %d files", index, count);
+    return new FileEntry(this, index);
+  }
+
+  public FileAnchor getAnchor() {
+    return anchor;
+  }
+
+  public Directory getParent(int index) {
+    return dirs[(int) (((long) index * slave_count + slave_number) / files_per_dir)];
+  }
+
+  public Object getLock(int index) {
+    return locks[index % locks.length];
+  }
+
+  public boolean isSet(int index, int flag) {
+    return (status[index] & flag) != 0;
+  }
+
+  public void setFlag(int index, int flag, boolean bool) {
+    synchronized (getLock(index)) {
+      if (bool)
+        status[index] |= flag;
+      else
+        status[index] &= ~flag;
+    }
+  }
+
+  /**
+   * The use count may only be changed while holding getLock(index).
+   */
+  public int getUseCount(int index) {
+    return status[index] >>> USE_SHIFT;
+  }
+
+  public void setUseCount(int index, int use_count) {
+    if (use_count < 0 || use_count > (-1 >>> USE_SHIFT))
+      common.failure("FileEntryStore.setUseCount(): invalid use count: %d", use_count);
+    status[index] = (status[index] & FLAG_MASK) | (use_count << USE_SHIFT);
+  }
+
+  public long getReqSize(int index) {
+    return req_size[index];
+  }
+
+  public long getCurrentSize(int index) {
+    return cur_size[index];
+  }
+
+  public void setCurrentSize(int index, long size) {
+    cur_size[index] = size;
+  }
+
+  public long getStartLba(int index) {
+    return start_lba[index];
+  }
+
+  public long getLastLba(int index) {
+    return last_lba[index];
+  }
+
+  public void setLastLba(int index, long lba) {
+    last_lba[index] = lba;
+  }
+
+  /**
+   * Count a bad block for a file. Returns bad bytes and bad blocks so far.
+   */
+  public int[] countBadBlock(int index, int xfersize) {
+    synchronized (bad_map) {
+      int[] bads = bad_map.get(index);
+      if (bads == null)
+        bad_map.put(index, bads = new int[2]);
+      bads[0] += xfersize;
+      bads[1]++;
+      return bads.clone();
+    }
+  }
+
+  /**
+   * Number of bytes used by the store, not counting the Directory instances.
+   */
+  public long getMemoryUsage() {
+    return (long) status.length * BYTES_PER_FILE;
+  }
+}
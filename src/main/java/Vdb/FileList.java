@@ -0,0 +1,60 @@
+package Vdb;
+
+import java.util.*;
+
+/**
+ * A list of files from a FileEntryStore: either all of its files, or a subset
+ * (totalsize=, wss=) kept as an array of file numbers.
+ *
+ * A subset is only added to while it is being created; after that the list
+ * does not change and can be read without locking.
+ */
+class FileList extends AbstractList<FileEntry> {
+  private FileEntryStore store;
+  private int[] indexes = null; /* null: all files in the store */
+  private int subset_size = 0;
+
+  /**
+   * List of all files in the store.
+   */
+  public FileList(FileEntryStore store) {
+    this.store = store;
+  }
+
+  /**
+   * An empty subset list.
+   */
+  public FileList(FileEntryStore store, int capacity) {
+    this.store = store;
+    this.indexes = new int[Math.max(capacity, 16)];
+  }
+
+  public FileEntry get(int i) {
+    if (indexes == null)
+      return store.get(i);
+
+    if (i >= subset_size)
+      throw new IndexOutOfBoundsException("FileList: " + i + " " + subset_size);
+    return new FileEntry(store, indexes[i]);
+  }
+
+  public FileEntry elementAt(int i) {
+    return get(i);
+  }
+
+  public int size() {
+    return (indexes == null) ? store.size() : subset_size;
+  }
+
+  public boolean add(FileEntry fe) {
+    if (indexes == null)
+      common.failure("FileList.add(): only allowed for a subset");
+    if (fe.getStore() != store)
+      common.failure("FileList.add(): file from a different anchor: " + fe.getFullName());
+
+    if (subset_size == indexes.length)
+      indexes = Arrays.copyOf(indexes, indexes.length * 2);
+    indexes[subset_size++] = fe.getFileNoInList();
+    return true;
+  }
+}
@@ -22,6 +22,9 @@ class File_handles {
 
   private static HashMap<Long, Object> handle_map = new HashMap(256);
 
+  /* HDFS streams have no native file handle; they get a fake one from here: */
+  private static long hdfs_handle = 1l << 48;
+
   public static synchronized void addHandle(long handle, SD_entry sd) {
     if (handle_map.get(handle) != null)
       common.failure("File_handles.addHandle(): duplicate handle: " + sd.sd_name);
@@ -46,6 +49,10 @@ class File_handles {
       common.failure("Duplicate file handle %d for label=%s", handle, label);
   }
 
+  public static synchronized long getHdfsHandle() {
+    return hdfs_handle++;
+  }
+
   public static synchronized void remove(long handle) {
     if (handle_map.remove(handle) == null)
       common.failure("File_handles.remove(): unknown handle: " + handle);
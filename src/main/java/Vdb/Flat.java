@@ -8,12 +8,16 @@ package Vdb;
  * Author: Henk Vandenbergh.
  */
 
+import java.io.File;
 import java.io.PrintWriter;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Vector;
+import java.util.concurrent.LinkedBlockingQueue;
 
+import Utils.Bin;
 import Utils.Format;
 
 /**
@@ -37,8 +41,55 @@ public class Flat {
   private static PrintWriter flatfile_html = null;
   private static boolean first_print = true;
 
+  /* Column lookup: lowercase label, and each label string as used by callers: */
+  private static HashMap<String, Flat> label_map = new HashMap(256);
+  private static HashMap<String, Flat> caller_map = new HashMap(256);
+
+  private static FlatWriter writer = null;
+  private static boolean binary = false;
+  private static Bin flatfile_bin = null;
+
+  /* Bin record types for flatfile.bin: */
+  public static final byte BIN_COLUMNS = 48; /* String[] column labels */
+  public static final byte BIN_VALUES = 49; /* One interval line */
+
+  private static SimpleDateFormat time_format = new SimpleDateFormat("HH:mm:ss.SSS");
+  private static SimpleDateFormat date_format = new SimpleDateFormat("MM/dd/yyyy-HH:mm:ss-zzz ");
+
   public static void createFlatFile() {
     flatfile_html = Report.createHmtlFile("flatfile.html");
+    writer = new FlatWriter(flatfile_html);
+    writer.start();
+
+    if (binary) {
+      flatfile_bin = new Bin(new File(Vdbmain.output_dir, "flatfile.bin").getAbsolutePath());
+      flatfile_bin.output();
+    }
+  }
+
+  /**
+   * misc parameter 'flatfile_bin=yes': also write flatfile.bin.
+   */
+  public static void setBinary(boolean bool) {
+    binary = bool;
+  }
+
+  /**
+   * Write everything that is queued for flatfile.html. Called before the
+   * reports are flushed or closed.
+   */
+  public static void drain() {
+    if (writer != null)
+      writer.drain();
+    if (flatfile_bin != null)
+      flatfile_bin.flush();
+  }
+
+  public static synchronized void closeFlatFile() {
+    drain();
+    if (flatfile_bin != null)
+      flatfile_bin.close();
+    flatfile_bin = null;
   }
 
   /**
@@ -59,23 +110,64 @@ public class Flat {
     flt.label = label_in.trim();
     flt.type = 0;
     flt.text = text_in;
+    label_map.put(flt.label.toLowerCase(), flt);
   }
 
   /**
-   * Find a column in the report
+   * Find a column in the report. Each label string the callers use is looked up
+   * only once, after that it is one hash lookup.
    */
   private static Flat find_col(String label_in, int type_in) {
+    Flat flt = getColumn(label_in);
+    flt.type = type_in;
+    return flt;
+  }
+
+  /**
+   * A handle for a column, to be used with the put() methods instead of looking
+   * for the column each time.
+   */
+  public static synchronized Flat getColumn(String label_in) {
+    Flat flt = caller_map.get(label_in);
+    if (flt != null)
+      return flt;
+
     blanks(label_in);
-    for (int i = 0; i < flat_list.size(); i++) {
-      Flat flt = (Flat) flat_list.elementAt(i);
-      if (label_in.trim().toLowerCase().compareTo(flt.label.toLowerCase()) == 0) {
-        flt.type = type_in;
-        return flt;
-      }
-    }
-    common.failure("Flatfile column reporting: column '" + label_in + "' not found");
+    flt = label_map.get(label_in.trim().toLowerCase());
+    if (flt == null)
+      common.failure("Flatfile column reporting: column '" + label_in + "' not found");
+
+    caller_map.put(label_in, flt);
+    return flt;
+  }
+
+  /**
+   * Handles for a list of columns with a common prefix, e.g. the percentiles.
+   */
+  public static Flat[] getColumns(String prefix, String[] labels) {
+    Flat[] columns = new Flat[labels.length];
+    for (int i = 0; i < labels.length; i++)
+      columns[i] = getColumn(prefix + labels[i]);
+    return columns;
+  }
+
+  public void put(long input) {
+    longval = input;
+    type = 1;
+  }
+
+  public void put(double input) {
+    dblval = input;
+    type = 2;
+  }
+
+  public void put(String input) {
+    strval = input;
+    type = 3;
+  }
 
-    return null;
+  public void put() {
+    type = 0;
   }
 
   /**
@@ -119,74 +211,157 @@ public class Flat {
      */
     String line = String.format("%12s %23s ", "tod", "timestamp");
 
-    println("*");
-    println("* 'flatfile.html' contains Vdbench generated information in a column by column ASCII format. ");
-    println("* The first line in the file contains a one word 'column header name'; the rest of the file ");
-    println("* contains data that belongs to each column. The objective of this file format is to allow ");
-    println("* easy transfer of information to a spreadsheet and therefore the creation of performance ");
-    println("* charts different from the performance charts that can be created by Sun StorageTek Workload ");
-    println("* Analysis Tool (Swat) available for download from Sun.");
-    println("* See also 'Selective flatfile parsing' in the documentation. ");
-    println("*");
+    write("*");
+    write("* 'flatfile.html' contains Vdbench generated information in a column by column ASCII format. ");
+    write("* The first line in the file contains a one word 'column header name'; the rest of the file ");
+    write("* contains data that belongs to each column. The objective of this file format is to allow ");
+    write("* easy transfer of information to a spreadsheet and therefore the creation of performance ");
+    write("* charts different from the performance charts that can be created by Sun StorageTek Workload ");
+    write("* Analysis Tool (Swat) available for download from Sun.");
+    write("* See also 'Selective flatfile parsing' in the documentation. ");
+    write("*");
 
     /* Print comments: */
     for (int i = 0; i < flat_list.size(); i++) {
       Flat flt = (Flat) flat_list.elementAt(i);
-      flatfile_html.println("* " + Format.f("%-16s: ", flt.label) + flt.text);
+      write("* " + Format.f("%-16s: ", flt.label) + flt.text);
     }
-    flatfile_html.println(
+    write(
         "* 'n/a'           : Data not available, or conflicting data. eg. multiple different xfersize parameters used.");
-    flatfile_html.println("* ");
+    write("* ");
 
     /* Print column headers: */
+    String[] labels = new String[flat_list.size()];
     for (int i = 0; i < flat_list.size(); i++) {
       Flat flt = (Flat) flat_list.elementAt(i);
       line = line + Format.f("%s ", flt.label);
+      labels[i] = flt.label;
     }
 
-    flatfile_html.println(line);
+    write(line);
+
+    /* The binary file has the same columns, fixed for the whole run: */
+    if (flatfile_bin != null)
+      flatfile_bin.put_array(labels, BIN_COLUMNS);
   }
 
-  public static void println(String txt) {
+  public static synchronized void println(String txt) {
     if (first_print) {
       first_print = false;
       print_col_headers();
     }
 
-    flatfile_html.println(txt);
+    write(txt);
+  }
+
+  private static void write(String txt) {
+    if (writer != null)
+      writer.queue(txt);
+    else
+      flatfile_html.println(txt);
   }
 
   /**
    * Print a column of data. This can be improved by defining a format string for
    * each column.
    */
-  public static void printInterval() {
-    String line = "";
+  public static synchronized void printInterval() {
+    StringBuilder line = new StringBuilder(flat_list.size() * 8);
 
     if (first_print) {
       first_print = false;
       print_col_headers();
     }
 
+    Date now = new Date();
+    line.append(String.format("%12s %24s", time_format.format(now), date_format.format(now)));
+
     for (int i = 0; i < flat_list.size(); i++) {
       Flat flt = (Flat) flat_list.elementAt(i);
       if (flt.type == 1)
-        line = line + Format.f("%d ", flt.longval);
+        line.append(flt.longval).append(' ');
       else if (flt.type == 2)
-        line = line + removeTrail(flt.dblval) + " ";
+        line.append(removeTrail(flt.dblval)).append(' ');
       else if (flt.type == 3)
-        line = line + Format.f("%s ", flt.strval);
+        line.append(flt.strval).append(' ');
       else
-        line = line + Format.f("%s ", "n/a");
+        line.append("n/a ");
     }
 
-    Date now = new Date();
+    write(line.toString());
+    // common.ptod(line, flatfile_html);
+
+    if (flatfile_bin != null)
+      writeBinary(now.getTime());
+  }
+
+  /**
+   * One interval in flatfile.bin: the time, and for each column its type and
+   * value. Doubles are stored as their long bits.
+   */
+  private static void writeBinary(long tod) {
+    flatfile_bin.put_long(tod);
+    for (int i = 0; i < flat_list.size(); i++) {
+      Flat flt = (Flat) flat_list.elementAt(i);
+      flatfile_bin.put_byte((byte) flt.type);
+      if (flt.type == 1)
+        flatfile_bin.put_long(flt.longval);
+      else if (flt.type == 2)
+        flatfile_bin.put_long(Double.doubleToLongBits(flt.dblval));
+      else if (flt.type == 3)
+        flatfile_bin.put_string(flt.strval);
+    }
+    flatfile_bin.write_record(BIN_VALUES, (byte) 0);
+    flatfile_bin.flush();
+  }
+
+  /**
+   * Read flatfile.bin, returning the column labels as the first array,
+   * followed by one array per interval with the values the way they appear in
+   * flatfile.html, starting with the two time columns.
+   */
+  public static ArrayList<String[]> readBinary(String fname) {
+    ArrayList<String[]> lines = new ArrayList(1024);
     SimpleDateFormat time = new SimpleDateFormat("HH:mm:ss.SSS");
-    SimpleDateFormat date_time = new SimpleDateFormat("MM/dd/yyyy-HH:mm:ss-zzz ");
-    String line2 = String.format("%12s %24s%s", time.format(now), date_time.format(now), line);
+    SimpleDateFormat date_time = new SimpleDateFormat("MM/dd/yyyy-HH:mm:ss-zzz");
+    String[] labels = null;
+
+    Bin bin = new Bin(fname);
+    bin.input();
+    while (bin.read_record()) {
+      if (bin.record_type == BIN_COLUMNS) {
+        String[] columns = bin.get_string_array();
+        labels = new String[columns.length + 2];
+        labels[0] = "tod";
+        labels[1] = "timestamp";
+        System.arraycopy(columns, 0, labels, 2, columns.length);
+        lines.add(labels);
+        continue;
+      }
 
-    flatfile_html.println(line2);
-    // common.ptod(line, flatfile_html);
+      if (bin.record_type != BIN_VALUES || labels == null)
+        common.failure("Flat.readBinary(): unexpected record type %d in %s", bin.record_type, fname);
+
+      String[] values = new String[labels.length];
+      Date tod = new Date(bin.get_long());
+      values[0] = time.format(tod);
+      values[1] = date_time.format(tod);
+      for (int i = 2; i < values.length; i++) {
+        byte type = bin.get_byte();
+        if (type == 1)
+          values[i] = "" + bin.get_long();
+        else if (type == 2)
+          values[i] = removeTrail(Double.longBitsToDouble(bin.get_long()));
+        else if (type == 3)
+          values[i] = bin.get_string();
+        else
+          values[i] = "n/a";
+      }
+      lines.add(values);
+    }
+    bin.close();
+
+    return lines;
   }
 
   /**
@@ -244,6 +419,8 @@ public class Flat {
       add_col("compratio", "Requested compression ratio");
       add_col("dedupratio", "Requested dedup ratio");
       add_col("queue_depth", "Vdbench calculated average i/o queue depth");
+      for (String pct : Histogram.PERCENTILE_LABELS)
+        add_col("resp_" + pct, pct + " response time; only for run totals");
     }
 
     else {
@@ -260,6 +437,8 @@ public class Flat {
       add_col("Resp", "Requested response time");
       add_col("Resp_std", "Requested response time standard deviation");
       add_col("Resp_max", "Requested response time max");
+      for (String pct : Histogram.PERCENTILE_LABELS)
+        add_col("Resp_" + pct, "Requested response time " + pct);
 
       add_col("MB/sec", "Megabytes per second (MB=1024*1024)");
       add_col("MB_read", "Megabytes read per second");
@@ -343,6 +522,27 @@ public class Flat {
       add_col("Access_resp_std", "Access response time stddev");
       add_col("Access_resp_max", "Access response time max");
 
+      add_col("Hflush_rate", "hdfs hflush() per second");
+      add_col("Hflush_resp", "hdfs hflush() response time");
+      add_col("Hflush_resp_max", "hdfs hflush() response time max");
+      add_col("Hsync_rate", "hdfs hsync() per second");
+      add_col("Hsync_resp", "hdfs hsync() response time");
+      add_col("Hsync_resp_max", "hdfs hsync() response time max");
+      add_col("Ec_policy", "hdfs erasure coding policy of the anchors");
+      add_col("Storage_policy", "hdfs storage policy of the anchors");
+
+      add_col("Hdfs_read_mb", "hdfs client: megabytes read per second");
+      add_col("Hdfs_write_mb", "hdfs client: megabytes written per second");
+      add_col("Hdfs_localhost_mb", "hdfs client: megabytes per second read from a datanode on the same host");
+      add_col("Hdfs_read_ops", "hdfs client: read operations per second");
+      add_col("Hdfs_large_read_ops", "hdfs client: large read operations per second");
+      add_col("Hdfs_write_ops", "hdfs client: write operations per second");
+      add_col("Hdfs_stream_mb", "hdfs closed input streams: megabytes read per second");
+      add_col("Hdfs_local_mb", "hdfs closed input streams: local megabytes read per second");
+      add_col("Hdfs_sc_mb", "hdfs closed input streams: short-circuit megabytes read per second");
+      add_col("Hdfs_zc_mb", "hdfs closed input streams: zero-copy megabytes read per second");
+      add_col("Hdfs_remote_mb", "hdfs closed input streams: remote megabytes read per second");
+
       // add_col("Copy_rate", "Copies per second");
       // add_col("Copy_resp", "Copy response time");
       // add_col("Move_rate", "Moves per second");
@@ -457,5 +657,82 @@ public class Flat {
 
     if (rd.current_override.getXfersize() != For_loop.NOVALUE)
       Flat.put_col("Xfersize", rd.current_override.getXfersize());
+
+    /* Label the results with the hdfs policies of the anchors used: */
+    String ec = null;
+    String storage = null;
+    for (FwgEntry fwg : rd.fwgs_for_rd) {
+      String fwg_ec = HdfsWriteOptions.getEcLabel(fwg.anchor.hdfs_write);
+      String fwg_storage = HdfsWriteOptions.getStorageLabel(fwg.anchor.hdfs_write);
+      if (ec == null)
+        ec = fwg_ec;
+      else if (!ec.equals(fwg_ec))
+        ec = "mixed";
+      if (storage == null)
+        storage = fwg_storage;
+      else if (!storage.equals(fwg_storage))
+        storage = "mixed";
+    }
+
+    Flat.put_col("Ec_policy");
+    Flat.put_col("Storage_policy");
+    if (Vdbmain.isHDFS && ec != null) {
+      Flat.put_col("Ec_policy", ec);
+      Flat.put_col("Storage_policy", storage);
+    }
+  }
+}
+
+/**
+ * Writes the flatfile.html lines queued by the reporting threads, so that they
+ * never wait for the file. The file is flushed each time the queue is empty.
+ */
+class FlatWriter extends Thread {
+  private PrintWriter pw;
+  private LinkedBlockingQueue<String> queue = new LinkedBlockingQueue();
+  private int pending = 0;
+
+  public FlatWriter(PrintWriter pw) {
+    this.pw = pw;
+    setName("FlatWriter");
+    setDaemon(true);
+  }
+
+  public synchronized void queue(String line) {
+    pending++;
+    queue.add(line);
+  }
+
+  /**
+   * Wait until all queued lines have been written and flushed.
+   */
+  public synchronized void drain() {
+    while (pending > 0 && isAlive()) {
+      try {
+        wait(100);
+      } catch (InterruptedException e) {
+        break;
+      }
+    }
+  }
+
+  public void run() {
+    try {
+      while (true) {
+        String line = queue.take();
+        pw.write(line);
+        pw.write(System.lineSeparator());
+
+        if (queue.isEmpty())
+          pw.flush();
+
+        synchronized (this) {
+          if (--pending == 0)
+            notifyAll();
+        }
+      }
+    } catch (Throwable t) {
+      common.abnormal_term(t);
+    }
   }
 }
@@ -54,6 +54,11 @@ class FsdEntry implements Cloneable {
   public String cloud_user = null;
   public String cloud_pwd = null;
 
+  public String hdfs_uri = null;
+  public String[] hdfs_conf = null;
+  public int hdfs_clients = 1;
+  public HdfsWriteOptions hdfs_write = null;
+
   public boolean in_use;
   public boolean work_done;
 
@@ -69,6 +74,8 @@ class FsdEntry implements Cloneable {
       fsd.open_flags = (OpenFlags) open_flags.clone();
       if (dedup != null)
         fsd.dedup = (Dedup) dedup.clone();
+      if (hdfs_write != null)
+        fsd.hdfs_write = (HdfsWriteOptions) hdfs_write.clone();
 
       return fsd;
     } catch (Exception e) {
@@ -253,6 +260,24 @@ class FsdEntry implements Cloneable {
           fsd.cloud_pwd = prm.alphas[2];
         }
 
+        else if (prm.keyword.equals("hdfs_uri"))
+          fsd.hdfs_uri = prm.alphas[0];
+
+        else if (prm.keyword.equals("hdfs_conf"))
+          fsd.hdfs_conf = prm.alphas;
+
+        else if (prm.keyword.equals("hdfs_clients")) {
+          fsd.hdfs_clients = (int) prm.numerics[0];
+          if (fsd.hdfs_clients < 1)
+            common.failure("'hdfs_clients=%d' must be at least 1", fsd.hdfs_clients);
+        }
+
+        else if (HdfsWriteOptions.isKeyword(prm.keyword)) {
+          if (fsd.hdfs_write == null)
+            fsd.hdfs_write = new HdfsWriteOptions();
+          fsd.hdfs_write.parse(prm);
+        }
+
         else
           common.failure("Unknown keyword: " + prm.keyword);
 
@@ -302,6 +327,9 @@ class FsdEntry implements Cloneable {
       if (fsd.create_rw_log)
         logs_requested++;
 
+      if ((HdfsClients.isNeeded(fsd) || fsd.hdfs_write != null) && !Vdbmain.isHDFS)
+        common.failure("fsd=%s: the 'hdfs_' parameters require the 'hdfs' parameter", fsd.name);
+
       for (int j = i + 1; j < fsd_list.size(); j++) {
         FsdEntry fsd2 = (FsdEntry) fsd_list.elementAt(j);
         if (fsd.dirname.equals(fsd2.dirname)) {
@@ -405,12 +433,46 @@ class FsdEntry implements Cloneable {
    * definitions
    */
   public static void finalizeSetup() {
+    /* The first FSD using an anchor decides its hdfs settings: */
+    HashMap<FileAnchor, FsdEntry> anchor_owners = new HashMap(8);
+
     /* Go through all FSDs (even if they are not all used by an RD */
     /* (maybe in the future we will bypass those) */
     for (int i = 0; i < fsd_list.size(); i++) {
       FsdEntry fsd = (FsdEntry) fsd_list.elementAt(i);
 
       fsd.anchor = FileAnchor.newFileAnchor(fsd);
+      FsdEntry owner = anchor_owners.get(fsd.anchor);
+      if (owner == null) {
+        anchor_owners.put(fsd.anchor, fsd);
+        fsd.anchor.hdfs = (HdfsClients.isNeeded(fsd)) ? new HdfsClients(fsd) : null;
+      }
+
+      /* An anchor directory has only one set of clients: */
+      else if (!HdfsClients.sameClients(fsd, owner))
+        common.failure("fsd=%s: anchor=%s is already used by fsd=%s with different 'hdfs_uri=', 'hdfs_conf=' "
+            + "or 'hdfs_clients=' values", fsd.name, fsd.dirname, owner.name);
+
+      if (fsd.hdfs_write != null && fsd.anchor.hdfs_write == null)
+        fsd.anchor.hdfs_write = fsd.hdfs_write;
+
+      /* The anchor has one set of write options, used by all its FSDs: */
+      if (owner != null) {
+        String option = HdfsWriteOptions.getDifference(fsd.hdfs_write, owner.hdfs_write);
+        if (option != null)
+          common.failure("fsd=%s: anchor=%s is already used by fsd=%s with a different '%s=' value", fsd.name,
+              fsd.dirname, owner.name, option);
+      }
+
+      /* An anchor directory can only have one policy: */
+      if (fsd.hdfs_write != null && fsd.anchor.hdfs_write != fsd.hdfs_write) {
+        String ec = HdfsWriteOptions.getEcLabel(fsd.hdfs_write);
+        String storage = HdfsWriteOptions.getStorageLabel(fsd.hdfs_write);
+        if (!ec.equals(HdfsWriteOptions.getEcLabel(fsd.anchor.hdfs_write))
+            || !storage.equals(HdfsWriteOptions.getStorageLabel(fsd.anchor.hdfs_write)))
+          common.failure("fsd=%s: anchor=%s is already used with different 'hdfs_ec=' or 'hdfs_storage_policy=' values",
+              fsd.name, fsd.dirname);
+      }
     }
   }
 
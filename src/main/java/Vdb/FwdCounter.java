@@ -8,6 +8,8 @@ package Vdb;
  * Author: Henk Vandenbergh.
  */
 
+import java.io.*;
+
 import Utils.*;
 
 /**
@@ -35,6 +37,29 @@ class FwdCounter implements java.io.Serializable {
     type = tp.trim();
   }
 
+  /**
+   * Binary form used by SlaveStats.writeWire(). Type and FwdStats are already
+   * known to the receiving counter.
+   */
+  void writeWire(DataOutput out) throws IOException {
+    long[] counters = { operations, response, response2, maxresp, op_count, op_rate, op_rate2, op_max };
+    for (int i = 0; i < counters.length; i++)
+      WireFormat.writeVarLong(out, counters[i]);
+    Histogram.writeOptional(out, histogram);
+  }
+
+  void readWire(DataInput in) throws IOException {
+    operations = WireFormat.readVarLong(in);
+    response = WireFormat.readVarLong(in);
+    response2 = WireFormat.readVarLong(in);
+    maxresp = WireFormat.readVarLong(in);
+    op_count = WireFormat.readVarLong(in);
+    op_rate = WireFormat.readVarLong(in);
+    op_rate2 = WireFormat.readVarLong(in);
+    op_max = WireFormat.readVarLong(in);
+    histogram = Histogram.readOptional(in);
+  }
+
   public Histogram getHistogram() {
     return histogram;
   }
@@ -84,6 +84,7 @@ public class FwdReport extends Report {
 
     if (CpuStats.isCpuReporting())
       writeFlatCpu(kc_total);
+    HdfsStats.reportInterval();
     total_fwd.writeFlat("" + Report.getInterval(), kc_total);
     Flat.printInterval();
 
@@ -141,6 +142,7 @@ public class FwdReport extends Report {
       fwd_total.printHeaders(Report.getTotalReport());
     fwd_total.printLineL(Report.getTotalReport(), kstat_cpu, avg);
 
+    HdfsStats.reportTotals(avg);
     fwd_total.writeFlat(avg, kstat_cpu);
     if (CpuStats.isCpuReporting())
       Report.writeFlatCpu(kstat_cpu);
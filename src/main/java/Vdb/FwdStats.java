@@ -9,6 +9,9 @@ package Vdb;
  */
 
 //import java.io.*;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
@@ -45,6 +48,10 @@ public class FwdStats implements java.io.Serializable {
   public FwdCounter put = new FwdCounter(this, "put    ");
   public FwdCounter get = new FwdCounter(this, "get    ");
 
+  /* hdfs hflush()/hsync() done while writing, never requested operations: */
+  public FwdCounter hflush = new FwdCounter(this, "hflush ");
+  public FwdCounter hsync = new FwdCounter(this, "hsync  ");
+
   public long r_bytes = 0;
   public long w_bytes = 0;
 
@@ -56,6 +63,7 @@ public class FwdStats implements java.io.Serializable {
   public boolean work_done;
 
   private static Bin fwd_bin_file;
+  private static Flat[] pct_columns = null; /* flatfile 'Resp_p50' etc. */
   private static String all_fields;
 
   private static FwdPrint inp = new FwdPrint("Interval", "", "12.0");
@@ -80,6 +88,8 @@ public class FwdStats implements java.io.Serializable {
   private static FwdPrint movp = new FwdPrint("move", "rate", "5.1", "resp", "6.3");
   private static FwdPrint putp = new FwdPrint("put", "mb", "5.1");
   private static FwdPrint ggtp = new FwdPrint("get", "mb", "5.1");
+  private static FwdPrint hflp = new FwdPrint("hflush", "rate", "5.1", "resp", "6.3");
+  private static FwdPrint hsyp = new FwdPrint("hsync", "rate", "5.1", "resp", "6.3");
 
   private static int time_travel_window = checkTimeTravel();
   private static int time_travel_count = 0;
@@ -90,6 +100,41 @@ public class FwdStats implements java.io.Serializable {
     // common.where(8);
   }
 
+  private FwdCounter[] getCounters() {
+    FwdCounter[] counters = { read, write, mkdir, create, getattr, setattr, access, open, close, copy, move, delete,
+        rmdir, put, get, hflush, hsync };
+    return counters;
+  }
+
+  /**
+   * Binary form used by SlaveStats.writeWire().
+   */
+  void writeWire(DataOutput out) throws IOException {
+    FwdCounter[] counters = getCounters();
+    for (int i = 0; i < counters.length; i++)
+      counters[i].writeWire(out);
+    WireFormat.writeVarLong(out, r_bytes);
+    WireFormat.writeVarLong(out, w_bytes);
+    WireFormat.writeVarLong(out, permit_time);
+    WireFormat.writeVarLong(out, permit_count);
+    WireFormat.writeVarLong(out, elapsed);
+    out.writeBoolean(work_done);
+  }
+
+  static FwdStats readWire(DataInput in) throws IOException {
+    FwdStats st = new FwdStats();
+    FwdCounter[] counters = st.getCounters();
+    for (int i = 0; i < counters.length; i++)
+      counters[i].readWire(in);
+    st.r_bytes = WireFormat.readVarLong(in);
+    st.w_bytes = WireFormat.readVarLong(in);
+    st.permit_time = WireFormat.readVarLong(in);
+    st.permit_count = WireFormat.readVarLong(in);
+    st.elapsed = WireFormat.readVarLong(in);
+    st.work_done = in.readBoolean();
+    return st;
+  }
+
   /**
    * Count Operation workload and performance statistics.
    */
@@ -97,7 +142,7 @@ public class FwdStats implements java.io.Serializable {
     // common.where();
     // start += 200000;
 
-    long end = Native.get_simple_tod();
+    long end = Native.getSimpleTod();
 
     /*
      * This is a way around too much timetravel, just setting all response times to
@@ -113,11 +158,11 @@ public class FwdStats implements java.io.Serializable {
     thread.per_thread_stats.add(operation, end - start, 0);
   }
 
-  public static void countXfer(int operation, long start, int xfersize) {
+  public static void countXfer(int operation, long start, long xfersize) {
     // common.where();
     // start += 200000;
 
-    long end = Native.get_simple_tod();
+    long end = Native.getSimpleTod();
 
     /*
      * This is a way around too much timetravel, just setting all response times to
@@ -133,11 +178,25 @@ public class FwdStats implements java.io.Serializable {
     thread.per_thread_stats.add(operation, end - start, xfersize);
   }
 
+  /**
+   * Count a transfer that may have returned less data than requested, e.g. an
+   * HDFS read that ran into EOF. Only the bytes really transferred are counted;
+   * the short transfer itself is reported in the Blocked counters.
+   */
+  public static void countXfer(int operation, long start, int xfersize, int done) {
+    if (done < xfersize) {
+      FwgThread thread = (FwgThread) Thread.currentThread();
+      thread.fwg.blocked.count(Blocked.SHORT_READS);
+    }
+
+    countXfer(operation, start, Math.max(done, 0));
+  }
+
   //
   // We could save some time here by having the CALLER specify instead of
   // operation=read the actual 'read' FwdCounter
   //
-  private void add(int operation, long resp, int xfersize) {
+  private void add(int operation, long resp, long xfersize) {
     /* These are in order of expected frequency. 'switch' does not let me */
     /* use these non-constants: */
     // if ( operation == Operations.CREATE )
@@ -173,14 +232,18 @@ public class FwdStats implements java.io.Serializable {
       put.addResp(resp);
     else if (operation == Operations.GET)
       get.addResp(resp);
+    else if (operation == Operations.HFLUSH)
+      hflush.addResp(resp);
+    else if (operation == Operations.HSYNC)
+      hsync.addResp(resp);
 
     else
       common.failure("FwdStats.add(): unknown operation: " + operation);
 
-    if (operation == Operations.READ) // || operation == Operations.GET)
+    if (operation == Operations.READ || operation == Operations.GET)
       r_bytes += xfersize;
 
-    else if (operation == Operations.WRITE) // || operation == Operations.PUT)
+    else if (operation == Operations.WRITE || operation == Operations.PUT)
       w_bytes += xfersize;
   }
 
@@ -200,6 +263,8 @@ public class FwdStats implements java.io.Serializable {
     move.accum(old.move);
     put.accum(old.put);
     get.accum(old.get);
+    hflush.accum(old.hflush);
+    hsync.accum(old.hsync);
     r_bytes += old.r_bytes;
     w_bytes += old.w_bytes;
     permit_count += old.permit_count;
@@ -227,6 +292,8 @@ public class FwdStats implements java.io.Serializable {
     move.delta(nw.move, old.move);
     put.delta(nw.put, old.put);
     get.delta(nw.get, old.get);
+    hflush.delta(nw.hflush, old.hflush);
+    hsync.delta(nw.hsync, old.hsync);
 
     r_bytes = nw.r_bytes - old.r_bytes;
     w_bytes = nw.w_bytes - old.w_bytes;
@@ -250,6 +317,8 @@ public class FwdStats implements java.io.Serializable {
     move.copy(old.move);
     put.copy(old.put);
     get.copy(old.get);
+    hflush.copy(old.hflush);
+    hsync.copy(old.hsync);
     r_bytes = old.r_bytes;
     w_bytes = old.w_bytes;
     permit_count = old.permit_count;
@@ -320,6 +389,10 @@ public class FwdStats implements java.io.Serializable {
       line += copp.getHeader1();
     if (Operations.isOperationUsed(Operations.MOVE))
       line += movp.getHeader1();
+    if (Operations.isOperationUsed(Operations.HFLUSH))
+      line += hflp.getHeader1();
+    if (Operations.isOperationUsed(Operations.HSYNC))
+      line += hsyp.getHeader1();
     // if (Operations.isOperationUsed(Operations.GET)) line += ggtp.getHeader1();
     // if (Operations.isOperationUsed(Operations.PUT)) line += putp.getHeader1();
 
@@ -364,6 +437,10 @@ public class FwdStats implements java.io.Serializable {
       line += copp.getHeader2();
     if (Operations.isOperationUsed(Operations.MOVE))
       line += movp.getHeader2();
+    if (Operations.isOperationUsed(Operations.HFLUSH))
+      line += hflp.getHeader2();
+    if (Operations.isOperationUsed(Operations.HSYNC))
+      line += hsyp.getHeader2();
     // if (Operations.isOperationUsed(Operations.GET)) line += ggtp.getHeader2();
     // if (Operations.isOperationUsed(Operations.PUT)) line += putp.getHeader2();
 
@@ -439,6 +516,10 @@ public class FwdStats implements java.io.Serializable {
       line += copp.getData(copy.rate(), copy.resp());
     if (Operations.isOperationUsed(Operations.MOVE))
       line += movp.getData(move.rate(), move.resp());
+    if (Operations.isOperationUsed(Operations.HFLUSH))
+      line += hflp.getData(hflush.rate(), hflush.resp());
+    if (Operations.isOperationUsed(Operations.HSYNC))
+      line += hsyp.getData(hsync.rate(), hsync.resp());
     // if (Operations.isOperationUsed(Operations.PUT))
     // line += putp.getData(put .rate(), put .resp());
     // if (Operations.isOperationUsed(Operations.GET))
@@ -520,6 +601,10 @@ public class FwdStats implements java.io.Serializable {
       line += copp.getDataZ(copy.rateMax(), copy.respMax());
     if (Operations.isOperationUsed(Operations.MOVE))
       line += movp.getDataZ(move.rateMax(), move.respMax());
+    if (Operations.isOperationUsed(Operations.HFLUSH))
+      line += hflp.getDataZ(hflush.rateMax(), hflush.respMax());
+    if (Operations.isOperationUsed(Operations.HSYNC))
+      line += hsyp.getDataZ(hsync.rateMax(), hsync.respMax());
     // if (Operations.isOperationUsed(Operations.PUT))
     // line += putp.getDataZ(put.rateMax(), put .respMax());
     // if (Operations.isOperationUsed(Operations.GET))
@@ -596,6 +681,10 @@ public class FwdStats implements java.io.Serializable {
       line += copp.getDataZ(copy.rateStd(), copy.respStd());
     if (Operations.isOperationUsed(Operations.MOVE))
       line += movp.getDataZ(move.rateStd(), move.respStd());
+    if (Operations.isOperationUsed(Operations.HFLUSH))
+      line += hflp.getDataZ(hflush.rateStd(), hflush.respStd());
+    if (Operations.isOperationUsed(Operations.HSYNC))
+      line += hsyp.getDataZ(hsync.rateStd(), hsync.respStd());
     // if (Operations.isOperationUsed(Operations.PUT))
     // line += putp.getDataZ(put.rateStd(), put .respStd());
     // if (Operations.isOperationUsed(Operations.GET))
@@ -695,6 +784,8 @@ public class FwdStats implements java.io.Serializable {
     total += removeTrash(move.rate());
     total += removeTrash(put.rate());
     total += removeTrash(get.rate());
+    total += removeTrash(hflush.rate());
+    total += removeTrash(hsync.rate());
 
     return total;
   }
@@ -958,6 +1049,17 @@ public class FwdStats implements java.io.Serializable {
       Flat.put_col("Resp_max", single.respMax());
     }
 
+    Histogram hist = getReqstdHistogram();
+    if (pct_columns == null)
+      pct_columns = Flat.getColumns("Resp_", Histogram.PERCENTILE_LABELS);
+    for (int i = 0; i < Histogram.PERCENTILES.length; i++) {
+      double value = hist.getPercentile(Histogram.PERCENTILES[i]);
+      if (value < 0)
+        pct_columns[i].put();
+      else
+        pct_columns[i].put(value / 1000.);
+    }
+
     Flat.put_col("MB/sec", r_mb + w_mb);
     Flat.put_col("MB_read", r_mb);
     Flat.put_col("MB_write", w_mb);
@@ -1040,6 +1142,13 @@ public class FwdStats implements java.io.Serializable {
     Flat.put_col("Access_resp_std", access.respStd());
     Flat.put_col("Access_resp_max ", access.respMax());
 
+    Flat.put_col("Hflush_rate", hflush.rate());
+    Flat.put_col("Hflush_resp", hflush.resp());
+    Flat.put_col("Hflush_resp_max", hflush.respMax());
+    Flat.put_col("Hsync_rate", hsync.rate());
+    Flat.put_col("Hsync_resp", hsync.resp());
+    Flat.put_col("Hsync_resp_max", hsync.respMax());
+
     // Flat.put_col("Copy_rate", copy.rate());
     // Flat.put_col("Copy_resp", copy.resp());
     // Flat.put_col("Move_rate", move.rate());
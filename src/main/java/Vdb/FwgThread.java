@@ -33,9 +33,12 @@ abstract class FwgThread extends Thread {
 
   private long native_read_buffer = 0;
   private long native_write_buffer = 0;
-  public static int write_buf_len = 1048576;
-  public static byte[] write_buf = null;
-  public static Random random = new Random();
+  private byte[] hdfs_read_buf = null;
+  private java.nio.ByteBuffer hdfs_read_bb = null;
+  private java.nio.ByteBuffer hdfs_dv_bb = null;
+  private byte[] hdfs_payload = null;
+  private int hdfs_payload_len = 0;
+  private int hdfs_payload_offset = 0;
 
   public long permit_last = 0;
   public long permit_time = 0;
@@ -97,19 +100,28 @@ abstract class FwgThread extends Thread {
 
       /* Why allocate a read buffer when not reading? Only for DV (pre/post)read */
       /* (We don't really care about resource usage for DV anyway) */
-      if (!SlaveJvm.isHDFS) {
-        if (Validate.isRealValidate() || this instanceof OpRead || this instanceof OpReadWrite
-            || this instanceof OpWrite || this instanceof OpCopy || this instanceof OpMove) {
+      if (Validate.isRealValidate() || this instanceof OpRead || this instanceof OpReadWrite
+          || this instanceof OpWrite || this instanceof OpCopy || this instanceof OpMove) {
+        /* HDFS reads go into a java buffer that is reused for every block: */
+        if (SlaveJvm.isHDFS) {
+          hdfs_read_buf = new byte[buffer_size];
+          hdfs_read_bb = java.nio.ByteBuffer.wrap(hdfs_read_buf);
+        } else
           native_read_buffer = Native.allocBuffer(buffer_size);
-        }
       }
 
       /* Unless this is clearly read-only, create a write buffer: */
       boolean need_buffer = false;
       if (SlaveJvm.isHDFS) {
         need_buffer = false;
-        write_buf = new byte[write_buf_len];
-        random.nextBytes(write_buf);
+        if (Validate.isRealValidate()) {
+          if (Dedup.isDedup())
+            common.failure("Data Validation with dedup is not supported for hdfs");
+          hdfs_dv_bb = java.nio.ByteBuffer.wrap(new byte[buffer_size]);
+        } else if (tn == null || !(this instanceof OpRead) || this instanceof OpReadWrite) {
+          hdfs_payload_len = (int) (Validate.getHdfsPayloadMB() * 1024l * 1024l);
+          hdfs_payload = Patterns.createHdfsPayload(hdfs_payload_len, buffer_size, seqno);
+        }
       } else if (tn == null)
         need_buffer = true;
       else if (this instanceof OpReadWrite)
@@ -137,6 +149,38 @@ abstract class FwgThread extends Thread {
 
   }
 
+  public int getSeqno() {
+    return seqno;
+  }
+
+  public byte[] getHdfsReadBuffer() {
+    return hdfs_read_buf;
+  }
+
+  public java.nio.ByteBuffer getHdfsReadByteBuffer() {
+    return hdfs_read_bb;
+  }
+
+  public java.nio.ByteBuffer getHdfsValidateBuffer() {
+    return hdfs_dv_bb;
+  }
+
+  public byte[] getHdfsPayload() {
+    return hdfs_payload;
+  }
+
+  /**
+   * Return the payload offset for the next HDFS write. Offsets walk through the
+   * payload ring so that consecutive writes do not send identical data.
+   */
+  public int getHdfsPayloadOffset(int xfersize) {
+    int offset = hdfs_payload_offset;
+    hdfs_payload_offset += xfersize;
+    if (hdfs_payload_offset >= hdfs_payload_len)
+      hdfs_payload_offset -= hdfs_payload_len;
+    return offset;
+  }
+
   /**
    * Finalize, to make sure buffers are cleaned up.
    */
@@ -374,7 +418,7 @@ abstract class FwgThread extends Thread {
    */
   protected ActiveFile openForRead(FileEntry fe) {
     ActiveFile afe = new ActiveFile(fe, fwg, native_read_buffer, native_write_buffer);
-    long start = Native.get_simple_tod();
+    long start = Native.getSimpleTod();
     afe.openFile(true);
     fwg.blocked.count(Blocked.READ_OPENS);
     FwdStats.count(Operations.OPEN, start);
@@ -399,7 +443,7 @@ abstract class FwgThread extends Thread {
     }
 
     ActiveFile afe = new ActiveFile(fe, fwg, native_read_buffer, native_write_buffer);
-    long start = Native.get_simple_tod();
+    long start = Native.getSimpleTod();
     afe.openFile(false);
     fwg.blocked.count(Blocked.WRITE_OPENS);
     FwdStats.count(Operations.OPEN, start);
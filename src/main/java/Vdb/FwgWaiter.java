@@ -85,7 +85,7 @@ class FwgWaiter extends Thread {
       tn.waitForMasterGo();
       initialize();
 
-      long tod = Native.get_simple_tod();
+      long tod = Native.getSimpleTod();
 
       while (!SlaveJvm.isWorkloadDone()) {
         /* Look for the lowest (non-suspended) starting time: */
@@ -119,7 +119,7 @@ class FwgWaiter extends Thread {
           /* Wait util we get there: */
           common.sleep_some_usecs(Math.min(100000, (lowq.next_arrival / 1000) - tod));
 
-          tod = Native.get_simple_tod();
+          tod = Native.getSimpleTod();
         }
 
         /* Now release the semaphore, but only if we are not running too far behind: */
@@ -256,7 +256,7 @@ class FwgQueue {
     }
 
     /* Adjust the start times relative to the high performance clock: */
-    next_arrival += Native.get_simple_tod() * 1000;
+    next_arrival += Native.getSimpleTod() * 1000;
 
     /* Though for maxrate we don't care: */
     max_rate_requested = (fwd_rate == RD_entry.MAX_RATE);
@@ -308,7 +308,7 @@ class FwgQueue {
     else
       next_arrival += inter_arrival;
 
-    // long now = Native.get_simple_tod() * 1000;
+    // long now = Native.getSimpleTod() * 1000;
     // common.ptod("next_arrival1: " + next_arrival + " " +
     // tmp + " " + now + " " + (now - next_arrival));
   }
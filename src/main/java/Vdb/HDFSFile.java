@@ -6,6 +6,8 @@ import java.io.IOException;
 
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsAction;
+import org.apache.hadoop.security.AccessControlException;
 
 class HDFSFile extends File {
 
@@ -31,7 +33,7 @@ class HDFSFile extends File {
     public String[] list() {
         FileStatus[] files;
         try {
-            files = SlaveJvm.fileSys.listStatus(path);
+            files = HdfsClients.get(getPath()).listStatus(path);
             String[] result = new String[files.length];
             for (int i = 0; i < files.length; ++i) {
                 result[i] = files[i].getPath().getName();
@@ -51,7 +53,7 @@ class HDFSFile extends File {
 
     public boolean exists(){
         try {
-            return SlaveJvm.fileSys.exists(path);
+            return HdfsClients.get(getPath()).exists(path);
         } catch (IOException e) {
             // TODO Auto-generated catch block
             e.printStackTrace();
@@ -62,7 +64,7 @@ class HDFSFile extends File {
 
     public boolean mkdir(){
         try {
-            return SlaveJvm.fileSys.mkdirs(path);
+            return HdfsClients.get(getPath()).mkdirs(path);
         } catch (IOException e) {
             // TODO Auto-generated catch block
             e.printStackTrace();
@@ -73,7 +75,7 @@ class HDFSFile extends File {
 
     public boolean delete(){
         try {
-            return SlaveJvm.fileSys.delete(path, false);
+            return HdfsClients.get(getPath()).delete(path, false);
         } catch (IOException e) {
             // TODO Auto-generated catch block
             e.printStackTrace();
@@ -84,7 +86,7 @@ class HDFSFile extends File {
 
     public long length(){
         try{
-            FileStatus st = SlaveJvm.fileSys.getFileStatus(path);
+            FileStatus st = HdfsClients.get(getPath()).getFileStatus(path);
             return st.getLen();
         }catch(Exception e){
 
@@ -92,4 +94,55 @@ class HDFSFile extends File {
 
         return 0;
     }
+
+    /*
+     * The metadata requests used by the getattr, setattr, access and move
+     * operations. Each is one NameNode call; other than a denied access any
+     * error is fatal, just like it is for the java.io.File versions.
+     */
+
+    static FileStatus getStatus(String name) {
+        try {
+            return HdfsClients.get(name).getFileStatus(new Path(name));
+        } catch (IOException e) {
+            common.ptod("Unable to do a getattr request for file: " + name);
+            common.failure(e);
+        }
+
+        return null;
+    }
+
+    static void setModified(String name, long mtime) {
+        try {
+            /* -1: leave the access time unchanged: */
+            HdfsClients.get(name).setTimes(new Path(name), mtime, -1);
+        } catch (IOException e) {
+            common.ptod("Unable to do a setattr request for file: " + name);
+            common.failure(e);
+        }
+    }
+
+    static boolean canRead(String name) {
+        try {
+            HdfsClients.get(name).access(new Path(name), FsAction.READ);
+            return true;
+        } catch (AccessControlException e) {
+            return false;
+        } catch (IOException e) {
+            common.ptod("Unable to do an access request for file: " + name);
+            common.failure(e);
+        }
+
+        return false;
+    }
+
+    static void rename(String from, String to) {
+        try {
+            if (!HdfsClients.get(from).rename(new Path(from), new Path(to)))
+                common.failure("Unable to move file %s to %s", from, to);
+        } catch (IOException e) {
+            common.ptod("Unable to move file %s to %s", from, to);
+            common.failure(e);
+        }
+    }
 }
@@ -0,0 +1,143 @@
+package Vdb;
+
+import java.io.*;
+import java.net.URI;
+import java.util.*;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * The hdfs clients of one anchor, for an FSD that has its own file system:
+ *
+ * - 'hdfs_uri=hdfs://namenode:port': the file system, e.g. one namespace of a
+ * federated cluster. The default comes from the Hadoop configuration.
+ * - 'hdfs_conf=("key=value","/path/hdfs-site.xml",...)': configuration
+ * overrides, either single values or extra resource files.
+ * - 'hdfs_clients=n': open n separate clients for the anchor. Each FwgThread
+ * always uses the same one, so the threads are spread over the clients
+ * instead of all contending for one client's locks.
+ *
+ * The master sends these with the FileAnchor and with the anchor's
+ * LunInfoFromHost. On a slave the clients are opened once and kept in
+ * 'open_anchors' for the rest of the run; everything that only has a file name
+ * uses get() to find them. Anything outside these anchors uses the default
+ * SlaveJvm.fileSys.
+ */
+public class HdfsClients implements Serializable {
+  private String anchor_name;
+  private String uri;
+  private String[] conf;
+  private int count;
+
+  private transient FileSystem[] clients = null;
+
+  private static volatile Vector<HdfsClients> open_anchors = new Vector(8);
+
+  public HdfsClients(FsdEntry fsd) {
+    anchor_name = fsd.dirname;
+    uri = fsd.hdfs_uri;
+    conf = fsd.hdfs_conf;
+    count = fsd.hdfs_clients;
+  }
+
+  /**
+   * Does this FSD need its own clients?
+   */
+  public static boolean isNeeded(FsdEntry fsd) {
+    return fsd.hdfs_uri != null || fsd.hdfs_conf != null || fsd.hdfs_clients > 1;
+  }
+
+  /**
+   * Do two FSDs on the same anchor ask for the same clients?
+   */
+  public static boolean sameClients(FsdEntry fsd1, FsdEntry fsd2) {
+    return ((fsd1.hdfs_uri == null) ? fsd2.hdfs_uri == null : fsd1.hdfs_uri.equals(fsd2.hdfs_uri))
+        && Arrays.equals(fsd1.hdfs_conf, fsd2.hdfs_conf) && fsd1.hdfs_clients == fsd2.hdfs_clients;
+  }
+
+  /**
+   * Open the clients for an anchor, unless this has been done before.
+   */
+  public static synchronized void register(HdfsClients hdfs) {
+    if (hdfs == null)
+      return;
+    for (HdfsClients open : open_anchors) {
+      if (open.anchor_name.equals(hdfs.anchor_name))
+        return;
+    }
+
+    hdfs.open();
+
+    /* Copy on write: get() does not need to lock: */
+    Vector<HdfsClients> list = new Vector(open_anchors);
+    list.add(hdfs);
+    open_anchors = list;
+  }
+
+  private void open() {
+    Configuration config = new Configuration();
+    for (int i = 0; conf != null && i < conf.length; i++) {
+      int eq = conf[i].indexOf("=");
+      if (eq > 0)
+        config.set(conf[i].substring(0, eq).trim(), conf[i].substring(eq + 1).trim());
+      else
+        config.addResource(new Path(conf[i]));
+    }
+
+    /* newInstance(): FileSystem.get() returns the one cached client for the uri: */
+    clients = new FileSystem[count];
+    try {
+      for (int i = 0; i < count; i++) {
+        if (uri != null)
+          clients[i] = FileSystem.newInstance(new URI(uri), config);
+        else
+          clients[i] = FileSystem.newInstance(config);
+      }
+    } catch (Exception e) {
+      common.ptod("HdfsClients: unable to connect to %s for anchor=%s", (uri == null) ? "hdfs" : uri, anchor_name);
+      common.failure(e);
+    }
+
+    common.plog("HdfsClients: anchor=%s uses %d client(s) for %s", anchor_name, count, clients[0].getUri());
+  }
+
+  /**
+   * The client to use for this file or directory from the current thread.
+   */
+  public static FileSystem get(String name) {
+    Vector<HdfsClients> list = open_anchors;
+    for (int i = 0; i < list.size(); i++) {
+      HdfsClients hdfs = list.get(i);
+      if (name.startsWith(hdfs.anchor_name)
+          && (name.length() == hdfs.anchor_name.length() || name.charAt(hdfs.anchor_name.length()) == '/'))
+        return hdfs.getClient();
+    }
+
+    return SlaveJvm.fileSys;
+  }
+
+  private FileSystem getClient() {
+    if (count == 1)
+      return clients[0];
+
+    Thread thread = Thread.currentThread();
+    if (thread instanceof FwgThread)
+      return clients[((FwgThread) thread).getSeqno() % count];
+    return clients[0];
+  }
+
+  public static synchronized void closeAll() {
+    for (HdfsClients hdfs : open_anchors) {
+      for (FileSystem client : hdfs.clients) {
+        try {
+          client.close();
+        } catch (IOException e) {
+          common.ptod("HdfsClients: error closing client for anchor=%s: %s", hdfs.anchor_name, e.getMessage());
+        }
+      }
+    }
+    open_anchors = new Vector(8);
+  }
+}
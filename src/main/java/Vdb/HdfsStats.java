@@ -0,0 +1,232 @@
+package Vdb;
+
+import java.io.*;
+import java.util.*;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.hdfs.ReadStatistics;
+import org.apache.hadoop.hdfs.client.HdfsDataInputStream;
+
+/**
+ * Hadoop client statistics, reported next to the FwdStats of each interval.
+ *
+ * Each slave sends the delta of its hdfs FileSystem.Statistics: bytes read and
+ * written, bytes read from a datanode on the same host, and the read, large
+ * read and write operation counts. These are shared by all clients of the same
+ * scheme in a jvm.
+ *
+ * On top of that, each input stream's read statistics are picked up when the
+ * stream is closed: how many of the bytes read were local, short-circuit,
+ * zero-copy or remote. A file that is still open at the end of an interval
+ * is counted in the interval in which it is closed.
+ *
+ * The master adds the slave deltas up and prints them on hdfs.html, the run
+ * averages also on summary.html, and the rates in the flatfile.
+ */
+class HdfsStats implements Serializable {
+  private long elapsed = 0; /* usecs, only on the master */
+
+  private long bytes_read = 0;
+  private long bytes_written = 0;
+  private long local_host_bytes = 0;
+  private long read_ops = 0;
+  private long large_read_ops = 0;
+  private long write_ops = 0;
+
+  private long stream_bytes = 0;
+  private long local_bytes = 0;
+  private long short_circuit_bytes = 0;
+  private long zero_copy_bytes = 0;
+  private long remote_bytes = 0;
+
+  /* Slave: the last sample, and the streams closed since then: */
+  private static HdfsStats last_sample = new HdfsStats();
+  private static HdfsStats closed_streams = new HdfsStats();
+
+  /* Master: */
+  private static HdfsStats interval = new HdfsStats();
+  private static HdfsStats total = new HdfsStats();
+  private static Report hdfs_report = null;
+
+  private static double MB = 1024 * 1024;
+
+  private void accum(HdfsStats old) {
+    elapsed += old.elapsed;
+    bytes_read += old.bytes_read;
+    bytes_written += old.bytes_written;
+    local_host_bytes += old.local_host_bytes;
+    read_ops += old.read_ops;
+    large_read_ops += old.large_read_ops;
+    write_ops += old.write_ops;
+    stream_bytes += old.stream_bytes;
+    local_bytes += old.local_bytes;
+    short_circuit_bytes += old.short_circuit_bytes;
+    zero_copy_bytes += old.zero_copy_bytes;
+    remote_bytes += old.remote_bytes;
+  }
+
+  /**
+   * Binary form used by SlaveStats.writeWire().
+   */
+  void writeWire(DataOutput out) throws IOException {
+    long[] counters = { elapsed, bytes_read, bytes_written, local_host_bytes, read_ops, large_read_ops, write_ops,
+        stream_bytes, local_bytes, short_circuit_bytes, zero_copy_bytes, remote_bytes };
+    for (int i = 0; i < counters.length; i++)
+      WireFormat.writeVarLong(out, counters[i]);
+  }
+
+  static HdfsStats readWire(DataInput in) throws IOException {
+    HdfsStats st = new HdfsStats();
+    st.elapsed = WireFormat.readVarLong(in);
+    st.bytes_read = WireFormat.readVarLong(in);
+    st.bytes_written = WireFormat.readVarLong(in);
+    st.local_host_bytes = WireFormat.readVarLong(in);
+    st.read_ops = WireFormat.readVarLong(in);
+    st.large_read_ops = WireFormat.readVarLong(in);
+    st.write_ops = WireFormat.readVarLong(in);
+    st.stream_bytes = WireFormat.readVarLong(in);
+    st.local_bytes = WireFormat.readVarLong(in);
+    st.short_circuit_bytes = WireFormat.readVarLong(in);
+    st.zero_copy_bytes = WireFormat.readVarLong(in);
+    st.remote_bytes = WireFormat.readVarLong(in);
+    return st;
+  }
+
+  /**
+   * Slave: pick up the read statistics of an input stream just before it is
+   * closed.
+   */
+  public static void addReadStatistics(FSDataInputStream in) {
+    if (!(in instanceof HdfsDataInputStream))
+      return;
+
+    ReadStatistics rs = ((HdfsDataInputStream) in).getReadStatistics();
+    synchronized (closed_streams) {
+      closed_streams.stream_bytes += rs.getTotalBytesRead();
+      closed_streams.local_bytes += rs.getTotalLocalBytesRead();
+      closed_streams.short_circuit_bytes += rs.getTotalShortCircuitBytesRead();
+      closed_streams.zero_copy_bytes += rs.getTotalZeroCopyBytesRead();
+      closed_streams.remote_bytes += rs.getRemoteBytesRead();
+    }
+  }
+
+  /**
+   * Slave: everything since the previous call. The call at the start of a run
+   * sets the baseline.
+   */
+  public static synchronized HdfsStats getDelta() {
+    HdfsStats now = new HdfsStats();
+    for (FileSystem.Statistics st : FileSystem.getAllStatistics()) {
+      if (!st.getScheme().equals("hdfs"))
+        continue;
+      now.bytes_read += st.getBytesRead();
+      now.bytes_written += st.getBytesWritten();
+      now.local_host_bytes += st.getBytesReadByDistance(0);
+      now.read_ops += st.getReadOps();
+      now.large_read_ops += st.getLargeReadOps();
+      now.write_ops += st.getWriteOps();
+    }
+
+    HdfsStats delta = new HdfsStats();
+    delta.bytes_read = now.bytes_read - last_sample.bytes_read;
+    delta.bytes_written = now.bytes_written - last_sample.bytes_written;
+    delta.local_host_bytes = now.local_host_bytes - last_sample.local_host_bytes;
+    delta.read_ops = now.read_ops - last_sample.read_ops;
+    delta.large_read_ops = now.large_read_ops - last_sample.large_read_ops;
+    delta.write_ops = now.write_ops - last_sample.write_ops;
+    last_sample = now;
+
+    synchronized (closed_streams) {
+      delta.accum(closed_streams);
+      closed_streams = new HdfsStats();
+    }
+
+    return delta;
+  }
+
+  /**
+   * Master: hdfs.html, linked from the summary.
+   */
+  public static void createReport() {
+    hdfs_report = new Report("hdfs", "Hdfs client statistics");
+    Report.getSummaryReport().printHtmlLink("Link to hdfs client statistics", hdfs_report.getFileName(), "hdfs");
+  }
+
+  public static void clearInterval(long interval_duration) {
+    interval = new HdfsStats();
+    interval.elapsed = interval_duration * 1000000;
+  }
+
+  public static void clearTotals() {
+    total = new HdfsStats();
+  }
+
+  public static void accumInterval(HdfsStats stats) {
+    if (stats != null)
+      interval.accum(stats);
+  }
+
+  public static void addIntervalToTotals() {
+    total.accum(interval);
+  }
+
+  public static void reportInterval() {
+    if (hdfs_report == null)
+      return;
+    if (Reporter.needHeaders())
+      printHeaders(hdfs_report);
+    hdfs_report.println(interval.getLine("" + Report.getInterval()));
+    interval.writeFlat();
+  }
+
+  public static void reportTotals(String avg) {
+    if (hdfs_report == null)
+      return;
+    hdfs_report.println(total.getLine(avg));
+
+    Report summary = Report.getSummaryReport();
+    printHeaders(summary);
+    summary.println(total.getLine(avg));
+    total.writeFlat();
+  }
+
+  private static void printHeaders(Report report) {
+    report.println("");
+    report.println("%-12s%s%s", "", ".................Hdfs client statistics.................",
+        "................Closed input streams.................");
+    report.println("%-12s%9s %9s %9s %9s %9s %9s %9s %9s %9s %9s %9s", "", "read", "write", "localhost", "read",
+        "large", "write", "read", "local", "short", "zero", "remote");
+    report.println("%-12s%9s %9s %9s %9s %9s %9s %9s %9s %9s %9s %9s", "interval", "MB/sec", "MB/sec", "MB/sec",
+        "ops/sec", "ops/sec", "ops/sec", "MB/sec", "MB/sec", "MB/sec", "MB/sec", "MB/sec");
+  }
+
+  private String getLine(String label) {
+    return String.format("%-12s%9.2f %9.2f %9.2f %9.1f %9.1f %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f", label,
+        mb(bytes_read), mb(bytes_written), mb(local_host_bytes), rate(read_ops), rate(large_read_ops),
+        rate(write_ops), mb(stream_bytes), mb(local_bytes), mb(short_circuit_bytes), mb(zero_copy_bytes),
+        mb(remote_bytes));
+  }
+
+  private void writeFlat() {
+    Flat.put_col("Hdfs_read_mb", mb(bytes_read));
+    Flat.put_col("Hdfs_write_mb", mb(bytes_written));
+    Flat.put_col("Hdfs_localhost_mb", mb(local_host_bytes));
+    Flat.put_col("Hdfs_read_ops", rate(read_ops));
+    Flat.put_col("Hdfs_large_read_ops", rate(large_read_ops));
+    Flat.put_col("Hdfs_write_ops", rate(write_ops));
+    Flat.put_col("Hdfs_stream_mb", mb(stream_bytes));
+    Flat.put_col("Hdfs_local_mb", mb(local_bytes));
+    Flat.put_col("Hdfs_sc_mb", mb(short_circuit_bytes));
+    Flat.put_col("Hdfs_zc_mb", mb(zero_copy_bytes));
+    Flat.put_col("Hdfs_remote_mb", mb(remote_bytes));
+  }
+
+  private double mb(long bytes) {
+    return (elapsed == 0) ? 0 : bytes * 1000000. / elapsed / MB;
+  }
+
+  private double rate(long count) {
+    return (elapsed == 0) ? 0 : count * 1000000. / elapsed;
+  }
+}
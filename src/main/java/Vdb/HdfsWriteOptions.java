@@ -0,0 +1,214 @@
+package Vdb;
+
+import java.io.*;
+
+import org.apache.hadoop.fs.BlockStoragePolicySpi;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.protocol.ErasureCodingPolicy;
+
+/**
+ * FSD parameters for how files are written on hdfs:
+ *
+ * - 'hdfs_blocksize=256m', 'hdfs_replication=2', 'hdfs_buffer=128k': passed
+ * to FileSystem.create(). Not specified: the client's configuration.
+ * - 'hdfs_overwrite=no': fail when the file already exists instead of
+ * truncating it.
+ * - 'hdfs_hflush=64m', 'hdfs_hsync=1g': hflush()/hsync() after every so many
+ * bytes written to a file; 'hdfs_hflush_writes=n' and 'hdfs_hsync_writes=n'
+ * after every n writes.
+ *
+ * - 'hdfs_ec=RS-6-3-1024k': the erasure coding policy of the anchor directory,
+ * or 'hdfs_ec=replication' to force plain replication.
+ * - 'hdfs_storage_policy=ALL_SSD': the storage policy of the anchor directory.
+ *
+ * The hflush and hsync calls are counted as their own operations, so their
+ * cost is reported separately from the writes.
+ *
+ * The policies are set on the anchor directory and are inherited by every
+ * directory and file created below it. Files that already exist keep the
+ * policy they were written with, which is why the control file remembers them.
+ */
+class HdfsWriteOptions implements Serializable, Cloneable {
+  public long block_size = 0;
+  public short replication = 0;
+  public int buffer_size = 0;
+  public boolean overwrite = true;
+
+  public long hflush_bytes = 0;
+  public long hflush_writes = 0;
+  public long hsync_bytes = 0;
+  public long hsync_writes = 0;
+
+  public String ec_policy = null;
+  public String storage_policy = null;
+
+  public static final String REPLICATION = "replication";
+
+  public Object clone() {
+    try {
+      return super.clone();
+    } catch (CloneNotSupportedException e) {
+      common.failure(e);
+    }
+    return null;
+  }
+
+  private static String[] keywords = { "hdfs_blocksize", "hdfs_replication", "hdfs_buffer", "hdfs_overwrite",
+      "hdfs_hflush", "hdfs_hflush_writes", "hdfs_hsync", "hdfs_hsync_writes", "hdfs_ec", "hdfs_storage_policy" };
+
+  public static boolean isKeyword(String keyword) {
+    for (String kw : keywords) {
+      if (kw.equals(keyword))
+        return true;
+    }
+    return false;
+  }
+
+  public void parse(Vdb_scan prm) {
+    if (prm.keyword.equals("hdfs_blocksize"))
+      block_size = (long) prm.numerics[0];
+    else if (prm.keyword.equals("hdfs_replication"))
+      replication = (short) prm.numerics[0];
+    else if (prm.keyword.equals("hdfs_buffer"))
+      buffer_size = (int) prm.numerics[0];
+    else if (prm.keyword.equals("hdfs_overwrite"))
+      overwrite = prm.alphas[0].toLowerCase().startsWith("y");
+    else if (prm.keyword.equals("hdfs_hflush"))
+      hflush_bytes = (long) prm.numerics[0];
+    else if (prm.keyword.equals("hdfs_hflush_writes"))
+      hflush_writes = (long) prm.numerics[0];
+    else if (prm.keyword.equals("hdfs_hsync"))
+      hsync_bytes = (long) prm.numerics[0];
+    else if (prm.keyword.equals("hdfs_hsync_writes"))
+      hsync_writes = (long) prm.numerics[0];
+    else if (prm.keyword.equals("hdfs_ec"))
+      ec_policy = (prm.alphas[0].equalsIgnoreCase(REPLICATION)) ? REPLICATION : prm.alphas[0];
+    else if (prm.keyword.equals("hdfs_storage_policy"))
+      storage_policy = prm.alphas[0].toUpperCase();
+    else
+      common.failure("HdfsWriteOptions: unknown keyword: " + prm.keyword);
+
+    if (hflush_bytes < 0 || hflush_writes < 0 || hsync_bytes < 0 || hsync_writes < 0 || block_size < 0
+        || replication < 0 || buffer_size < 0)
+      common.failure("'%s=' may not be negative", prm.keyword);
+
+    if (hflush_bytes > 0 || hflush_writes > 0)
+      Operations.setOperationUsed(Operations.HFLUSH);
+    if (hsync_bytes > 0 || hsync_writes > 0)
+      Operations.setOperationUsed(Operations.HSYNC);
+  }
+
+  public boolean hasCadence() {
+    return hflush_bytes > 0 || hflush_writes > 0 || hsync_bytes > 0 || hsync_writes > 0;
+  }
+
+  /**
+   * The first write option that differs between two FSDs, or null. No options
+   * at all means all defaults.
+   */
+  public static String getDifference(HdfsWriteOptions opt1, HdfsWriteOptions opt2) {
+    if (opt1 == null)
+      opt1 = new HdfsWriteOptions();
+    if (opt2 == null)
+      opt2 = new HdfsWriteOptions();
+
+    if (opt1.block_size != opt2.block_size)
+      return "hdfs_blocksize";
+    if (opt1.replication != opt2.replication)
+      return "hdfs_replication";
+    if (opt1.buffer_size != opt2.buffer_size)
+      return "hdfs_buffer";
+    if (opt1.overwrite != opt2.overwrite)
+      return "hdfs_overwrite";
+    if (opt1.hflush_bytes != opt2.hflush_bytes)
+      return "hdfs_hflush";
+    if (opt1.hflush_writes != opt2.hflush_writes)
+      return "hdfs_hflush_writes";
+    if (opt1.hsync_bytes != opt2.hsync_bytes)
+      return "hdfs_hsync";
+    if (opt1.hsync_writes != opt2.hsync_writes)
+      return "hdfs_hsync_writes";
+    return null;
+  }
+
+  /**
+   * Create the file using these options. Anything not specified uses the
+   * defaults of the file system, just like create(path) does.
+   */
+  public FSDataOutputStream create(FileSystem fs, Path path) throws IOException {
+    if (block_size == 0 && replication == 0 && buffer_size == 0)
+      return fs.create(path, overwrite);
+
+    int buffer = (buffer_size > 0) ? buffer_size : fs.getConf().getInt("io.file.buffer.size", 4096);
+    short repl = (replication > 0) ? replication : fs.getDefaultReplication(path);
+    long block = (block_size > 0) ? block_size : fs.getDefaultBlockSize(path);
+    return fs.create(path, overwrite, buffer, repl, block);
+  }
+
+  /**
+   * Set the requested policies on the anchor directory, unless it already has
+   * them, and verify that the name node now reports them.
+   */
+  public void setPolicies(FileSystem fs, String anchor_name) {
+    Path path = new Path(anchor_name);
+    try {
+      if (ec_policy != null) {
+        if (!(fs instanceof DistributedFileSystem))
+          common.failure("anchor=%s: 'hdfs_ec=%s' requires an hdfs file system, not %s", anchor_name, ec_policy,
+              fs.getUri());
+
+        DistributedFileSystem dfs = (DistributedFileSystem) fs;
+        if (!ec_policy.equalsIgnoreCase(getEcPolicy(dfs, path))) {
+          common.plog("anchor=%s: setting erasure coding policy %s", anchor_name, ec_policy);
+          dfs.setErasureCodingPolicy(path, ec_policy);
+          String current = getEcPolicy(dfs, path);
+          if (!ec_policy.equalsIgnoreCase(current))
+            common.failure("anchor=%s: requested erasure coding policy %s, but the directory reports %s", anchor_name,
+                ec_policy, current);
+        }
+      }
+
+      if (storage_policy != null) {
+        if (!storage_policy.equalsIgnoreCase(getStoragePolicy(fs, path))) {
+          common.plog("anchor=%s: setting storage policy %s", anchor_name, storage_policy);
+          fs.setStoragePolicy(path, storage_policy);
+          String current = getStoragePolicy(fs, path);
+          if (!storage_policy.equalsIgnoreCase(current))
+            common.failure("anchor=%s: requested storage policy %s, but the directory reports %s", anchor_name,
+                storage_policy, current);
+        }
+      }
+    } catch (IOException e) {
+      common.ptod("anchor=%s: unable to set hdfs_ec=%s hdfs_storage_policy=%s", anchor_name, ec_policy,
+          storage_policy);
+      common.failure(e);
+    }
+  }
+
+  /**
+   * No erasure coding policy means the files are replicated.
+   */
+  private static String getEcPolicy(DistributedFileSystem dfs, Path path) throws IOException {
+    ErasureCodingPolicy policy = dfs.getErasureCodingPolicy(path);
+    return (policy == null) ? REPLICATION : policy.getName();
+  }
+
+  private static String getStoragePolicy(FileSystem fs, Path path) throws IOException {
+    BlockStoragePolicySpi policy = fs.getStoragePolicy(path);
+    return (policy == null) ? null : policy.getName();
+  }
+
+  /**
+   * Label for the flatfile: the policies, or 'default' for what is not set.
+   */
+  public static String getEcLabel(HdfsWriteOptions options) {
+    return (options == null || options.ec_policy == null) ? "default" : options.ec_policy;
+  }
+
+  public static String getStorageLabel(HdfsWriteOptions options) {
+    return (options == null || options.storage_policy == null) ? "default" : options.storage_policy;
+  }
+}
@@ -62,7 +62,7 @@ public class HelpDebug {
   public static synchronized boolean corruptBuffer(long read_buffer, long buffer_size) {
     /* Copy data buffer to java storage: */
     int[] int_buffer = new int[(int) buffer_size / 4];
-    Native.buffer_to_array(int_buffer, read_buffer, (int) buffer_size);
+    Native.bufferToArray(int_buffer, read_buffer, (int) buffer_size);
 
     /* Corrupt lba: */
     // int_buffer[000] = 0x07070707; int_buffer[128] = 0x07070707;
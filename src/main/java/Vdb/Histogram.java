@@ -8,6 +8,11 @@ package Vdb;
  * Author: Henk Vandenbergh.
  */
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
@@ -19,10 +24,15 @@ import Utils.Format;
 /**
  * Code to maintain response time histogram statistics.
  *
- * There is one thing still to do: run a separate thread that every 'n' seconds
- * sorts the bucket list, or instead, create an MRU list for the buckets. May
- * also want to remember the --last-- bucket used to possibly find a quick
- * match. However, if the list is sorted frequently that is implied.
+ * Next to the user defined buckets there is a log-linear histogram used for
+ * percentiles: values below 64 microseconds each have their own bucket, after
+ * that each power of two is split into 32 equal buckets, so a bucket is never
+ * wider than about 3% of its value. The bucket index is calculated, not
+ * searched. It only is allocated once a value is counted, and only non-zero
+ * buckets are serialized.
+ *
+ * SD response times are counted by JNI in the user defined buckets only, so for
+ * SDs the percentiles are interpolated from those buckets.
  */
 public class Histogram implements java.io.Serializable, Cloneable {
   private final static String c = "Copyright (c) 2000, 2012, Oracle and/or its affiliates. All rights reserved.";
@@ -34,6 +44,17 @@ public class Histogram implements java.io.Serializable, Cloneable {
 
   private boolean header_printed = false;
 
+  private transient long[] log_counters = null;
+
+  private static final int SUB_BITS = 6;
+  private static final int SUB_COUNT = 1 << SUB_BITS;
+  private static final int HALF_COUNT = SUB_COUNT / 2;
+  private static final int MAX_BIT = 37; /* 2**37 usecs is over 38 hours */
+  private static final int LOG_BUCKETS = SUB_COUNT + (MAX_BIT - SUB_BITS + 1) * HALF_COUNT;
+
+  public static final double[] PERCENTILES = { 50, 90, 99, 99.9, 99.99 };
+  public static final String[] PERCENTILE_LABELS = { "p50", "p90", "p99", "p99.9", "p99.99" };
+
   private static DecimalFormat df = new DecimalFormat("#,###");
   private static String STARS = "--------------------------------------------------";
   private static String PLUS = "++++++++++++++++++++++++++++++++++++++++++++++++++";
@@ -51,6 +72,8 @@ public class Histogram implements java.io.Serializable, Cloneable {
     try {
       Histogram hist = (Histogram) super.clone();
       hist.counters = (long[]) counters.clone();
+      if (log_counters != null)
+        hist.log_counters = (long[]) log_counters.clone();
 
       return hist;
     } catch (Exception e) {
@@ -70,12 +93,56 @@ public class Histogram implements java.io.Serializable, Cloneable {
     int bucket = sorted_ranges.findBucket(value);
     counters[bucket]++;
     // common.ptod("buckets[ bucket ]: " + bucket + " " + buckets[ bucket ]);
+
+    if (log_counters == null)
+      log_counters = new long[LOG_BUCKETS];
+    log_counters[logIndex(value)]++;
+  }
+
+  /**
+   * Index in the log-linear histogram. Values below SUB_COUNT are used as is;
+   * above that the top SUB_BITS-1 significant bits, plus the position of the
+   * highest bit, make the index.
+   */
+  protected static int logIndex(long value) {
+    if (value < SUB_COUNT)
+      return (int) Math.max(value, 0);
+
+    int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BITS - 1);
+    int index = SUB_COUNT + (shift - 1) * HALF_COUNT + (int) (value >>> shift) - HALF_COUNT;
+    return Math.min(index, LOG_BUCKETS - 1);
+  }
+
+  /**
+   * Lowest value counted in a log-linear bucket.
+   */
+  private static long logLow(int index) {
+    if (index < SUB_COUNT)
+      return index;
+    int shift = (index - SUB_COUNT) / HALF_COUNT + 1;
+    return (long) ((index - SUB_COUNT) % HALF_COUNT + HALF_COUNT) << shift;
+  }
+
+  private static long logWidth(int index) {
+    if (index < SUB_COUNT)
+      return 1;
+    return 1l << ((index - SUB_COUNT) / HALF_COUNT + 1);
   }
 
   public void deltaBuckets(Histogram nw, Histogram old) {
     for (int i = 0; i < counters.length; i++) {
       counters[i] = nw.counters[i] - old.counters[i];
     }
+
+    if (nw.log_counters == null)
+      log_counters = null;
+    else {
+      log_counters = (long[]) nw.log_counters.clone();
+      if (old.log_counters != null) {
+        for (int i = 0; i < log_counters.length; i++)
+          log_counters[i] -= old.log_counters[i];
+      }
+    }
   }
 
   public void accumBuckets(Histogram hist) {
@@ -87,6 +154,164 @@ public class Histogram implements java.io.Serializable, Cloneable {
     for (int i = 0; i < counters.length; i++) {
       counters[i] += hist.counters[i];
     }
+
+    if (hist.log_counters != null) {
+      if (log_counters == null)
+        log_counters = new long[LOG_BUCKETS];
+      for (int i = 0; i < log_counters.length; i++)
+        log_counters[i] += hist.log_counters[i];
+    }
+  }
+
+  /**
+   * Return the response time in microseconds below which 'pct' percent of the
+   * requests completed, or -1 when there is nothing to report.
+   */
+  public double getPercentile(double pct) {
+    long total = getTotals();
+    if (total == 0)
+      return -1;
+
+    /* Count needed to reach this percentile, at least one: */
+    double needed = Math.max(1, Math.ceil(total * pct / 100.));
+
+    /* When JNI did the counting there is no log-linear data: */
+    if (log_counters == null) {
+      BucketRange[] branges = ranges.getRanges();
+      long cumulative = 0;
+      for (int i = 0; i < branges.length; i++) {
+        long counter = counters[branges[i].which];
+        if (counter == 0 || cumulative + counter < needed) {
+          cumulative += counter;
+          continue;
+        }
+
+        /* Interpolate inside of the bucket; the last one has no maximum: */
+        if (branges[i].max == Long.MAX_VALUE)
+          return branges[i].min;
+        double fraction = (needed - cumulative) / counter;
+        return branges[i].min + fraction * (branges[i].max - branges[i].min);
+      }
+      return -1;
+    }
+
+    long cumulative = 0;
+    for (int i = 0; i < log_counters.length; i++) {
+      cumulative += log_counters[i];
+      if (cumulative >= needed)
+        return logLow(i) + (logWidth(i) - 1) / 2.;
+    }
+    return -1;
+  }
+
+  /**
+   * One line with all percentiles, in milliseconds.
+   */
+  public String getPercentileLine() {
+    String line = "Percentiles (ms):";
+    for (int i = 0; i < PERCENTILES.length; i++) {
+      double value = getPercentile(PERCENTILES[i]);
+      line += String.format(" %s: %s", PERCENTILE_LABELS[i], (value < 0) ? "n/a" : getShort(value / 1000., 10));
+    }
+    return line;
+  }
+
+  /**
+   * Only the non-zero log-linear buckets are serialized.
+   */
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    out.defaultWriteObject();
+    if (log_counters == null) {
+      out.writeInt(-1);
+      return;
+    }
+
+    int used = 0;
+    for (int i = 0; i < log_counters.length; i++) {
+      if (log_counters[i] != 0)
+        used++;
+    }
+    out.writeInt(used);
+    for (int i = 0; i < log_counters.length; i++) {
+      if (log_counters[i] != 0) {
+        out.writeShort(i);
+        out.writeLong(log_counters[i]);
+      }
+    }
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    int used = in.readInt();
+    if (used < 0)
+      return;
+
+    log_counters = new long[LOG_BUCKETS];
+    for (int i = 0; i < used; i++) {
+      int index = in.readShort();
+      log_counters[index] = in.readLong();
+    }
+  }
+
+  /**
+   * Binary form used by SlaveStats.writeWire(). The bucket ranges are not sent:
+   * the master has the same BucketRanges type.
+   */
+  void writeWire(DataOutput out) throws IOException {
+    out.writeUTF(ranges.getType());
+    WireFormat.writeVarLong(out, counters.length);
+    for (int i = 0; i < counters.length; i++)
+      WireFormat.writeVarLong(out, counters[i]);
+
+    if (log_counters == null) {
+      WireFormat.writeVarLong(out, -1);
+      return;
+    }
+
+    int used = 0;
+    for (int i = 0; i < log_counters.length; i++) {
+      if (log_counters[i] != 0)
+        used++;
+    }
+    WireFormat.writeVarLong(out, used);
+    for (int i = 0; i < log_counters.length; i++) {
+      if (log_counters[i] != 0) {
+        WireFormat.writeVarLong(out, i);
+        WireFormat.writeVarLong(out, log_counters[i]);
+      }
+    }
+  }
+
+  static Histogram readWire(DataInput in) throws IOException {
+    Histogram hist = new Histogram(in.readUTF());
+    int count = (int) WireFormat.readVarLong(in);
+    if (count != hist.counters.length)
+      throw new IOException("Histogram.readWire(): expected " + hist.counters.length + " buckets, received " + count);
+    for (int i = 0; i < count; i++)
+      hist.counters[i] = WireFormat.readVarLong(in);
+
+    int used = (int) WireFormat.readVarLong(in);
+    if (used < 0)
+      return hist;
+
+    hist.log_counters = new long[LOG_BUCKETS];
+    for (int i = 0; i < used; i++) {
+      int index = (int) WireFormat.readVarLong(in);
+      if (index < 0 || index >= LOG_BUCKETS)
+        throw new IOException("Histogram.readWire(): invalid bucket " + index);
+      hist.log_counters[index] = WireFormat.readVarLong(in);
+    }
+    return hist;
+  }
+
+  static void writeOptional(DataOutput out, Histogram hist) throws IOException {
+    out.writeBoolean(hist != null);
+    if (hist != null)
+      hist.writeWire(out);
+  }
+
+  static Histogram readOptional(DataInput in) throws IOException {
+    return in.readBoolean() ? readWire(in) : null;
   }
 
   /**
@@ -176,6 +401,8 @@ public class Histogram implements java.io.Serializable, Cloneable {
       output.add(line);
     }
 
+    output.add("");
+    output.add(getPercentileLine());
     output.add("");
 
     return output;
@@ -156,6 +156,22 @@ public class IO_task extends Thread {
    */
   public static synchronized void io_error_report(long flg, long fhandle, long file_lba, long xfersize, long errno,
       long buffer) {
+    /* Only a corruption report needs the data block: */
+    int[] data = null;
+    if (errno == 60003 && buffer != 0) {
+      data = new int[(int) xfersize / 4];
+      Native.bufferToArray(data, buffer, (int) xfersize);
+    }
+
+    io_error_report(flg, fhandle, file_lba, xfersize, errno, data);
+  }
+
+  /**
+   * Handle i/o errors, with the data block already in java memory. This is
+   * called directly by JavaValidate.
+   */
+  public static synchronized void io_error_report(long flg, long fhandle, long file_lba, long xfersize, long errno,
+      int[] data) {
     boolean read = (flg != 0);
     DV_map dv_map = null;
     String lun = null;
@@ -204,11 +220,11 @@ public class IO_task extends Thread {
     if (errno == 60003) {
       if (sd != null) {
         bads = BadDataBlock.getFirstBadSector(sd, file_lba, 0);
-        if (BadDataBlock.reportBadDataBlock(sd, file_lba, 0, buffer))
+        if (BadDataBlock.reportBadDataBlock(sd, file_lba, 0, data))
           return;
       } else {
         bads = BadDataBlock.getFirstBadSector(afe, file_lba, afe.getFileEntry().getFileStartLba());
-        if (BadDataBlock.reportBadDataBlock(afe, file_lba, afe.getFileEntry().getFileStartLba(), buffer))
+        if (BadDataBlock.reportBadDataBlock(afe, file_lba, afe.getFileEntry().getFileStartLba(), data))
           return;
       }
     }
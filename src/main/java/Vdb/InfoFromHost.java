@@ -139,6 +139,7 @@ public class InfoFromHost implements Serializable {
         LunInfoFromHost luninfo = new LunInfoFromHost();
         luninfo.lun = fwg.anchor.getAnchorName();
         luninfo.lun = Work.unix2Windows(Host.findHost(fwg.host_name), luninfo.lun);
+        luninfo.hdfs = fwg.anchor.hdfs;
         luninfo_for_host.put(luninfo.lun, luninfo);
       }
     }
@@ -310,6 +311,9 @@ public class InfoFromHost implements Serializable {
         info.getRawInfo();
 
       else {
+        /* An FSD may have its own hdfs clients: */
+        HdfsClients.register(info.hdfs);
+
         /* Create anchor directory if needed: */
         host_info.maybeCreateDirectory(info.lun);
 
@@ -837,7 +841,7 @@ public class InfoFromHost implements Serializable {
   private void maybeCreateDirectory(String lun) {
     if (SlaveJvm.isHDFS) {
       try {
-        SlaveJvm.fileSys.mkdirs(new Path(lun));
+        HdfsClients.get(lun).mkdirs(new Path(lun));
       } catch (IllegalArgumentException e) {
         // TODO Auto-generated catch block
         e.printStackTrace();
@@ -0,0 +1,60 @@
+package Vdb;
+
+/**
+ * File and buffer i/o functions behind Native, selected with 'io_backend='.
+ *
+ * File handles and buffer addresses are 'long' values that only have a meaning
+ * for the backend that created them.
+ */
+interface IoBackend {
+  /**
+   * Open a file. Returns a negative value when the open fails.
+   */
+  long openFile(String filename, OpenFlags open_flags, int write_flag);
+
+  long closeFile(long handle, OpenFlags open_flags);
+
+  long fsync(long handle);
+
+  long getSize(long handle, String fname);
+
+  long truncate(long handle, long size);
+
+  long read(long handle, long seek, long length, long buffer, int wkl);
+
+  long write(long handle, long seek, long length, long buffer, int wkl);
+
+  /**
+   * Write with each 4k of the buffer overlaid with the current tod in
+   * microseconds, xor'ed with the lba.
+   */
+  long noDedupWrite(long handle, long seek, long length, long buffer, int jni_index);
+
+  long readAndValidate(long handle, int data_flag, long file_start_lba, long lba, int xfersize, long buffer,
+      int key_count, int[] keys, long[] compressions, long[] dedup_sets, String name, int wkl);
+
+  long fillAndWrite(long handle, long tod, int data_flag, long file_start_lba, long file_lba, int data_length,
+      long pattern_lba, int pattern_length, long buffer, int key_count, int[] keys, long[] compressions,
+      long[] dedup_sets, String name, int wkl);
+
+  /**
+   * Make the data pattern available for fillAndWrite().
+   */
+  void storePattern(int[] array);
+
+  /**
+   * Allocate a buffer. Returns zero when there is no memory.
+   */
+  long allocBuffer(int bytes);
+
+  void freeBuffer(int bytes, long buffer);
+
+  void arrayToBuffer(int[] array, long buffer, int bytes);
+
+  void bufferToArray(int[] array, long buffer, int bytes);
+
+  /**
+   * The LFSR data that fillAndWrite() writes in a sector without compression.
+   */
+  void fillLfsrSector(int[] sector_array, long lba, int key, String name);
+}
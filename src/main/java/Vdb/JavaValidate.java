@@ -0,0 +1,238 @@
+package Vdb;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Java implementation of the Data Validation block fill and compare that JNI
+ * does in multiKeyFillAndWrite() and multiKeyReadAndValidate().
+ *
+ * This is used for FSDs on HDFS, where there is no native file handle that can
+ * be passed to JNI, and by NioIo when 'io_backend=nio' is used. The sector
+ * header is identical to the one JNI creates, so BadSector, BadKeyBlock and
+ * BadDataBlock report corruptions found here the same way as they do for JNI:
+ *
+ * <pre>
+ * int      0-1   lba of this sector, high word first
+ * int      2-3   timestamp of the write, high word first
+ * int      4     DV key in bits 24-31, timestamp checksum in bits 16-23,
+ *                bits 0-15 zero
+ * bytes   20-27  SD or FSD name
+ * int      7     owner id
+ * ints   8-127   compression data pattern, or without compression the
+ *                LFSR data of the Java Lfsr generator
+ * </pre>
+ *
+ * All ints are stored in native byte order, just like JNI does, so on a
+ * little-endian machine the key is byte 19 and the checksum byte 18.
+ *
+ * The Java LFSR sequence differs from the one in the shared library, so
+ * BadSector also uses Lfsr to rebuild the expected data of these blocks.
+ *
+ * Dedup is not supported here: duplicate blocks need the dedup set headers
+ * that are only created by JNI.
+ */
+class JavaValidate {
+  private static ByteOrder order = ByteOrder.nativeOrder();
+
+  /**
+   * Fill 'key_map.pattern_length' bytes of the buffer, starting at position
+   * zero, with the key blocks described in the KeyMap.
+   */
+  public static void fillBlock(ByteBuffer buf, long tod, KeyMap key_map, String name) {
+    fillBlock(buf, tod, key_map.pattern_lba, key_map.pattern_length, key_map.getKeyCount(), key_map.getKeys(),
+        key_map.getCompressions(), name);
+  }
+
+  public static void fillBlock(ByteBuffer buf, long tod, long pattern_lba, int pattern_length, int key_count,
+      int[] keys, long[] compressions, String name) {
+    int key_blksize = pattern_length / key_count;
+    int word4_low = checksum(tod) << 16;
+    int owner = SlaveJvm.getOwnerId();
+    byte[] name_bytes = name.getBytes();
+    int[] pattern = Patterns.getPattern();
+    boolean lfsr = !Validate.isCompression();
+
+    if (pattern_length > buf.capacity())
+      common.failure("JavaValidate.fillBlock(): buffer too small: %d/%d", pattern_length, buf.capacity());
+
+    buf.order(order);
+    for (int i = 0; i < key_count; i++) {
+      long key_lba = pattern_lba + (long) i * key_blksize;
+      int word4 = (keys[i] << 24) | word4_low;
+
+      for (int offset = 0; offset < key_blksize; offset += 512) {
+        int pos = i * key_blksize + offset;
+        long sector_lba = key_lba + offset;
+
+        buf.putInt(pos + 0, (int) (sector_lba >>> 32));
+        buf.putInt(pos + 4, (int) sector_lba);
+        buf.putInt(pos + 8, (int) (tod >>> 32));
+        buf.putInt(pos + 12, (int) tod);
+        buf.putInt(pos + 16, word4);
+        for (int j = 0; j < 8; j++)
+          buf.put(pos + 20 + j, name_bytes[j]);
+        buf.putInt(pos + 28, owner);
+
+        if (lfsr) {
+          int value = Lfsr.seed(sector_lba, keys[i], name_bytes);
+          for (int j = 8; j < 128; j++) {
+            value = Lfsr.next(value);
+            buf.putInt(pos + j * 4, value);
+          }
+        } else {
+          for (int j = 8; j < 128; j++)
+            buf.putInt(pos + j * 4, getPatternWord(pattern, compressions[i] + offset + j * 4));
+        }
+      }
+    }
+  }
+
+  /**
+   * Validate a data block that has been read into the buffer, starting at
+   * position zero.
+   *
+   * Key blocks with key zero have never been written and are not checked. Every
+   * bad sector is passed to BadSector.signalBadSector(), after which the data
+   * block is reported through IO_task.io_error_report(), all just like JNI does.
+   *
+   * Returns 60003 when a corruption was found, otherwise zero.
+   */
+  public static long validateBlock(ByteBuffer buf, long handle, int data_flag, long file_start_lba, long file_lba,
+      int xfersize, KeyMap key_map, String name) {
+    return validateBlock(buf, handle, data_flag, file_start_lba, file_lba, xfersize, key_map.getKeyCount(),
+        key_map.getKeys(), key_map.getCompressions(), key_map.getDedupsets(), name);
+  }
+
+  public static long validateBlock(ByteBuffer buf, long handle, int data_flag, long file_start_lba, long file_lba,
+      int xfersize, int key_count, int[] keys, long[] compressions, long[] dedup_sets, String name) {
+    int key_blksize = xfersize / key_count;
+    int owner = SlaveJvm.getOwnerId();
+    byte[] name_bytes = name.getBytes();
+    int[] pattern = Patterns.getPattern();
+    boolean lfsr = !Validate.isCompression();
+    boolean corrupted = false;
+
+    buf.order(order);
+    for (int i = 0; i < key_count; i++) {
+      if (keys[i] == 0)
+        continue;
+
+      long key_lba = file_start_lba + file_lba + (long) i * key_blksize;
+
+      for (int offset = 0; offset < key_blksize; offset += 512) {
+        int pos = i * key_blksize + offset;
+        long sector_lba = key_lba + offset;
+        int error_flag = 0;
+
+        long lba = make64(buf.getInt(pos + 0), buf.getInt(pos + 4));
+        long tod = make64(buf.getInt(pos + 8), buf.getInt(pos + 12));
+        int word4 = buf.getInt(pos + 16);
+
+        if (lba != sector_lba)
+          error_flag |= BadSector.BAD_LBA;
+        if ((word4 >>> 24) != keys[i])
+          error_flag |= BadSector.BAD_KEY;
+        if ((word4 << 8 >>> 24) != checksum(tod))
+          error_flag |= BadSector.BAD_CHECKSUM;
+        if ((word4 & 0xffff) != 0)
+          error_flag |= BadSector.BAD_ZERO;
+        for (int j = 0; j < 8; j++) {
+          if (buf.get(pos + 20 + j) != name_bytes[j]) {
+            error_flag |= BadSector.BAD_NAME;
+            break;
+          }
+        }
+        if (buf.getInt(pos + 28) != owner)
+          error_flag |= BadSector.BAD_OWNER;
+
+        if (lfsr) {
+          int value = Lfsr.seed(sector_lba, keys[i], name_bytes);
+          for (int j = 8; j < 128; j++) {
+            value = Lfsr.next(value);
+            if (buf.getInt(pos + j * 4) != value) {
+              error_flag |= BadSector.BAD_DATA;
+              break;
+            }
+          }
+        } else {
+          for (int j = 8; j < 128; j++) {
+            if (buf.getInt(pos + j * 4) != getPatternWord(pattern, compressions[i] + offset + j * 4)) {
+              error_flag |= BadSector.BAD_DATA;
+              break;
+            }
+          }
+        }
+
+        if (error_flag == 0)
+          continue;
+
+        corrupted = true;
+        BadSector.signalBadSector(getSector(buf, pos), handle, file_lba, key_lba, file_start_lba, sector_lba, offset,
+            compressions[i], dedup_sets[i], data_flag, keys[i], key_blksize, xfersize, error_flag);
+      }
+    }
+
+    if (!corrupted)
+      return 0;
+
+    /* BadDataBlock may need to look at the whole data block: */
+    int[] data = new int[xfersize / 4];
+    for (int i = 0; i < data.length; i++)
+      data[i] = buf.getInt(i * 4);
+    IO_task.io_error_report(1, handle, file_lba, xfersize, 60003, data);
+
+    return 60003;
+  }
+
+  /**
+   * Compression only: fill 'pattern_length' bytes of the buffer with the data
+   * pattern, each key block starting at its own compression offset. There are
+   * no Data Validation sector headers.
+   */
+  public static void fillCompressionOnly(ByteBuffer buf, int pattern_length, int key_count, long[] compressions) {
+    int key_blksize = pattern_length / key_count;
+    int[] pattern = Patterns.getPattern();
+
+    if (pattern_length > buf.capacity())
+      common.failure("JavaValidate.fillCompressionOnly(): buffer too small: %d/%d", pattern_length,
+          buf.capacity());
+
+    buf.order(order);
+    for (int i = 0; i < key_count; i++) {
+      for (int offset = 0; offset < key_blksize; offset += 4)
+        buf.putInt(i * key_blksize + offset, getPatternWord(pattern, compressions[i] + offset));
+    }
+  }
+
+  /**
+   * Checksum of the timestamp: the sum of its seven low order bytes. See
+   * BadSector.calc_checksum().
+   */
+  private static int checksum(long tod) {
+    int check = 0;
+    for (int i = 0; i < 7; i++)
+      check += (tod >>> (i * 8)) & 0xff;
+
+    return check & 0xff;
+  }
+
+  private static long make64(int high, int low) {
+    return ((long) high << 32) | (low & 0xffffffffL);
+  }
+
+  private static int[] getSector(ByteBuffer buf, int pos) {
+    int[] sector = new int[512 / 4];
+    for (int i = 0; i < sector.length; i++)
+      sector[i] = buf.getInt(pos + i * 4);
+    return sector;
+  }
+
+  /**
+   * Return the data pattern word for a byte offset, the same way
+   * BadSector.getExpectedPattern() determines it.
+   */
+  private static int getPatternWord(int[] pattern, long offset) {
+    return pattern[(int) (offset % (pattern.length * 4) / 4)];
+  }
+}
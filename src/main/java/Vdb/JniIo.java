@@ -0,0 +1,136 @@
+package Vdb;
+
+/**
+ * The default i/o backend: the functions of the shared library.
+ */
+class JniIo implements IoBackend {
+
+  public long openFile(String filename, OpenFlags open_flags, int write_flag) {
+    int flags = 0;
+    boolean sol_directio = false;
+    boolean sol_directiof = false;
+
+    /* Prepare flags to be passed to open(): */
+    if (open_flags != null) {
+      flags = open_flags.getOpenFlags();
+
+      /* directio only for files, not for raw volumes: */
+      if (!filename.startsWith("/dev/")) {
+        sol_directio = open_flags.isOther(OpenFlags.SOL_DIRECTIO);
+        sol_directiof = open_flags.isOther(OpenFlags.SOL_DIRECTIO_OFF);
+      }
+    }
+
+    long handle = Native.openfile(filename, flags, write_flag);
+
+    /* Optionally call Solaris directio() function: */
+    if (sol_directio) {
+      long rc = Native.directio(handle, 1);
+      if (rc != 0)
+        common.failure("Failed call to directio: " + Errno.xlate_errno(rc));
+    }
+
+    /* If the previous run aborted, make sure we reset any stragglers: */
+    if (sol_directiof) {
+      long rc = Native.directio(handle, 0);
+      if (rc != 0)
+        common.failure("Failed call to directio: " + Errno.xlate_errno(rc));
+    }
+
+    return handle;
+  }
+
+  public long closeFile(long handle, OpenFlags open_flags) {
+    boolean fsync = false;
+    boolean sol_directio = false;
+
+    /* Prepare flags to be passed to open(): */
+    if (open_flags != null && !File_handles.getFileName(handle).startsWith("/dev/")) {
+      fsync = open_flags.isOther(OpenFlags.FSYNC_ON_CLOSE);
+      sol_directio = open_flags.isOther(OpenFlags.SOL_DIRECTIO);
+    }
+
+    /* Optionally call fsync before closing: */
+    if (fsync) {
+      long rc = Native.fsync(handle);
+      if (rc != 0)
+        common.failure("Native.closeFile(fhandle): fsync failed, rc= " + rc);
+    }
+
+    /* If directio was used, turn it off: */
+    /* (If run aborts, status will stay in in-memory Vnode. See 'directio_off') */
+    if (sol_directio) {
+      long rc = Native.directio(handle, 0);
+      if (rc != 0)
+        common.failure("Failed call to directio: " + Errno.xlate_errno(rc));
+    }
+
+    long rc = Native.closefile(handle);
+
+    if (rc != 0)
+      common.ptod("Native.closeFile(fhandle): close failed: %d", rc);
+
+    return rc;
+  }
+
+  public long fsync(long handle) {
+    return Native.fsync(handle);
+  }
+
+  public long getSize(long handle, String fname) {
+    return Native.getsize(handle, fname);
+  }
+
+  public long truncate(long handle, long size) {
+    return Native.truncateFile(handle, size);
+  }
+
+  public long read(long handle, long seek, long length, long buffer, int wkl) {
+    return Native.read(handle, seek, length, buffer, wkl);
+  }
+
+  public long write(long handle, long seek, long length, long buffer, int wkl) {
+    return Native.write(handle, seek, length, buffer, wkl);
+  }
+
+  public long noDedupWrite(long handle, long seek, long length, long buffer, int jni_index) {
+    return Native.noDedupWrite(handle, seek, length, buffer, jni_index);
+  }
+
+  public long readAndValidate(long handle, int data_flag, long file_start_lba, long lba, int xfersize, long buffer,
+      int key_count, int[] keys, long[] compressions, long[] dedup_sets, String name, int wkl) {
+    return Native.multiKeyReadAndValidate(handle, data_flag, file_start_lba, lba, xfersize, buffer, key_count, keys,
+        compressions, dedup_sets, name, wkl);
+  }
+
+  public long fillAndWrite(long handle, long tod, int data_flag, long file_start_lba, long file_lba,
+      int data_length, long pattern_lba, int pattern_length, long buffer, int key_count, int[] keys,
+      long[] compressions, long[] dedup_sets, String name, int wkl) {
+    return Native.multiKeyFillAndWrite(handle, tod, data_flag, file_start_lba, file_lba, data_length, pattern_lba,
+        pattern_length, buffer, key_count, keys, compressions, dedup_sets, name, wkl);
+  }
+
+  public void storePattern(int[] array) {
+    Native.store_pattern(array);
+  }
+
+  public long allocBuffer(int bytes) {
+    return Native.allocbuf(bytes);
+  }
+
+  public void freeBuffer(int bytes, long buffer) {
+    Native.freebuf(bytes, buffer);
+  }
+
+  public void arrayToBuffer(int[] array, long buffer, int bytes) {
+    Native.array_to_buffer(array, buffer, bytes);
+  }
+
+  public void bufferToArray(int[] array, long buffer, int bytes) {
+    Native.buffer_to_array(array, buffer, bytes);
+  }
+
+  public void fillLfsrSector(int[] sector_array, long lba, int key, String name) {
+    Native.fillLfsrArray(sector_array, lba, key, name);
+  }
+}
@@ -96,6 +96,27 @@ public class Jnl_entry {
 
   private long journal_max;
   private HashMap<Long, Integer> pending_writes = null;
+  private volatile boolean dump_pending = false; /* 'journal_max' reached */
+
+  /* Group commit: journal records that are not (completely) on disk yet. */
+  /* The first record is at file offset 'batch_offset', the last one is the */
+  /* record currently being filled at 'jnl_offset'. The batch grows when */
+  /* needed, it is never written in the middle of a before or after image. */
+  private int[] batch_array = new int[BATCH_RECORDS * 128];
+  private long batch_offset = 0;
+  private long batch_native_buffer;
+  private int batch_native_size = BATCH_RECORDS * 512;
+  private long append_seqno = 0; /* Commit tickets handed out */
+  private long durable_seqno = 0; /* Tickets whose entries are on disk */
+  private boolean writer_active = false;
+  private static int BATCH_RECORDS = 256;
+
+  /* Statistics of journal writes, reported after each map dump: */
+  private long stat_writes = 0;
+  private long stat_records = 0;
+  private long stat_commits = 0;
+  private long stat_usecs = 0;
+  private long stat_max_usecs = 0;
 
   /* Note: these values can be overridden to allow for a larger journal entry */
   /* size, containing a timestamp. */
@@ -168,6 +189,7 @@ public class Jnl_entry {
     jnl_file_name = new File(jnl_file_name).getAbsolutePath();
 
     jnl_native_buffer = Native.allocBuffer(JNL_IO_SIZE_EOF);
+    batch_native_buffer = Native.allocBuffer(batch_native_size);
 
     /* Delete the old files first to possibly shorten them: */
     if (!Validate.isJournalRecovery() || Validate.isJournalRecovered()) {
@@ -199,6 +221,7 @@ public class Jnl_entry {
         Native.closeFile(jnl_handle);
         Native.closeFile(map_handle);
         Native.freeBuffer(JNL_IO_SIZE_EOF, jnl_native_buffer);
+        Native.freeBuffer(batch_native_size, batch_native_buffer);
       }
     } finally {
       super.finalize();
@@ -214,6 +237,7 @@ public class Jnl_entry {
         Native.closeFile(jnl.jnl_handle);
         Native.closeFile(jnl.map_handle);
         Native.freeBuffer(JNL_IO_SIZE_EOF, jnl.jnl_native_buffer);
+        Native.freeBuffer(jnl.batch_native_size, jnl.batch_native_buffer);
       }
     }
   }
@@ -420,33 +444,49 @@ public class Jnl_entry {
       if (map.journal != null) {
         map.journal.dumpOneMap(map);
         map.setAllUnBusy();
+        if (end_of_run)
+          map.storeMapChecksums();
       }
     }
   }
 
   public void dumpOneMap(DV_map map) {
-    /* Locking is needed to allow dumping after 'max_journal': */
-    synchronized (map) {
-      /* Remember when: */
-      dump_journal_tod = System.currentTimeMillis();
+    /* Locking is needed to allow dumping after 'max_journal'. */
+    /* The journal lock is obtained first, just as in writeJournalEntry(): */
+    synchronized (this) {
+      /* An active journal write must complete before the map is locked: */
+      /* waiting releases the journal lock, but would keep the map locked. */
+      waitForWriter(Long.MAX_VALUE);
 
-      /* Possibly re-open the files with fast read+write access: */
-      openFiles(true);
+      synchronized (map) {
+        /* Everything journaled so far must be on disk before the map is written: */
+        /* (No journal write is active, so this does not wait) */
+        flushLocked();
+        reportStatistics();
 
-      /* Should this be done in reverse order, first the backup.map file */
-      /* and then .jnl in case the jnl dump fails? */
+        /* Remember when: */
+        dump_journal_tod = System.currentTimeMillis();
 
-      plog("Writing Data Validation map to " + File_handles.getFileName(jnl_handle));
-      jnl_dump_map(jnl_handle, map, jnl_file_name);
+        /* Possibly re-open the files with fast read+write access: */
+        openFiles(true);
 
-      plog("Writing Data Validation map to " + File_handles.getFileName(map_handle));
-      jnl_dump_map(map_handle, map, map_file_name);
+        /* Should this be done in reverse order, first the backup.map file */
+        /* and then .jnl in case the jnl dump fails? */
 
-      /* Possibly re-open the files with slow read+write access: */
-      openFiles(false);
+        plog("Writing Data Validation map to " + File_handles.getFileName(jnl_handle));
+        jnl_dump_map(jnl_handle, map, jnl_file_name);
 
-      /* For the next go-around our index must start clean again: */
-      jnl_index = 0;
+        plog("Writing Data Validation map to " + File_handles.getFileName(map_handle));
+        jnl_dump_map(map_handle, map, map_file_name);
+
+        /* Possibly re-open the files with slow read+write access: */
+        openFiles(false);
+
+        /* For the next go-around our index must start clean again: */
+        jnl_index = 0;
+        batch_offset = jnl_offset;
+        Arrays.fill(batch_array, 0, 128, 0);
+      }
     }
   }
 
@@ -460,7 +500,7 @@ public class Jnl_entry {
     long rc = Native.readFile(handle, seek, length, buffer);
     if (rc != 0)
       throw new Exception("Journal read failed: " + Errno.xlate_errno(rc));
-    Native.buffer_to_array(array, buffer, 512);
+    Native.bufferToArray(array, buffer, 512);
 
     if (array[0] != eye_catcher) {
       String fname = (String) File_handles.getFileName(handle);
@@ -484,7 +524,7 @@ public class Jnl_entry {
     // debugging:
     if (false) {
       int[] array = new int[128];
-      Native.buffer_to_array(array, buffer, 512);
+      Native.bufferToArray(array, buffer, 512);
       if (array[0] == MAP_EYE_CATCHER)
         common.ptod("Writing map record to lba 0x%08x - 0x%08x", seek, seek + length - 1);
       else if (array[0] == JNL_EYE_CATCHER)
@@ -500,9 +540,26 @@ public class Jnl_entry {
   }
 
   /**
-   * Write journal record to the journal file Write record, if this is the last
-   * entry in the record, write also an extra 512 bytes record with an entry count
-   * of zero.
+   * Group commit of journal records.
+   *
+   * Journal entries are stored in 'batch_array', and a full record is no longer
+   * written by itself. Instead, the first thread that needs its entries on disk
+   * writes all records collected so far in one write: the full records since
+   * the last write, followed by the record currently being filled. When that
+   * record is empty it has an entry count of zero, making it the EOF record.
+   * Threads arriving while that write is active wait for it to complete, after
+   * which one of them writes everything that was added in the mean time.
+   *
+   * The records and their order on disk are the same as when each record was
+   * written separately, so applyJournal() does not know the difference. As
+   * before, a before or after image is on disk before commit() returns.
+   *
+   * Only one journal write is active at any time, so a record that is written
+   * again with more entries can never be overtaken by an older copy.
+   *
+   * When 'journal_max=' has been reached the map is dumped here, before the
+   * commit, and not in writeJournalEntry(): there the caller may be in the
+   * middle of an image, and the dump may have to wait for a journal write.
    *
    * A consideration was made that it might be possible to add some code down here
    * that would dump the maps once the journal file reaches a certain threshold,
@@ -520,39 +577,130 @@ public class Jnl_entry {
    * 20*1024*1024/(512/16) ios, or 655,360 ios. That's quite a bit, except of
    * course for file system workloads.
    */
-  private void writeJournalRecord() {
-    /* First store entry count at begin of buffer: */
-    jnl_array[0] = JNL_EYE_CATCHER;
-    jnl_array[1] = jnl_index;
-    jnl_array[2] = (int) jnl_offset / 512;
-    jnl_array[3] = (int) dump_journal_tod; // last 32 bits of tod.
-
-    /* No EOF record needed?: */
-    if (jnl_index < JNL_ENTRIES) {
-      /* It turns out that each time I copy 1024bytes, not 512! */
-      /* It turns out that each time I copy 1024bytes, not 512! */
-      /* It turns out that each time I copy 1024bytes, not 512! */
-      /* It turns out that each time I copy 1024bytes, not 512! */
-      Native.arrayToBuffer(jnl_array, jnl_native_buffer);
-      jnl_write(jnl_handle, jnl_offset, 512, jnl_native_buffer);
-    } else {
-      /* Add EOF record: */
-      jnl_array[128 + 0] = JNL_EYE_CATCHER;
-      jnl_array[128 + 1] = 0;
-      jnl_array[128 + 2] = (int) jnl_offset / 512;
-      jnl_array[128 + 3] = (int) dump_journal_tod;
-
-      Native.arrayToBuffer(jnl_array, jnl_native_buffer);
-      jnl_write(jnl_handle, jnl_offset, 1024, jnl_native_buffer);
+  public void commit(long ticket) {
+    if (dump_pending)
+      dumpForJournalMax();
 
-      jnl_offset += 512;
-      jnl_index = 0;
+    if (ticket == 0)
+      return;
 
-      if (jnl_offset % (100 * 1024 * 1024l) == 0)
-        common.ptod("Journal file " + jnl_file_name + " is now " + (jnl_offset / (1 * 1024 * 1024)) + "mb");
+    long handle;
+    long offset;
+    long target;
+    long buffer;
+    int bytes;
+    synchronized (this) {
+      waitForWriter(ticket);
+      if (durable_seqno >= ticket)
+        return;
+
+      writer_active = true;
+      handle = jnl_handle;
+      offset = batch_offset;
+      target = append_seqno;
+      bytes = captureBatch();
+      buffer = batch_native_buffer;
+    }
+
+    long start = System.nanoTime();
+    jnl_write(handle, offset, bytes, buffer);
+    long usecs = (System.nanoTime() - start) / 1000;
+
+    synchronized (this) {
+      writeComplete(target, bytes, usecs);
     }
   }
 
+  /**
+   * Write all pending journal records while holding the journal lock. This may
+   * wait for an active journal write, so it may not be called while holding
+   * the map lock or in the middle of an image.
+   */
+  private void flushLocked() {
+    waitForWriter(Long.MAX_VALUE);
+    if (durable_seqno >= append_seqno)
+      return;
+
+    long target = append_seqno;
+    long offset = batch_offset;
+    int bytes = captureBatch();
+
+    long start = System.nanoTime();
+    jnl_write(jnl_handle, offset, bytes, batch_native_buffer);
+    writeComplete(target, bytes, (System.nanoTime() - start) / 1000);
+  }
+
+  /**
+   * Wait until our entries are on disk or until no journal write is active.
+   * Interrupts may not stop the journal, they are passed on afterwards.
+   */
+  private void waitForWriter(long ticket) {
+    boolean interrupted = false;
+    while (writer_active && durable_seqno < ticket) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted)
+      Thread.currentThread().interrupt();
+  }
+
+  /**
+   * Copy the batch to the native buffer and return the byte count to write.
+   * After this only the record currently being filled stays in the batch.
+   */
+  private int captureBatch() {
+    int records = (int) ((jnl_offset - batch_offset) / 512);
+    setRecordHeader(records, jnl_index, jnl_offset);
+
+    int bytes = (records + 1) * 512;
+    if (bytes > batch_native_size) {
+      Native.freeBuffer(batch_native_size, batch_native_buffer);
+      batch_native_size = batch_array.length * 4;
+      batch_native_buffer = Native.allocBuffer(batch_native_size);
+    }
+    Native.arrayToBuffer(batch_array, batch_native_buffer, bytes);
+
+    if (records > 0) {
+      System.arraycopy(batch_array, records * 128, batch_array, 0, 128);
+      batch_offset = jnl_offset;
+    }
+
+    return bytes;
+  }
+
+  private void writeComplete(long target, int bytes, long usecs) {
+    durable_seqno = Math.max(durable_seqno, target);
+    writer_active = false;
+    notifyAll();
+
+    stat_writes++;
+    stat_records += bytes / 512;
+    stat_usecs += usecs;
+    stat_max_usecs = Math.max(stat_max_usecs, usecs);
+  }
+
+  private void setRecordHeader(int record, int count, long offset) {
+    int base = record * 128;
+    batch_array[base + 0] = JNL_EYE_CATCHER;
+    batch_array[base + 1] = count;
+    batch_array[base + 2] = (int) offset / 512;
+    batch_array[base + 3] = (int) dump_journal_tod; // last 32 bits of tod.
+  }
+
+  private void reportStatistics() {
+    if (stat_writes == 0)
+      return;
+
+    plog("Journal %s: %,d writes for %,d commits; average %.1f records per write; "
+        + "write response avg %.3f ms, max %.3f ms", jnl_file_name, stat_writes, stat_commits,
+        (double) stat_records / stat_writes, stat_usecs / 1000. / stat_writes, stat_max_usecs / 1000.);
+
+    stat_writes = stat_records = stat_commits = stat_usecs = stat_max_usecs = 0;
+  }
+
   /**
    * Store a journal entry, and optionally write it out. Journal record will be
    * written when the journal block is full, or when the 'last' flag is true. (The
@@ -560,27 +708,53 @@ public class Jnl_entry {
    * KeyMap.key_block_size)
    *
    * When the key is zero it implies an AFTER image.
+   *
+   * The entries are only stored in the batch here. For 'last' a commit ticket is
+   * returned that must be passed to commit() once the journal lock has been
+   * released; otherwise zero is returned.
    */
-  public synchronized void writeJournalEntry(int key, long key_block, boolean last) {
+  public synchronized long writeJournalEntry(int key, long key_block, boolean last) {
     if (jnl_index == JNL_ENTRIES)
       common.failure("Invalid jnl_index: " + jnl_index);
 
+    /* Keep room for the record being filled and the next one. The batch */
+    /* grows instead of being written here: the wait for an active write */
+    /* would release the journal lock in the middle of this image. */
+    int records = (int) ((jnl_offset - batch_offset) / 512);
+    if ((records + 2) * 128 > batch_array.length)
+      batch_array = Arrays.copyOf(batch_array, batch_array.length * 2);
+
     /* Note that key may have bit0 set to identify 'recursive call' from below */
 
+    int base = (int) ((jnl_offset - batch_offset) / 512) * 128;
     long store = ((long) key) << 56 | key_block;
-    jnl_array[JNL_SKIP_HDR + jnl_index * JNL_ENT_INTS + 0] = left32(store);
-    jnl_array[JNL_SKIP_HDR + jnl_index * JNL_ENT_INTS + 1] = right32(store);
+    batch_array[base + JNL_SKIP_HDR + jnl_index * JNL_ENT_INTS + 0] = left32(store);
+    batch_array[base + JNL_SKIP_HDR + jnl_index * JNL_ENT_INTS + 1] = right32(store);
 
     if (JOURNAL_ADD_TIMESTAMP) {
       long tod = System.currentTimeMillis();
-      jnl_array[JNL_SKIP_HDR + jnl_index * JNL_ENT_INTS + 2] = left32(tod);
-      jnl_array[JNL_SKIP_HDR + jnl_index * JNL_ENT_INTS + 3] = right32(tod);
+      batch_array[base + JNL_SKIP_HDR + jnl_index * JNL_ENT_INTS + 2] = left32(tod);
+      batch_array[base + JNL_SKIP_HDR + jnl_index * JNL_ENT_INTS + 3] = right32(tod);
     }
 
     jnl_index++;
 
-    if (last || jnl_index >= JNL_ENTRIES)
-      writeJournalRecord();
+    /* A full record stays in the batch; continue with the next one: */
+    if (jnl_index >= JNL_ENTRIES) {
+      setRecordHeader(base / 128, jnl_index, jnl_offset);
+      jnl_offset += 512;
+      jnl_index = 0;
+      Arrays.fill(batch_array, base + 128, base + 256, 0);
+
+      if (jnl_offset % (100 * 1024 * 1024l) == 0)
+        common.ptod("Journal file " + jnl_file_name + " is now " + (jnl_offset / (1 * 1024 * 1024)) + "mb");
+    }
+
+    long ticket = 0;
+    if (last) {
+      ticket = ++append_seqno;
+      stat_commits++;
+    }
 
     // if (key != 0)
     // common.ptod("before: lba %08x key %02x", key_block *
@@ -608,7 +782,7 @@ public class Jnl_entry {
 
     /* This all still happens under the current lock. */
     if (pending_writes == null || (key & 0x80000000) != 0)
-      return;
+      return ticket;
 
     /* 'Before' journal record: */
     if (key != 0) {
@@ -625,9 +799,21 @@ public class Jnl_entry {
     /* Optionally rewrite maps while maps are locked. */
     /* This eliminates the journal becoming too huge, though it */
     /* may slow down iops while the maps are being dumped. */
+    /* That is done by commit(), once this image is complete. */
+    if (jnl_offset >= journal_max)
+      dump_pending = true;
+
+    return ticket;
+  }
 
-    if (jnl_offset < journal_max)
+  /**
+   * 'journal_max' has been reached: dump the map and rewrite the BEFORE entries
+   * of the writes that are still pending.
+   */
+  private synchronized void dumpForJournalMax() {
+    if (!dump_pending)
       return;
+    dump_pending = false;
 
     /* Note: if Vdbench or the OS shuts down HERE we may have an issue? */
     plog("'journal_max' reached. Clearing journal file for %s", sd_or_fsd);
@@ -640,6 +826,10 @@ public class Jnl_entry {
       boolean last_block = (i == blocks.length - 1);
       writeJournalEntry(pending_writes.get(block) | 0x80000000, block, last_block);
     }
+
+    /* The dump made everything before it durable, including the caller's */
+    /* entries. The rewritten BEFORE entries must be on disk too: */
+    flushLocked();
   }
 
   /**
@@ -1018,7 +1208,7 @@ public class Jnl_entry {
           }
 
           /* If the old key was 126, rolling over from 126 to 1: */
-          else if (current_map.dv_get_nolock(lba) == 126) {
+          else if (current_map.dv_get_nolock(lba) == current_map.getMaxKey()) {
             if (debug)
               common.ptod("old key 0, before_map set to pending. lba: %08x", lba);
             before_map.dv_set_nolock(lba, DV_map.PENDING_KEY_ROLL);
@@ -1152,7 +1342,7 @@ public class Jnl_entry {
           common.ptod("read error");
           break;
         }
-        Native.buffer_to_array(array, buffer, 512);
+        Native.bufferToArray(array, buffer, 512);
 
         /* This is the MAP: */
         if (array[0] == MAP_EYE_CATCHER) {
@@ -655,6 +655,9 @@ public class KeyMap {
    * Note: there should not be a need for each Key block size journal write to be
    * synchronous! This is taken care of already in writeJournalEntry() using the
    * 'last' flag!
+   *
+   * The journal write itself is done by commit() after the journal lock has been
+   * released, allowing the images of concurrent writers to share one write.
    */
   public void writeBeforeJournalImage() {
     /* The usefulness of 'maponly' is there, but has not been used or tested */
@@ -662,6 +665,7 @@ public class KeyMap {
     if (Validate.isMapOnly()) // || format)
       return;
 
+    long ticket = 0;
     synchronized (dv_map.journal) {
       for (int i = 0; i < key_count; i++) {
         long lba = file_start_lba + file_lba;
@@ -669,9 +673,10 @@ public class KeyMap {
         if (key_map[i] == 0)
           common.failure("writeBeforeJournalImage trying to write a zero key");
 
-        dv_map.journal.writeJournalEntry(key_map[i], block, (i + 1) == key_count);
+        ticket = dv_map.journal.writeJournalEntry(key_map[i], block, (i + 1) == key_count);
       }
     }
+    dv_map.journal.commit(ticket);
 
     HelpDebug.abortAfterCount("writeBeforeJournalImage");
   }
@@ -685,16 +690,18 @@ public class KeyMap {
 
     HelpDebug.abortAfterCount("writeAfterJournalImage");
 
+    long ticket = 0;
     synchronized (dv_map.journal) {
       for (int i = 0; i < key_count; i++) {
         long lba = file_start_lba + file_lba;
         long block = (lba / key_block_size + i);
         if (bad_write)
-          dv_map.journal.writeJournalEntry(DV_map.DV_ERROR, block, (i + 1) == key_count);
+          ticket = dv_map.journal.writeJournalEntry(DV_map.DV_ERROR, block, (i + 1) == key_count);
         else
-          dv_map.journal.writeJournalEntry(0, block, (i + 1) == key_count);
+          ticket = dv_map.journal.writeJournalEntry(0, block, (i + 1) == key_count);
       }
     }
+    dv_map.journal.commit(ticket);
   }
 
   /**
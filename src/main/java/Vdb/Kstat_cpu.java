@@ -8,6 +8,10 @@ package Vdb;
  * Author: Henk Vandenbergh.
  */
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 import Utils.Format;
 
 /**
@@ -26,6 +30,27 @@ public class Kstat_cpu implements java.io.Serializable {
   long cpu_hertz; /* For windows: QueryPerformanceFrequency */
   /* For Solaris: Number of ticks per second */
 
+  /**
+   * Binary form used by SlaveStats.writeWire().
+   */
+  void writeWire(DataOutput out) throws IOException {
+    long[] counters = { cpu_count, cpu_total, cpu_idle, cpu_user, cpu_kernel, cpu_wait, cpu_hertz };
+    for (int i = 0; i < counters.length; i++)
+      WireFormat.writeVarLong(out, counters[i]);
+  }
+
+  static Kstat_cpu readWire(DataInput in) throws IOException {
+    Kstat_cpu ks = new Kstat_cpu();
+    ks.cpu_count = WireFormat.readVarLong(in);
+    ks.cpu_total = WireFormat.readVarLong(in);
+    ks.cpu_idle = WireFormat.readVarLong(in);
+    ks.cpu_user = WireFormat.readVarLong(in);
+    ks.cpu_kernel = WireFormat.readVarLong(in);
+    ks.cpu_wait = WireFormat.readVarLong(in);
+    ks.cpu_hertz = WireFormat.readVarLong(in);
+    return ks;
+  }
+
   void cpu_accum(Kstat_cpu in) {
     cpu_count = in.cpu_count;
     cpu_total += in.cpu_total;
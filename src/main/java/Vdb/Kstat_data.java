@@ -8,6 +8,8 @@ package Vdb;
  * Author: Henk Vandenbergh.
  */
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.Serializable;
 import java.nio.file.FileSystems;
@@ -41,6 +43,32 @@ public class Kstat_data implements Serializable {
   /* This is stored upon arrival of the data on the master from the slave: */
   InstancePointer pointer = null;
 
+  /**
+   * Binary form used by SlaveStats.writeWire(). The InstancePointer is only
+   * set on the master.
+   */
+  void writeWire(DataOutput out) throws IOException {
+    long[] counters = { nread, nwritten, reads, writes, wlentime, rtime, rlentime, totalio, tod, elapsed, devices };
+    for (int i = 0; i < counters.length; i++)
+      WireFormat.writeVarLong(out, counters[i]);
+  }
+
+  static Kstat_data readWire(DataInput in) throws IOException {
+    Kstat_data ks = new Kstat_data();
+    ks.nread = WireFormat.readVarLong(in);
+    ks.nwritten = WireFormat.readVarLong(in);
+    ks.reads = WireFormat.readVarLong(in);
+    ks.writes = WireFormat.readVarLong(in);
+    ks.wlentime = WireFormat.readVarLong(in);
+    ks.rtime = WireFormat.readVarLong(in);
+    ks.rlentime = WireFormat.readVarLong(in);
+    ks.totalio = WireFormat.readVarLong(in);
+    ks.tod = WireFormat.readVarLong(in);
+    ks.elapsed = WireFormat.readVarLong(in);
+    ks.devices = (int) WireFormat.readVarLong(in);
+    return ks;
+  }
+
   /**
    * Accumulate statistics
    */
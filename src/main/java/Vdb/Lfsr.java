@@ -0,0 +1,48 @@
+package Vdb;
+
+/**
+ * Java generator for the LFSR based contents of bytes 32-511 of a Data
+ * Validation sector, for the blocks that JavaValidate writes and validates
+ * when compression is not used.
+ *
+ * The sequence is a 32-bit xorshift generator, which is an LFSR, seeded from
+ * the sector's lba, its DV key and the 8-byte SD or FSD name. It is NOT the
+ * sequence of the shared library: BadSector uses this class for every block
+ * that JavaValidate handles, and the shared library for everything else.
+ */
+class Lfsr {
+
+  /**
+   * The first LFSR value for a sector. Name is the 8-byte SD or FSD name, the
+   * way it is stored in bytes 20-27 of the sector.
+   */
+  static int seed(long lba, int key, byte[] name) {
+    long seed = lba ^ ((long) key << 56);
+    for (int i = 0; i < 8; i++)
+      seed = seed * 31 + ((i < name.length) ? name[i] : ' ');
+    seed *= 0x9E3779B97F4A7C15l;
+
+    int value = (int) (seed ^ (seed >>> 32));
+    return (value == 0) ? 0x5a5a5a5a : value;
+  }
+
+  static int next(int value) {
+    value ^= value << 13;
+    value ^= value >>> 17;
+    value ^= value << 5;
+    return value;
+  }
+
+  /**
+   * Fill a 512-byte sector array with LFSR values, just like
+   * Native.fillLfsrArray() does: the data bytes 32-511 of a sector are the
+   * first 480 bytes of this array.
+   */
+  static void fillSector(int[] sector_array, long lba, int key, String name) {
+    int value = seed(lba, key, name.getBytes());
+    for (int i = 0; i < sector_array.length; i++) {
+      value = next(value);
+      sector_array[i] = value;
+    }
+  }
+}
@@ -87,6 +87,13 @@ public class Linux {
       return true;
     }
 
+    /* 'io_backend=nio' can run without the shared library: */
+    if (!Native.isLibraryLoaded()) {
+      ticks_per_second = 100;
+      common.plog("getTickCount(): no shared library, set to 100");
+      return true;
+    }
+
     ticks_per_second = Native.getTickCount();
     if (ticks_per_second <= 0) {
       common.ptod("Error retrieving tick count: %d. Setting to 100", ticks_per_second);
@@ -40,6 +40,7 @@ public class LunInfoFromHost implements Serializable {
   protected String kstat_instance;
   protected Vector kstat_error_messages = new Vector(0, 0);
   protected String soft_link = null;
+  protected HdfsClients hdfs = null; /* FSD specific hdfs clients */
 
   /* For verification of proper SD Concatenation: */
   protected boolean marker_needed = false;
@@ -96,7 +97,7 @@ public class LunInfoFromHost implements Serializable {
   public void getFileInfo() {
     if (SlaveJvm.isHDFS) {
       try {
-        FileStatus st = SlaveJvm.fileSys.getFileStatus(new Path(lun));
+        FileStatus st = HdfsClients.get(lun).getFileStatus(new Path(lun));
         parent_exists = lun_exists = true;
         if (st.isFile()) {
           read_allowed = true;
@@ -12,6 +12,7 @@ import java.io.*;
 import java.nio.*;
 import java.nio.channels.*;
 import java.util.*;
+import java.util.zip.CRC32;
 
 import Utils.*;
 
@@ -26,9 +27,14 @@ public class MapFile extends Thread {
   private String filename;
   private int bytes_in_map;
   private MappedByteBuffer bbuffer;
+  private MappedByteBuffer header;
   private FileChannel channel;
+  private int segment;
+  private int segments;
+  private long total_len;
 
   public MapCounts counter = null;
+  private boolean nibbles = false; /* 'validate=nibble': two blocks per byte */
 
   private static HashMap file_map = new HashMap(16);
 
@@ -37,11 +43,25 @@ public class MapFile extends Thread {
   public final static int BYTE_SHIFT = 30;
   public final static long BYTE_AND = (1 << BYTE_SHIFT) - 1;
 
+  /* Each file starts with a header; the map follows it: */
+  public final static int HEADER_SIZE = 4096;
+  private final static long MAGIC = 0x5644424d41503031l; /* "VDBMAP01" */
+  private final static int VERSION = 2; /* 2: CRC32 map checksum */
+  private final static int STATE_OPEN = 1;
+  private final static int STATE_CLEAN = 2;
+
+  private final static int SETUP_CREATE = 0;
+  private final static int SETUP_OPEN = 1;
+  private final static int SETUP_CHECKSUM = 2;
+
   /**
    * Create a new map after first deleting a possible old file.
    *
    * Note: This actually now creates 'n' maps so that we can now handle maps
    * larger than 2**31
+   *
+   * The files are created sparse with setLength(), which gives us a zeroed map
+   * without touching every byte. Each segment is set up in its own thread.
    */
   public static MapFile[] createNewFile(String jnl_dir_name, String fname, long total_len) {
     /* One extra needed due to dedupunit straddling: */
@@ -53,98 +73,254 @@ public class MapFile extends Thread {
     MapFile[] maps = new MapFile[(int) maps_needed];
 
     for (int map = 0; map < maps.length; map++) {
-      String fullname = createMapFileName(jnl_dir_name, fname, map);
+      MapFile mf = maps[map] = new MapFile();
+      mf.filename = createMapFileName(jnl_dir_name, fname, map);
+      mf.bytes_in_map = (int) Math.min(total_len - map * MAX_BYTES, MAX_BYTES);
+      mf.segment = map;
+      mf.segments = maps.length;
+      mf.total_len = total_len;
+    }
 
-      if (file_map.get(fullname) != null)
-        common.failure("Map file still open: " + fullname);
+    setupAll(maps, SETUP_CREATE);
 
-      File fptr = new File(fullname);
-      if (fptr.exists()) {
-        if (!fptr.delete()) {
-          ErrorLog.plog("Unable to delete old map file: " + fullname);
-          common.failure("Unable to delete old map file: " + fullname);
-        }
-      }
+    return maps;
+  }
 
-      /* Need to figure out when we can just throw away the mmap file: */
-      /* Keep it when: */
-      /* - journaling */
-      /* - dedup */
-      // if (!Validate.isJournaling() && !Validate.isValidateForDedup())
-      // fptr.deleteOnExit();
+  /**
+   * Reuse the maps from a previous run for 'validate=continue_old_map'.
+   *
+   * The header of each segment must match what we expect, and the map must have
+   * been closed cleanly at the end of that run with a matching checksum.
+   */
+  public static MapFile[] openOldFile(String jnl_dir_name, String fname, long total_len) {
+    /* One extra needed due to dedupunit straddling: */
+    if (Dedup.isDedup())
+      total_len++;
 
-      int bytes_to_get = (int) Math.min(total_len - map * MAX_BYTES, MAX_BYTES);
-      // common.ptod("maps_needed: " + maps_needed);
-      // common.ptod("map: " + map);
-      // common.ptod("total_len: " + total_len);
-      // common.ptod("bytes_to_get: " + bytes_to_get);
-      // common.sleep_some(20);
+    /* See how many maps we need: */
+    int count = (int) ((total_len + MAX_BYTES - 1) / MAX_BYTES);
+    MapFile[] maps = new MapFile[count];
 
+    for (int map = 0; map < count; map++) {
       MapFile mf = maps[map] = new MapFile();
+      mf.filename = createMapFileName(jnl_dir_name, fname, map);
+      mf.bytes_in_map = (int) Math.min(total_len - map * MAX_BYTES, MAX_BYTES);
+      mf.segment = map;
+      mf.segments = count;
+      mf.total_len = total_len;
+    }
 
-      try {
-        mf.filename = fullname;
-        mf.bytes_in_map = bytes_to_get;
-        mf.channel = new RandomAccessFile(mf.filename, "rw").getChannel();
+    setupAll(maps, SETUP_OPEN);
 
-        mf.bbuffer = mf.channel.map(FileChannel.MapMode.READ_WRITE, 0, mf.bytes_in_map);
-        file_map.put(mf.filename, mf);
-      }
+    return maps;
+  }
 
-      catch (Exception e) {
-        common.failure(e);
-      }
+  /**
+   * Store the checksum of each map in its header, marking the map as closed
+   * cleanly. This allows a next run to use 'validate=continue_old_map'.
+   */
+  public static void storeChecksums(MapFile[] maps) {
+    setupAll(maps, SETUP_CHECKSUM);
+  }
+
+  /**
+   * Run the create/open/checksum work for all segments, one thread each.
+   */
+  private static void setupAll(MapFile[] maps, int what) {
+    long start = System.currentTimeMillis();
 
-      /* Initialize contents: */
-      for (int i = 0; i < mf.bytes_in_map; i++)
-        mf.bbuffer.put((byte) 0);
+    MapSetupThread[] threads = new MapSetupThread[maps.length];
+    for (int map = 0; map < maps.length; map++) {
+      threads[map] = new MapSetupThread(maps[map], what);
+      threads[map].start();
+    }
 
-      ErrorLog.plog("Created new mmap file: %s mmap size: %s", mf.filename, FileAnchor.whatSize(mf.bytes_in_map));
+    for (MapSetupThread thread : threads) {
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        common.failure(e);
+      }
     }
 
-    return maps;
+    long total = 0;
+    for (MapFile mf : maps)
+      total += mf.bytes_in_map;
+
+    String[] verbs = { "Created", "Reused", "Checksummed" };
+    ErrorLog.plog("%s %d mmap file(s) for %s in %.3f seconds", verbs[what], maps.length, FileAnchor.whatSize(total),
+        (System.currentTimeMillis() - start) / 1000.);
   }
 
   /**
-   * Create a new mapped after first deleting a possible old file.
+   * Create one new sparse map segment.
    */
-  public static MapFile[] openOldFile(String jnl_dir_name, String fname, long total_len) {
-    /* See how many maps we need: */
-    int count = (int) (total_len + MAX_BYTES - 1);
-    MapFile[] maps = new MapFile[count];
+  private void createSegment() {
+    synchronized (file_map) {
+      if (file_map.get(filename) != null)
+        common.failure("Map file still open: " + filename);
+    }
 
-    for (int map = 0; map < count; map++) {
-      String fullname = createMapFileName(jnl_dir_name, fname, map);
-      int bytes_to_get = (int) Math.min(total_len - map * MAX_BYTES, MAX_BYTES);
+    File fptr = new File(filename);
+    if (fptr.exists()) {
+      if (!fptr.delete()) {
+        ErrorLog.plog("Unable to delete old map file: " + filename);
+        common.failure("Unable to delete old map file: " + filename);
+      }
+    }
+
+    /* Need to figure out when we can just throw away the mmap file: */
+    /* Keep it when: */
+    /* - journaling */
+    /* - dedup */
+    // if (!Validate.isJournaling() && !Validate.isValidateForDedup())
+    // fptr.deleteOnExit();
+
+    try {
+      RandomAccessFile raf = new RandomAccessFile(filename, "rw");
+      raf.setLength(HEADER_SIZE + bytes_in_map);
+      channel = raf.getChannel();
+
+      header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+      bbuffer = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE, bytes_in_map);
+      synchronized (file_map) {
+        file_map.put(filename, this);
+      }
+    }
 
-      File fptr = new File(fullname);
-      if (!fptr.exists())
-        common.failure("Opening of old map file failed: " + fullname);
+    catch (Exception e) {
+      common.failure(e);
+    }
 
-      if (fptr.length() != bytes_to_get)
-        common.failure("Map file size mismatch: %s current size: %d requested size: %d", fullname, fptr.length(),
-            bytes_to_get);
+    writeHeader(STATE_OPEN, 0);
 
-      if (file_map.get(fullname) != null)
-        common.failure("Map file still open: " + fullname);
+    ErrorLog.plog("Created new mmap file: %s mmap size: %s", filename, FileAnchor.whatSize(bytes_in_map));
+  }
 
-      MapFile mf = new MapFile();
-      try {
-        mf.filename = fullname;
-        mf.bytes_in_map = bytes_to_get;
-        mf.bbuffer = new RandomAccessFile(mf.filename, "rw").getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
-            mf.bytes_in_map);
-        file_map.put(mf.filename, mf);
-      }
+  /**
+   * Open one old map segment and verify header and checksum.
+   */
+  private void openSegment() {
+    File fptr = new File(filename);
+    if (!fptr.exists())
+      common.failure("Opening of old map file failed: " + filename);
+
+    if (fptr.length() != HEADER_SIZE + bytes_in_map)
+      common.failure("Map file size mismatch: %s current size: %d requested size: %d", filename, fptr.length(),
+          HEADER_SIZE + bytes_in_map);
+
+    synchronized (file_map) {
+      if (file_map.get(filename) != null)
+        common.failure("Map file still open: " + filename);
+    }
 
-      catch (Exception e) {
-        common.failure(e);
+    try {
+      channel = new RandomAccessFile(filename, "rw").getChannel();
+      header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+      bbuffer = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE, bytes_in_map);
+      synchronized (file_map) {
+        file_map.put(filename, this);
       }
+    }
 
-      ErrorLog.plog("Reusing mmap file: %s mmap size: %s", mf.filename, FileAnchor.whatSize(mf.bytes_in_map));
+    catch (Exception e) {
+      common.failure(e);
     }
 
-    return maps;
+    String error = checkHeader();
+    if (error != null)
+      common.failure("'validate=continue_old_map': map file %s can not be reused: %s", filename, error);
+
+    /* Until the next checksum any change makes the map 'not closed cleanly': */
+    writeHeader(STATE_OPEN, 0);
+
+    ErrorLog.plog("Reusing mmap file: %s mmap size: %s", filename, FileAnchor.whatSize(bytes_in_map));
+  }
+
+  protected void setup(int what) {
+    if (what == SETUP_CREATE)
+      createSegment();
+    else if (what == SETUP_OPEN)
+      openSegment();
+    else
+      storeChecksum();
+  }
+
+  /**
+   * Write the map to disk, and then the header with the map's checksum.
+   */
+  private void storeChecksum() {
+    bbuffer.force();
+    writeHeader(STATE_CLEAN, calculateChecksum());
+  }
+
+  private long calculateChecksum() {
+    CRC32 crc = new CRC32();
+    ByteBuffer bb = bbuffer.duplicate();
+    bb.clear();
+    crc.update(bb);
+    return crc.getValue();
+  }
+
+  /**
+   * Header layout, in the first HEADER_SIZE bytes of the file:
+   *
+   * <pre>
+   *  0 long magic
+   *  8 int  version
+   * 12 int  segment number
+   * 16 int  segment count
+   * 20 int  bytes in this segment
+   * 24 long total map length
+   * 32 long tod of last header update
+   * 40 int  state: open or closed cleanly
+   * 44 long checksum of the map, only when closed cleanly
+   * 52 int  checksum of the above
+   * </pre>
+   */
+  private void writeHeader(int state, long checksum) {
+    header.putLong(0, MAGIC);
+    header.putInt(8, VERSION);
+    header.putInt(12, segment);
+    header.putInt(16, segments);
+    header.putInt(20, bytes_in_map);
+    header.putLong(24, total_len);
+    header.putLong(32, System.currentTimeMillis());
+    header.putInt(40, state);
+    header.putLong(44, checksum);
+    header.putInt(52, headerChecksum());
+    header.force();
+  }
+
+  private int headerChecksum() {
+    CRC32 crc = new CRC32();
+    ByteBuffer bb = header.duplicate();
+    bb.clear().limit(52);
+    crc.update(bb);
+    return (int) crc.getValue();
+  }
+
+  /**
+   * Returns null when the header is OK, otherwise the reason why not.
+   */
+  private String checkHeader() {
+    if (header.getLong(0) != MAGIC)
+      return "no valid map header. Was it created by an older Vdbench version?";
+    if (header.getInt(52) != headerChecksum())
+      return "header checksum mismatch";
+    if (header.getInt(8) != VERSION)
+      return String.format("map version %d, expected %d", header.getInt(8), VERSION);
+    if (header.getInt(12) != segment || header.getInt(16) != segments)
+      return String.format("segment %d of %d, expected %d of %d", header.getInt(12), header.getInt(16), segment,
+          segments);
+    if (header.getInt(20) != bytes_in_map || header.getLong(24) != total_len)
+      return String.format("map length %,d, expected %,d", header.getLong(24), total_len);
+    if (header.getInt(40) != STATE_CLEAN)
+      return "map was not closed cleanly. Journal recovery is needed.";
+    if (header.getLong(44) != calculateChecksum())
+      return "map checksum mismatch. The map was changed after it was closed.";
+
+    return null;
   }
 
   public void put(int index, int val) {
@@ -171,9 +347,27 @@ public class MapFile extends Thread {
 
   public void closeMapFile() {
     try {
-      bbuffer.force();
+      storeChecksum();
+      channel.close();
+      synchronized (file_map) {
+        file_map.remove(filename);
+      }
+    }
+
+    catch (Exception e) {
+      common.failure(e);
+    }
+  }
+
+  /**
+   * Close a map that is about to be deleted: there is nothing worth writing.
+   */
+  public void discardMapFile() {
+    try {
       channel.close();
-      file_map.remove(filename);
+      synchronized (file_map) {
+        file_map.remove(filename);
+      }
     }
 
     catch (Exception e) {
@@ -291,6 +485,12 @@ public class MapFile extends Thread {
   public synchronized void setAllUnbusy() {
     counter = new MapCounts();
 
+    /* Nibble maps keep their busy flags in DV_map's side table: */
+    if (nibbles) {
+      countNibbles();
+      return;
+    }
+
     Elapsed elapsed = new Elapsed("MapFile.setAllUnbusy", 250 * 1000 * 1000);
 
     for (long i = 0; i < getBytesInMap(); i += 1) {
@@ -341,6 +541,32 @@ public class MapFile extends Thread {
     elapsed.end(5);
   }
 
+  /**
+   * 'validate=nibble': two blocks per byte. Only count; the map bytes are not
+   * changed.
+   */
+  private void countNibbles() {
+    Elapsed elapsed = new Elapsed("MapFile.countNibbles", 250 * 1000 * 1000);
+
+    for (int i = 0; i < getBytesInMap(); i++) {
+      int bits = get(i);
+      countNibble(bits >>> 4);
+      countNibble(bits & 0x0f);
+      elapsed.track();
+    }
+    elapsed.end(5);
+  }
+
+  private void countNibble(int nibble) {
+    if (nibble == 0x0f)
+      counter.bad_blocks++;
+    else if (nibble != 0)
+      counter.blocks_known++;
+  }
+
+  public void setNibbles() {
+    nibbles = true;
+  }
 }
 
 class MapCounts {
@@ -349,6 +575,27 @@ class MapCounts {
   long blocks_known = 0;
 }
 
+class MapSetupThread extends Thread {
+  private MapFile mf;
+  private int what;
+
+  public MapSetupThread(MapFile mf, int what) {
+    this.mf = mf;
+    this.what = what;
+    setName("MapSetupThread " + mf.getFilename());
+  }
+
+  public void run() {
+    try {
+      mf.setup(what);
+    }
+
+    catch (Throwable t) {
+      common.abnormal_term(t);
+    }
+  }
+}
+
 class MapUnbusyThread extends Thread {
   private MapFile mf;
 
@@ -184,9 +184,21 @@ public class MiscParms {
         else if ("misc".startsWith(prm.keyword))
           addMiscParameters(prm.alphas);
 
+        else if (prm.keyword.equals("flatfile_bin"))
+          Flat.setBinary(prm.alphas[0].toLowerCase().startsWith("y"));
+
         else if (prm.keyword.equals("pattern_buffer"))
           Validate.setPatternMB((int) prm.numerics[0]);
 
+        else if (prm.keyword.equals("hdfs_payload"))
+          Validate.setHdfsPayloadMB((long) prm.numerics[0]);
+
+        else if (prm.keyword.equals("io_backend"))
+          Validate.setIoBackend(prm.alphas[0]);
+
+        else if (prm.keyword.equals("waiters"))
+          Validate.setWaiters((int) prm.numerics[0]);
+
         else if (prm.keyword.equals("showlba"))
           Validate.setShowLba(prm.alphas[0].toLowerCase().startsWith("y"));
 
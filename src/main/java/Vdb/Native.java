@@ -15,6 +15,11 @@ import Utils.Format;
 
 /**
  * All native functions.
+ *
+ * File and buffer i/o goes through the IoBackend selected with 'io_backend=':
+ * JniIo, using the shared library, or NioIo, in pure java. The timer and the
+ * other system functions use the shared library when it is installed.
+ * Without it only 'io_backend=nio' can run, with the java timer.
  */
 public class Native {
   private final static String c = "Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.";
@@ -24,8 +29,33 @@ public class Native {
 
   static Object alloc_lock = new Object();
 
-  static {
+  private static boolean library_loaded = loadLibrary();
+
+  private static IoBackend jni_io = new JniIo();
+  private static IoBackend nio_io = new NioIo();
+
+  private static boolean loadLibrary() {
+    if (!common.sharedLibExists())
+      return false;
     common.get_shared_lib();
+    return true;
+  }
+
+  static boolean isLibraryLoaded() {
+    return library_loaded;
+  }
+
+  /**
+   * The backend for all file and buffer i/o.
+   */
+  private static IoBackend backend() {
+    if (Validate.isNioBackend())
+      return nio_io;
+
+    /* This reports why the library can not be loaded: */
+    if (!library_loaded)
+      common.get_shared_lib();
+    return jni_io;
   }
 
   /**
@@ -36,7 +66,7 @@ public class Native {
   /**
    * Open a file name and return a file handle.
    */
-  public static native long openfile(String filename, int open_flags, int write_flag);
+  static native long openfile(String filename, int open_flags, int write_flag);
 
   public static long openFile(String filename, int write_flag) {
     return openFile(filename, null, write_flag);
@@ -47,51 +77,16 @@ public class Native {
   }
 
   public static long openFile(String filename, OpenFlags open_flags, int write_flag) {
-    int flags = 0;
-    boolean sol_directio = false;
-    boolean sol_directiof = false;
-
     if (write_flag != 0 && common.get_debug(common.NEVER_OPEN_FOR_WRITE))
       common.failure("'NEVER_OPEN_FOR_WRITE' is set. Trying to open " + filename);
 
-    /* Prepare flags to be passed to open(): */
-    if (open_flags != null) {
-      flags = open_flags.getOpenFlags();
-
-      /* directio only for files, not for raw volumes: */
-      if (!filename.startsWith("/dev/")) {
-        sol_directio = open_flags.isOther(OpenFlags.SOL_DIRECTIO);
-        sol_directiof = open_flags.isOther(OpenFlags.SOL_DIRECTIO_OFF);
-      }
-    }
-
-    // common.ptod("Native.openFile start: %s %d write_flag: %d", filename, flags,
-    // write_flag);
-    long handle = openfile(filename, flags, write_flag);
-    // common.ptod("Native.openFile end: %s %d write_flag: %d %x", filename, flags,
-    // write_flag, handle);
-
-    /* Optionally call Solaris directio() function: */
-    if (sol_directio) {
-      long rc = Native.directio(handle, 1);
-      if (rc != 0)
-        common.failure("Failed call to directio: " + Errno.xlate_errno(rc));
-    }
-
-    /* If the previous run aborted, make sure we reset any stragglers: */
-    if (sol_directiof) {
-      long rc = Native.directio(handle, 0);
-      if (rc != 0)
-        common.failure("Failed call to directio: " + Errno.xlate_errno(rc));
-    }
-
-    return handle;
+    return backend().openFile(filename, open_flags, write_flag);
   }
 
   /**
    * Close a file
    **/
-  private static native long closefile(long fhandle);
+  static native long closefile(long fhandle);
 
   public static long closeFile(long fhandle) {
     if (fhandle <= 0)
@@ -100,51 +95,24 @@ public class Native {
   }
 
   public static long closeFile(long fhandle, OpenFlags open_flags) {
-    boolean fsync = false;
-    boolean sol_directio = false;
-
-    /* Prepare flags to be passed to open(): */
-    if (open_flags != null && !File_handles.getFileName(fhandle).startsWith("/dev/")) {
-      fsync = open_flags.isOther(OpenFlags.FSYNC_ON_CLOSE);
-      sol_directio = open_flags.isOther(OpenFlags.SOL_DIRECTIO);
-    }
-
-    /* Optionally call fsync before closing: */
-    if (fsync) {
-      long rc = Native.fsync(fhandle);
-      if (rc != 0)
-        common.failure("Native.closeFile(fhandle): fsync failed, rc= " + rc);
-    }
-
-    /* If directio was used, turn it off: */
-    /* (If run aborts, status will stay in in-memory Vnode. See 'directio_off') */
-    if (sol_directio) {
-      long rc = Native.directio(fhandle, 0);
-      if (rc != 0)
-        common.failure("Failed call to directio: " + Errno.xlate_errno(rc));
-    }
-
-    long rc = closefile(fhandle);
-
-    if (rc != 0)
-      common.ptod("Native.closeFile(fhandle): close failed: %d", rc);
-
-    return rc;
+    return backend().closeFile(fhandle, open_flags);
   }
 
   /** Unix world: fsync before close **/
   public static native long fsync(long fhandle);
 
+  public static long fsyncFile(long fhandle) {
+    return backend().fsync(fhandle);
+  }
+
   /** Unix world: directio before open (and close?) */
-  private static native long directio(long fhandle, long on_flag);
+  static native long directio(long fhandle, long on_flag);
 
   /** Get the size of the file */
-  private static native long getsize(long fhandle, String fname);
+  static native long getsize(long fhandle, String fname);
 
   public static long getSize(long fhandle, String fname) {
-    long rc = getsize(fhandle, fname);
-
-    return rc;
+    return backend().getSize(fhandle, fname);
   }
 
   /**
@@ -158,10 +126,20 @@ public class Native {
    * Added this to my Athlon home system to avoid timer issues:
    * http://www.amd.com/us-en/Processors/TechnicalResources/0,,30_182_871_13118,00.html
    */
-  public static native long get_simple_tod(); // usecs
+  private static native long get_simple_tod(); // usecs
+
+  /**
+   * The shared library's timer, or the java one when the library is not
+   * installed.
+   */
+  public static long getSimpleTod() {
+    if (library_loaded)
+      return get_simple_tod();
+    return System.nanoTime() / 1000;
+  }
 
   /** Start and complete the requested read */
-  private static native long read(long fhandle, long seek, long length, long buffer, int wkl);
+  static native long read(long fhandle, long seek, long length, long buffer, int wkl);
 
   public static long readFile(long fhandle, long seek, long length, long buffer) {
     if (fhandle <= 0)
@@ -175,9 +153,7 @@ public class Native {
   public static long readFile(long fhandle, long seek, long length, long buffer, int wkl) {
     if (fhandle <= 0)
       common.failure("Bad file handle: %d", fhandle);
-    long rc = read(fhandle, seek, length, buffer, wkl);
-
-    return rc;
+    return backend().read(fhandle, seek, length, buffer, wkl);
   }
 
   /**
@@ -189,7 +165,7 @@ public class Native {
    * However, IO_task.io_error_report() gets the correct errno already from JNI
    * directly.
    */
-  private static native long write(long fhandle, long seek, long length, long buffer, int wkl);
+  static native long write(long fhandle, long seek, long length, long buffer, int wkl);
 
   public static long writeFile(long fhandle, long seek, long length, long buffer) {
     if (fhandle <= 0)
@@ -200,9 +176,7 @@ public class Native {
   public static long writeFile(long fhandle, long seek, long length, long buffer, int wkl) {
     if (fhandle <= 0)
       common.failure("Bad file handle: %d", fhandle);
-    long rc = write(fhandle, seek, length, buffer, wkl);
-
-    return rc;
+    return backend().write(fhandle, seek, length, buffer, wkl);
   }
 
   /**
@@ -211,41 +185,49 @@ public class Native {
    * from accidentally (or purposely) benefitting from possible undocumented
    * Dedup.
    */
-  private static native long noDedupWrite(long fhandle, long seek, long length, long buffer, int jni_index);
+  static native long noDedupWrite(long fhandle, long seek, long length, long buffer, int jni_index);
 
   public static long noDedupAndWrite(long fhandle, long seek, long length, long buffer, int jni_index) {
-    return noDedupWrite(fhandle, seek, length, buffer, jni_index);
+    return backend().noDedupWrite(fhandle, seek, length, buffer, jni_index);
   }
 
   /** Store a Data pattern in C memory */
   static native void store_pattern(int[] array);
 
+  static void storePattern(int[] array) {
+    backend().storePattern(array);
+  }
+
   /** Translate an 'int' array to a native buffer */
-  private static native void array_to_buffer(int[] array, long buffer, int bytes);
+  static native void array_to_buffer(int[] array, long buffer, int bytes);
 
   public static void arrayToBuffer(int[] array, long buffer, int bytes) {
-    array_to_buffer(array, buffer, bytes);
+    backend().arrayToBuffer(array, buffer, bytes);
   }
 
   public static void arrayToBuffer(int[] array, long buffer) {
-    array_to_buffer(array, buffer, array.length * 4);
+    arrayToBuffer(array, buffer, array.length * 4);
   }
 
   /** Translate a native buffer to an 'int' array */
   static native void buffer_to_array(int[] array, long buffer, int bytes);
 
+  public static void bufferToArray(int[] array, long buffer, int bytes) {
+    backend().bufferToArray(array, buffer, bytes);
+  }
+
   /** Translate a native buffer to a 'long' array */
   static native void longBufferToArray(long[] array, long buffer, int bytes);
 
   static native void arrayToLongBuffer(long[] array, long buffer, int bytes);
 
   /** Allocate a native buffer */
-  private static native long allocbuf(int bytes);
+  static native long allocbuf(int bytes);
 
   static long allocBuffer(int bytes) {
     synchronized (alloc_lock) {
 
-      long buffer = Native.allocbuf(bytes);
+      long buffer = backend().allocBuffer(bytes);
       if (buffer == 0) {
         printMemoryUsage();
         common.memory_usage();
@@ -266,12 +248,12 @@ public class Native {
   }
 
   /** Free a native buffer */
-  private static native void freebuf(int bufsize, long buffer);
+  static native void freebuf(int bufsize, long buffer);
 
   static void freeBuffer(int bufsize, long buffer) {
     synchronized (alloc_lock) {
       total_size -= bufsize;
-      Native.freebuf(bufsize, buffer);
+      backend().freeBuffer(bufsize, buffer);
     }
     // common.ptod("freeBuffer: %,8d %,12d", bufsize, total_size);
     // common.where(8);
@@ -319,14 +301,15 @@ public class Native {
   static native void alloc_jni_shared_memory(long pid);
 
   static void allocSharedMemory() {
-    alloc_jni_shared_memory(SlaveJvm.getOwnerId());
+    if (library_loaded)
+      alloc_jni_shared_memory(SlaveJvm.getOwnerId());
   }
 
   public static native long getSolarisPids();
 
   static native String getWindowsErrorText(int msgno);
 
-  private static native long multiKeyReadAndValidate(long handle, int data_flag, long file_start_lba, long lba,
+  static native long multiKeyReadAndValidate(long handle, int data_flag, long file_start_lba, long lba,
       int xfersize, long buffer, int key_count, int[] keys, long[] compressions, long[] dedup_sets, String name,
       int wkl);
 
@@ -336,12 +319,11 @@ public class Native {
     if (name.length() != 8)
       common.failure("Native.multiKeyReadAndValidate: 'name' must be 8 characters long: >>>" + name + "<<<");
 
-    long rc = multiKeyReadAndValidate(handle, data_flag, file_start_lba, lba, xfersize, buffer, key_count, keys,
+    return backend().readAndValidate(handle, data_flag, file_start_lba, lba, xfersize, buffer, key_count, keys,
         compressions, dedup_sets, name, wkl);
-    return rc;
   }
 
-  private static native long multiKeyFillAndWrite(long handle, long tod, int data_flag, long file_start_lba,
+  static native long multiKeyFillAndWrite(long handle, long tod, int data_flag, long file_start_lba,
       long file_lba, int data_length, long pattern_lba, int pattern_length, long buffer, int key_count, int[] keys,
       long[] compressions, long[] dedup_sets, String name, int wkl);
 
@@ -352,13 +334,19 @@ public class Native {
   {
     if (name.length() != 8)
       common.failure("multiKeyFillAndWriteBlock(): 'name' must be 8 characters long: >>>" + name + "<<<");
-    long rc = multiKeyFillAndWrite(handle, tod, data_flag, file_start_lba, file_lba, data_length, pattern_lba,
+    return backend().fillAndWrite(handle, tod, data_flag, file_start_lba, file_lba, data_length, pattern_lba,
         pattern_length, buffer, key_count, keys, compressions, dedup_sets, name, wkl);
-    return rc;
   }
 
   static native void fillLfsrArray(int[] sector_array, long lba, int key, String name);
 
+  /**
+   * The LFSR data of a sector, as written by the selected backend.
+   */
+  static void fillLfsrSector(int[] sector_array, long lba, int key, String name) {
+    backend().fillLfsrSector(sector_array, lba, key, name);
+  }
+
   static native void fillLfsrBuffer(long buffer, int xfersize, long lba, int key, String name);
 
   static native int eraseFileSystemCache(long handle, long size);
@@ -380,6 +368,10 @@ public class Native {
    */
   public static native long truncateFile(long handle, long size);
 
+  public static long truncate(long handle, long size) {
+    return backend().truncate(handle, size);
+  }
+
   public static void main(String[] args) {
     long lba = 773586944;
     int key = 13;
@@ -55,7 +55,7 @@ public class NfsStats {
    */
   public static void getAllNfsDeltasFromKstat() {
     String data;
-    long tod = Native.get_simple_tod();
+    long tod = Native.getSimpleTod();
 
     if (kstat_ctl_t == 0) {
       /* Create Kstat structures: */
@@ -0,0 +1,118 @@
+package Vdb;
+
+/*
+ * Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.
+ */
+
+/*
+ * Author: Henk Vandenbergh.
+ */
+
+import java.util.Arrays;
+
+/**
+ * 'validate=nibble' side table: block number to full 8-bit DV_map entry for
+ * the blocks whose nibble is 14 (busy or pending flag, or a key above 13).
+ *
+ * Open addressing with linear probing on primitive arrays, so the flag
+ * changes on every i/o do not box a Long and an Integer. Not thread safe;
+ * DV_map calls it while holding its own lock.
+ */
+class NibbleSideMap {
+  private final static String c = "Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.";
+
+  private static final long EMPTY = -1;
+
+  private long[] blocks;
+  private int[] entries;
+  private int used = 0;
+
+  public NibbleSideMap(int slots) {
+    blocks = new long[Integer.highestOneBit(Math.max(slots, 16) - 1) << 1];
+    entries = new int[blocks.length];
+    Arrays.fill(blocks, EMPTY);
+  }
+
+  private int slotOf(long block) {
+    int mask = blocks.length - 1;
+    int slot = (int) ((block * 0x9E3779B97F4A7C15l) >>> 40) & mask;
+    while (blocks[slot] != EMPTY && blocks[slot] != block)
+      slot = (slot + 1) & mask;
+    return slot;
+  }
+
+  /**
+   * Returns the entry for this block, or -1 if it has none.
+   */
+  public int get(long block) {
+    int slot = slotOf(block);
+    return (blocks[slot] == EMPTY) ? -1 : entries[slot];
+  }
+
+  public void put(long block, int entry) {
+    int slot = slotOf(block);
+    if (blocks[slot] == EMPTY) {
+      if (++used > blocks.length * 0.7) {
+        grow();
+        slot = slotOf(block);
+      }
+      blocks[slot] = block;
+    }
+    entries[slot] = entry;
+  }
+
+  public void remove(long block) {
+    int slot = slotOf(block);
+    if (blocks[slot] == EMPTY)
+      return;
+    used--;
+
+    /* Shift back any following entries that probed past this slot: */
+    int mask = blocks.length - 1;
+    int hole = slot;
+    int next = (slot + 1) & mask;
+    while (blocks[next] != EMPTY) {
+      int home = (int) ((blocks[next] * 0x9E3779B97F4A7C15l) >>> 40) & mask;
+      if (((next - home) & mask) >= ((next - hole) & mask)) {
+        blocks[hole] = blocks[next];
+        entries[hole] = entries[next];
+        hole = next;
+      }
+      next = (next + 1) & mask;
+    }
+    blocks[hole] = EMPTY;
+  }
+
+  public int size() {
+    return used;
+  }
+
+  /**
+   * A copy of the blocks currently in the table, in no particular order.
+   */
+  public long[] getBlocks() {
+    long[] list = new long[used];
+    int count = 0;
+    for (long block : blocks) {
+      if (block != EMPTY)
+        list[count++] = block;
+    }
+    return list;
+  }
+
+  private void grow() {
+    long[] old_blocks = blocks;
+    int[] old_entries = entries;
+    blocks = new long[old_blocks.length * 2];
+    entries = new int[blocks.length];
+    Arrays.fill(blocks, EMPTY);
+
+    for (int i = 0; i < old_blocks.length; i++) {
+      if (old_blocks[i] == EMPTY)
+        continue;
+      int slot = slotOf(old_blocks[i]);
+      blocks[slot] = old_blocks[i];
+      entries[slot] = old_entries[i];
+    }
+  }
+}
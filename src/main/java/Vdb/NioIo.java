@@ -0,0 +1,330 @@
+package Vdb;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.OpenOption;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Pure java file i/o using FileChannel and direct ByteBuffers, used instead of
+ * JNI when 'io_backend=nio' is specified.
+ *
+ * The rest of Vdbench keeps working with the same 'long' file handles and
+ * buffer addresses. Those values however are only keys into the maps below and
+ * may never be passed to any of the real native functions.
+ *
+ * JNI i/o statistics for raw SDs are maintained inside of the shared library,
+ * so this backend can only be used for file system (FSD) workloads. It does
+ * not need the shared library: without it Native.getSimpleTod() uses the java
+ * timer, and Data Validation uses the java LFSR, see Lfsr.
+ */
+class NioIo implements IoBackend {
+  private static ConcurrentHashMap<Long, FileChannel> channel_map = new ConcurrentHashMap(256);
+  private static ConcurrentHashMap<Long, ByteBuffer> buffer_map = new ConcurrentHashMap(256);
+
+  /* Keep these away from real handles and from the HDFS handles: */
+  private static long next_handle = 1l << 40;
+  private static long next_buffer = 1l << 44;
+
+  private static final int ALIGNMENT = 4096;
+  private static final long EIO = 5;
+
+  private static OpenOption direct_option = getDirectOption();
+  private static Method aligned_slice = getAlignedSlice();
+
+  /**
+   * Open a file. Returns a negative value when the open fails, just like JNI.
+   */
+  public long openFile(String filename, OpenFlags open_flags, int write_flag) {
+    HashSet<OpenOption> options = new HashSet(8);
+    options.add(StandardOpenOption.READ);
+    if (write_flag != 0) {
+      options.add(StandardOpenOption.WRITE);
+      options.add(StandardOpenOption.CREATE);
+    }
+
+    if (open_flags != null) {
+      if (open_flags.isOther(OpenFlags.SOL_DIRECTIO | OpenFlags.SOL_DIRECTIO_OFF | OpenFlags.SOL_CLEAR_CACHE))
+        common.failure("'openflags=%s' is not supported with 'io_backend=nio'", open_flags);
+
+      if (open_flags.isRequested("o_sync"))
+        options.add(StandardOpenOption.SYNC);
+      if (open_flags.isRequested("o_dsync") || open_flags.isRequested("o_rsync"))
+        options.add(StandardOpenOption.DSYNC);
+
+      if (open_flags.isRequested("o_direct") || open_flags.isRequested("directio")) {
+        if (direct_option == null)
+          common.failure("'openflags=%s': this java version does not support direct i/o", open_flags);
+        options.add(direct_option);
+      }
+    }
+
+    try {
+      FileChannel channel = FileChannel.open(Paths.get(filename), options);
+      long handle;
+      synchronized (channel_map) {
+        handle = next_handle++;
+      }
+      channel_map.put(handle, channel);
+      return handle;
+
+    } catch (IOException e) {
+      common.ptod("NioIo.openFile(): %s", filename);
+      common.ptod(e);
+      return -1;
+    }
+  }
+
+  public long closeFile(long handle, OpenFlags open_flags) {
+    FileChannel channel = channel_map.remove(handle);
+    if (channel == null)
+      common.failure("NioIo.closeFile(): unknown handle: %d", handle);
+
+    try {
+      if (open_flags != null && open_flags.isOther(OpenFlags.FSYNC_ON_CLOSE))
+        channel.force(true);
+      channel.close();
+    } catch (IOException e) {
+      common.ptod(e);
+      return EIO;
+    }
+
+    return 0;
+  }
+
+  public long fsync(long handle) {
+    try {
+      getChannel(handle).force(true);
+    } catch (IOException e) {
+      common.ptod(e);
+      return EIO;
+    }
+    return 0;
+  }
+
+  public long getSize(long handle, String fname) {
+    FileChannel channel = channel_map.get(handle);
+    if (channel == null)
+      return new File(fname).length();
+
+    try {
+      return channel.size();
+    } catch (IOException e) {
+      common.ptod(e);
+      return -1;
+    }
+  }
+
+  public long truncate(long handle, long size) {
+    try {
+      FileChannel channel = getChannel(handle);
+
+      /* FileChannel.truncate() can only shrink a file: */
+      if (size < channel.size())
+        channel.truncate(size);
+      else if (size > channel.size())
+        channel.write(ByteBuffer.allocate(1), size - 1);
+    } catch (IOException e) {
+      common.ptod(e);
+      return EIO;
+    }
+    return 0;
+  }
+
+  /**
+   * Positional read of 'length' bytes into the start of the buffer.
+   */
+  public long read(long handle, long seek, long length, long buffer, int wkl) {
+    FileChannel channel = getChannel(handle);
+    ByteBuffer bb = getBuffer(buffer).duplicate();
+    bb.clear().limit((int) length);
+
+    try {
+      while (bb.hasRemaining()) {
+        if (channel.read(bb, seek + bb.position()) < 0) {
+          common.ptod("NioIo.read(): unexpected EOF. %s lba: %d length: %d", File_handles.getFileName(handle), seek,
+              length);
+          return EIO;
+        }
+      }
+    } catch (IOException e) {
+      common.ptod(e);
+      return EIO;
+    }
+
+    return 0;
+  }
+
+  /**
+   * Positional write of 'length' bytes from the start of the buffer.
+   */
+  public long write(long handle, long seek, long length, long buffer, int wkl) {
+    ByteBuffer bb = getBuffer(buffer).duplicate();
+    bb.clear().limit((int) length);
+    return write(handle, seek, bb);
+  }
+
+  /**
+   * The equivalent of the JNI noDedupWrite(): the first 8 bytes of each 4k of
+   * the buffer get the Native.getSimpleTod() microseconds xor'ed with the lba
+   * of that 4k, stored as a native long.
+   */
+  public long noDedupWrite(long handle, long seek, long length, long buffer, int jni_index) {
+    ByteBuffer bb = getBuffer(buffer).duplicate().order(ByteOrder.nativeOrder());
+    long tod = Native.getSimpleTod();
+    for (int offset = 0; offset + 8 <= length; offset += 4096)
+      bb.putLong(offset, tod ^ (seek + offset));
+
+    bb.clear().limit((int) length);
+    return write(handle, seek, bb);
+  }
+
+  private static long write(long handle, long seek, ByteBuffer bb) {
+    FileChannel channel = getChannel(handle);
+    try {
+      while (bb.hasRemaining())
+        channel.write(bb, seek + bb.position());
+    } catch (IOException e) {
+      common.ptod(e);
+      return EIO;
+    }
+
+    return 0;
+  }
+
+  /**
+   * Java replacement for the JNI multiKeyFillAndWrite(). Without
+   * FLAG_VALIDATE only the compression pattern is stored.
+   */
+  public long fillAndWrite(long handle, long tod, int data_flag, long file_start_lba, long file_lba,
+      int data_length, long pattern_lba, int pattern_length, long buffer, int key_count, int[] keys,
+      long[] compressions, long[] dedup_sets, String name, int wkl) {
+    if ((data_flag & Validate.FLAG_DEDUP) != 0)
+      common.failure("Dedup is not supported with 'io_backend=nio'");
+
+    ByteBuffer bb = getBuffer(buffer).duplicate();
+    if ((data_flag & Validate.FLAG_VALIDATE) != 0)
+      JavaValidate.fillBlock(bb, tod, pattern_lba, pattern_length, key_count, keys, compressions, name);
+    else
+      JavaValidate.fillCompressionOnly(bb, pattern_length, key_count, compressions);
+
+    int offset = (int) (file_start_lba + file_lba - pattern_lba);
+    bb.clear().position(offset).limit(offset + data_length);
+    return write(handle, file_lba, bb.slice());
+  }
+
+  /**
+   * Java replacement for the JNI multiKeyReadAndValidate().
+   */
+  public long readAndValidate(long handle, int data_flag, long file_start_lba, long file_lba, int xfersize,
+      long buffer, int key_count, int[] keys, long[] compressions, long[] dedup_sets, String name, int wkl) {
+    if ((data_flag & Validate.FLAG_DEDUP) != 0)
+      common.failure("Dedup is not supported with 'io_backend=nio'");
+
+    long rc = read(handle, file_lba, xfersize, buffer, wkl);
+    if (rc != 0)
+      return rc;
+
+    return JavaValidate.validateBlock(getBuffer(buffer).duplicate(), handle, data_flag, file_start_lba, file_lba,
+        xfersize, key_count, keys, compressions, dedup_sets, name);
+  }
+
+  /**
+   * Allocate a direct buffer, aligned so that it can be used for direct i/o.
+   * Java 8 has no alignedSlice(), but it has no direct i/o either.
+   *
+   * The aligned slice ends on an aligned address too, so the size is rounded
+   * up to the alignment first.
+   */
+  public long allocBuffer(int bytes) {
+    int rounded = (bytes + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    ByteBuffer bb = ByteBuffer.allocateDirect(rounded + ALIGNMENT);
+    if (aligned_slice != null) {
+      try {
+        bb = (ByteBuffer) aligned_slice.invoke(bb, ALIGNMENT);
+      } catch (Exception e) {
+        common.failure(e);
+      }
+    }
+    bb.limit(bytes);
+    bb.order(ByteOrder.nativeOrder());
+
+    long buffer;
+    synchronized (buffer_map) {
+      buffer = next_buffer++;
+    }
+    buffer_map.put(buffer, bb);
+    return buffer;
+  }
+
+  public void freeBuffer(int bytes, long buffer) {
+    if (buffer_map.remove(buffer) == null)
+      common.failure("NioIo.freeBuffer(): unknown buffer: %d", buffer);
+  }
+
+  public void arrayToBuffer(int[] array, long buffer, int bytes) {
+    ByteBuffer bb = getBuffer(buffer).duplicate().order(ByteOrder.nativeOrder());
+    bb.asIntBuffer().put(array, 0, Math.min(array.length, bytes / 4));
+  }
+
+  public void bufferToArray(int[] array, long buffer, int bytes) {
+    ByteBuffer bb = getBuffer(buffer).duplicate().order(ByteOrder.nativeOrder());
+    bb.asIntBuffer().get(array, 0, Math.min(array.length, bytes / 4));
+  }
+
+  /**
+   * JavaValidate reads the pattern from Patterns itself.
+   */
+  public void storePattern(int[] array) {
+  }
+
+  public void fillLfsrSector(int[] sector_array, long lba, int key, String name) {
+    Lfsr.fillSector(sector_array, lba, key, name);
+  }
+
+  private static FileChannel getChannel(long handle) {
+    FileChannel channel = channel_map.get(handle);
+    if (channel == null)
+      common.failure("NioIo: unknown file handle: %d", handle);
+    return channel;
+  }
+
+  private static ByteBuffer getBuffer(long buffer) {
+    ByteBuffer bb = buffer_map.get(buffer);
+    if (bb == null)
+      common.failure("NioIo: unknown buffer: %d", buffer);
+    return bb;
+  }
+
+  /**
+   * ByteBuffer.alignedSlice() exists as of Java 9.
+   */
+  private static Method getAlignedSlice() {
+    try {
+      return ByteBuffer.class.getMethod("alignedSlice", Integer.TYPE);
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
+  /**
+   * com.sun.nio.file.ExtendedOpenOption.DIRECT only exists in some JDKs, so it
+   * is looked up instead of being referenced directly.
+   */
+  private static OpenOption getDirectOption() {
+    try {
+      Class cls = Class.forName("com.sun.nio.file.ExtendedOpenOption");
+      Method method = cls.getMethod("valueOf", String.class);
+      return (OpenOption) method.invoke(null, "DIRECT");
+    } catch (Exception e) {
+      return null;
+    }
+  }
+}
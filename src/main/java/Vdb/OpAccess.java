@@ -45,10 +45,12 @@ class OpAccess extends FwgThread {
       }
 
       /* We're finally happy: */
-      long tod = Native.get_simple_tod();
-      File file_ptr = new File(fe.getFullName());
-
-      boolean access = file_ptr.canRead();
+      long tod = Native.getSimpleTod();
+      boolean access;
+      if (SlaveJvm.isHDFS)
+        access = HDFSFile.canRead(fe.getFullName());
+      else
+        access = new File(fe.getFullName()).canRead();
 
       FwdStats.count(Operations.ACCESS, tod);
       fwg.blocked.count(Blocked.GET_ATTR);
@@ -57,7 +57,7 @@ class OpCopy extends FwgThread {
       output_fe.deleteFile(fwg);
 
     /* Now start copying: */
-    long tod = Native.get_simple_tod();
+    long tod = Native.getSimpleTod();
     ActiveFile input_afe = openForRead(input_fe);
     ActiveFile output_afe = openForWrite(output_fe);
 
@@ -44,7 +44,7 @@ class OpCreate extends FwgThread {
     }
 
     // * Create the file and filler up: */
-    long start = Native.get_simple_tod();
+    long start = Native.getSimpleTod();
     afe = openForWrite(fe);
 
     /* For a 'create' operation all we need to do is close: */
@@ -53,7 +53,7 @@ class OpCreate extends FwgThread {
 
     /* Experiment creating sparse files */
     else if (SlaveWorker.work.format_run && common.get_debug(common.FILE_FORMAT_TRUNCATE)) {
-      long rc = Native.truncateFile(afe.getHandle(), afe.getFileEntry().getReqSize());
+      long rc = Native.truncate(afe.getHandle(), afe.getFileEntry().getReqSize());
       if (rc != 0)
         common.failure("ftruncate of file %s for %,d bytes failed, error code %d", afe.getFileEntry().getFullName(),
             afe.getFileEntry().getReqSize(), rc);
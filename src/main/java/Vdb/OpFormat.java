@@ -291,7 +291,7 @@ class OpFormat extends FwgThread {
 
       /* If this is a file, delete it: */
       if (name.endsWith("file")) {
-        long begin_delete = Native.get_simple_tod();
+        long begin_delete = Native.getSimpleTod();
         if (!dirptr.delete()) {
           if (!fwg.shared)
             common.failure("Unable to delete file: " + dirptr.getAbsolutePath());
@@ -311,7 +311,7 @@ class OpFormat extends FwgThread {
     }
 
     /* Once back here the directory should be empty and can be deleted: */
-    long begin_delete = Native.get_simple_tod();
+    long begin_delete = Native.getSimpleTod();
     if (!dirptr_in.delete()) {
       if (!fwg.shared) {
         common.ptod("");
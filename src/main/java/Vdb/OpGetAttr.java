@@ -45,9 +45,12 @@ class OpGetAttr extends FwgThread {
       }
 
       /* We're finally happy: */
-      long tod = Native.get_simple_tod();
-      File file_ptr = new File(fe.getFullName());
-      long mod = file_ptr.lastModified();
+      long tod = Native.getSimpleTod();
+      long mod;
+      if (SlaveJvm.isHDFS)
+        mod = HDFSFile.getStatus(fe.getFullName()).getModificationTime();
+      else
+        mod = new File(fe.getFullName()).lastModified();
       FwdStats.count(Operations.GETATTR, tod);
       fwg.blocked.count(Blocked.GET_ATTR);
 
@@ -11,17 +11,19 @@ package Vdb;
 /**
  * operation=get processing.
  *
- * The objective is to select a file and give it to 'curl' so that the file can
- * be put on the cloud. Somewhere.
+ * The objective is to select a file and download it as an object on the cloud.
+ * Somewhere.
  */
 class OpGetCloud extends FwgThread {
   private final static String c = "Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.";
 
   private CurlHandling curl;
+  private CloudClient client;
 
   public OpGetCloud(Task_num tn, FwgEntry fwg) {
     super(tn, fwg);
     curl = fwg.anchor.curl;
+    client = new CloudClient(curl);
   }
 
   protected boolean doOperation() {
@@ -37,10 +39,10 @@ class OpGetCloud extends FwgThread {
         continue;
       }
 
-      long tod = Native.get_simple_tod();
-      curl.downloadFile(fe.getFullName());
+      long tod = Native.getSimpleTod();
+      long bytes = client.getObject(fe.getFullName());
 
-      FwdStats.count(Operations.GET, tod);
+      FwdStats.countXfer(Operations.GET, tod, bytes);
 
       fe.setUnBusy();
       return true;
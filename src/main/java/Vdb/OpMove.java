@@ -34,7 +34,6 @@ class OpMove extends FwgThread {
         return false;
 
       /* Get the target file name: */
-      common.failure("xxx"); // there's some work to do!!
       output_fe = fwg.target_anchor.getRelativeFile(input_fe.getFileNoInList());
 
       /* If target file is busy, try an other one: */
@@ -50,8 +49,13 @@ class OpMove extends FwgThread {
     if (output_fe.exists())
       output_fe.deleteFile(fwg);
 
-    /* Now start copying: */
-    long tod = Native.get_simple_tod();
+    /* On hdfs a move is just a rename on the NameNode: */
+    if (SlaveJvm.isHDFS)
+      return renameFile(input_fe, output_fe);
+
+    /* Elsewhere the target anchor can be on a different file system, so */
+    /* copy the data and delete the input file when closing it: */
+    long tod = Native.getSimpleTod();
     ActiveFile input_afe = openForRead(input_fe);
     ActiveFile output_afe = openForWrite(output_fe);
 
@@ -100,4 +104,38 @@ class OpMove extends FwgThread {
 
     return true;
   }
+
+  /**
+   * Move the file without copying any data, and update the status of both
+   * files the same way a delete and a create would.
+   */
+  private boolean renameFile(FileEntry input_fe, FileEntry output_fe) {
+    long size = input_fe.getCurrentSize();
+
+    long tod = Native.getSimpleTod();
+    HDFSFile.rename(input_fe.getFullName(), output_fe.getFullName());
+    FwdStats.count(operation, tod);
+    fwg.blocked.count(Blocked.FILES_MOVED);
+
+    FileAnchor input_anchor = input_fe.getAnchor();
+    input_fe.getParent().countFiles(-1, input_fe);
+    input_fe.setExists(false);
+    input_fe.setCurrentSize(0);
+    input_anchor.countExistingFiles(-1, input_fe);
+    if (Validate.isValidate())
+      input_anchor.allocateKeyMap(input_fe.getFileStartLba()).clearMapForFile(input_fe.getReqSize(),
+          input_anchor.getDVMap());
+
+    /* The output keys were cleared by the delete, so until the file is */
+    /* rewritten its contents are not validated: */
+    output_fe.setExists(true);
+    output_fe.getParent().countFiles(+1, output_fe);
+    output_fe.getAnchor().countExistingFiles(+1, output_fe);
+    output_fe.setCurrentSize(size);
+
+    input_fe.setUnBusy();
+    output_fe.setUnBusy();
+
+    return true;
+  }
 }
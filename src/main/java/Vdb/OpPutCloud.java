@@ -11,17 +11,19 @@ package Vdb;
 /**
  * operation=put processing.
  *
- * The objective is to select a file and give it to 'curl' so that the file can
- * be put on the cloud. Somewhere.
+ * The objective is to select a file and upload it as an object on the cloud.
+ * Somewhere.
  */
 class OpPutCloud extends FwgThread {
   private final static String c = "Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.";
 
   private CurlHandling curl;
+  private CloudClient client;
 
   public OpPutCloud(Task_num tn, FwgEntry fwg) {
     super(tn, fwg);
     curl = fwg.anchor.curl;
+    client = new CloudClient(curl);
   }
 
   protected boolean doOperation() {
@@ -33,12 +35,13 @@ class OpPutCloud extends FwgThread {
       return false;
     }
 
-    long tod = Native.get_simple_tod();
-    curl.uploadFile(fe.getFullName());
+    long size = fe.getReqSize();
+    long tod = Native.getSimpleTod();
+    client.putObject(fe.getFullName(), size);
 
-    curl.file_map.put(fe.getFullName(), fe.getFullName());
+    FwdStats.countXfer(Operations.PUT, tod, size);
 
-    FwdStats.count(Operations.PUT, tod);
+    curl.file_map.put(fe.getFullName(), fe.getFullName());
 
     fe.setUnBusy();
 
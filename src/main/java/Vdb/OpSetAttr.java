@@ -44,10 +44,13 @@ class OpSetAttr extends FwgThread {
 
       /* We're finally happy: */
       long now = System.currentTimeMillis();
-      long tod = Native.get_simple_tod();
+      long tod = Native.getSimpleTod();
       File file_ptr = new File(fe.getFullName());
 
-      if (!file_ptr.setLastModified(now + YEAR)) {
+      if (SlaveJvm.isHDFS)
+        HDFSFile.setModified(fe.getFullName(), now + YEAR);
+
+      else if (!file_ptr.setLastModified(now + YEAR)) {
         common.ptod("getFullName(): " + fe.getFullName());
         common.ptod("canRead:       " + file_ptr.canRead());
         common.ptod("canWrite:      " + file_ptr.canWrite());
@@ -83,6 +83,18 @@ public class OpenFlags implements java.io.Serializable, Cloneable {
     return (otherflags & mask) != 0;
   }
 
+  /**
+   * Was this flag specified, e.g. 'o_direct'? This looks at the parameter
+   * values themselves, not at their OS specific translation.
+   */
+  public boolean isRequested(String flag) {
+    for (String parm : parm_list) {
+      if (parm.equalsIgnoreCase(flag))
+        return true;
+    }
+    return false;
+  }
+
   /**
    * Translate an array (usually just one) of open flags to an int.
    *
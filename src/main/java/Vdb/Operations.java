@@ -31,7 +31,9 @@ class Operations {
       "open", // 11
       "close", // 12
       "put", // 13
-      "get" // 14
+      "get", // 14
+      "hflush", // 15
+      "hsync" // 16
 
       // we should add a 'backward sequential' file selection?
   };
@@ -56,6 +58,10 @@ class Operations {
   public static final int PUT = addOperation("Put"); // 13
   public static final int GET = addOperation("Get"); // 14
 
+  /* Done as part of other operations, these can not be requested: */
+  public static final int HFLUSH = operations_map.size(); // 15
+  public static final int HSYNC = HFLUSH + 1; // 16
+
   private static int addOperation(String operation) {
     int opnumber = operations_map.size();
     operation = operation.toLowerCase();
@@ -93,6 +99,10 @@ class Operations {
     return operations_used[op];
   }
 
+  public static void setOperationUsed(int op) {
+    operations_used[op] = true;
+  }
+
   public static int getOperationCount() {
     return operations.length;
   }
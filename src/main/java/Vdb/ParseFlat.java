@@ -66,6 +66,18 @@ public class ParseFlat {
   }
 
   private static void readColumnHeadersAndData() {
+    /* flatfile.bin already has the columns split: */
+    if (input_file.endsWith(".bin")) {
+      ArrayList<String[]> lines = Flat.readBinary(input_file);
+      if (lines.size() == 0)
+        common.failure("No column headers found in " + input_file);
+      for (String col : lines.get(0))
+        column_names.add(col);
+      for (int i = 1; i < lines.size(); i++)
+        split_data.add(lines.get(i));
+      return;
+    }
+
     /* Find the first line that starts with a blank: */
     Fget fg = new Fget(input_file);
     String line = null;
@@ -238,7 +250,7 @@ public class ParseFlat {
     common.ptod("./vdbench parseflat -i flatfile.html -o output.csv [-c col1 col2 ..] ");
     common.ptod("                 [-t][-a] [-f col1 value1 col2 value2 .. ..] [-q]");
     common.ptod("");
-    common.ptod("-i input flatfile, e.g. output/flatfile.html");
+    common.ptod("-i input flatfile, e.g. output/flatfile.html or output/flatfile.bin");
     common.ptod("-o output csv file name (default stdout)");
     common.ptod("-c which column to write to output. Columns are written in the order specified.");
     common.ptod("-f filters: 'if (colX == valueX) ... ...' (Alphabetic compare)");
@@ -335,9 +347,11 @@ public class ParseFlat {
     if (output_cols.size() == 0)
       usage("No data columns specified '-c xxx yyy zzz'");
 
-    /* if the input is a directory, try flatfile: */
+    /* if the input is a directory, try flatfile, the binary one first: */
     if (Fget.dir_exists(input_file)) {
-      if (Fget.file_exists(input_file, "flatfile.html"))
+      if (Fget.file_exists(input_file, "flatfile.bin"))
+        input_file = new File(input_file, "flatfile.bin").getAbsolutePath();
+      else if (Fget.file_exists(input_file, "flatfile.html"))
         input_file = new File(input_file, "flatfile.html").getAbsolutePath();
     }
   }
@@ -9,6 +9,8 @@ package Vdb;
  */
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
 import java.util.*;
 
 /**
@@ -90,8 +92,8 @@ public class Patterns implements Serializable {
     if (options.pattern_file != null)
       options.pattern_array = readPattern(buffer_size_times2);
 
-    /* Copy the pattern to JNI: */
-    Native.store_pattern(options.pattern_array);
+    /* Copy the pattern to JNI; 'io_backend=nio' uses the java copy: */
+    Native.storePattern(options.pattern_array);
   }
 
   /**
@@ -269,6 +271,40 @@ public class Patterns implements Serializable {
     return pattern;
   }
 
+  /**
+   * Create the java write payload for an FwgThread writing to HDFS.
+   *
+   * Each thread gets its own payload so that threads share neither a buffer nor
+   * a randomizer. With a compression ratio or a pattern file the payload is
+   * copied from the data pattern, starting at a thread specific offset;
+   * otherwise it is filled with random data from a thread specific seed.
+   *
+   * The payload is 'max_xfer' bytes longer than 'size' so that a write starting
+   * anywhere inside the first 'size' bytes is one piece of contiguous memory,
+   * the same trick that is used for the pattern buffer itself.
+   */
+  public static byte[] createHdfsPayload(int size, int max_xfer, int seqno) {
+    if ((long) size + max_xfer > Integer.MAX_VALUE - 8)
+      common.failure("'hdfs_payload=%d' plus the largest xfersize, %,d, exceeds the 2GB java array limit",
+          size / (1024 * 1024), max_xfer);
+    byte[] payload = new byte[size + max_xfer];
+
+    if (Validate.getCompressionRatio() != 1 || options.pattern_file != null) {
+      int[] pattern = getPattern();
+      int pattern_bytes = buffer_size;
+      IntBuffer ib = ByteBuffer.wrap(payload).asIntBuffer();
+      int word = (int) ((long) seqno * 4096 % pattern_bytes) / 4;
+      while (ib.hasRemaining()) {
+        ib.put(pattern[word++]);
+        if (word * 4 >= pattern_bytes)
+          word = 0;
+      }
+    } else
+      new Random(Validate.getCompSeed() + seqno).nextBytes(payload);
+
+    return payload;
+  }
+
   /**
    * Copy the data pattern to the data buffer.
    */
@@ -158,7 +158,7 @@ public class PrintBlock {
       common.failure("Error reading block " + lun + " " + lba + " " + read_size);
     Native.closeFile(handle);
 
-    Native.buffer_to_array(data_sector, data_buffer, read_size);
+    Native.bufferToArray(data_sector, data_buffer, read_size);
 
     if (dedupunit == 0) {
       lines.add("lba             blk      sector data read" + "                           "
@@ -78,7 +78,7 @@ public class PrintJournal {
         common.ptod("read error");
         break;
       }
-      Native.buffer_to_array(array, buffer, 512);
+      Native.bufferToArray(array, buffer, 512);
 
       /* This is the tod of the map dump: */
       if (array[5] != 0 && array[6] != 0) {
@@ -8,7 +8,7 @@ package Vdb;
  * Author: Henk Vandenbergh.
  */
 
-import java.io.File;
+import java.io.*;
 import java.util.*;
 
 import Utils.Bin;
@@ -49,6 +49,7 @@ public class ReplayDevice implements java.io.Serializable, Cloneable {
   private ReplayGroup group; /* Which group owns this device? */
 
   private transient Bin split_bin_out = null;
+  private transient DataOutputStream split_index_out = null;
 
   /**
    * Create a new instance. Instances are stored in a HashMap for faster
@@ -299,6 +300,24 @@ public class ReplayDevice implements java.io.Serializable, Cloneable {
     flat.export(split_bin_out);
   }
 
+  /**
+   * With 'index=yes': store the offset of the current record in the replay file.
+   */
+  public void writeSplitIndex(long offset) {
+    try {
+      if (split_index_out == null) {
+        split_index_out = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(getSplitFileName()), 64 * 1024));
+        common.ptod("Created Replay index file: " + getSplitFileName());
+      }
+
+      split_index_out.writeLong(offset);
+    } catch (IOException e) {
+      common.ptod("Error writing replay index file " + getSplitFileName());
+      common.failure(e);
+    }
+  }
+
   /**
    * Close all the bin files used for replay splitting. 'reporting only' does not
    * have a file.
@@ -306,8 +325,18 @@ public class ReplayDevice implements java.io.Serializable, Cloneable {
   public static void closeSplitFiles() {
     Vector<ReplayDevice> all_device_list = ReplayInfo.getInfo().getDeviceList();
     for (int i = 0; i < all_device_list.size(); i++) {
-      if (all_device_list.elementAt(i).split_bin_out != null)
-        all_device_list.elementAt(i).split_bin_out.close();
+      ReplayDevice rdev = all_device_list.elementAt(i);
+      if (rdev.split_bin_out != null)
+        rdev.split_bin_out.close();
+      rdev.split_bin_out = null;
+
+      try {
+        if (rdev.split_index_out != null)
+          rdev.split_index_out.close();
+        rdev.split_index_out = null;
+      } catch (IOException e) {
+        common.failure(e);
+      }
     }
   }
 
@@ -319,7 +348,10 @@ public class ReplayDevice implements java.io.Serializable, Cloneable {
    */
   public String getSplitFileName() {
     String txt;
-    if (ReplayInfo.compress())
+    if (ReplayInfo.useIndex())
+      txt = String.format("%s%s%s%05d.idx", ReplayInfo.getSplitDirectory(), File.separator, getSplitFileNamePrefix(),
+          devno);
+    else if (ReplayInfo.compress())
       txt = String.format("%s%s%s%05d.bin.gz", ReplayInfo.getSplitDirectory(), File.separator, getSplitFileNamePrefix(),
           devno);
     else
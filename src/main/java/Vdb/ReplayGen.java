@@ -31,6 +31,7 @@ public class ReplayGen extends UserClass {
   private WorkloadInfo work_info;
 
   private Bin[] split_bin_files;
+  private ReplayIndexInput[] index_files; /* Instead of Bin with 'index=yes' */
   private Flat_record[] split_records;
   private int lowest_index;
   private long begin_offset;
@@ -175,18 +176,23 @@ public class ReplayGen extends UserClass {
   private void openSplitInputFiles() {
     long[] numbers = ReplayDevice.getDeviceNumbersForSd(sd_used.sd_name);
     split_bin_files = new Bin[numbers.length];
+    index_files = new ReplayIndexInput[numbers.length];
     split_records = new Flat_record[numbers.length];
 
     for (int i = 0; i < numbers.length; i++) {
       ReplayDevice rdev = ReplayDevice.findDeviceAndCreate(numbers[i]);
 
       common.ptod("rdev.getSplitFileName(): " + rdev.getSplitFileName());
-      split_bin_files[i] = new Bin(rdev.getSplitFileName());
-      split_bin_files[i].input();
-      split_bin_files[i].read_record();
+      if (ReplayInfo.useIndex())
+        index_files[i] = new ReplayIndexInput(rdev.getSplitFileName());
+      else {
+        split_bin_files[i] = new Bin(rdev.getSplitFileName());
+        split_bin_files[i].input();
+      }
 
       split_records[i] = new Flat_record();
-      emportBinRecord(i);
+      if (!readRecord(i))
+        split_records[i].start = Long.MAX_VALUE;
     }
 
     /* Figure out who the first lowest is: */
@@ -202,7 +208,10 @@ public class ReplayGen extends UserClass {
     long[] numbers = ReplayDevice.getDeviceNumbersForSd(sd_used.sd_name);
 
     for (int i = 0; i < split_bin_files.length; i++) {
-      split_bin_files[i].close();
+      if (index_files[i] != null)
+        index_files[i].close();
+      else
+        split_bin_files[i].close();
     }
   }
 
@@ -217,10 +226,8 @@ public class ReplayGen extends UserClass {
     /*
      * Read the next record from the file whose record we just scheduled an i/o for:
      */
-    if (!split_bin_files[lowest_index].read_record())
+    if (!readRecord(lowest_index))
       split_records[lowest_index].start = Long.MAX_VALUE;
-    else
-      emportBinRecord(lowest_index);
 
     /* Look for the record with the lowest timestamp: */
     lowest_index = 0;
@@ -260,12 +267,21 @@ public class ReplayGen extends UserClass {
 
   /**
    * 'Generalized' Bin_record.emport to facilitate a 'stagger' adjustment to the
-   * device start time.
+   * device start time. Reads either the split file or the index file.
    */
-  private void emportBinRecord(int index) {
-    split_records[index].emport(split_bin_files[index]);
+  private boolean readRecord(int index) {
+    if (index_files[index] != null) {
+      if (!index_files[index].read(split_records[index]))
+        return false;
+    } else {
+      if (!split_bin_files[index].read_record())
+        return false;
+      split_records[index].emport(split_bin_files[index]);
+    }
+
     long stagger = (sd_used.duplicate_number - 1) * ReplayInfo.getStagger();
     // common.ptod("stagger: " + stagger);
     split_records[index].start += stagger;
+    return true;
   }
 }
@@ -33,6 +33,7 @@ public class ReplayInfo implements Serializable {
   private boolean duplication = false;
   private long stagger = 0;
   private boolean compress = true;
+  private boolean index = false; /* Index files instead of split copies */
 
   private long low_start_filter = 0;
   private long high_start_filter = Long.MAX_VALUE;
@@ -142,7 +143,9 @@ public class ReplayInfo implements Serializable {
    * Replay=(flatfile.bin.gz,repeat=n,split=x,duplication=y,stagger=n) - repeat=n:
    * how often to repeat this replay run - split=x: split directory -
    * duplication=y: Use Replay duplication - stagger=n: for duplicates, how many
-   * milliseconds to stagger start time - compress=no (do not gzip).
+   * milliseconds to stagger start time - compress=no (do not gzip) -
+   * index=yes: do not copy the records, replay from the replay file using a
+   * file of record offsets per device.
    *
    * This method could be static, but I am too lazy to change the code... :-)
    */
@@ -179,11 +182,18 @@ public class ReplayInfo implements Serializable {
         else if ("compress".startsWith(split[0]))
           compress = split[1].toLowerCase().startsWith("y");
 
+        else if ("index".startsWith(split[0]))
+          index = split[1].toLowerCase().startsWith("y");
+
         else
           common.failure("Unknown Replay parameter: " + parm);
       }
     }
 
+    /* The index points into the replay file, so it must be mappable: */
+    if (index && !ReplayTrace.canMap(replay_filename))
+      common.failure("Replay 'index=yes' requires an uncompressed replay file: " + replay_filename);
+
     /* Make sure the split directory is there, create it if needed: */
     File dirptr = new File(split_directory);
     if (dirptr.exists() && !dirptr.isDirectory())
@@ -221,6 +231,10 @@ public class ReplayInfo implements Serializable {
     return info.compress;
   }
 
+  public static boolean useIndex() {
+    return info.index;
+  }
+
   /**
    * Read file 'replay_filter'. This will allow you to set a beginning and end
    * time stamp for inoput data selection. It also allows for a folding of the
@@ -10,7 +10,9 @@ package Vdb;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
 
 import Utils.*;
 
@@ -45,10 +47,8 @@ public class ReplaySplit {
   public static void readAndSplitTraceFile() {
     long records_read = 0;
     String fname = ReplayInfo.getReplayFile();
-    String split_dir = ReplayInfo.getSplitDirectory();
     long low_start_filter = ReplayInfo.getLowFilter();
     long high_start_filter = ReplayInfo.getHighFilter();
-    long lba_fold_size = ReplayInfo.getFoldSize();
 
     boolean rebuild = doWeNeedToReadReplayFile();
     common.ptod("doWeNeedToReadReplayFile: " + rebuild);
@@ -65,13 +65,40 @@ public class ReplaySplit {
     common.ptod("+");
     common.ptod("+Reading replay file " + fname);
     common.ptod("+");
-    Bin bin = new Bin(fname);
-    bin.input();
+    long start_ms = System.currentTimeMillis();
+
+    /* The split files are written by separate threads, each device by one: */
+    ReplaySplitWriter[] writers = ReplaySplitWriter.startWriters();
+    HashMap<ReplayDevice, ReplaySplitBatch> pending = new HashMap(64);
+
+    /* An uncompressed trace is memory mapped, otherwise read through Bin: */
+    ReplayTrace trace = null;
+    Bin bin = null;
+    if (ReplayTrace.canMap(fname))
+      trace = new ReplayTrace(fname);
+    else {
+      bin = new Bin(fname);
+      bin.input();
+    }
 
     Flat_record flat = new Flat_record();
     Signal signal = new Signal(5); // must be smaller than SHORTER_HEARTBEAT
+    long offset = 0;
+
+    while (true) {
+      long record_offset = offset;
+      if (trace != null) {
+        int longs = trace.recordLongs(offset);
+        if (longs == 0)
+          break;
+        trace.emport(offset, flat);
+        offset += longs * 8l;
+      } else {
+        if (!bin.read_record())
+          break;
+        flat.emport(bin);
+      }
 
-    read_record: while (bin.read_record()) {
       /* A large replay file can take quite a while to finish. Keep the */
       /* heartbeat alive once every 5 seconds: */
       /* It is no perfect solution, because the heartbeat messages coming */
@@ -87,56 +114,86 @@ public class ReplaySplit {
         }
       }
 
-      flat.emport(bin);
-
       /* Ignore records beyond the requested start and end time: */
       if (flat.start < low_start_filter)
         continue;
       if (flat.start > high_start_filter)
         break;
 
-      /* Allow for folding of lba: */
-      if (lba_fold_size != Long.MAX_VALUE)
-        flat.lba %= lba_fold_size;
-
-      /* Some lba0 reads of 36 bytes have shown up. They are likely disguised */
-      /* diagnostics reads. Xfersizes must be multiple of 512 bytes, so I am */
-      /* making sure that is the case. */
-      flat.xfersize = (flat.xfersize + 511) & ~0x1ff;
-
-      /* Look for device: */
-      ReplayDevice rdev = ReplayDevice.findDeviceAndCreate(flat.device);
-      rdev.countRecords();
-
-      /* Dedup requires everything to be on dedupunit boundaries: */
-      /*
-       * Obsolete as of 50405 since I am allowing any xfersize
-       * //rdev.adjustDedupXfersizeFlat(flat); //rdev.adjustDedupLbaFlat(flat);
-       * 
-       * /* calculate stuff:
-       */
-      rdev.setMinLba(flat.lba);
-      rdev.setMaxLba(flat.lba + flat.xfersize);
-      rdev.setMaxXfersize(flat.xfersize);
+      ReplayDevice rdev = acceptRecord(flat);
+      if (rdev == null)
+        continue;
 
-      if (rdev.isReportingOnly())
-        continue read_record;
+      /* Copy the (possibly modified) record to the device specific batch. */
+      /* A full batch goes to the writer thread owning this device: */
+      ReplaySplitBatch batch = pending.get(rdev);
+      if (batch == null)
+        pending.put(rdev, batch = new ReplaySplitBatch(rdev, writers[pending.size() % writers.length]));
+      batch.add(flat, record_offset);
+      if (batch.isFull())
+        pending.put(rdev, batch.send());
+    }
 
-      /* Need to remember the detailed time range for each device: */
-      if (rdev.getFirstTod() == Long.MAX_VALUE)
-        rdev.setFirstTod(flat.start);
-      rdev.setLastTod(flat.start);
+    if (bin != null)
+      bin.close();
 
-      /* Copy the (possibly modified) record to the device specific file: */
-      rdev.writeSplitRecord(flat);
-      // if (flat.device > 1)
-      // common.ptod("flat: %08x", flat.device);
-    }
+    /* Send the last partial batches and wait for the writers: */
+    for (ReplaySplitBatch batch : pending.values())
+      batch.send();
+    ReplaySplitWriter.stopWriters(writers);
 
-    bin.close();
     ReplayDevice.closeSplitFiles();
     saveReplayFileInformation();
-    common.ptod("Reading replay file completed: " + fname);
+    common.ptod("Reading replay file completed: %s. %,d records in %.1f seconds, %d writer threads", fname,
+        records_read, (System.currentTimeMillis() - start_ms) / 1000., writers.length);
+  }
+
+  /**
+   * Record the statistics for a record within the filters. Returns the device
+   * whose split file gets the record, or null.
+   */
+  private static ReplayDevice acceptRecord(Flat_record flat) {
+    adjustRecord(flat);
+
+    /* Look for device: */
+    ReplayDevice rdev = ReplayDevice.findDeviceAndCreate(flat.device);
+    rdev.countRecords();
+
+    /* Dedup requires everything to be on dedupunit boundaries: */
+    /*
+     * Obsolete as of 50405 since I am allowing any xfersize
+     * //rdev.adjustDedupXfersizeFlat(flat); //rdev.adjustDedupLbaFlat(flat);
+     * 
+     * /* calculate stuff:
+     */
+    rdev.setMinLba(flat.lba);
+    rdev.setMaxLba(flat.lba + flat.xfersize);
+    rdev.setMaxXfersize(flat.xfersize);
+
+    if (rdev.isReportingOnly())
+      return null;
+
+    /* Need to remember the detailed time range for each device: */
+    if (rdev.getFirstTod() == Long.MAX_VALUE)
+      rdev.setFirstTod(flat.start);
+    rdev.setLastTod(flat.start);
+
+    return rdev;
+  }
+
+  /**
+   * The changes made to each record before it is replayed. With 'index=yes'
+   * they are made again when the record is read back from the trace.
+   */
+  static void adjustRecord(Flat_record flat) {
+    /* Allow for folding of lba: */
+    if (ReplayInfo.getFoldSize() != Long.MAX_VALUE)
+      flat.lba %= ReplayInfo.getFoldSize();
+
+    /* Some lba0 reads of 36 bytes have shown up. They are likely disguised */
+    /* diagnostics reads. Xfersizes must be multiple of 512 bytes, so I am */
+    /* making sure that is the case. */
+    flat.xfersize = (flat.xfersize + 511) & ~0x1ff;
   }
 
   /**
@@ -180,6 +237,7 @@ public class ReplaySplit {
     fp.println("high_start_filter %d", ReplayInfo.getHighFilter());
     fp.println("lba_fold_size_mb %d", ReplayInfo.getFoldSize());
     fp.println("compress %b", ReplayInfo.compress());
+    fp.println("index %b", ReplayInfo.useIndex());
 
     Vector device_list = ReplayInfo.getInfo().getDeviceList();
     if (ReplayInfo.duplicationNeeded())
@@ -284,6 +342,15 @@ public class ReplaySplit {
         continue;
       }
 
+      /* Index files point into the replay file instead of copying it: */
+      else if (line.startsWith("index")) {
+        if (Boolean.parseBoolean(split[1]) != ReplayInfo.useIndex()) {
+          common.plog("doWeNeedToReadReplayFile(): mismatched in index= parameter.");
+          return true;
+        }
+        continue;
+      }
+
       else if (!line.startsWith("replay_device")) {
         common.plog("doWeNeedToReadReplayFile(): Unknown input: " + line);
         return true;
@@ -391,3 +458,130 @@ public class ReplaySplit {
     return Long.parseLong(split[found + 1]);
   }
 }
+
+/**
+ * The records of one device waiting to be written to its split file. A device
+ * is always handled by the same writer thread, so its records stay in order and
+ * its Bin file is only used by that one thread.
+ */
+class ReplaySplitBatch {
+  private ReplayDevice rdev;
+  private ReplaySplitWriter writer;
+  private int count = 0;
+
+  private long[] start = new long[RECORDS];
+  private long[] resp = new long[RECORDS];
+  private long[] device = new long[RECORDS];
+  private long[] lba = new long[RECORDS];
+  private long[] offset = new long[RECORDS];
+  private int[] xfersize = new int[RECORDS];
+  private int[] pid = new int[RECORDS];
+  private byte[] flag = new byte[RECORDS];
+
+  private static final int RECORDS = 1024;
+
+  public ReplaySplitBatch(ReplayDevice rdev, ReplaySplitWriter writer) {
+    this.rdev = rdev;
+    this.writer = writer;
+  }
+
+  public void add(Flat_record flat, long trace_offset) {
+    start[count] = flat.start;
+    resp[count] = flat.resp;
+    device[count] = flat.device;
+    lba[count] = flat.lba;
+    offset[count] = trace_offset;
+    xfersize[count] = flat.xfersize;
+    pid[count] = flat.pid;
+    flag[count] = flat.flag;
+    count++;
+  }
+
+  public boolean isFull() {
+    return count == RECORDS;
+  }
+
+  /**
+   * Queue this batch for its writer and return a new one for the same device.
+   */
+  public ReplaySplitBatch send() {
+    if (count > 0)
+      writer.queue(this);
+    return new ReplaySplitBatch(rdev, writer);
+  }
+
+  public void write(Flat_record flat) {
+    for (int i = 0; i < count; i++) {
+      if (ReplayInfo.useIndex()) {
+        rdev.writeSplitIndex(offset[i]);
+        continue;
+      }
+
+      flat.start = start[i];
+      flat.resp = resp[i];
+      flat.device = device[i];
+      flat.lba = lba[i];
+      flat.xfersize = xfersize[i];
+      flat.pid = pid[i];
+      flat.flag = flag[i];
+      rdev.writeSplitRecord(flat);
+    }
+  }
+}
+
+/**
+ * Writes (and with compress=yes gzips) the split files of its devices. The
+ * queue is bounded, so a reader that is faster than the writers waits instead
+ * of filling up the heap.
+ */
+class ReplaySplitWriter extends Thread {
+  private ArrayBlockingQueue<ReplaySplitBatch> queue = new ArrayBlockingQueue(QUEUE_DEPTH);
+
+  private static final int QUEUE_DEPTH = 16;
+  private static final int MAX_WRITERS = 8;
+  private static final ReplaySplitBatch END = new ReplaySplitBatch(null, null);
+
+  public ReplaySplitWriter(int number) {
+    setName("ReplaySplitWriter " + number);
+  }
+
+  public static ReplaySplitWriter[] startWriters() {
+    int count = Math.max(1, Math.min(MAX_WRITERS, Runtime.getRuntime().availableProcessors()));
+    ReplaySplitWriter[] writers = new ReplaySplitWriter[count];
+    for (int i = 0; i < count; i++) {
+      writers[i] = new ReplaySplitWriter(i);
+      writers[i].start();
+    }
+    return writers;
+  }
+
+  public static void stopWriters(ReplaySplitWriter[] writers) {
+    try {
+      for (ReplaySplitWriter writer : writers)
+        writer.queue.put(END);
+      for (ReplaySplitWriter writer : writers)
+        writer.join();
+    } catch (InterruptedException e) {
+      common.failure(e);
+    }
+  }
+
+  public void queue(ReplaySplitBatch batch) {
+    try {
+      queue.put(batch);
+    } catch (InterruptedException e) {
+      common.failure(e);
+    }
+  }
+
+  public void run() {
+    Flat_record flat = new Flat_record();
+    try {
+      ReplaySplitBatch batch;
+      while ((batch = queue.take()) != END)
+        batch.write(flat);
+    } catch (Throwable t) {
+      common.abnormal_term(t);
+    }
+  }
+}
@@ -0,0 +1,170 @@
+package Vdb;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import Utils.Flat_record;
+
+/**
+ * Memory mapped, read only access to an uncompressed replay trace file.
+ *
+ * The file is mapped in windows of WINDOW bytes, each overlapping the next one
+ * so that a record starting in a window always fits in it completely. Only
+ * absolute gets are used, so one instance can be shared by all threads: the
+ * ReplaySplit reader and, with 'index=yes', the ReplayGen instance of each SD.
+ *
+ * Each Bin record starts with one long: eye catcher, type, version and the
+ * record length in longs. After that Flat_record has start, resp, device, lba,
+ * xfersize and pid in one long, and flag, the same layout Bin uses.
+ */
+class ReplayTrace {
+  private String fname;
+  private long file_size;
+  private MappedByteBuffer[] windows;
+
+  private static final int WINDOW = 1 << 30;
+  private static final int OVERLAP = 4096;
+  private static final long EYE_CATCHER = 0xEEEE;
+  private static final int FLAT_LONGS = 7;
+
+  private static ReplayTrace shared = null;
+
+  public ReplayTrace(String fname) {
+    this.fname = fname;
+    try {
+      RandomAccessFile raf = new RandomAccessFile(fname, "r");
+      FileChannel channel = raf.getChannel();
+      file_size = channel.size();
+
+      windows = new MappedByteBuffer[(int) ((file_size + WINDOW - 1) / WINDOW)];
+      for (int i = 0; i < windows.length; i++) {
+        long start = (long) i * WINDOW;
+        windows[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW + OVERLAP, file_size - start));
+      }
+
+      /* The mappings stay valid after the close: */
+      raf.close();
+    } catch (IOException e) {
+      common.ptod("ReplayTrace: unable to map %s", fname);
+      common.failure(e);
+    }
+  }
+
+  /**
+   * The trace can only be mapped when it is a plain file: not stdin, and not
+   * compressed ('.gz', or Bin's '.jz1' alternative).
+   */
+  public static boolean canMap(String fname) {
+    if (fname.endsWith("-") || fname.endsWith(".gz") || fname.endsWith(".jz1"))
+      return false;
+    if (new File(fname + ".jz1").exists())
+      return false;
+    return new File(fname).isFile();
+  }
+
+  /**
+   * The replay file mapped once for all SDs replaying from index files.
+   */
+  public static synchronized ReplayTrace getShared() {
+    if (shared == null)
+      shared = new ReplayTrace(ReplayInfo.getReplayFile());
+    return shared;
+  }
+
+  public long size() {
+    return file_size;
+  }
+
+  /**
+   * Length in longs of the record at 'offset', or 0 at the end of the file. An
+   * incomplete last record is treated as end of file, just like Bin does.
+   */
+  public int recordLongs(long offset) {
+    if (offset + 8 > file_size)
+      return 0;
+
+    long control = getLong(offset);
+    if (control >>> 48 != EYE_CATCHER)
+      common.failure("ReplayTrace: invalid record header at offset %,d of %s: %016x", offset, fname, control);
+
+    int longs = (int) control & 0xffffff;
+    if (longs < FLAT_LONGS)
+      common.failure("ReplayTrace: record at offset %,d of %s is not a flatfile record: %016x", offset, fname,
+          control);
+
+    if (offset + longs * 8l > file_size)
+      return 0;
+    return longs;
+  }
+
+  /**
+   * Decode the record at 'offset'; the same as Flat_record.emport().
+   */
+  public void emport(long offset, Flat_record flat) {
+    MappedByteBuffer bb = windows[(int) (offset / WINDOW)];
+    int pos = (int) (offset % WINDOW);
+
+    flat.start = bb.getLong(pos + 8);
+    flat.resp = bb.getLong(pos + 16);
+    flat.device = bb.getLong(pos + 24);
+    flat.lba = bb.getLong(pos + 32);
+    long sizes = bb.getLong(pos + 40);
+    flat.xfersize = (int) (sizes >>> 32);
+    flat.pid = (int) sizes;
+    flat.flag = (byte) (bb.getLong(pos + 48) >>> 56);
+  }
+
+  private long getLong(long offset) {
+    return windows[(int) (offset / WINDOW)].getLong((int) (offset % WINDOW));
+  }
+}
+
+/**
+ * Reads the records of one device through its index file: the offsets of its
+ * records in the original trace, written by ReplaySplit with 'index=yes'.
+ */
+class ReplayIndexInput {
+  private String fname;
+  private DataInputStream dis;
+  private ReplayTrace trace;
+
+  public ReplayIndexInput(String fname) {
+    this.fname = fname;
+    trace = ReplayTrace.getShared();
+    try {
+      dis = new DataInputStream(new BufferedInputStream(new FileInputStream(fname), 64 * 1024));
+    } catch (IOException e) {
+      common.ptod("ReplayIndexInput: unable to open %s", fname);
+      common.failure(e);
+    }
+  }
+
+  /**
+   * Read the next record, with the same adjustments that were made to the
+   * records in a split file. Returns false at end of file.
+   */
+  public boolean read(Flat_record flat) {
+    long offset = 0;
+    try {
+      offset = dis.readLong();
+    } catch (EOFException e) {
+      return false;
+    } catch (IOException e) {
+      common.ptod("ReplayIndexInput: error reading %s", fname);
+      common.failure(e);
+    }
+
+    trace.emport(offset, flat);
+    ReplaySplit.adjustRecord(flat);
+    return true;
+  }
+
+  public void close() {
+    try {
+      dis.close();
+    } catch (IOException e) {
+      common.failure(e);
+    }
+  }
+}
@@ -50,6 +50,7 @@ public class Report {
   private static int highest_interval; /* it just reads better. */
 
   private static Vector<PrintWriter> all_writers = new Vector(64, 0);
+  private static Flat[] pct_columns = null; /* flatfile 'resp_p50' etc. */
   private static Vector writer_filenames = new Vector(64, 0);
   private static Vector all_reports = new Vector(64, 0);
 
@@ -387,6 +388,10 @@ public class Report {
     if (Vdbmain.isFwdWorkload())
       AnchorReport.create();
 
+    /* Hadoop client statistics: */
+    if (Vdbmain.isFwdWorkload() && Vdbmain.isHDFS)
+      HdfsStats.createReport();
+
     /* If more than one host, each host gets his own SD reports: */
     if (Vdbmain.isWdWorkload()) {
       SdReport.createHostSdReports();
@@ -1060,6 +1065,7 @@ public class Report {
   }
 
   public static void closeAllReports() {
+    Flat.closeFlatFile();
     for (PrintWriter pw : all_writers) {
       /* We can't close stdout. That causes problems some times: */
       if (pw == common.stdout)
@@ -1072,6 +1078,7 @@ public class Report {
 
   public static void flushAllReports() {
     common.plog("Flushing all reports");
+    Flat.drain();
     for (PrintWriter pw : all_writers) {
       if (pw != null)
         pw.flush();
@@ -1253,6 +1260,17 @@ public class Report {
     Flat.put_col("write_std", stats.writeStd());
     Flat.put_col("queue_depth", stats.qdepth());
 
+    /* Histograms are only available for the run totals: */
+    if (pct_columns == null)
+      pct_columns = Flat.getColumns("resp_", Histogram.PERCENTILE_LABELS);
+    for (int i = 0; i < Histogram.PERCENTILES.length; i++) {
+      double value = (stats.histogram == null) ? -1 : stats.histogram.getPercentile(Histogram.PERCENTILES[i]);
+      if (value < 0)
+        pct_columns[i].put();
+      else
+        pct_columns[i].put(value / 1000.);
+    }
+
     if (compratio < 0)
       Flat.put_col("compratio", "n/a");
     else
@@ -650,7 +650,7 @@ public class SD_entry implements Serializable, Cloneable {
    * Check and do scsi reset:
    */
   public synchronized void scsi_reset() {
-    long tod = Native.get_simple_tod();
+    long tod = Native.getSimpleTod();
 
     /* Set initial timestamps: */
     if (scsi_lun_tod == 0) {
@@ -55,6 +55,50 @@ public class SdStats implements Serializable {
 
   private static int negative_response_count = 0;
 
+  /**
+   * Binary form used by SlaveStats.writeWire().
+   */
+  void writeWire(DataOutput out) throws IOException {
+    WireFormat.writeString(out, sd_name);
+    WireFormat.writeString(out, wd_name);
+    out.writeBoolean(work_done);
+    long[] counters = { elapsed, reads, r_resptime, r_resptime2, r_max, r_bytes, writes, w_resptime, w_resptime2,
+        w_max, w_bytes, val_count, val_error, r_errors, w_errors, rtime, rlentime };
+    for (int i = 0; i < counters.length; i++)
+      WireFormat.writeVarLong(out, counters[i]);
+    Histogram.writeOptional(out, histogram);
+    Histogram.writeOptional(out, read_hist);
+    Histogram.writeOptional(out, write_hist);
+  }
+
+  static SdStats readWire(DataInput in) throws IOException {
+    SdStats st = new SdStats();
+    st.sd_name = WireFormat.readString(in);
+    st.wd_name = WireFormat.readString(in);
+    st.work_done = in.readBoolean();
+    st.elapsed = WireFormat.readVarLong(in);
+    st.reads = WireFormat.readVarLong(in);
+    st.r_resptime = WireFormat.readVarLong(in);
+    st.r_resptime2 = WireFormat.readVarLong(in);
+    st.r_max = WireFormat.readVarLong(in);
+    st.r_bytes = WireFormat.readVarLong(in);
+    st.writes = WireFormat.readVarLong(in);
+    st.w_resptime = WireFormat.readVarLong(in);
+    st.w_resptime2 = WireFormat.readVarLong(in);
+    st.w_max = WireFormat.readVarLong(in);
+    st.w_bytes = WireFormat.readVarLong(in);
+    st.val_count = WireFormat.readVarLong(in);
+    st.val_error = WireFormat.readVarLong(in);
+    st.r_errors = WireFormat.readVarLong(in);
+    st.w_errors = WireFormat.readVarLong(in);
+    st.rtime = WireFormat.readVarLong(in);
+    st.rlentime = WireFormat.readVarLong(in);
+    st.histogram = Histogram.readOptional(in);
+    st.read_hist = Histogram.readOptional(in);
+    st.write_hist = Histogram.readOptional(in);
+    return st;
+  }
+
   /**
    * We really only want histograms at the end. By clearing the by default
    * allocated histgrams we prevent the info from being sent from the slave to the
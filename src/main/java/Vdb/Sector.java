@@ -116,7 +116,7 @@ public class Sector {
       common.failure("empty 'sd_read'");
 
     /* Create an LFSR array using this data, sd name must be 8 bytes: */
-    Native.fillLfsrArray(lfsr_sector, lba_read, key_read, check8byteString(sd_read));
+    Native.fillLfsrSector(lfsr_sector, lba_read, key_read, check8byteString(sd_read));
 
     /* fillLfsr fills bytes 0-511; we need bytes 32-511 placed at offset 32: */
     int[] p2 = new int[512 / 4];
@@ -152,7 +152,7 @@ public class Sector {
       common.failure("Error reading block");
     Native.closeFile(handle);
 
-    Native.buffer_to_array(data_array, data_buffer, 512);
+    Native.bufferToArray(data_array, data_buffer, 512);
 
     Native.freeBuffer(512, data_buffer);
 
@@ -20,7 +20,31 @@ public class SizeOf {
   private final static String c = "Copyright (c) 2000, 2015, Oracle and/or its affiliates. All rights reserved.";
 
   public static void main(String args[]) throws Exception {
-    sizeof(args);
+    if (args.length > 0 && args[0].equals("files"))
+      fileEntrySize((args.length > 1) ? Integer.parseInt(args[1]) * 1000000 : 10000000);
+    else
+      sizeof(args);
+  }
+
+  /**
+   * Measure the heap bytes per file used by FileEntryStore.
+   */
+  public static void fileEntrySize(int files) {
+    System.gc();
+    System.gc();
+    long used_at_start = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+
+    FileEntryStore store = new FileEntryStore(null, new Directory[files / 100 + 1], 100, 1, 0);
+    for (int i = 0; i < files; i++)
+      store.add(4096, i * 4096l);
+
+    System.gc();
+    System.gc();
+    long used_at_end = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+
+    common.ptod("files:          %,d", store.size());
+    common.ptod("bytes per file: %d (expected %d)", (used_at_end - used_at_start) / files,
+        FileEntryStore.BYTES_PER_FILE);
   }
 
   /**
@@ -248,6 +248,9 @@ public class SlaveJvm {
             NwStats.loadStatistics();
         }
 
+        if (isHDFS)
+          HdfsStats.getDelta();
+
       }
 
       else if (sm.getMessageNum() == SocketMessage.WORKLOAD_DONE) {
@@ -411,6 +414,7 @@ public class SlaveJvm {
       //
 
       if (isHDFS) {
+        HdfsClients.closeAll();
         fileSys.close();
       }
     }
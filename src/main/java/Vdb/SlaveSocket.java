@@ -11,13 +11,13 @@ package Vdb;
 import java.io.*;
 import java.net.*;
 import java.util.*;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 import Utils.*;
 
 /**
  * This class handles socket communications between master and slave.
+ *
+ * Messages are sent as binary frames, see WireFormat.
  */
 public class SlaveSocket implements Serializable {
   private final static String c = "Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.";
@@ -26,8 +26,9 @@ public class SlaveSocket implements Serializable {
   private String slave_name = "signon";
   private String slave_label = "signon";
 
-  private ObjectInputStream istream;
-  private ObjectOutputStream ostream;
+  private transient DataInputStream istream;
+  private transient DataOutputStream ostream;
+  private transient WireFormat wire = new WireFormat();
   private Socket socket;
   private boolean shutdown_in_progress = false;
   private boolean try_recovery = true;
@@ -63,8 +64,7 @@ public class SlaveSocket implements Serializable {
     setBufferSize();
     socket.setTcpNoDelay(true);
 
-    ostream = new ObjectOutputStream(socket.getOutputStream());
-    istream = new ObjectInputStream(socket.getInputStream());
+    openStreams();
   }
 
   /**
@@ -73,8 +73,7 @@ public class SlaveSocket implements Serializable {
   public SlaveSocket(ServerSocket serversocket) throws IOException {
     socket = serversocket.accept();
 
-    ostream = new ObjectOutputStream(socket.getOutputStream());
-    istream = new ObjectInputStream(socket.getInputStream());
+    openStreams();
 
     /// * Windows (and maybe others) do not cause a readObject() to be interrupted
     /// */
@@ -85,6 +84,11 @@ public class SlaveSocket implements Serializable {
     setBufferSize();
   }
 
+  private void openStreams() throws IOException {
+    ostream = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64 * 1024));
+    istream = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+  }
+
   public void setSlaveLabel(String label) {
     slave_label = label;
   }
@@ -125,20 +129,17 @@ public class SlaveSocket implements Serializable {
     SocketMessage sm = null;
     while (true) {
       try {
-        sm = (SocketMessage) istream.readObject();
+        sm = wire.readMessage(istream);
         sm.receive_time = System.currentTimeMillis();
 
-        if (!dont_zip)
-          sm.setData(unCompressObj((byte[]) sm.getData()));
-
         storeShortest(sm);
 
         /* Optional report the message size just received on the master: */
         // if (!SlaveJvm.isThisSlave()
         // && common.get_debug(common.REPORT_MESSAGE_SIZE))
         if (common.get_debug(common.REPORT_MESSAGE_SIZE)) {
-          int org_size = CompressObject.sizeof(sm);
-          int zip_size = compressObj(sm).length;
+          int org_size = Math.max(1, wire.last_raw_size);
+          int zip_size = Math.max(1, wire.last_wire_size);
           double ratio = (double) org_size / zip_size;
 
           synchronized (bytes_lock) {
@@ -274,14 +275,8 @@ public class SlaveSocket implements Serializable {
         }
 
         try {
-          if (!dont_zip)
-            sm.setData(compressObj(sm.getData()));
-
           sm.send_time = System.currentTimeMillis();
-          ostream.reset();
-          ostream.writeObject(sm);
-          ostream.flush();
-          long end = System.currentTimeMillis();
+          wire.writeMessage(ostream, sm, !dont_zip);
 
           // To figure out the size of the object:
           // vdbench -tf: 26391 bytes for one FSD.
@@ -400,50 +395,6 @@ public class SlaveSocket implements Serializable {
     }
   }
 
-  private byte[] compressObj(Object obj) {
-    if (obj == null)
-      return null;
-
-    try {
-      ByteArrayOutputStream bos = new ByteArrayOutputStream();
-      GZIPOutputStream zos = new GZIPOutputStream(bos);
-      ObjectOutputStream ous = new ObjectOutputStream(zos);
-
-      ous.writeObject(obj);
-      zos.finish();
-      bos.flush();
-
-      return bos.toByteArray();
-    } catch (Exception e) {
-      common.failure(e);
-      return null;
-    }
-  }
-
-  private Object unCompressObj(byte[] array) {
-    if (array == null)
-      return null;
-
-    try {
-      Object obj = null;
-
-      ByteArrayInputStream bis = new ByteArrayInputStream(array);
-      GZIPInputStream zis = new GZIPInputStream(bis);
-      ObjectInputStream ois = new ObjectInputStream(zis);
-
-      try {
-        obj = ois.readObject();
-      } catch (ClassNotFoundException e) {
-        common.failure(e);
-      }
-
-      return obj;
-    } catch (Exception e) {
-      common.failure(e);
-      return null;
-    }
-  }
-
   private void storeShortest(SocketMessage sm) {
     long delta = sm.receive_time - sm.send_time;
     Long shortest_delta = shortest_map.get(slave_name);
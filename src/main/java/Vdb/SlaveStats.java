@@ -16,6 +16,9 @@ import Utils.NfsV4;
 /**
  * This class contains the information that is returned back from a slave to the
  * master related to vdbench performance statistics
+ *
+ * It is sent every interval, so it is not serialized but written field by field
+ * by writeWire(); see WireFormat.
  */
 public class SlaveStats implements Serializable {
   private final static String c = "Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.";
@@ -41,6 +44,8 @@ public class SlaveStats implements Serializable {
   private NfsV3 nfs3_delta = null;
   private NfsV4 nfs4_delta = null;
 
+  private HdfsStats hdfs_stats = null;
+
   public ArrayList<NwAdapter> nw_stats = null;
 
   public ThreadMonList tmonitor_deltas = new ThreadMonList();
@@ -56,6 +61,143 @@ public class SlaveStats implements Serializable {
       Blocked.printCountersToLog();
   }
 
+  private SlaveStats() {
+  }
+
+  /**
+   * Binary form of everything sent to the master. Nfs and network statistics
+   * (Solaris only) and user data are rare and have no fixed layout; they are
+   * serialized, and only when present.
+   */
+  void writeWire(DataOutputStream out) throws IOException {
+    WireFormat.writeVarLong(out, stats_number);
+    WireFormat.writeVarLong(out, permit_time);
+    WireFormat.writeVarLong(out, permit_threads);
+
+    WireFormat.writeVarLong(out, (block_counters == null) ? -1 : block_counters.length);
+    for (int i = 0; block_counters != null && i < block_counters.length; i++)
+      WireFormat.writeVarLong(out, block_counters[i]);
+
+    WireFormat.writeVarLong(out, (sd_stats == null) ? -1 : sd_stats.length);
+    for (int i = 0; sd_stats != null && i < sd_stats.length; i++)
+      sd_stats[i].writeWire(out);
+
+    out.writeBoolean(tot_stats != null);
+    if (tot_stats != null)
+      tot_stats.writeWire(out);
+    writeFwdMap(out, fsd_map);
+    writeFwdMap(out, fwg_map);
+
+    out.writeBoolean(cpu_stats != null);
+    if (cpu_stats != null)
+      cpu_stats.writeWire(out);
+
+    WireFormat.writeVarLong(out, (kstat_data == null) ? -1 : kstat_data.size());
+    for (int i = 0; kstat_data != null && i < kstat_data.size(); i++)
+      ((Kstat_data) kstat_data.get(i)).writeWire(out);
+
+    out.writeBoolean(hdfs_stats != null);
+    if (hdfs_stats != null)
+      hdfs_stats.writeWire(out);
+
+    out.writeBoolean(tmonitor_deltas != null);
+    if (tmonitor_deltas != null)
+      tmonitor_deltas.writeWire(out);
+
+    boolean extras = nfs3_delta != null || nfs4_delta != null || nw_stats != null || user_data != null;
+    out.writeBoolean(extras);
+    if (extras) {
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      ObjectOutputStream oos = new ObjectOutputStream(bos);
+      oos.writeObject(nfs3_delta);
+      oos.writeObject(nfs4_delta);
+      oos.writeObject(nw_stats);
+      oos.writeObject(user_data);
+      oos.flush();
+      out.writeInt(bos.size());
+      bos.writeTo(out);
+    }
+  }
+
+  static SlaveStats readWire(DataInputStream in) throws IOException {
+    SlaveStats sts = new SlaveStats();
+    sts.stats_number = WireFormat.readVarLong(in);
+    sts.permit_time = WireFormat.readVarLong(in);
+    sts.permit_threads = WireFormat.readVarLong(in);
+
+    int count = (int) WireFormat.readVarLong(in);
+    if (count >= 0) {
+      sts.block_counters = new long[count];
+      for (int i = 0; i < count; i++)
+        sts.block_counters[i] = WireFormat.readVarLong(in);
+    }
+
+    count = (int) WireFormat.readVarLong(in);
+    if (count >= 0) {
+      sts.sd_stats = new SdStats[count];
+      for (int i = 0; i < count; i++)
+        sts.sd_stats[i] = SdStats.readWire(in);
+    }
+
+    if (in.readBoolean())
+      sts.tot_stats = FwdStats.readWire(in);
+    sts.fsd_map = readFwdMap(in);
+    sts.fwg_map = readFwdMap(in);
+
+    if (in.readBoolean())
+      sts.cpu_stats = Kstat_cpu.readWire(in);
+
+    count = (int) WireFormat.readVarLong(in);
+    if (count >= 0) {
+      sts.kstat_data = new Vector(count);
+      for (int i = 0; i < count; i++)
+        sts.kstat_data.add(Kstat_data.readWire(in));
+    }
+
+    if (in.readBoolean())
+      sts.hdfs_stats = HdfsStats.readWire(in);
+
+    sts.tmonitor_deltas = (in.readBoolean()) ? ThreadMonList.readWire(in) : null;
+
+    if (in.readBoolean()) {
+      byte[] bytes = new byte[in.readInt()];
+      in.readFully(bytes);
+      ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes));
+      try {
+        sts.nfs3_delta = (NfsV3) ois.readObject();
+        sts.nfs4_delta = (NfsV4) ois.readObject();
+        sts.nw_stats = (ArrayList<NwAdapter>) ois.readObject();
+        sts.user_data = (Vector) ois.readObject();
+      } catch (ClassNotFoundException e) {
+        throw new IOException(e);
+      }
+    }
+
+    return sts;
+  }
+
+  private static void writeFwdMap(DataOutput out, HashMap map) throws IOException {
+    WireFormat.writeVarLong(out, (map == null) ? -1 : map.size());
+    if (map == null)
+      return;
+    for (Object name : map.keySet()) {
+      WireFormat.writeString(out, (String) name);
+      ((FwdStats) map.get(name)).writeWire(out);
+    }
+  }
+
+  private static HashMap readFwdMap(DataInput in) throws IOException {
+    int count = (int) WireFormat.readVarLong(in);
+    if (count < 0)
+      return null;
+    HashMap map = new HashMap(count * 2);
+    for (int i = 0; i < count; i++) {
+      String name = WireFormat.readString(in);
+      map.put(name, FwdStats.readWire(in));
+    }
+    return map;
+  }
+
   public void setCpuStats(Kstat_cpu ks) {
     cpu_stats = ks;
   }
@@ -119,6 +261,14 @@ public class SlaveStats implements Serializable {
     return nfs4_delta;
   }
 
+  public void setHdfsStats(HdfsStats stats) {
+    hdfs_stats = stats;
+  }
+
+  public HdfsStats getHdfsStats() {
+    return hdfs_stats;
+  }
+
   public void setUserData(Vector u) {
     user_data = u;
   }
@@ -225,7 +225,7 @@ public class SlaveWorker extends ThreadControl {
     /* Start Waiter task(s): */
     // common.plog("work.use_waiter: " + work.use_waiter);
     if (work.use_waiter)
-      new WT_task(new Task_num("WT_task")).start();
+      WT_task.startWaiters(work.wgs_for_slave);
 
     Patterns.createPattern((int) work.maximum_xfersize);
 
@@ -121,6 +121,13 @@ public class SocketMessage implements Serializable {
     }
   }
 
+  /**
+   * Used when a message is received: keep the sender's sequence number.
+   */
+  public void setSeqno(int seqno) {
+    message_seqno = seqno;
+  }
+
   public int getSeqno() {
     return message_seqno;
   }
@@ -253,7 +253,7 @@ public class Task_num {
   public static int task_wait_all() {
     int i;
     long signaltod = 0;
-    long start_wait = Native.get_simple_tod();
+    long start_wait = Native.getSimpleTod();
 
     while (true) {
       for (i = 0; i < task_list.size(); i++) {
@@ -270,7 +270,7 @@ public class Task_num {
 
       /* Give up when it takes too long: */
       int seconds = common.get_debug(common.LONG_SHUTDOWN) ? 15 * 60 : 5 * 60;
-      if (Native.get_simple_tod() - start_wait > seconds * 1000 * 1000)
+      if (Native.getSimpleTod() - start_wait > seconds * 1000 * 1000)
         return seconds;
 
       common.sleep_some(99);
@@ -283,7 +283,7 @@ public class Task_num {
 
   private static void reportWaiters(long start_wait) {
     Vector txt = new Vector(8, 0);
-    long tod = Native.get_simple_tod();
+    long tod = Native.getSimpleTod();
     txt.add("task_wait_all(): Waiting " + ((tod - start_wait) / 1000000) + " seconds for active threads to complete: ");
 
     HashMap threads_done = new HashMap(64);
@@ -311,7 +311,7 @@ public class Task_num {
    * Terminate requested tasks:
    */
   static void interrupt_tasks(String id) {
-    long first_try = Native.get_simple_tod();
+    long first_try = Native.getSimpleTod();
     long signaltod = 0;
     int tot_ints = 0;
 
@@ -323,7 +323,7 @@ public class Task_num {
 
     while (true) {
       /* We give them three minutes before we just kill them: */
-      if (Native.get_simple_tod() - first_try > 180 * 1000 * 1000) {
+      if (Native.getSimpleTod() - first_try > 180 * 1000 * 1000) {
         for (int i = 0; i < task_list.size(); i++) {
           Task_num tn = (Task_num) task_list.elementAt(i);
           if (tn.task_name.startsWith(id)) {
@@ -8,6 +8,9 @@ package Vdb;
  * Author: Henk Vandenbergh.
  */
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
 import java.lang.management.*;
 import java.util.*;
@@ -190,10 +193,11 @@ public class ThreadMonitor {
           continue;
       }
 
-      common.ptod("ThreadMonitor cpu %6.2f%% user %6.2f%%  blkd %6.2f%% %6d wait %6.2f%% %8d %8d %s",
+      common.ptod("ThreadMonitor cpu %6.2f%% user %6.2f%%  blkd %6.2f%% %6d wait %6.2f%% %8d %8d %8d %s",
           delta.cputime * 100. / deltas.elapsed, delta.usertime * 100. / deltas.elapsed,
           delta.blockedtime * 100. * 1000000 / deltas.elapsed, delta.blockedcount,
-          delta.waitedtime * 100. * 1000000 / deltas.elapsed, delta.counter1, delta.counter2, delta.label);
+          delta.waitedtime * 100. * 1000000 / deltas.elapsed, delta.counter1, delta.counter2, delta.counter3,
+          delta.label);
 
     }
   }
@@ -233,11 +237,11 @@ public class ThreadMonitor {
           continue;
       }
 
-      line = String.format("%-12s cpu %6.2f%% user %6.2f%%  blkd %6.2f%% wait %6.2f%% %8d %8d %s", txt,
+      line = String.format("%-12s cpu %6.2f%% user %6.2f%%  blkd %6.2f%% wait %6.2f%% %8d %8d %8d %s", txt,
           delta.cputime * 100. / (elapsed * processors), delta.usertime * 100. / (elapsed * processors),
           delta.blockedtime * 100. * 1000000 / (elapsed * processors),
           delta.waitedtime * 100. * 1000000 / (elapsed * processors), delta.counter1 * 1000000000 / elapsed,
-          delta.counter2 * 1000000000 / elapsed, delta.label);
+          delta.counter2 * 1000000000 / elapsed, delta.counter3 * 1000000000 / elapsed, delta.label);
       if (common.get_debug(common.THREAD_MONITOR_CONSOLE))
         common.ptod(line);
       else
@@ -384,4 +388,42 @@ class ThreadMonList implements Serializable {
   ArrayList<ThreadMonData> list = new ArrayList(8);
 
   HashMap<String, ThreadMonData> map = new HashMap(8);
+
+  /**
+   * Binary form used by SlaveStats.writeWire(). Only the list is sent; the map
+   * is used for totals on the master.
+   */
+  void writeWire(DataOutput out) throws IOException {
+    WireFormat.writeVarLong(out, elapsed);
+    WireFormat.writeVarLong(out, processors);
+    WireFormat.writeVarLong(out, list.size());
+    for (int i = 0; i < list.size(); i++) {
+      ThreadMonData data = list.get(i);
+      WireFormat.writeString(out, data.label);
+      long[] counters = { data.cputime, data.usertime, data.blockedtime, data.waitedtime, data.blockedcount,
+          data.counter1, data.counter2, data.counter3 };
+      for (int c = 0; c < counters.length; c++)
+        WireFormat.writeVarLong(out, counters[c]);
+    }
+  }
+
+  static ThreadMonList readWire(DataInput in) throws IOException {
+    ThreadMonList tml = new ThreadMonList();
+    tml.elapsed = WireFormat.readVarLong(in);
+    tml.processors = (int) WireFormat.readVarLong(in);
+    int count = (int) WireFormat.readVarLong(in);
+    for (int i = 0; i < count; i++) {
+      ThreadMonData data = new ThreadMonData(WireFormat.readString(in));
+      data.cputime = WireFormat.readVarLong(in);
+      data.usertime = WireFormat.readVarLong(in);
+      data.blockedtime = WireFormat.readVarLong(in);
+      data.waitedtime = WireFormat.readVarLong(in);
+      data.blockedcount = WireFormat.readVarLong(in);
+      data.counter1 = WireFormat.readVarLong(in);
+      data.counter2 = WireFormat.readVarLong(in);
+      data.counter3 = WireFormat.readVarLong(in);
+      tml.list.add(data);
+    }
+    return tml;
+  }
 }
@@ -18,13 +18,16 @@ import Utils.*;
  * This class will handle the storing and retrieving of Data Validation
  * timestamps. From 'validate=time'.
  *
- * This is the first version, still using 8 bytes per block. Next planned
- * version: 4 bytes per block which leaves 32-4=28 bits for a millisecond
- * timestamp, or about 75 hours of run time. We can improve on that by storing
- * less detail: - every 2ms: 150 hours - every 10ms: 750 hours or 31 days.
+ * Now using 4 bytes per block: 4 bits for the operation and 28 bits for the
+ * timestamp, counted in units of TIME_UNIT milliseconds since the map was
+ * created. With 2ms that is about 149 hours of run time; after that the
+ * timestamps stick at the maximum, which is reported once.
  *
- * We'll still have a limit of Integer.MAX_VALUE blocks though unless we tackle
- * that also.
+ * The key value is no longer stored here; that is taken from DV_map instead,
+ * accepting the very small window where the map is a little behind.
+ *
+ * The arrays are split in pages so that we are no longer limited to
+ * Integer.MAX_VALUE blocks.
  *
  * 03/16/2017: now also storing the xfersize used for the last write for a key
  * block. That info was very powerful with our last corruption. Now also storing
@@ -34,21 +37,27 @@ import Utils.*;
 public class Timestamp {
   private final static String c = "Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.";
 
-  private long[] timestamps = null;
-  private int[] write_xfers = null;
-  private int entries = 0;
+  private int[][] timestamps = null;
+  private int[][] write_xfers = null;
+  private long entries = 0;
+  private long base_tod = System.currentTimeMillis();
+  private boolean overflow_reported = false;
+
+  private static int PAGE_SHIFT = 27;
+  private static int PAGE_SIZE = 1 << PAGE_SHIFT;
+  private static int PAGE_MASK = PAGE_SIZE - 1;
 
-  private static int MAX_SIZE = Integer.MAX_VALUE;
+  private static int TIME_UNIT = 2;
+  private static int OP_SHIFT = 28;
+  private static int TIME_MASK = (1 << OP_SHIFT) - 1;
 
   /**
    * If the 'validate=time' option is used, save the last successful TS. The flags
-   * below are stored in byte0 over the timestamp.
+   * below are passed in byte0 of a long, and are stored as the top 4 bits of the
+   * int.
    *
    * Note that they don't really need to be bit flags, any 4bit integer will do.
    */
-  private static long TIME_MASK = 0x0000ffffffffffffl;
-  private static long OPERATION_MASK = 0xff00000000000000l;
-  private static long KEY_MASK = 0x00ff000000000000l;
   public static long READ_ONLY = 0x1000000000000000l;
   public static long PRE_READ = 0x2000000000000000l;
   public static long READ_IMMED = 0x3000000000000000l;
@@ -57,78 +66,88 @@ public class Timestamp {
   public static long PENDING_REREAD = 0x6000000000000000l;
 
   public Timestamp(long blocks) {
-    common.ptod("Data Validation. Allocating timestamp map " + "requiring 8 * %,d = %.3fMB of java heap space.", blocks,
-        blocks * 8. / 1024. / 1024.);
-
-    if (blocks > MAX_SIZE)
-      common.failure("Timestamp map only supports %,d entries", MAX_SIZE);
+    common.ptod("Data Validation. Allocating timestamp map " + "requiring 4 * %,d = %.3fMB of java heap space.", blocks,
+        blocks * 4. / 1024. / 1024.);
 
-    entries = (int) blocks;
-    timestamps = new long[entries];
+    entries = blocks;
+    timestamps = allocate(blocks);
     if (Validate.isXferHistory())
-      write_xfers = new int[entries];
+      write_xfers = allocate(blocks);
+  }
+
+  private static int[][] allocate(long blocks) {
+    int[][] pages = new int[(int) ((blocks + PAGE_SIZE - 1) >> PAGE_SHIFT)][];
+    for (int i = 0; i < pages.length; i++)
+      pages[i] = new int[(int) Math.min(PAGE_SIZE, blocks - ((long) i << PAGE_SHIFT))];
+    return pages;
   }
 
   public static void main(String[] args) {
     long blocks = common.parseSize(args[0]);
     Timestamp ts = new Timestamp(blocks);
+
+    long tod = System.currentTimeMillis();
+    ts.storeTime(blocks - 1, WRITE, tod, 0);
+    common.ptod("stored: %d returned: %d %s", tod, ts.getLastTime(blocks - 1), ts.getLastOperation(blocks - 1));
   }
 
   /**
    * Store timestamp of last successful i/o, including flags
    *
-   * Current key value is also stored here. In theory the key value here may be
-   * running just a little ahead of the Data Validation map (DV_map), because the
-   * current key value is stored back in the map AFTER error reporting.
-   *
-   * If you need the one byte taken up here, get the info from DV_map instead,
-   * therewith accepting the very small window.
+   * The key value is passed for compatibility only; DV_map.getLastKey() gets it
+   * from the map.
    */
   public void storeTime(long block, long type, long tod, long key) {
-    if (block > entries)
-      common.failure("Timestamp: requesting block %,d which is larger than the " + "current size of %,d", block,
-          entries);
-
-    timestamps[(int) block] = tod | type | key << 48;
+    checkBlock(block);
+
+    long units = (tod - base_tod) / TIME_UNIT + 1;
+    if (units < 1)
+      units = 1;
+    else if (units > TIME_MASK) {
+      units = TIME_MASK;
+      if (!overflow_reported) {
+        overflow_reported = true;
+        common.ptod("Timestamp: run time exceeds %d hours. Further timestamps are not accurate.",
+            (long) TIME_MASK * TIME_UNIT / 3600000);
+      }
+    }
+
+    timestamps[(int) (block >> PAGE_SHIFT)][(int) (block & PAGE_MASK)] = (int) (type >>> 60) << OP_SHIFT
+        | (int) units;
   }
 
   public void storeWriteXfer(long block, int xfer) {
-    if (block > entries)
-      common.failure("Timestamp: requesting block %,d which is larger than the " + "current size of %,d", block,
-          entries);
+    checkBlock(block);
 
-    write_xfers[(int) block] = xfer;
+    write_xfers[(int) (block >> PAGE_SHIFT)][(int) (block & PAGE_MASK)] = xfer;
   }
 
   /**
    * Get the last stored timestamp value, EXCLUDING the flags.
    */
   public long getLastTime(long block) {
-    if (block > entries)
-      common.failure("Timestamp: requesting block %,d which is larger than the " + "current size of %,d", block,
-          entries);
+    checkBlock(block);
 
-    long value = timestamps[(int) block];
+    int value = timestamps[(int) (block >> PAGE_SHIFT)][(int) (block & PAGE_MASK)];
 
     /* Remove the (possible) flags: */
-    return (value & TIME_MASK);
+    int units = value & TIME_MASK;
+    if (units == 0)
+      return 0;
+    return base_tod + (long) (units - 1) * TIME_UNIT;
   }
 
   public int getLastXfersize(long block) {
-    if (block > entries)
-      common.failure("Timestamp: requesting block %,d which is larger than the " + "current size of %,d", block,
-          entries);
+    checkBlock(block);
 
-    return write_xfers[(int) block];
+    return write_xfers[(int) (block >> PAGE_SHIFT)][(int) (block & PAGE_MASK)];
   }
 
   public String getLastOperation(long block) {
-    if (block > entries)
-      common.failure("Timestamp: requesting block %,d which is larger than the " + "current size of %,d", block,
-          entries);
+    checkBlock(block);
 
-    long value = timestamps[(int) block];
-    long type = value & OPERATION_MASK;
+    int value = timestamps[(int) (block >> PAGE_SHIFT)][(int) (block & PAGE_MASK)];
+    long type = (long) (value >>> OP_SHIFT) << 60;
     if (type == READ_ONLY)
       return "read";
     if (type == PRE_READ)
@@ -142,14 +161,9 @@ public class Timestamp {
     return "unkown_operation";
   }
 
-  public int getLastKey(long block) {
-    if (block > entries)
+  private void checkBlock(long block) {
+    if (block >= entries)
       common.failure("Timestamp: requesting block %,d which is larger than the " + "current size of %,d", block,
           entries);
-
-    long value = timestamps[(int) block];
-    long key = value & KEY_MASK;
-    key = key >> 48;
-    return (int) key;
   }
 }
@@ -35,14 +35,14 @@ public class Trace {
     for (int i = 0; i < table.length; i++)
       table[i] = new Trace();
 
-    base_simple = Native.get_simple_tod();
+    base_simple = Native.getSimpleTod();
     base_local = System.currentTimeMillis();
   };
 
   public static void trace(String txt, long data1, long data2) {
     synchronized (table) {
       Trace tr = table[(int) (index++ % table.length)];
-      tr.timestamp = Native.get_simple_tod() - base_simple;
+      tr.timestamp = Native.getSimpleTod() - base_simple;
       tr.txt = txt;
       tr.data1 = data1;
       tr.data2 = data2;
@@ -31,6 +31,7 @@ public class Validate implements java.io.Serializable {
   private boolean validate_nopreread = false;
   private boolean validate_time = false;
   private boolean validate_xfer = false;
+  private boolean validate_nibble = false; /* Two DV keys per map byte */
 
   private boolean continue_old_map = false;
   private boolean ignore_zero_reads = false;
@@ -60,6 +61,9 @@ public class Validate implements java.io.Serializable {
   private boolean showlba = false;
 
   private int patt_mb = 1; /* Initial default. Probably should change */
+  private int hdfs_payload_mb = 1; /* Per-thread HDFS write payload size */
+  private boolean nio_backend = false; /* io_backend=nio: use NioIo, not JNI */
+  private int waiters = 1; /* Number of WT_task threads per slave */
 
   public static int FLAG_VALIDATE = 0x0001;
   public static int FLAG_DEDUP = 0x0002;
@@ -80,6 +84,8 @@ public class Validate implements java.io.Serializable {
 
   public static String REMOVE_DEVICE_OPTION = "remove_device";
 
+  public static int MAX_HDFS_PAYLOAD_MB = 1024;
+
   private static Validate options = new Validate();
 
   /**
@@ -215,6 +221,17 @@ public class Validate implements java.io.Serializable {
     return options.validate_nopreread;
   }
 
+  /**
+   * 'validate=nibble': half the DV map memory, but only keys 1-13.
+   */
+  public static void setNibbleMap() {
+    options.validate_nibble = true;
+  }
+
+  public static boolean isNibbleMap() {
+    return options.validate_nibble;
+  }
+
   public static void setStoreTime() {
     options.validate_time = true;
   }
@@ -356,6 +373,43 @@ public class Validate implements java.io.Serializable {
     return options.patt_mb;
   }
 
+  /**
+   * The payload is one java byte array per FwgThread, so it must stay well
+   * below 2GB.
+   */
+  public static void setHdfsPayloadMB(long mb) {
+    if (mb <= 0 || mb > MAX_HDFS_PAYLOAD_MB)
+      common.failure("Invalid 'hdfs_payload=%d' size, must be 1-%d MB. ", mb, MAX_HDFS_PAYLOAD_MB);
+    options.hdfs_payload_mb = (int) mb;
+  }
+
+  public static int getHdfsPayloadMB() {
+    return options.hdfs_payload_mb;
+  }
+
+  public static void setIoBackend(String backend) {
+    if (backend.equalsIgnoreCase("nio"))
+      options.nio_backend = true;
+    else if (backend.equalsIgnoreCase("jni"))
+      options.nio_backend = false;
+    else
+      common.failure("Invalid 'io_backend=%s', only 'jni' or 'nio' allowed", backend);
+  }
+
+  public static boolean isNioBackend() {
+    return options.nio_backend;
+  }
+
+  public static void setWaiters(int count) {
+    if (count <= 0)
+      common.failure("Invalid 'waiters=%d', must be at least one", count);
+    options.waiters = count;
+  }
+
+  public static int getWaiters() {
+    return options.waiters;
+  }
+
   /**
    * Parse the parameter file's journal options. Journal implies validate=yes
    */
@@ -436,6 +490,9 @@ public class Validate implements java.io.Serializable {
       else if ("no_preread".startsWith(parm))
         Validate.setNoPreRead();
 
+      else if ("nibble".startsWith(parm))
+        Validate.setNibbleMap();
+
       else if ("time".compareTo(parm) == 0)
         Validate.setStoreTime();
 
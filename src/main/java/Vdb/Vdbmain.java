@@ -772,6 +772,14 @@ public class Vdbmain {
     if (Validate.sdConcatenation())
       ConcatMarkers.writeMarkers();
 
+    /* JNI keeps the raw i/o statistics, so NioIo can only do file i/o: */
+    if (Validate.isNioBackend()) {
+      if (isWdWorkload())
+        common.failure("'io_backend=nio' is only supported for file system workloads");
+      if (Dedup.isDedup())
+        common.failure("'io_backend=nio' does not support dedup");
+    }
+
     /* Now get info from the hosts, things like 'does lun exist' etc: */
     InfoFromHost.askHostsForStuff();
 
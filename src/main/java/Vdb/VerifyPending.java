@@ -137,7 +137,7 @@ public class VerifyPending {
 
     int lba_index = 0;
     int file_index = 0;
-    Vector files = anchor.getFileList();
+    FileList files = anchor.getFileList();
 
     /* Scan through all files, looking for matching lbas: */
     for (file_index = 0; file_index < files.size() && lba_index < before_map.pending_write_lbas.length; file_index++) {
@@ -665,7 +665,7 @@ public class WG_entry implements Serializable, Cloneable, Comparable {
       /* kind of seed could end up to equal seeds on one or more hosts if */
       /* the tod ends up being equal for those hosts! */
       if (!wg.fixed_seed)
-        seed = Native.get_simple_tod() * wg.ts_offset;
+        seed = Native.getSimpleTod() * wg.ts_offset;
       else
         seed = wg.ts_offset;
       wg.seek_randomizer = new Random(seed); // set seed
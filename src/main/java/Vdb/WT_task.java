@@ -12,17 +12,33 @@ import java.util.*;
 
 /**
  * This task waits for the correct time of day and sends i/o to proper IO_task
+ *
+ * With 'waiters=n' there are up to 'n' of these tasks, each one owning the
+ * WG_entry fifos of its own set of SDs. All fifos targeting the same SD always
+ * go to the same waiter, so the priority scheme, which looks at one SD's
+ * IO_task fifo at a time, still works.
  */
 public class WT_task extends Thread {
   private final static String c = "Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.";
 
-  private static ArrayList<WG_entry> wgs_to_scan;
+  private ArrayList<WG_entry> my_wgs; /* All WG_entries for this waiter */
+  private ArrayList<WG_entry> wgs_to_scan;
   private Task_num tn;
+  private int waiter_number;
 
   private static int priorities;
-  private static long rr_index = 0; /* Round robin index for getLowest() search */
+  private long rr_index = 0; /* Round robin index for getLowest() search */
 
-  private static ThreadMonitor tmonitor = null;
+  private ThreadMonitor tmonitor = null;
+
+  /* Lateness: how far behind the requested start time an i/o was sent. */
+  private long late_total = 0; /* In microseconds */
+  private long late_max = 0;
+  private long late_count = 0;
+  private final static long LATE_USECS = 1000;
+
+  private static ArrayList<WT_task> waiters = new ArrayList(8);
+  private static boolean first_tod_set = false;
 
   private final static boolean spin = common.get_debug(common.SPIN);
 
@@ -38,12 +54,75 @@ public class WT_task extends Thread {
   /**
    * Setup of Waiter task
    */
-  WT_task(Task_num tn_in) {
+  WT_task(Task_num tn_in, int number, ArrayList<WG_entry> wgs) {
     priorities = FifoList.countPriorities(SlaveWorker.work.wgs_for_slave);
     tn = tn_in;
     tn.task_set_start_pending();
     sd_concatenation = Validate.sdConcatenation();
-    setName("WT_task");
+    waiter_number = number;
+    my_wgs = wgs;
+    setName("WT_task " + number);
+  }
+
+  /**
+   * Start the Waiter task(s).
+   *
+   * The WG_entries are grouped by the SD they use, and each group goes to the
+   * waiter that has the fewest WG_entries so far. With SD concatenation the
+   * target SD is only known per i/o, so there is only one waiter.
+   */
+  public static void startWaiters(ArrayList<WG_entry> wgs_for_slave) {
+    LinkedHashMap<SD_entry, ArrayList<WG_entry>> sd_map = new LinkedHashMap(64);
+    for (WG_entry wg : wgs_for_slave) {
+      ArrayList<WG_entry> list = sd_map.get(wg.sd_used);
+      if (list == null)
+        sd_map.put(wg.sd_used, list = new ArrayList(8));
+      list.add(wg);
+    }
+
+    int count = Math.max(1, Math.min(Validate.getWaiters(), sd_map.size()));
+    if (Validate.sdConcatenation() && count > 1) {
+      common.plog("'waiters=%d' ignored, using one waiter because of SD concatenation", Validate.getWaiters());
+      count = 1;
+    }
+
+    ArrayList<ArrayList<WG_entry>> shards = new ArrayList(count);
+    for (int i = 0; i < count; i++)
+      shards.add(new ArrayList(wgs_for_slave.size() / count + 1));
+
+    for (ArrayList<WG_entry> list : sd_map.values()) {
+      ArrayList<WG_entry> smallest = shards.get(0);
+      for (ArrayList<WG_entry> shard : shards) {
+        if (shard.size() < smallest.size())
+          smallest = shard;
+      }
+      smallest.addAll(list);
+    }
+
+    synchronized (waiters) {
+      waiters.clear();
+      first_tod_set = false;
+      for (int i = 0; i < count; i++)
+        waiters.add(new WT_task(new Task_num("WT_task " + i), i, shards.get(i)));
+    }
+
+    if (count > 1)
+      common.plog("Started %d waiter tasks for %d WG_entries", count, wgs_for_slave.size());
+
+    for (WT_task waiter : waiters)
+      waiter.start();
+  }
+
+  /**
+   * All waiters must use the same base time. The first one ready sets it.
+   */
+  private static void setFirstTod(long tod) {
+    synchronized (waiters) {
+      if (!first_tod_set) {
+        SlaveWorker.first_tod = tod;
+        first_tod_set = true;
+      }
+    }
   }
 
   /**
@@ -59,17 +138,18 @@ public class WT_task extends Thread {
    * With a FIFO list size of 1000 it means that ONE SD is already 1000 i/o's
    * behind, so we are already in an overload situation. If you make the FIFO
    * lists too short however you can create problems too early.
+   * With 'waiters=n' only the waiter owning that SD comes to a halt.
    *
    */
   public void run() {
     Cmd_entry lowcmd = null;
-    wgs_to_scan = new ArrayList(SlaveWorker.work.wgs_for_slave);
+    wgs_to_scan = new ArrayList(my_wgs);
     sorted_list.clear();
 
     Thread.currentThread().setPriority(Thread.MAX_PRIORITY - 1);
 
     try {
-      tmonitor = new ThreadMonitor("WT_task", null, null);
+      tmonitor = new ThreadMonitor("WT_task", "" + waiter_number, null);
       tn.task_set_start_complete();
       tn.waitForMasterGo();
 
@@ -85,9 +165,9 @@ public class WT_task extends Thread {
 
       // common.plog("Starting WT_task");
 
-      buildFifoSearchList();
-      long tod = Native.get_simple_tod();
-      SlaveWorker.first_tod = tod;
+      buildSearchList();
+      long tod = Native.getSimpleTod();
+      setFirstTod(tod);
 
       long tsleep = 0;
 
@@ -108,7 +188,7 @@ public class WT_task extends Thread {
           /* This trick saves a get_tod if we are way too late already! */
           if (tod >= next_tod)
             break;
-          tod = Native.get_simple_tod();
+          tod = Native.getSimpleTod();
           if (tod >= next_tod)
             break;
 
@@ -140,6 +220,15 @@ public class WT_task extends Thread {
           }
         }
 
+        /* Keep track of how late we are: */
+        long late = tod - next_tod;
+        if (late > LATE_USECS) {
+          late_total += late;
+          late_count++;
+          late_max = Math.max(late_max, late);
+          tmonitor.add3();
+        }
+
         // If this pipe is full, all of WT waits! See getLowest()
         /* Send to fifo: */
         try {
@@ -200,7 +289,12 @@ public class WT_task extends Thread {
       // if (passes > 0)
       // common.ptod("average: " + (attempts/passes));
 
-      common.plog("Ended WT_task");
+      if (late_count > 0)
+        common.plog("Ended WT_task %d. %d i/o's started more than %d usecs late; "
+            + "average: %d usecs, maximum: %d usecs", waiter_number, late_count, LATE_USECS,
+            late_total / late_count, late_max);
+      else
+        common.plog("Ended WT_task %d", waiter_number);
 
       // Fifo.printStatuses();
 
@@ -217,19 +311,19 @@ public class WT_task extends Thread {
    * GetLowest needs to run synchronized to allow buildFifoSearchList() to be run
    * from User.WorkloadInfo without breaking the scan of wgs_to_scan.
    */
-  static long passes = 0;
-  static long attempts = 0;
-  private static ArrayList sorted_list = new ArrayList(1024);
-  private static int index = 0;
+  private long passes = 0;
+  private long attempts = 0;
+  private ArrayList sorted_list = new ArrayList(1024);
+  private int index = 0;
 
-  private synchronized static Cmd_entry getLowest(long tod) {
+  private synchronized Cmd_entry getLowest(long tod) {
     if (!list_sort)
       return getLowestOne(tod);
     else
       return getLowestList(tod);
   }
 
-  private synchronized static Cmd_entry getLowestOne(long tod) {
+  private synchronized Cmd_entry getLowestOne(long tod) {
     passes++;
     WG_entry lowwg = null;
 
@@ -342,7 +436,7 @@ public class WT_task extends Thread {
    *
    *
    */
-  private synchronized static Cmd_entry getLowestList(long tod) {
+  private synchronized Cmd_entry getLowestList(long tod) {
     WG_entry lowwg = null;
 
     /* If we have no WG_entries to scan anymore we're all done: */
@@ -446,9 +540,18 @@ public class WT_task extends Thread {
    * This is done so that in the User API users can temporarily not send any
    * commands to the fifo and then later on change their mind and start using it.
    */
-  public synchronized static void buildFifoSearchList() {
+  public static void buildFifoSearchList() {
+    ArrayList<WT_task> list;
+    synchronized (waiters) {
+      list = new ArrayList(waiters);
+    }
+    for (WT_task waiter : list)
+      waiter.buildSearchList();
+  }
+
+  private synchronized void buildSearchList() {
     Signal signal = new Signal(1);
-    ArrayList<WG_entry> all_wgs = SlaveWorker.work.wgs_for_slave;
+    ArrayList<WG_entry> all_wgs = my_wgs;
     ArrayList use_wgs = new ArrayList(all_wgs.size());
 
     while (true) {
@@ -472,7 +575,8 @@ public class WT_task extends Thread {
         break;
 
       if (signal.go())
-        common.ptod("WT_task.buildFifoSearchList(): waiting for work from at " + "least one workload generator thread");
+        common.ptod("WT_task.buildFifoSearchList(): waiter %d waiting for work from at "
+            + "least one workload generator thread", waiter_number);
       common.sleep_some(100);
     }
 
@@ -485,12 +589,12 @@ public class WT_task extends Thread {
 
     while (!signal.go()) {
       int actives = 0;
-      for (WG_entry wg : SlaveWorker.work.wgs_for_slave) {
+      for (WG_entry wg : my_wgs) {
         if (wg.fifo_to_wait.getQueueDepth() > 0)
           actives++;
       }
 
-      if (actives >= SlaveWorker.work.wgs_for_slave.size()) {
+      if (actives >= my_wgs.size()) {
         double end = System.currentTimeMillis();
         common.ptod("waitForAllFifosActive: %.2f seconds ", (end - start) / 1000.);
         return;
@@ -499,7 +603,7 @@ public class WT_task extends Thread {
       common.sleep_some(10);
     }
 
-    for (WG_entry wg : SlaveWorker.work.wgs_for_slave) {
+    for (WG_entry wg : my_wgs) {
       // if (wg.fifo_to_wait.getQueueDepth() == 0)
       common.ptod(
           "waitForAllFifosActive: waiting for " + wg.fifo_to_wait.getLabel() + " " + (wg.fifo_to_wait.getQueueDepth()));
@@ -0,0 +1,243 @@
+package Vdb;
+
+import java.io.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Binary framing of SocketMessage instances between master and slave.
+ *
+ * Each message is one frame:
+ *
+ * <pre>
+ * int     magic and protocol version
+ * int     message number
+ * int     sequence number
+ * long    send time
+ * long    quick info
+ * byte    payload type
+ * int     payload length on the wire
+ * int     payload length uncompressed (only for compressed payloads)
+ * byte[]  payload
+ * </pre>
+ *
+ * The hot messages need no java serialization at all: heartbeats have no
+ * payload, console messages are UTF-8 text and the statistics request is a
+ * long[]. SlaveStats, sent by every slave every interval, writes itself field
+ * by field through writeWire(), with all counters as variable length longs,
+ * which for interval deltas mostly are one or two bytes each. Everything else
+ * is serialized with ObjectOutputStream, just as it was before.
+ *
+ * Larger payloads are compressed with Deflater.BEST_SPEED instead of GZIP.
+ */
+class WireFormat {
+  /* 'VDB' plus the protocol version. Change the version with every change: */
+  static final int MAGIC = 0x56444202;
+
+  static final byte NONE = 0;
+  static final byte TEXT = 1;
+  static final byte LONGS = 2;
+  static final byte OBJECT = 3;
+  static final byte STATS = 4;
+  static final byte COMPRESSED = 0x40; /* Or'ed with one of the above */
+
+  private static final int COMPRESS_MINIMUM = 512;
+
+  private Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+  private Inflater inflater = new Inflater();
+
+  /* Sizes of the last message read, for REPORT_MESSAGE_SIZE: */
+  int last_raw_size;
+  int last_wire_size;
+
+  /**
+   * Write one message. The caller makes sure only one thread writes at a time.
+   */
+  void writeMessage(DataOutputStream out, SocketMessage sm, boolean compress) throws IOException {
+    byte type;
+    byte[] payload;
+    Object data = sm.getData();
+
+    if (data == null) {
+      type = NONE;
+      payload = new byte[0];
+    } else if (data instanceof String) {
+      type = TEXT;
+      payload = ((String) data).getBytes("UTF-8");
+    } else if (data instanceof long[]) {
+      type = LONGS;
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      DataOutputStream dos = new DataOutputStream(bos);
+      long[] longs = (long[]) data;
+      writeVarLong(dos, longs.length);
+      for (int i = 0; i < longs.length; i++)
+        writeVarLong(dos, longs[i]);
+      dos.flush();
+      payload = bos.toByteArray();
+    } else if (data instanceof SlaveStats) {
+      type = STATS;
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      DataOutputStream dos = new DataOutputStream(bos);
+      ((SlaveStats) data).writeWire(dos);
+      dos.flush();
+      payload = bos.toByteArray();
+    } else {
+      type = OBJECT;
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      ObjectOutputStream oos = new ObjectOutputStream(bos);
+      oos.writeObject(data);
+      oos.flush();
+      payload = bos.toByteArray();
+    }
+
+    int raw_length = payload.length;
+    if (compress && raw_length >= COMPRESS_MINIMUM) {
+      payload = deflate(payload);
+      type |= COMPRESSED;
+    }
+
+    out.writeInt(MAGIC);
+    out.writeInt(sm.getMessageNum());
+    out.writeInt(sm.getSeqno());
+    out.writeLong(sm.send_time);
+    out.writeLong(sm.getInfo());
+    out.writeByte(type);
+    out.writeInt(payload.length);
+    if ((type & COMPRESSED) != 0)
+      out.writeInt(raw_length);
+    out.write(payload);
+    out.flush();
+  }
+
+  /**
+   * Read one message. Only one thread reads from a socket.
+   */
+  SocketMessage readMessage(DataInputStream in) throws IOException, ClassNotFoundException {
+    int magic = in.readInt();
+    if (magic != MAGIC)
+      common.failure("Invalid socket message header: %08x; expected %08x. "
+          + "Are master and slave running the same Vdbench version?", magic, MAGIC);
+
+    SocketMessage sm = new SocketMessage(in.readInt());
+    sm.setSeqno(in.readInt());
+    sm.send_time = in.readLong();
+    sm.setInfo(in.readLong());
+
+    byte type = in.readByte();
+    int length = in.readInt();
+    int raw_length = ((type & COMPRESSED) != 0) ? in.readInt() : length;
+    byte[] payload = new byte[length];
+    in.readFully(payload);
+
+    last_wire_size = length;
+    last_raw_size = raw_length;
+
+    if ((type & COMPRESSED) != 0)
+      payload = inflate(payload, raw_length);
+
+    switch (type & ~COMPRESSED) {
+    case NONE:
+      break;
+
+    case TEXT:
+      sm.setData(new String(payload, "UTF-8"));
+      break;
+
+    case LONGS:
+      DataInputStream dis = new DataInputStream(new ByteArrayInputStream(payload));
+      long[] longs = new long[(int) readVarLong(dis)];
+      for (int i = 0; i < longs.length; i++)
+        longs[i] = readVarLong(dis);
+      sm.setData(longs);
+      break;
+
+    case STATS:
+      sm.setData(SlaveStats.readWire(new DataInputStream(new ByteArrayInputStream(payload))));
+      break;
+
+    case OBJECT:
+      ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(payload));
+      sm.setData(ois.readObject());
+      break;
+
+    default:
+      common.failure("Invalid socket message payload type: %d", type);
+    }
+
+    return sm;
+  }
+
+  private byte[] deflate(byte[] input) {
+    deflater.reset();
+    deflater.setInput(input);
+    deflater.finish();
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream(input.length / 2 + 64);
+    byte[] buffer = new byte[8192];
+    while (!deflater.finished()) {
+      int bytes = deflater.deflate(buffer);
+      bos.write(buffer, 0, bytes);
+    }
+    return bos.toByteArray();
+  }
+
+  private byte[] inflate(byte[] input, int raw_length) throws IOException {
+    inflater.reset();
+    inflater.setInput(input);
+
+    byte[] output = new byte[raw_length];
+    try {
+      int done = 0;
+      while (done < raw_length && !inflater.finished()) {
+        int bytes = inflater.inflate(output, done, raw_length - done);
+        if (bytes == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+          throw new IOException("Socket message inflate: input ended after " + done + " of " + raw_length + " bytes");
+        done += bytes;
+      }
+      if (done != raw_length)
+        throw new IOException("Socket message inflate: expected " + raw_length + " bytes, received " + done);
+    } catch (DataFormatException e) {
+      throw new IOException(e);
+    }
+
+    return output;
+  }
+
+  /**
+   * Zigzag encoded variable length long: seven bits per byte, small positive
+   * and negative values only use one byte.
+   */
+  static void writeVarLong(DataOutput out, long value) throws IOException {
+    long zz = (value << 1) ^ (value >> 63);
+    while ((zz & ~0x7fL) != 0) {
+      out.writeByte((int) ((zz & 0x7f) | 0x80));
+      zz >>>= 7;
+    }
+    out.writeByte((int) zz);
+  }
+
+  static long readVarLong(DataInput in) throws IOException {
+    long zz = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int b = in.readByte();
+      zz |= (long) (b & 0x7f) << shift;
+      if ((b & 0x80) == 0)
+        return (zz >>> 1) ^ -(zz & 1);
+    }
+    throw new IOException("Invalid variable length long");
+  }
+
+  /**
+   * A String that may be null.
+   */
+  static void writeString(DataOutput out, String value) throws IOException {
+    out.writeBoolean(value != null);
+    if (value != null)
+      out.writeUTF(value);
+  }
+
+  static String readString(DataInput in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+}
@@ -592,7 +592,7 @@ public class common {
     synchronized (locked_df) {
       String ret = locked_df.format(new Date());
       if (more_detail) {
-        long simple = Native.get_simple_tod();
+        long simple = Native.getSimpleTod();
         long day = simple % (24 * 3600000000l); // 86.400.000.000
         long hour = day / 3600000000l;
         long min = day / 60000000l % 60;
@@ -660,7 +660,7 @@ public class common {
    * elapsed since the first call.
    */
   public static long signal_caller(long base, long msecs) {
-    long tod = Native.get_simple_tod();
+    long tod = Native.getSimpleTod();
 
     /* First call, just set base tod: */
     if (base == 0)
@@ -806,10 +806,18 @@ public class common {
   }
 
   static boolean running64Bit() {
-    common.get_shared_lib();
+    getSharedLibName();
     return arch_64_bit;
   }
 
+  /**
+   * Is the JNI module for this platform installed? Only 'io_backend=nio' can
+   * run without it.
+   */
+  static boolean sharedLibExists() {
+    return new File(ClassPath.classPath() + getSharedLibName()).exists();
+  }
+
   /**
    * Tell Java where he can find the JNI modules
    */
@@ -818,6 +826,55 @@ public class common {
       return shared_library_dir;
 
     String shared_library = null;
+    String classpath = ClassPath.classPath();
+    String dir = getSharedLibName();
+
+    File full = new File(classpath + dir);
+    try {
+      shared_library = full.getCanonicalPath();
+      shared_library_dir = full.getParent() + File.separator;
+      // common.ptod("Setting shared library to: " + shared_library);
+
+      /* This is here to deal with VirtualBox not supporting memory mapping: */
+      /* (Apparently only for shared library loading though. DV mmap is fine) */
+      if (get_debug(USE_TMP_SHARED_LIBRARY)) {
+        String temp = Utils.CopyFile.copyToTemp(shared_library);
+        // common.plog("1Setting shared library to: " + temp);
+        System.load(temp);
+      } else {
+        // common.plog("2Setting shared library to: " + shared_library);
+        System.load(shared_library);
+      }
+
+    }
+
+    catch (Throwable t) {
+      synchronized (ptod_lock) {
+        if (!full.exists()) {
+          common.ptod("");
+          common.ptod("File " + shared_library + " does not exist.");
+          common.ptod("This may be an OS that a shared library currently ");
+          common.ptod("is not available for. You may have to do your own compile.");
+        }
+        common.ptod("t: " + t);
+
+        common.ptod("");
+        common.ptod("Loading of shared library " + shared_library + " failed.");
+        common.ptod("There may be issues related to a cpu type not being ");
+        common.ptod("acceptable to Vdbench, e.g. MAC PPC vs. X86");
+        common.ptod("Contact me at the Oracle Vdbench Forum for support.");
+        common.ptod("");
+        common.failure("Failure loading shared library");
+      }
+    }
+
+    return shared_library_dir;
+  }
+
+  /**
+   * The JNI module for this platform, relative to the Vdbench install directory.
+   */
+  private static String getSharedLibName() {
     String sep = System.getProperty("file.separator");
     String bits = System.getProperty("sun.arch.data.model");
     String arch = System.getProperty("os.arch");
@@ -935,46 +992,7 @@ public class common {
       common.failure("Undefined support requested for platform: " + System.getProperty("os.arch")
           + "; contact me at the Oracle Vdbench Forum for support");
 
-    File full = new File(classpath + dir);
-    try {
-      shared_library = full.getCanonicalPath();
-      shared_library_dir = full.getParent() + File.separator;
-      // common.ptod("Setting shared library to: " + shared_library);
-
-      /* This is here to deal with VirtualBox not supporting memory mapping: */
-      /* (Apparently only for shared library loading though. DV mmap is fine) */
-      if (get_debug(USE_TMP_SHARED_LIBRARY)) {
-        String temp = Utils.CopyFile.copyToTemp(shared_library);
-        // common.plog("1Setting shared library to: " + temp);
-        System.load(temp);
-      } else {
-        // common.plog("2Setting shared library to: " + shared_library);
-        System.load(shared_library);
-      }
-
-    }
-
-    catch (Throwable t) {
-      synchronized (ptod_lock) {
-        if (!full.exists()) {
-          common.ptod("");
-          common.ptod("File " + shared_library + " does not exist.");
-          common.ptod("This may be an OS that a shared library currently ");
-          common.ptod("is not available for. You may have to do your own compile.");
-        }
-        common.ptod("t: " + t);
-
-        common.ptod("");
-        common.ptod("Loading of shared library " + shared_library + " failed.");
-        common.ptod("There may be issues related to a cpu type not being ");
-        common.ptod("acceptable to Vdbench, e.g. MAC PPC vs. X86");
-        common.ptod("Contact me at the Oracle Vdbench Forum for support.");
-        common.ptod("");
-        common.failure("Failure loading shared library");
-      }
-    }
-
-    return shared_library_dir;
+    return dir;
   }
 
   /**
@@ -1090,7 +1108,7 @@ public class common {
     if (Fget.file_exists(dir, script))
       return new File(dir, script).getAbsolutePath();
 
-    String sl = get_shared_lib();
+    String sl = new File(cp + getSharedLibName()).getParent() + File.separator;
     if (Fget.file_exists(sl, script))
       return new File(sl, script).getAbsolutePath();
 
@@ -1372,36 +1390,15 @@ public class common {
   /**
    * sizeof
    *
-   * Minimum 8 bytes for any even empty instance.
+   * File status lives in the FileEntryStore columns; a FileEntry is only a
+   * temporary view. Measure the heap bytes per file of the store instead.
    **/
   public static void sizeof(String args[]) throws Exception {
     int loops = 1000000;
     if (args.length > 0)
       loops = Integer.parseInt(args[0]);
-    Object[] sink = new Object[loops];
-
-    /* Make sure we have no old garbage: */
-    System.gc();
-    System.gc();
-    double used_at_start = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
-
-    for (int i = 0; i < loops; i++) {
-      sink[i] = new FileEntry();
-    }
-
-    System.gc();
-    System.gc();
-    double used_at_end = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
-
-    common.ptod("used_at_start: " + used_at_start / 1048576.);
-    common.ptod("used_at_end:   " + used_at_end / 1048576.);
-    common.ptod("used_at_end:   " + (used_at_end - used_at_start));
-    common.ptod("estimated size per instance: " + (int) ((used_at_end - used_at_start) / loops));
 
-    /* This code is here to assure that GC can not clean up the sink array yet: */
-    long dummy = 0;
-    for (int i = 0; i < loops; i++)
-      dummy += sink[i].hashCode();
+    SizeOf.fileEntrySize(loops);
   }
 
   /**
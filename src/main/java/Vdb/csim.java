@@ -9,8 +9,13 @@ package Vdb;
  */
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
-import java.util.zip.GZIPOutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
 
 import Utils.Getopt;
 
@@ -40,22 +45,33 @@ public class csim {
 
   private static ArrayList<CsimEntry> file_list = new ArrayList(1024);
 
+  /* Codecs to evaluate, e.g. 'gzip1,gzip6,lz4'. Default: gzip at '-l': */
+  private static String[] codecs = null;
+  private static boolean show_codecs = false;
+  private static int threads = Math.min(8, Runtime.getRuntime().availableProcessors());
+
+  /* One set of codecs per worker, reused for every extent: */
+  private static CsimCodec[][] worker_coders = null;
+
   private static String level_splitter = (common.onWindows()) ? "\\+" : "/+";
 
   private static Random randomizer = new Random(0); // maybe create seed?
   private static int max_fname_length = 0;
 
   public static void main(String[] args) {
-    Getopt g = new Getopt(args, "l:p:u:d:r:s:", 10000);
+    Getopt g = new Getopt(args, "l:p:u:d:r:s:c:t:", 10000);
     // g.print("csim");
 
     if (!g.isOK() || g.get_positionals().size() == 0) {
-      common.ptod("Usage: ./vdbench csim [-l nnn] [-p nnn] [-x nnn] [-s nnn] disk1, disk2, file1, file2, .....");
+      common.ptod(
+          "Usage: ./vdbench csim [-l nnn] [-p nnn] [-x nnn] [-s nnn] [-c codecs] [-t nn] disk1, disk2, file1, file2, .....");
       common.ptod("Where: ");
       common.ptod("     -l nnn: gzip compression level to use, default 1");
       common.ptod("     -p nnn: which percentage of data to read, default 0.1%");
       common.ptod("     -s nnn: subset percentage. e.g. -s10 reports compression for each 10% of the volume");
       common.ptod("     -u nnn: transfer size unit in bytes for blocks to be read and compressed. Default 128k");
+      common.ptod("     -c xxx: comma separated codecs to compare: gzip1-gzip9, deflate1-deflate9, lz4");
+      common.ptod("     -t nnn: threads reading and compressing, default %d", threads);
       common.ptod("     disk1, file1, ...: up to 10000 disk or file names or windows drive letters (c)");
 
       common.failure("parameter error");
@@ -72,6 +88,19 @@ public class csim {
     if (g.check('u'))
       xfersize = g.extractInt();
 
+    if (g.check('c')) {
+      codecs = g.get_string().split(",");
+      show_codecs = true;
+    } else
+      codecs = new String[] { "gzip" + level };
+
+    /* Fail now for bad codec names: */
+    for (String codec : codecs)
+      new CsimCodec(codec, xfersize).end();
+
+    if (g.check('t'))
+      threads = Math.max(1, (int) g.get_long());
+
     /* Find all the files: */
     file_line_length = 29;
     createFileList(g);
@@ -83,6 +112,8 @@ public class csim {
   }
 
   private static void doFiles() {
+    worker_coders = new CsimCodec[threads][];
+
     /* Go through each file/volume: */
     for (int i = 0; i < file_list.size(); i++) {
       CsimEntry ce = file_list.get(i);
@@ -105,15 +136,35 @@ public class csim {
 
       printit(String.format("%s", ce.fname), ce.main_extent);
     }
+
+    /* Deflater memory is native, give it back: */
+    for (CsimCodec[] coders : worker_coders) {
+      if (coders != null) {
+        for (CsimCodec coder : coders)
+          coder.end();
+      }
+    }
   }
 
   private static void printit(String title, CsimExtent extent) {
-    double cpct = (extent.bytes_out * 100. / extent.bytes_in);
-    double ratio = ((double) extent.bytes_in / extent.bytes_out);
     String mask = "%-" + max_fname_length + "s";
 
-    common.ptod(mask + " size: %6s samples: %5d in: %6s out: %6s pct: %5.1f compratio: %7.2f:1", title,
-        whatSize(extent.size), extent.blocks_read, whatSize(extent.bytes_in), whatSize(extent.bytes_out), cpct, ratio);
+    for (int i = 0; i < codecs.length; i++) {
+      long bytes_out = extent.codec_out[i];
+      double cpct = (bytes_out * 100. / extent.bytes_in);
+      double ratio = ((double) extent.bytes_in / bytes_out);
+
+      String txt = String.format(mask + " size: %6s samples: %5d in: %6s out: %6s pct: %5.1f compratio: %7.2f:1",
+          title, whatSize(extent.size), extent.blocks_read, whatSize(extent.bytes_in), whatSize(bytes_out), cpct,
+          ratio);
+
+      /* MB/sec is for one thread, the speed of one cpu: */
+      if (show_codecs) {
+        double secs = extent.codec_nanos[i] / 1000000000.;
+        txt += String.format(" codec: %-8s %8.1f MB/sec", codecs[i], (secs == 0) ? 0 : extent.bytes_in / secs / MB);
+      }
+      common.ptod(txt);
+    }
   }
 
   /**
@@ -296,7 +347,7 @@ public class csim {
     // ce.fname = common.replace(fname, "\\.\\", "\\");
 
     /* By default the only extent in the ArrayList is the main extent: */
-    ce.main_extent = new CsimExtent(0, size, 0);
+    ce.main_extent = new CsimExtent(0, size, 0, codecs.length);
     ce.extents.add(ce.main_extent);
 
     /* If we ask for subsets, create all new extents: */
@@ -307,7 +358,7 @@ public class csim {
       for (int i = 0; i < count; i++) {
         long offset = i * ext_size;
         offset -= offset % xfersize;
-        ce.extents.add(new CsimExtent(offset, ext_size, i + 1));
+        ce.extents.add(new CsimExtent(offset, ext_size, i + 1, codecs.length));
       }
     }
 
@@ -332,44 +383,98 @@ public class csim {
   }
 
   /**
-   * Read the samples
+   * Read the samples. Each thread reads the next block from the list and
+   * compresses it with each of the codecs.
+   */
+  private static void readExtent(final Long[] blocks, final CsimEntry ce, final CsimExtent extent) {
+    final AtomicInteger next = new AtomicInteger(0);
+
+    Thread[] workers = new Thread[Math.min(threads, Math.max(1, blocks.length))];
+    for (int t = 0; t < workers.length; t++) {
+      final int worker = t;
+      workers[t] = new Thread("csim " + t) {
+        public void run() {
+          try {
+            readBlocks(getCoders(worker), blocks, next, ce, extent);
+          } catch (Throwable t) {
+            common.abnormal_term(t);
+          }
+        }
+      };
+      workers[t].start();
+    }
+
+    for (Thread worker : workers) {
+      try {
+        worker.join();
+      } catch (InterruptedException e) {
+        common.failure(e);
+      }
+    }
+  }
+
+  /**
+   * The codecs of one worker. Workers of the previous extent have all been
+   * joined, so worker 'n' of this extent can have them.
    */
-  private static void readExtent(Long[] blocks, CsimEntry ce, CsimExtent extent) {
+  private static CsimCodec[] getCoders(int worker) {
+    synchronized (worker_coders) {
+      if (worker_coders[worker] == null) {
+        CsimCodec[] coders = new CsimCodec[codecs.length];
+        for (int i = 0; i < codecs.length; i++)
+          coders[i] = new CsimCodec(codecs[i], xfersize);
+        worker_coders[worker] = coders;
+      }
+      return worker_coders[worker];
+    }
+  }
+
+  private static void readBlocks(CsimCodec[] coders, Long[] blocks, AtomicInteger next, CsimEntry ce,
+      CsimExtent extent) {
     byte[] input_buffer = new byte[xfersize];
+
+    long[] out = new long[codecs.length];
+    long[] nanos = new long[codecs.length];
     long lba = 0;
 
     try {
-      raf = new RandomAccessFile(ce.fname, "r");
+      FileChannel channel = FileChannel.open(Paths.get(ce.fname), StandardOpenOption.READ);
 
       /* We read each requested block within this file. */
-      for (int i = 0; i < blocks.length; i++) {
-        lba = blocks[i] + extent.start_lba;
+      int index;
+      while ((index = next.getAndIncrement()) < blocks.length) {
+        lba = blocks[index] + extent.start_lba;
 
         /* Read this piece of the file that we need: */
-        raf.seek(lba);
-        int bytes = raf.read(input_buffer, 0, xfersize);
+        ByteBuffer bb = ByteBuffer.wrap(input_buffer);
+        int bytes = 0;
+        while (bb.hasRemaining()) {
+          int got = channel.read(bb, lba + bb.position());
+          if (got < 0)
+            break;
+          bytes += got;
+        }
 
-        if (bytes < 0) {
+        if (bytes <= 0) {
           common.ptod("ce: " + ce);
           common.failure("problem reading file");
         }
 
-        long out = compressBuffer(input_buffer);
-        extent.bytes_in += bytes;
-        extent.bytes_out += out;
-        extent.blocks_read++;
-
-        if (ce.extents.size() > 1) {
-          ce.main_extent.bytes_in += bytes;
-          ce.main_extent.bytes_out += out;
-          ce.main_extent.blocks_read++;
+        for (int i = 0; i < coders.length; i++) {
+          long start = System.nanoTime();
+          out[i] = coders[i].compress(input_buffer, xfersize);
+          nanos[i] = System.nanoTime() - start;
         }
 
+        extent.add(bytes, out, nanos);
+        if (ce.extents.size() > 1)
+          ce.main_extent.add(bytes, out, nanos);
+
         // common.ptod("Just read: %-12s lba: %12d, read: %6d out: %6d", ce.fname, lba,
         // bytes, out);
       }
 
-      raf.close();
+      channel.close();
     }
 
     catch (IOException ex) {
@@ -378,39 +483,6 @@ public class csim {
       common.ptod("lba:            %12d %16x  ", lba, lba);
       // e.printStackTrace();
     }
-
-    catch (Exception ex) {
-      common.ptod("");
-      common.failure(ex);
-    }
-  }
-
-  private static int compressBuffer(byte[] buffer) {
-    try {
-      ByteArrayOutputStream byteout = new ByteArrayOutputStream(xfersize);
-      BufferedOutputStream bostream = new BufferedOutputStream(byteout);
-      DataOutputStream out_stream = new DataOutputStream(bostream);
-      GZIPOutputStream zip_out_stream;
-      zip_out_stream = new GZIPOutputStream(out_stream, (int) xfersize) {
-        {
-          def.setLevel(level);
-        }
-      };
-
-      zip_out_stream.write(buffer, 0, xfersize);
-      zip_out_stream.close();
-
-      /* We take the zip results and accumulate them. */
-      /* We round upwards to 512, maybe will have to be 8k or larger. */
-      int bytes_out = byteout.size();
-
-      // common.ptod("bytes_out: " + bytes_out);
-      return bytes_out;
-    } catch (Exception e) {
-      common.ptod(e);
-    }
-
-    return 0;
   }
 
   private static double KB = 1024.;
@@ -461,14 +533,149 @@ class CsimExtent {
   long start_lba;
   long size;
   long bytes_in;
-  long bytes_out;
   long blocks_read;
+  long[] codec_out;
+  long[] codec_nanos;
   int extno;
 
-  public CsimExtent(long start_lba, long size, int extno) {
+  public CsimExtent(long start_lba, long size, int extno, int codecs) {
     // common.ptod("size: %12d start: %12d", size, start_lba);
     this.start_lba = start_lba;
     this.size = size;
     this.extno = extno;
+    codec_out = new long[codecs];
+    codec_nanos = new long[codecs];
+  }
+
+  public synchronized void add(int bytes, long[] out, long[] nanos) {
+    bytes_in += bytes;
+    blocks_read++;
+    for (int i = 0; i < out.length; i++) {
+      codec_out[i] += out[i];
+      codec_nanos[i] += nanos[i];
+    }
+  }
+}
+
+/**
+ * One compression method for csim; each thread has its own instance.
+ *
+ * - gzipN: what csim always did: Deflate at level N plus the 18 bytes of gzip
+ * header and trailer.
+ * - deflateN: raw Deflate at level N.
+ * - lz4: the size of the LZ4 block format, using greedy matching with one hash
+ * table, just like LZ4 at its default fast level. No data is written, only the
+ * size is calculated, so no LZ4 library is needed.
+ */
+class CsimCodec {
+  private String name;
+  private Deflater deflater = null;
+  private int header = 0;
+  private byte[] scratch;
+  private int[] hash_table = null;
+
+  private static final int HASH_BITS = 12;
+  private static final int MIN_MATCH = 4;
+  private static final int MFLIMIT = 12; /* Last match must start before this */
+  private static final int LAST_LITERALS = 5; /* Always literals at the end */
+
+  public CsimCodec(String name, int xfersize) {
+    this.name = name;
+    if (name.startsWith("gzip") || name.startsWith("deflate")) {
+      String lvl = name.substring(name.startsWith("gzip") ? 4 : 7);
+      int level = 0;
+      try {
+        level = Integer.parseInt(lvl);
+      } catch (NumberFormatException e) {
+        level = -1;
+      }
+      if (level < 1 || level > 9)
+        common.failure("csim: invalid codec '%s'; use gzip1-gzip9, deflate1-deflate9 or lz4", name);
+
+      deflater = new Deflater(level, true);
+      header = name.startsWith("gzip") ? 18 : 0;
+      scratch = new byte[64 * 1024];
+    } else if (name.equals("lz4"))
+      hash_table = new int[1 << HASH_BITS];
+    else
+      common.failure("csim: invalid codec '%s'; use gzip1-gzip9, deflate1-deflate9 or lz4", name);
+  }
+
+  /**
+   * Returns the compressed size.
+   */
+  public int compress(byte[] buffer, int length) {
+    if (deflater != null) {
+      deflater.reset();
+      deflater.setInput(buffer, 0, length);
+      deflater.finish();
+      int bytes = header;
+      while (!deflater.finished())
+        bytes += deflater.deflate(scratch);
+      return bytes;
+    }
+
+    return lz4Size(buffer, length);
+  }
+
+  /**
+   * Free the Deflater's native memory. The codec can not be used after this.
+   */
+  public void end() {
+    if (deflater != null)
+      deflater.end();
+  }
+
+  private int lz4Size(byte[] src, int length) {
+    int anchor = 0;
+    int out = 0;
+
+    if (length > MFLIMIT) {
+      Arrays.fill(hash_table, -1);
+      int limit = length - MFLIMIT;
+      int match_limit = length - LAST_LITERALS;
+
+      int ip = 0;
+      while (ip < limit) {
+        int seq = readInt(src, ip);
+        int hash = (seq * -1640531535) >>> (32 - HASH_BITS);
+        int ref = hash_table[hash];
+        hash_table[hash] = ip;
+        if (ref < 0 || ip - ref > 65535 || readInt(src, ref) != seq) {
+          ip++;
+          continue;
+        }
+
+        /* Extend backwards into the pending literals, and then forward: */
+        while (ip > anchor && ref > 0 && src[ip - 1] == src[ref - 1]) {
+          ip--;
+          ref--;
+        }
+        int match = MIN_MATCH;
+        while (ip + match < match_limit && src[ref + match] == src[ip + match])
+          match++;
+
+        int literals = ip - anchor;
+        out += 1 + extraLengthBytes(literals) + literals + 2 + extraLengthBytes(match - MIN_MATCH);
+        ip += match;
+        anchor = ip;
+      }
+    }
+
+    int literals = length - anchor;
+    return out + 1 + extraLengthBytes(literals) + literals;
+  }
+
+  private static int extraLengthBytes(int length) {
+    return (length < 15) ? 0 : (length - 15) / 255 + 1;
+  }
+
+  private static int readInt(byte[] src, int offset) {
+    return (src[offset] & 0xff) | (src[offset + 1] & 0xff) << 8 | (src[offset + 2] & 0xff) << 16
+        | (src[offset + 3] & 0xff) << 24;
+  }
+
+  public String getName() {
+    return name;
   }
 }
@@ -69,18 +69,20 @@ public class dsim {
   protected static int xfersize = 0;
 
   public static void main(String[] args) throws NoSuchAlgorithmException {
-    Getopt getopt = new Getopt(args, "qn:u:d:w:f:x:s:e:", 10000);
+    Getopt getopt = new Getopt(args, "qpn:u:d:w:f:x:s:e:S:", 10000);
     quiet = getopt.check('q');
     // getopt.print("dsim");
 
     if (!getopt.isOK() || getopt.get_positionals().size() == 0) {
       common.ptod(
-          "Usage: ./vdbench dsim [-n sss] [-w nn] [-f nn] [-u nnnk] disk1, disk2, dir1, dir2, file1, file2, .....");
+          "Usage: ./vdbench dsim [-n sss] [-w nn] [-f nn] [-u nnnk] [-p [-S pct]] disk1, disk2, dir1, dir2, file1, file2, .....");
       common.ptod("Where: ");
       common.ptod("     -u nnn: dedup unit, amount of bytes to be used for deduplication");
       common.ptod("     -n sss: Notify about progress every 'sss' seconds, default 60.");
       common.ptod("     -w nnn: How many 'worker threads' hashing a block. Default 4");
       common.ptod("     -f nnn: How many 'lun/file threads' reading luns and files. Default 2");
+      common.ptod("     -p:     Pipeline: readers share all luns and files, off-heap hash table.");
+      common.ptod("     -S pct: With -p: only count this percentage of the hash space, plus confidence interval");
       common.ptod("     disk1, file1, ...: up to 10000 disk or file names or windows drive letters (c)");
 
       common.failure("parameter error");
@@ -100,6 +102,14 @@ public class dsim {
     if (getopt.check('e'))
       end_lba = getopt.extractLong();
 
+    boolean pipeline = getopt.check('p');
+    double sample_pct = 100;
+    if (getopt.check('S')) {
+      if (!pipeline)
+        common.failure("'-S pct' requires '-p'");
+      sample_pct = getopt.get_double();
+    }
+
     if (!getopt.check('u'))
       common.failure("'-u nnn' parameter is required to know what the dedup unit size is");
 
@@ -139,6 +149,11 @@ public class dsim {
     if (total_file_count == 0)
       common.failure("No files found");
 
+    if (pipeline) {
+      DsimPipeline.run(file_list, sample_pct);
+      return;
+    }
+
     /* Read the files that contain at least one sample: */
     sample_start = System.currentTimeMillis();
     readFiles();
@@ -710,7 +725,7 @@ class DsimFile extends Thread {
         read_counts++;
         read_resptime += System.nanoTime() - start;
 
-        Native.buffer_to_array(int_buffer, buf, bytes_to_read);
+        Native.bufferToArray(int_buffer, buf, bytes_to_read);
 
         ByteBuffer bb = ByteBuffer.allocate(dsim.xfersize);
         IntBuffer ib = bb.asIntBuffer();
@@ -135,8 +135,12 @@ public class ownmath {
   private static long offset = 0;
 
   public static long distPoisson(long max_value, double midpoint) {
+    return distPoisson(max_value, midpoint, p_random);
+  }
+
+  public static long distPoisson(long max_value, double midpoint, Random randomizer) {
     /* pick a number from Zero to 1 */
-    double rand = p_random.nextDouble();
+    double rand = randomizer.nextDouble();
 
     /* This is the big knob for skewing the file selection */
     /* average number picked is 1/3 of the number of files */
@@ -0,0 +1,118 @@
+package VdbComp;
+
+import java.io.*;
+import java.util.*;
+
+import Vdb.common;
+
+/**
+ * Parsed run averages of one output directory, stored in that directory so
+ * that the next compare does not need to parse flatfile.html again.
+ *
+ * The cache is only used when the flatfile and summary.html still have the
+ * size and modification time that they had when the cache was written, and it
+ * was written for the same list of columns. When the directory is not
+ * writable there just is no cache.
+ */
+class CompCache {
+  static final String CACHE_FILE = "vdbcomp.idx";
+
+  private static final int MAGIC = 0x56434931; /* 'VCI1' */
+  private static final byte DOUBLE = 0;
+  private static final byte STRING = 1;
+
+  /**
+   * Return the runs from the cache, or null when there is no current cache.
+   */
+  static ArrayList<HashMap> read(FlatFile ff, File source) {
+    File cache = new File(ff.vdbench_dir, CACHE_FILE);
+    if (!cache.exists())
+      return null;
+
+    try {
+      DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(cache), 64 * 1024));
+      try {
+        if (dis.readInt() != MAGIC || !dis.readUTF().equals(signature(ff, source)))
+          return null;
+
+        int count = dis.readInt();
+        ArrayList<HashMap> runs = new ArrayList(count);
+        for (int i = 0; i < count; i++) {
+          int entries = dis.readInt();
+          HashMap run = new HashMap(entries * 2);
+          for (int j = 0; j < entries; j++) {
+            String key = dis.readUTF();
+            if (dis.readByte() == DOUBLE)
+              run.put(key, new Double(dis.readDouble()));
+            else
+              run.put(key, dis.readUTF());
+          }
+          runs.add(run);
+        }
+
+        Vector<String> descriptions = new Vector(8, 0);
+        count = dis.readInt();
+        for (int i = 0; i < count; i++)
+          descriptions.add(dis.readUTF());
+        ff.descriptions = descriptions;
+
+        return runs;
+      } finally {
+        dis.close();
+      }
+
+    } catch (IOException e) {
+      common.ptod("Ignoring %s: %s", cache.getPath(), e.getMessage());
+      return null;
+    }
+  }
+
+  static void write(FlatFile ff, File source, ArrayList<HashMap> runs) {
+    File cache = new File(ff.vdbench_dir, CACHE_FILE);
+    if (!new File(ff.vdbench_dir).canWrite())
+      return;
+
+    try {
+      File tmp = new File(ff.vdbench_dir, CACHE_FILE + ".tmp");
+      DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 64 * 1024));
+      dos.writeInt(MAGIC);
+      dos.writeUTF(signature(ff, source));
+
+      dos.writeInt(runs.size());
+      for (HashMap<String, Object> run : runs) {
+        dos.writeInt(run.size());
+        for (Map.Entry<String, Object> entry : run.entrySet()) {
+          dos.writeUTF(entry.getKey());
+          if (entry.getValue() instanceof Double) {
+            dos.writeByte(DOUBLE);
+            dos.writeDouble((Double) entry.getValue());
+          } else {
+            dos.writeByte(STRING);
+            dos.writeUTF(entry.getValue().toString());
+          }
+        }
+      }
+
+      dos.writeInt(ff.descriptions.size());
+      for (String description : ff.descriptions)
+        dos.writeUTF(description);
+      dos.close();
+
+      /* Readers never see a partial cache: */
+      if (!tmp.renameTo(cache))
+        tmp.delete();
+
+    } catch (IOException e) {
+      common.ptod("Unable to write %s: %s", cache.getPath(), e.getMessage());
+    }
+  }
+
+  /**
+   * Everything the cached contents depend on.
+   */
+  private static String signature(FlatFile ff, File source) {
+    File summ = new File(ff.vdbench_dir, "summary.html");
+    return String.format("%s %d %d %d %d %s", source.getName(), source.length(), source.lastModified(), summ.length(),
+        summ.lastModified(), ParseData.getColumnSignature());
+  }
+}
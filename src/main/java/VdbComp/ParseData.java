@@ -10,7 +10,10 @@ package VdbComp;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import Utils.Fget;
+import Vdb.Flat;
 import Vdb.common;
 
 /**
@@ -22,102 +25,272 @@ public class ParseData {
   private static String[] keep_list = new String[] { "reqrate", "interval", "mb/sec", "resp_max", "resp_std", "resp",
       "queue_depth", "read%", "rate" };
 
+  /* Columns kept besides keep_list; other columns are never looked at: */
+  private static final String[] string_list = new String[] { "run" };
+
+  private static final int LOADERS = 8;
+
+  /**
+   * Load the runs of all directories, LOADERS directories at the same time.
+   * parseFlatFile() then only picks up the results in the original order.
+   */
+  public static void loadFlatFiles(ArrayList<FlatFile> flats) {
+    final FlatFile[] list = flats.toArray(new FlatFile[0]);
+    final AtomicInteger next = new AtomicInteger(0);
+    long start = System.currentTimeMillis();
+
+    Thread[] loaders = new Thread[Math.min(LOADERS, list.length)];
+    for (int i = 0; i < loaders.length; i++) {
+      loaders[i] = new Thread("VdbComp loader " + i) {
+        public void run() {
+          int index;
+          while ((index = next.getAndIncrement()) < list.length) {
+            FlatFile ff = list[index];
+            try {
+              loadRuns(ff);
+            } catch (RuntimeException e) {
+              ff.error = e;
+            }
+          }
+        }
+      };
+      loaders[i].start();
+    }
+
+    for (Thread loader : loaders) {
+      try {
+        loader.join();
+      } catch (InterruptedException e) {
+        common.failure(e);
+      }
+    }
+
+    int cached = 0;
+    for (FlatFile ff : list)
+      cached += (ff.from_cache) ? 1 : 0;
+    common.ptod("Loaded %d directories (%d from %s) in %d ms", list.length, cached, CompCache.CACHE_FILE,
+        System.currentTimeMillis() - start);
+  }
+
   /**
-   * Parse a flatfile.html
+   * Add the runs of a flatfile.html (or flatfile.bin) to 'all_rds'.
    *
-   * @param fname Complete file name for flatfile.html
+   * @param ff Directory, loaded by loadFlatFiles(), or loaded now.
    *
    * @return
    */
   public static boolean parseFlatFile(FlatFile ff, Vector all_rds) {
-    String fname = ff.vdbench_dir + "/flatfile.html";
-    String[] lines = Fget.readFileToArray(fname);
-    if (lines == null) {
+    if (!ff.loaded)
+      loadRuns(ff);
+    if (ff.error != null)
+      throw ff.error;
+    if (!ff.found)
+      return false;
+
+    all_rds.addAll(ff.rds);
+    if (all_rds.size() == 0)
+      throw new CompException("No valid run averages found in file " + ff.source);
+
+    return true;
+  }
+
+  /**
+   * Load the run averages of one directory, from the cache when it is current.
+   */
+  private static void loadRuns(FlatFile ff) {
+    ff.loaded = true;
+
+    /* flatfile.bin, when there, is used without any text parsing: */
+    File source = new File(ff.vdbench_dir, "flatfile.bin");
+    if (!source.exists())
+      source = new File(ff.vdbench_dir, "flatfile.html");
+    ff.source = source.getPath();
+
+    if (!source.exists() || source.length() == 0) {
       common.ptod("label: %s", ff.label);
-      common.ptod("File: %s", fname);
+      common.ptod("File: %s", ff.source);
       common.ptod("File ignored, file is either empty or does not exist");
-      return false;
+      return;
     }
-    String line = null;
-    int comments = 0;
-
-    /* Look for the first header: */
-    int i = 0;
-    for (i = 0; i < lines.length; i++) {
-      line = lines[i].trim();
-      if (line.startsWith("tod"))
-        break;
-      if (line.startsWith("*"))
-        comments++;
+    ff.found = true;
+
+    ArrayList<HashMap> runs = CompCache.read(ff, source);
+    if (runs != null)
+      ff.from_cache = true;
+
+    else {
+      if (source.getName().endsWith(".bin"))
+        runs = parseBinary(source.getPath());
+      else
+        runs = parseText(source.getPath());
+      ff.descriptions = readDescriptions(ff);
+      CompCache.write(ff, source, runs);
     }
 
-    /* Flatfile.html alas is also created in the multi-jvm h1,h2 subdirectory */
-    /* we can recognize this because those files will not contain comments */
-    // if (line == null && comments == 0)
-    // return;
+    for (HashMap run : runs)
+      ff.rds.add(new CompRunData(ff.label, run, ff.vdbench_dir));
+  }
 
-    if (!line.startsWith("tod"))
-      throw new CompException("Missing 'tod' label in file " + fname);
+  /**
+   * Stream through flatfile.html, only creating the values of the columns that
+   * are used.
+   */
+  private static ArrayList<HashMap> parseText(String fname) {
+    ArrayList<HashMap> runs = new ArrayList(64);
+
+    try {
+      BufferedReader br = new BufferedReader(new FileReader(fname), 256 * 1024);
+      String line = null;
+
+      /* Look for the first header: */
+      while ((line = br.readLine()) != null) {
+        line = line.trim();
+        if (line.startsWith("tod"))
+          break;
+      }
 
-    /* Pick up all column headers: */
-    StringTokenizer st = new StringTokenizer(line);
-    Vector<String> headers = new Vector(st.countTokens());
-    while (st.hasMoreTokens())
-      headers.add(st.nextToken().toLowerCase());
+      /* Flatfile.html alas is also created in the multi-jvm h1,h2 subdirectory */
+      /* we can recognize this because those files will not contain comments */
+      if (line == null) {
+        br.close();
+        throw new CompException("Missing 'tod' label in file " + fname);
+      }
 
-    /* Now pick up data for each 'avg_' run from the flatfile: */
-    CompRunData last_run = null;
-    for (i++; i < lines.length; i++) {
-      line = lines[i].trim();
+      String[] headers = line.toLowerCase().split("\\s+");
+      byte[] wanted = wantedColumns(headers);
+
+      while ((line = br.readLine()) != null) {
+        HashMap flatfile_data = new HashMap();
+        int col = 0;
+        int pos = 0;
+        int len = line.length();
+        while (true) {
+          while (pos < len && line.charAt(pos) <= ' ')
+            pos++;
+          if (pos == len)
+            break;
+          int end = pos;
+          while (end < len && line.charAt(end) > ' ')
+            end++;
+
+          if (col < wanted.length && wanted[col] != 0)
+            storeValue(flatfile_data, headers[col], line.substring(pos, end), wanted[col]);
+          col++;
+          pos = end;
+        }
 
-      HashMap flatfile_data = new HashMap();
-      st = new StringTokenizer(line);
-      int col = 0;
-      while (st.hasMoreTokens()) {
-        String value = st.nextToken();
-        // if (headers.elementAt(col).equals("Run"))
-        // common.ptod("value: " + value + " " + headers.elementAt(col));
-        try {
-          double number = Double.parseDouble(value);
-          String column = headers.get(col++);
-          if (Arrays.asList(keep_list).contains(column))
-            flatfile_data.put(column, new Double(number));
-        } catch (NumberFormatException e) {
-          flatfile_data.put(headers.get(col++), value);
+        if (col != headers.length) {
+          br.close();
+          String txt = "\nlast line: " + line.trim() + "\nheaders: " + headers.length + "\ndata: " + col;
+          throw new CompException("Not enough data for all columns in file " + fname + txt);
         }
-      }
 
-      if (col != headers.size()) {
-        String txt = "\nlast line: " + line + "\nheaders: " + headers.size() + "\ndata: " + col;
-        throw new CompException("Not enough data for all columns in file " + fname + txt);
+        addLine(runs, flatfile_data, fname);
       }
+      br.close();
 
-      /* Only save data for a run average: */
-      Object interval = flatfile_data.get("interval");
-      if (interval == null)
-        throw new CompException("Missing 'Interval' column in file " + fname);
+    } catch (IOException e) {
+      throw new CompException("Error reading " + fname + ": " + e.getMessage());
+    }
 
-      if ((interval instanceof Double) && ((Double) interval).doubleValue() == 1 && last_run != null) {
-        all_rds.add(last_run);
-        ff.rds.add(last_run);
+    return runs;
+  }
+
+  private static ArrayList<HashMap> parseBinary(String fname) {
+    ArrayList<HashMap> runs = new ArrayList(64);
+    ArrayList<String[]> rows = Flat.readBinary(fname);
+    if (rows.size() == 0)
+      throw new CompException("Missing 'tod' label in file " + fname);
+
+    String[] headers = rows.get(0);
+    for (int i = 0; i < headers.length; i++)
+      headers[i] = headers[i].toLowerCase();
+    byte[] wanted = wantedColumns(headers);
+
+    for (int i = 1; i < rows.size(); i++) {
+      HashMap flatfile_data = new HashMap();
+      String[] row = rows.get(i);
+      for (int col = 0; col < row.length; col++) {
+        if (wanted[col] != 0)
+          storeValue(flatfile_data, headers[col], row[col], wanted[col]);
       }
+      addLine(runs, flatfile_data, fname);
+    }
 
-      last_run = new CompRunData(ff.label, flatfile_data, ff.vdbench_dir);
+    return runs;
+  }
+
+  /**
+   * The columns that are kept, for CompCache.
+   */
+  static String getColumnSignature() {
+    return String.join(",", keep_list) + ";" + String.join(",", string_list);
+  }
+
+  /**
+   * 1: keep_list column, numeric when possible; 2: string column.
+   */
+  private static byte[] wantedColumns(String[] headers) {
+    byte[] wanted = new byte[headers.length];
+    for (int i = 0; i < headers.length; i++) {
+      if (Arrays.asList(keep_list).contains(headers[i]))
+        wanted[i] = 1;
+      else if (Arrays.asList(string_list).contains(headers[i]))
+        wanted[i] = 2;
     }
+    return wanted;
+  }
 
-    /* Add the last process run at eof. This assumes that the last run was */
-    /* complete!! There is no way to check, but the only consequence will be */
-    /* that the values of the last running interval will be seen as run */
-    /* averages Fine for now. */
-    if (last_run != null) {
-      all_rds.add(last_run);
-      ff.rds.add(last_run);
+  private static void storeValue(HashMap flatfile_data, String column, String value, byte wanted) {
+    if (wanted == 1) {
+      try {
+        flatfile_data.put(column, new Double(Double.parseDouble(value)));
+        return;
+      } catch (NumberFormatException e) {
+      }
     }
+    flatfile_data.put(column, value);
+  }
 
-    if (all_rds.size() == 0)
-      throw new CompException("No valid run averages found in file " + fname);
+  /**
+   * Only save data for a run average: the last line before the next run's
+   * interval 1. The last run at eof is assumed to be complete!! There is no
+   * way to check, but the only consequence will be that the values of the last
+   * running interval will be seen as run averages. Fine for now.
+   */
+  private static void addLine(ArrayList<HashMap> runs, HashMap flatfile_data, String fname) {
+    Object interval = flatfile_data.get("interval");
+    if (interval == null)
+      throw new CompException("Missing 'Interval' column in file " + fname);
+
+    if (runs.size() > 0 && !((interval instanceof Double) && ((Double) interval).doubleValue() == 1))
+      runs.set(runs.size() - 1, flatfile_data);
+    else
+      runs.add(flatfile_data);
+  }
 
-    return true;
+  /**
+   * Get all "Starting RD" lines from summary.html.
+   */
+  static Vector<String> readDescriptions(FlatFile ff) {
+    Vector<String> descriptions = new Vector(8, 0);
+    File summ = new File(ff.vdbench_dir, "summary.html");
+    if (!summ.exists())
+      return descriptions;
+
+    try {
+      BufferedReader br = new BufferedReader(new FileReader(summ), 64 * 1024);
+      String line;
+      while ((line = br.readLine()) != null) {
+        if (line.indexOf("Starting RD") != -1)
+          descriptions.add(line);
+      }
+      br.close();
+    } catch (IOException e) {
+      throw new CompException("Error reading " + summ + ": " + e.getMessage());
+    }
+
+    return descriptions;
   }
 
   /**
@@ -145,11 +318,7 @@ public class ParseData {
       /* Get all "Starting RD" lines for this one summary.html: */
       String summ = ff.vdbench_dir + "/summary.html";
 
-      Vector descriptions = new Vector(8, 0);
-      for (String line : Fget.readFileToArray(summ)) {
-        if (line.indexOf("Starting RD") != -1)
-          descriptions.add(line);
-      }
+      Vector descriptions = (ff.descriptions != null) ? ff.descriptions : readDescriptions(ff);
 
       /* We now have all these 'Starting RD' and must put them back in the runs: */
       /*
@@ -209,6 +378,13 @@ class FlatFile {
   String vdbench_dir;
   Vector<CompRunData> rds = new Vector(8, 0);
 
+  String source; /* flatfile.html or flatfile.bin */
+  boolean loaded = false;
+  boolean found = false;
+  boolean from_cache = false;
+  Vector<String> descriptions = null; /* 'Starting RD' lines from summary.html */
+  RuntimeException error = null; /* From a loader thread */
+
   public FlatFile(String lbl, String name) {
     this.label = lbl;
     this.vdbench_dir = name;
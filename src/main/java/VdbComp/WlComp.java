@@ -241,17 +241,26 @@ public class WlComp {
     common.ptod("old_files: " + old_files.size());
     common.ptod("new_files: " + new_files.size());
 
-    /* Load all run data: */
+    /* Load all run data, all directories in parallel: */
+    ArrayList<FlatFile> old_list = new ArrayList(old_files.size());
+    for (int i = 0; i < old_files.size(); i++)
+      old_list.add(new FlatFile(old_labels.get(i), old_files.get(i)));
+    ArrayList<FlatFile> new_list = new ArrayList(new_files.size());
+    for (int i = 0; i < new_files.size(); i++)
+      new_list.add(new FlatFile(new_labels.get(i), new_files.get(i)));
+
+    ArrayList<FlatFile> all_list = new ArrayList(old_list);
+    all_list.addAll(new_list);
+    ParseData.loadFlatFiles(all_list);
+
     old_rds = new Vector(8, 0);
-    for (int i = 0; i < old_files.size(); i++) {
-      FlatFile ff = new FlatFile(old_labels.get(i), old_files.get(i));
+    for (FlatFile ff : old_list) {
       if (ParseData.parseFlatFile(ff, old_rds))
         old_flats.add(ff);
     }
 
     new_rds = new Vector(8, 0);
-    for (int i = 0; i < new_files.size(); i++) {
-      FlatFile ff = new FlatFile(new_labels.get(i), new_files.get(i));
+    for (FlatFile ff : new_list) {
       if (ParseData.parseFlatFile(ff, new_rds))
         new_flats.add(ff);
     }
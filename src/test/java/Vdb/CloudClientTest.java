@@ -0,0 +1,145 @@
+package Vdb;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.*;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import junit.framework.TestCase;
+
+/**
+ * CloudClient against a local stub object server.
+ */
+public class CloudClientTest extends TestCase {
+  private static final long SIZE = 3 * 1024 * 1024 + 123;
+
+  private HttpServer server;
+  private HashMap<String, Long> store = new HashMap();
+  private HashSet<Integer> client_ports = new HashSet();
+  private ArrayList<String> requests = new ArrayList();
+
+  protected void setUp() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/", new HttpHandler() {
+      public void handle(HttpExchange ex) throws IOException {
+        String path = ex.getRequestURI().getPath();
+        String method = ex.getRequestMethod();
+        long bytes = 0;
+        byte[] buf = new byte[65536];
+        InputStream is = ex.getRequestBody();
+        int got;
+        while ((got = is.read(buf)) > 0)
+          bytes += got;
+
+        synchronized (store) {
+          client_ports.add(ex.getRemoteAddress().getPort());
+          requests.add(method + " " + path);
+        }
+
+        if (path.startsWith("/auth")) {
+          ex.getResponseHeaders().add("X-Storage-Url", "http://127.0.0.1:" + ex.getLocalAddress().getPort() + "/v1/");
+          ex.getResponseHeaders().add("X-Auth-Token", "stub_token");
+          ex.sendResponseHeaders(200, -1);
+        } else if (!"stub_token".equals(ex.getRequestHeaders().getFirst("X-Auth-Token")))
+          ex.sendResponseHeaders(401, -1);
+        else if (method.equals("PUT")) {
+          synchronized (store) {
+            store.put(path, bytes);
+          }
+          ex.sendResponseHeaders(201, -1);
+        } else if (method.equals("GET")) {
+          Long length;
+          synchronized (store) {
+            length = store.get(path);
+          }
+          if (length == null)
+            ex.sendResponseHeaders(404, -1);
+          else {
+            ex.sendResponseHeaders(200, length);
+            for (long done = 0; done < length; done += buf.length)
+              ex.getResponseBody().write(buf, 0, (int) Math.min(buf.length, length - done));
+          }
+        } else
+          ex.sendResponseHeaders(204, -1);
+        ex.close();
+      }
+    });
+    server.start();
+  }
+
+  protected void tearDown() {
+    server.stop(0);
+  }
+
+  private CurlHandling authorize() {
+    CurlHandling cloud = new CurlHandling("http://127.0.0.1:" + server.getAddress().getPort() + "/auth", "user",
+        "pwd", "container");
+    cloud.getAuthorization();
+    return cloud;
+  }
+
+  public void testPutAndGet() {
+    CurlHandling cloud = authorize();
+    assertEquals("stub_token", cloud.getToken());
+
+    CloudClient cc = new CloudClient(cloud);
+    for (int i = 0; i < 10; i++)
+      cc.putObject("/dir/obj" + i, SIZE + i);
+    for (int i = 0; i < 10; i++)
+      assertEquals(SIZE + i, cc.getObject("/dir/obj" + i));
+    assertEquals(SIZE, (long) store.get("/v1/container/dir/obj0"));
+
+    /* One client, one kept-alive connection: */
+    client_ports.clear();
+    for (int i = 0; i < 10; i++)
+      cc.getObject("/dir/obj" + i);
+    assertEquals(1, client_ports.size());
+    cc.close();
+  }
+
+  /**
+   * Each thread's client has its own connection.
+   */
+  public void testConnectionPerClient() throws InterruptedException {
+    final CurlHandling cloud = authorize();
+    client_ports.clear();
+
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      final int thread = t;
+      threads[t] = new Thread() {
+        public void run() {
+          CloudClient cc = new CloudClient(cloud);
+          for (int i = 0; i < 5; i++)
+            cc.putObject("/t" + thread + "/obj" + i, 1000);
+          for (int i = 0; i < 5; i++)
+            cc.getObject("/t" + thread + "/obj" + i);
+          cc.close();
+        }
+      };
+    }
+    for (Thread thread : threads)
+      thread.start();
+    for (Thread thread : threads)
+      thread.join();
+
+    assertEquals(20, store.size());
+    assertEquals(threads.length, client_ports.size());
+  }
+
+  /**
+   * Container level requests all go to the container url.
+   */
+  public void testContainerRequests() {
+    CurlHandling cloud = authorize();
+    requests.clear();
+    cloud.createContainer();
+    cloud.listContainer();
+    cloud.deleteContainer();
+    assertEquals(Arrays.asList("PUT /v1/container", "GET /v1/container", "DELETE /v1/container"), requests);
+  }
+}
@@ -0,0 +1,82 @@
+package Vdb;
+
+import java.util.*;
+
+import junit.framework.TestCase;
+
+/**
+ * CompressedBitMap against java.util.BitSet.
+ */
+public class CompressedBitMapTest extends TestCase {
+  private static final int BITS = 2 * 1000 * 1000;
+
+  public void testAgainstBitSet() {
+    CompressedBitMap map = new CompressedBitMap(BITS);
+    BitSet check = new BitSet(BITS);
+    Random rand = new Random(0);
+
+    /* Groups of set bits, just like DedupBitMap, with some single bits: */
+    for (int i = 0; i < BITS / 50; i++) {
+      int bit = rand.nextInt(BITS);
+      int group = (i % 4 == 0) ? 1 : 32;
+      for (int j = 0; j < group && bit + j < BITS; j++) {
+        map.set(bit + j, true);
+        check.set(bit + j);
+      }
+    }
+    map.optimize();
+
+    /* Flip some bits, crossing container conversions: */
+    for (int i = 0; i < BITS / 20; i++) {
+      int bit = rand.nextInt(BITS);
+      boolean bool = rand.nextBoolean();
+      map.set(bit, bool);
+      check.set(bit, bool);
+    }
+
+    long rank = 0;
+    for (int i = 0; i < BITS; i++) {
+      assertEquals("bit " + i, check.get(i), map.get(i));
+      if (i % 9973 == 0)
+        assertEquals("rank " + i, rank, map.rank(i));
+      if (check.get(i))
+        rank++;
+    }
+
+    assertEquals(check.cardinality(), map.cardinality());
+  }
+
+  /**
+   * Threads own ranges that are not aligned to the 64k bit chunks, the way
+   * journal recovery splits a map. No update may get lost.
+   */
+  public void testConcurrentRanges() throws InterruptedException {
+    final CompressedBitMap map = new CompressedBitMap(BITS);
+    final int range = 65536 - 480;
+    Thread[] threads = new Thread[8];
+
+    for (int t = 0; t < threads.length; t++) {
+      final int start = t * range;
+      threads[t] = new Thread() {
+        public void run() {
+          /* Enough bits to go through array and bitmap containers: */
+          for (int bit = start; bit < start + range; bit++) {
+            if (bit % 3 == 0)
+              map.set(bit, true);
+          }
+          for (int bit = start; bit < start + range; bit++) {
+            if (bit % 6 == 0)
+              map.set(bit, false);
+          }
+        }
+      };
+    }
+    for (Thread thread : threads)
+      thread.start();
+    for (Thread thread : threads)
+      thread.join();
+
+    for (int bit = 0; bit < threads.length * range; bit++)
+      assertEquals("bit " + bit, bit % 3 == 0 && bit % 6 != 0, map.get(bit));
+  }
+}
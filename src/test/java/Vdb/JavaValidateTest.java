@@ -0,0 +1,155 @@
+package Vdb;
+
+import java.io.*;
+import java.lang.reflect.Field;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import junit.framework.TestCase;
+
+/**
+ * JavaValidate fill, validate, corrupt and report. The messages for the master
+ * are kept by the slave's socket instead of being sent, the errorlog lines
+ * among them.
+ */
+public class JavaValidateTest extends TestCase {
+  private static final int XFERSIZE = 8192;
+  private static final long FILE_LBA = 3 * XFERSIZE;
+  private static final long HANDLE = 0x7fff0001l;
+
+  private static boolean setup = false;
+  private static List<String> errorlog = Collections.synchronizedList(new ArrayList());
+
+  private int[] keys = { 5, 7 };
+  private long[] compressions = { 100, 4096 * 3 + 8 };
+  private long[] dedup_sets = { 0, 0 };
+  private int data_flag = Validate.FLAG_VALIDATE | Validate.FLAG_VALIDATE_COMP;
+
+  protected void setUp() throws Exception {
+    if (setup)
+      return;
+    setup = true;
+
+    /* The master end only has to accept the connection: */
+    final ServerSocket server = new ServerSocket(0);
+    new Thread() {
+      public void run() {
+        try {
+          new SlaveSocket(server);
+        } catch (IOException e) {
+        }
+      }
+    }.start();
+
+    SlaveSocket socket = new SlaveSocket("127.0.0.1", server.getLocalPort()) {
+      public boolean putMessage(SocketMessage sm) {
+        Object data = sm.getData();
+        if (data instanceof Vector)
+          errorlog.addAll((Vector<String>) data);
+        else if (data instanceof String)
+          errorlog.add((String) data);
+        return true;
+      }
+    };
+    setStatic(SlaveJvm.class, "socket_to_master", socket);
+
+    /* Any pattern will do, it only has to be the same for fill and validate: */
+    int[] pattern = new int[1024 * 1024 / 4];
+    Random rand = new Random(0);
+    for (int i = 0; i < pattern.length; i++)
+      pattern[i] = rand.nextInt();
+    Field field = Patterns.class.getDeclaredField("pattern_array");
+    field.setAccessible(true);
+    field.set(getStatic(Patterns.class, "options"), pattern);
+
+    SD_entry sd = new SD_entry();
+    sd.sd_name = "sd1";
+    sd.sd_name8 = "sd1     ";
+    sd.lun = "/dev/stub";
+    File_handles.addHandle(HANDLE, sd);
+    DV_map.allocateMap(null, "sd1", 1024 * 1024, XFERSIZE / 2);
+  }
+
+  private ByteBuffer fill() {
+    ByteBuffer buf = ByteBuffer.allocate(XFERSIZE);
+    JavaValidate.fillBlock(buf, System.currentTimeMillis(), FILE_LBA, XFERSIZE, keys.length, keys, compressions,
+        "sd1     ");
+    return buf;
+  }
+
+  private long validate(ByteBuffer buf) {
+    return JavaValidate.validateBlock(buf, HANDLE, data_flag, 0, FILE_LBA, XFERSIZE, keys.length, keys,
+        compressions, dedup_sets, "sd1     ");
+  }
+
+  public void testFillAndValidate() {
+    assertEquals(0, validate(fill()));
+  }
+
+  /**
+   * One bad word in the data of the second key block must be reported with
+   * the data that was written there as expected data.
+   */
+  public void testCorruptionReport() {
+    ByteBuffer buf = fill();
+    int pos = XFERSIZE / 2 + 512 + 100 * 4;
+    int good = buf.getInt(pos);
+    buf.putInt(pos, ~good);
+
+    errorlog.clear();
+    assertEquals(60003, validate(buf));
+
+    assertTrue(errorlog.toString(), contains("Data corruption detected"));
+    assertTrue(errorlog.toString(), contains("Data Corruption beyond fixed sector header"));
+    assertFalse(errorlog.toString(), contains("There are no mismatches"));
+
+    /* Only the line with the bad word shows a difference: */
+    int lines = 0;
+    for (String line : errorlog.toArray(new String[0])) {
+      if (line.contains("0x190*")) {
+        assertTrue(line, line.contains(String.format("%08x", good)));
+        assertTrue(line, line.contains(String.format("%08x", ~good)));
+        lines++;
+      } else if (line.matches(".* 0x[0-9a-f]{3}\\* .*"))
+        fail("Unexpected difference: " + line);
+    }
+    assertEquals(1, lines);
+  }
+
+  public void testLfsrSector() {
+    int[] sector = new int[128];
+    Lfsr.fillSector(sector, 0x1234000, 7, "sd1     ");
+
+    /* The same sequence as JavaValidate writes in words 8-127: */
+    int value = Lfsr.seed(0x1234000, 7, "sd1     ".getBytes());
+    for (int i = 0; i < 120; i++) {
+      value = Lfsr.next(value);
+      assertEquals(value, sector[i]);
+    }
+
+    int[] other = new int[128];
+    Lfsr.fillSector(other, 0x1234000, 8, "sd1     ");
+    assertFalse(Arrays.equals(sector, other));
+  }
+
+  private boolean contains(String text) {
+    for (String line : errorlog.toArray(new String[0])) {
+      if (line.contains(text))
+        return true;
+    }
+    return false;
+  }
+
+  private static Object getStatic(Class cls, String name) throws Exception {
+    Field field = cls.getDeclaredField(name);
+    field.setAccessible(true);
+    return field.get(null);
+  }
+
+  private static void setStatic(Class cls, String name, Object value) throws Exception {
+    Field field = cls.getDeclaredField(name);
+    field.setAccessible(true);
+    field.set(null, value);
+  }
+}
@@ -0,0 +1,109 @@
+package Vdb;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.Field;
+
+import junit.framework.TestCase;
+
+/**
+ * Group commit of journal entries by several writer threads, with the journal
+ * being dumped again and again because of 'journal_max='.
+ */
+public class JournalTest extends TestCase {
+  private static final int THREADS = 8;
+  private static final int WRITES = 2000;
+  private static final int KEY_COUNT = 3;
+  private static final long JOURNAL_MAX = 64 * 1024;
+
+  private File dir;
+  private StringWriter log = new StringWriter();
+
+  protected void setUp() throws Exception {
+    Validate.setIoBackend("nio");
+    Validate.setJournalMax(JOURNAL_MAX);
+    setErrorLog(new PrintWriter(log, true));
+
+    dir = File.createTempFile("journal", "");
+    dir.delete();
+    dir.mkdir();
+  }
+
+  protected void tearDown() throws Exception {
+    Validate.setIoBackend("jni");
+    Validate.setJournalMax(Long.MAX_VALUE);
+    setErrorLog(null);
+
+    File[] files = dir.listFiles();
+    for (int i = 0; files != null && i < files.length; i++)
+      files[i].delete();
+    dir.delete();
+  }
+
+  public void testJournalMax() throws Exception {
+    final Jnl_entry jnl = new Jnl_entry("jnlsd", dir.getPath(), "sd");
+    final DV_map map = DV_map.allocateMap(dir.getPath(), "jnlsd", 64 * 1024 * 1024, 4096);
+    map.journal = jnl;
+    jnl.storeMap(map);
+    jnl.dumpOneMap(map);
+
+    final Throwable[] errors = new Throwable[THREADS];
+    Thread[] threads = new Thread[THREADS];
+    for (int t = 0; t < THREADS; t++) {
+      final int thread = t;
+      threads[t] = new Thread() {
+        public void run() {
+          try {
+            for (int i = 0; i < WRITES; i++) {
+              long block = (thread * WRITES + i) * KEY_COUNT;
+
+              /* Before and after image, just as KeyMap does it: */
+              writeImage(jnl, block, thread + 1);
+              writeImage(jnl, block, 0);
+            }
+          } catch (Throwable e) {
+            errors[thread] = e;
+          }
+        }
+      };
+      threads[t].setDaemon(true);
+      threads[t].start();
+    }
+
+    /* A deadlock shows up as threads that never finish: */
+    long end = System.currentTimeMillis() + 120 * 1000;
+    for (Thread thread : threads)
+      thread.join(Math.max(1, end - System.currentTimeMillis()));
+    for (int t = 0; t < THREADS; t++) {
+      assertFalse("Journal writer " + t + " is hung", threads[t].isAlive());
+      if (errors[t] != null)
+        throw new RuntimeException(errors[t]);
+    }
+
+    /* Each image has its own records, so the map was dumped many times: */
+    int dumps = log.toString().split("'journal_max' reached").length - 1;
+    long records = 2l * THREADS * WRITES * KEY_COUNT / Jnl_entry.JNL_ENTRIES;
+    assertTrue("dumps: " + dumps, dumps > records * 512 / JOURNAL_MAX / 2);
+
+    /* And the journal file never grew much beyond 'journal_max': */
+    long map_bytes = 512 + (map.key_blocks + 511) / 480 * 512;
+    long jnl_bytes = new File(dir, "jnlsd.jnl").length();
+    assertTrue("journal: " + jnl_bytes, jnl_bytes < map_bytes + JOURNAL_MAX * 2);
+  }
+
+  private static void writeImage(Jnl_entry jnl, long block, int key) {
+    long ticket = 0;
+    synchronized (jnl) {
+      for (int i = 0; i < KEY_COUNT; i++)
+        ticket = jnl.writeJournalEntry(key, block + i, i == KEY_COUNT - 1);
+    }
+    jnl.commit(ticket);
+  }
+
+  private static void setErrorLog(PrintWriter pw) throws Exception {
+    Field field = ErrorLog.class.getDeclaredField("pw");
+    field.setAccessible(true);
+    field.set(null, pw);
+  }
+}
@@ -0,0 +1,117 @@
+package Vdb;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * 'io_backend=nio' through the Native functions, without the shared library.
+ */
+public class NioIoTest extends TestCase {
+  private static final int XFERSIZE = 8192;
+
+  private File file;
+
+  protected void setUp() throws Exception {
+    Validate.setIoBackend("nio");
+    file = File.createTempFile("nioio", ".dat");
+
+    int[] pattern = new int[1024 * 1024 / 4];
+    Random rand = new Random(0);
+    for (int i = 0; i < pattern.length; i++)
+      pattern[i] = rand.nextInt();
+    Field field = Patterns.class.getDeclaredField("options");
+    field.setAccessible(true);
+    Object options = field.get(null);
+    field = Patterns.class.getDeclaredField("pattern_array");
+    field.setAccessible(true);
+    field.set(options, pattern);
+  }
+
+  protected void tearDown() {
+    file.delete();
+    Validate.setIoBackend("jni");
+  }
+
+  public void testReadWrite() {
+    long handle = Native.openFile(file.getPath(), 1);
+    long buffer = Native.allocBuffer(XFERSIZE);
+
+    int[] array = new int[XFERSIZE / 4];
+    for (int i = 0; i < array.length; i++)
+      array[i] = i * 7;
+    Native.arrayToBuffer(array, buffer);
+    assertEquals(0, Native.writeFile(handle, 3 * XFERSIZE, XFERSIZE, buffer));
+    assertEquals(4 * XFERSIZE, Native.getSize(handle, file.getPath()));
+    assertEquals(0, Native.fsyncFile(handle));
+
+    int[] back = new int[XFERSIZE / 4];
+    Native.arrayToBuffer(back, buffer);
+    assertEquals(0, Native.readFile(handle, 3 * XFERSIZE, XFERSIZE, buffer));
+    Native.bufferToArray(back, buffer, XFERSIZE);
+    assertTrue(java.util.Arrays.equals(array, back));
+
+    assertEquals(0, Native.truncate(handle, XFERSIZE));
+    assertEquals(XFERSIZE, Native.getSize(handle, file.getPath()));
+
+    Native.freeBuffer(XFERSIZE, buffer);
+    assertEquals(0, Native.closeFile(handle));
+  }
+
+  public void testFillAndValidate() {
+    long handle = Native.openFile(file.getPath(), 1);
+    long buffer = Native.allocBuffer(XFERSIZE);
+    int[] keys = { 1, 2 };
+    long[] compressions = { 0, 4096 };
+    long[] dedup_sets = { 0, 0 };
+    int data_flag = Validate.FLAG_VALIDATE | Validate.FLAG_VALIDATE_COMP;
+
+    assertEquals(0, Native.multiKeyFillAndWriteBlock(handle, System.currentTimeMillis(), data_flag, 0, XFERSIZE,
+        XFERSIZE, XFERSIZE, XFERSIZE, buffer, keys.length, keys, compressions, dedup_sets, "fsd1    ", -1));
+
+    Native.arrayToBuffer(new int[XFERSIZE / 4], buffer);
+    assertEquals(0, Native.multiKeyReadAndValidateBlock(handle, data_flag, 0, XFERSIZE, XFERSIZE, buffer,
+        keys.length, keys, compressions, dedup_sets, "fsd1    ", -1));
+
+    Native.freeBuffer(XFERSIZE, buffer);
+    Native.closeFile(handle);
+  }
+
+  /**
+   * Each 4k starts with the tod xor'ed with its lba.
+   */
+  public void testNoDedupWrite() throws Exception {
+    long handle = Native.openFile(file.getPath(), 1);
+    long buffer = Native.allocBuffer(XFERSIZE);
+    long before = Native.getSimpleTod();
+    assertEquals(0, Native.noDedupAndWrite(handle, XFERSIZE, XFERSIZE, buffer, -1));
+    long after = Native.getSimpleTod();
+    Native.freeBuffer(XFERSIZE, buffer);
+    Native.closeFile(handle);
+
+    byte[] data = new byte[XFERSIZE];
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    raf.seek(XFERSIZE);
+    raf.readFully(data);
+    raf.close();
+
+    ByteBuffer bb = ByteBuffer.wrap(data).order(ByteOrder.nativeOrder());
+    for (int offset = 0; offset < XFERSIZE; offset += 4096) {
+      long tod = bb.getLong(offset) ^ (XFERSIZE + offset);
+      assertTrue(tod >= before && tod <= after);
+    }
+  }
+
+  public void testLfsrSector() {
+    int[] sector = new int[128];
+    int[] expected = new int[128];
+    Native.fillLfsrSector(sector, 0x10000, 3, "fsd1    ");
+    Lfsr.fillSector(expected, 0x10000, 3, "fsd1    ");
+    assertTrue(java.util.Arrays.equals(expected, sector));
+  }
+}
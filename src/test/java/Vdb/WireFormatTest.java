@@ -0,0 +1,108 @@
+package Vdb;
+
+import java.io.*;
+import java.util.HashMap;
+
+import junit.framework.TestCase;
+
+/**
+ * Master/slave frames written by WireFormat must read back unchanged.
+ */
+public class WireFormatTest extends TestCase {
+
+  public void testVarLong() throws IOException {
+    long[] values = { 0, 1, -1, 63, -64, 64, 127, 128, 300, -300, Integer.MAX_VALUE, Integer.MIN_VALUE,
+        Long.MAX_VALUE, Long.MIN_VALUE };
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bos);
+    for (long value : values)
+      WireFormat.writeVarLong(out, value);
+    out.flush();
+
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bos.toByteArray()));
+    for (long value : values)
+      assertEquals(value, WireFormat.readVarLong(in));
+    assertEquals(0, in.available());
+  }
+
+  public void testSimpleFrames() throws Exception {
+    SocketMessage sm = roundTrip(new SocketMessage(SocketMessage.HEARTBEAT_MESSAGE), false);
+    assertEquals(SocketMessage.HEARTBEAT_MESSAGE, sm.getMessageNum());
+    assertNull(sm.getData());
+
+    sm = roundTrip(new SocketMessage(SocketMessage.CONSOLE_MESSAGE, "console é text"), false);
+    assertEquals("console é text", sm.getData());
+
+    long[] longs = { 1, -2, 3l << 40 };
+    sm = roundTrip(new SocketMessage(SocketMessage.CONSOLE_MESSAGE, longs), true);
+    assertTrue(java.util.Arrays.equals(longs, (long[]) sm.getData()));
+  }
+
+  public void testSlaveStats() throws Exception {
+    SlaveStats sts = new SlaveStats(42);
+    sts.permit_time = 12345;
+
+    SdStats sd = new SdStats();
+    sd.sd_name = "sd1";
+    sd.wd_name = null;
+    sd.reads = 1000;
+    sd.r_resptime = 123456789012l;
+    sd.r_max = -1;
+    sd.w_bytes = Long.MAX_VALUE;
+    sd.rlentime = 77;
+    sd.work_done = true;
+    sd.histogram.addToBucket(150);
+    sts.setSdStats(new SdStats[] { sd });
+
+    FwdStats tot = new FwdStats();
+    tot.read.addResp(500);
+    tot.write.addResp(70000);
+    HashMap fsd_map = new HashMap();
+    fsd_map.put("fsd1", tot);
+    sts.setSlaveIntervalStats(tot, fsd_map, new HashMap());
+
+    /* Both with and without compression: */
+    for (int i = 0; i < 2; i++) {
+      SocketMessage sm = new SocketMessage(SocketMessage.SLAVE_STATISTICS, sts);
+      sm.setInfo(99);
+      SocketMessage back = roundTrip(sm, i == 1);
+      assertEquals(99, back.getInfo());
+
+      SlaveStats got = (SlaveStats) back.getData();
+      assertEquals(42, got.getNumber());
+      assertEquals(12345, got.permit_time);
+      assertTrue(java.util.Arrays.equals(sts.getBlockCounters(), got.getBlockCounters()));
+
+      SdStats gsd = got.getSdStats()[0];
+      assertEquals("sd1", gsd.sd_name);
+      assertNull(gsd.wd_name);
+      assertEquals(1000, gsd.reads);
+      assertEquals(123456789012l, gsd.r_resptime);
+      assertEquals(-1, gsd.r_max);
+      assertEquals(Long.MAX_VALUE, gsd.w_bytes);
+      assertEquals(77, gsd.rlentime);
+      assertTrue(gsd.work_done);
+      assertEquals(sd.histogram.getTotals(), gsd.histogram.getTotals());
+
+      FwdStats gtot = got.getSlaveIntervalStats();
+      assertEquals(1, gtot.read.operations);
+      assertEquals(500, gtot.read.response);
+      assertEquals(70000, gtot.write.maxresp);
+      FwdStats gfsd = (FwdStats) got.getFsdMap().get("fsd1");
+      assertEquals(1, gfsd.write.operations);
+    }
+  }
+
+  private SocketMessage roundTrip(SocketMessage sm, boolean compress) throws Exception {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    new WireFormat().writeMessage(new DataOutputStream(bos), sm, compress);
+
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bos.toByteArray()));
+    SocketMessage back = new WireFormat().readMessage(in);
+    assertEquals(0, in.available());
+    assertEquals(sm.getMessageNum(), back.getMessageNum());
+    assertEquals(sm.getSeqno(), back.getSeqno());
+    return back;
+  }
+}